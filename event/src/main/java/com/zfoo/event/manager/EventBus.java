@@ -21,6 +21,7 @@ import com.zfoo.protocol.util.AssertionUtils;
 import com.zfoo.protocol.util.StringUtils;
 import com.zfoo.util.SafeRunnable;
 import com.zfoo.util.ThreadUtils;
+import com.zfoo.util.concurrent.MailboxExecutor;
 import com.zfoo.util.math.RandomUtils;
 import io.netty.util.concurrent.FastThreadLocalThread;
 import org.slf4j.Logger;
@@ -55,7 +56,7 @@ public abstract class EventBus {
     static {
         for (int i = 0; i < executors.length; i++) {
             var namedThreadFactory = new EventThreadFactory(i);
-            var executor = Executors.newSingleThreadExecutor(namedThreadFactory);
+            var executor = new MailboxExecutor(namedThreadFactory);
             executors[i] = executor;
         }
     }
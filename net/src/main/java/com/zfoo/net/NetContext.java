@@ -17,10 +17,12 @@ import com.zfoo.net.config.manager.IConfigManager;
 import com.zfoo.net.consumer.IConsumer;
 import com.zfoo.net.core.AbstractClient;
 import com.zfoo.net.core.AbstractServer;
+import com.zfoo.net.core.shm.ShmChannel;
 import com.zfoo.net.packet.service.IPacketService;
 import com.zfoo.net.router.IRouter;
 import com.zfoo.net.session.manager.ISessionManager;
 import com.zfoo.net.session.model.Session;
+import com.zfoo.net.task.ActorBus;
 import com.zfoo.net.task.TaskBus;
 import com.zfoo.protocol.collection.ArrayUtils;
 import com.zfoo.protocol.exception.ExceptionUtils;
@@ -114,6 +116,7 @@ public class NetContext implements ApplicationListener<ApplicationContextEvent>,
             instance.sessionManager = applicationContext.getBean(ISessionManager.class);
 
             instance.packetService.init();
+            TaskBus.initExecutorGroups();
             instance.configManager.initRegistry();
             instance.consumer.init();
 
@@ -140,6 +143,7 @@ public class NetContext implements ApplicationListener<ApplicationContextEvent>,
         // 关闭客户端和服务器
         AbstractClient.shutdown();
         AbstractServer.shutdownAllServers();
+        ShmChannel.shutdown();
 
         // 关闭TaskBus
         try {
@@ -150,6 +154,10 @@ public class NetContext implements ApplicationListener<ApplicationContextEvent>,
             for (ExecutorService executor : executors) {
                 ThreadUtils.shutdown(executor);
             }
+
+            if (TaskBus.isActorMode()) {
+                ActorBus.shutdown();
+            }
         } catch (Throwable e) {
             logger.error("Net thread pool failed shutdown: " + ExceptionUtils.getMessage(e));
             return;
@@ -17,6 +17,7 @@ package com.zfoo.net.config.model;
 import com.zfoo.protocol.registration.ProtocolModule;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -27,6 +28,36 @@ public class ConsumerConfig {
 
     private List<ConsumerModule> consumers;
 
+    /**
+     * 请求的默认超时时间（毫秒），不配置则为Router.DEFAULT_TIMEOUT
+     */
+    private String timeout;
+
+    /**
+     * 每个请求协议的超时时间（毫秒），key：协议号或者协议类的简单名称
+     */
+    private Map<String, String> timeouts;
+
+    /**
+     * 是否开启请求的微批量发送，把发往同一个session的多个请求合并成一个多包的帧，默认为false
+     */
+    private String askBatch;
+
+    /**
+     * 请求在批量队列中最多等待的时间（微秒），默认为200
+     */
+    private String askBatchWindow;
+
+    /**
+     * 一个多包的帧最多包含的请求数量，默认为32
+     */
+    private String askBatchPackets;
+
+    /**
+     * 同一个进程中的provider的调用方式，socket：经过socket；reference：直接传递包；copy：传递深拷贝的包，参考LocalBridge
+     */
+    private String localMode;
+
     public static ConsumerConfig valueOf(List<ConsumerModule> modules) {
         ConsumerConfig config = new ConsumerConfig();
         config.consumers = modules;
@@ -41,6 +72,54 @@ public class ConsumerConfig {
         this.consumers = consumers;
     }
 
+    public String getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(String timeout) {
+        this.timeout = timeout;
+    }
+
+    public Map<String, String> getTimeouts() {
+        return timeouts;
+    }
+
+    public void setTimeouts(Map<String, String> timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    public String getAskBatch() {
+        return askBatch;
+    }
+
+    public void setAskBatch(String askBatch) {
+        this.askBatch = askBatch;
+    }
+
+    public String getAskBatchWindow() {
+        return askBatchWindow;
+    }
+
+    public void setAskBatchWindow(String askBatchWindow) {
+        this.askBatchWindow = askBatchWindow;
+    }
+
+    public String getAskBatchPackets() {
+        return askBatchPackets;
+    }
+
+    public void setAskBatchPackets(String askBatchPackets) {
+        this.askBatchPackets = askBatchPackets;
+    }
+
+    public String getLocalMode() {
+        return localMode;
+    }
+
+    public void setLocalMode(String localMode) {
+        this.localMode = localMode;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
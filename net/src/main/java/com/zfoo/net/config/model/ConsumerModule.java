@@ -30,6 +30,9 @@ public class ConsumerModule {
     // 消费哪个provider
     private String consumer;
 
+    // 和每个provider建立的连接数量，不配置则为1，同一个provider被多个模块消费的时候取最大值
+    private String connection;
+
     public ConsumerModule(ProtocolModule protocolModule, String loadBalancer, String consumer) {
         this.protocolModule = protocolModule;
         this.consumer = consumer;
@@ -54,6 +57,14 @@ public class ConsumerModule {
         this.consumer = consumer;
     }
 
+    public String getConnection() {
+        return connection;
+    }
+
+    public void setConnection(String connection) {
+        this.connection = connection;
+    }
+
     public String getLoadBalancer() {
         return loadBalancer;
     }
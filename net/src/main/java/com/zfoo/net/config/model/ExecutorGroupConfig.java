@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.config.model;
+
+/**
+ * 一个独立的task线程池的配置，不配置的属性使用provider上的配置
+ * <p>
+ * modules和protocols为路由到这个线程池的协议，也可以在@PacketReceiver的executorGroup上指定
+ * <p>
+ * 同一个executorConsistentHash在不同线程池中的请求会并发执行，不再是一个actor一个线程，参考TaskBus.groups
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ExecutorGroupConfig {
+
+    private String name;
+
+    /**
+     * 线程的数量
+     */
+    private String thread;
+
+    /**
+     * 每个线程的邮箱的容量，小于等于0为无界队列
+     */
+    private String queueCapacity;
+
+    /**
+     * random，sessionId，consistent-hash
+     */
+    private String taskDispatch;
+
+    /**
+     * 逗号分隔的协议模块名称
+     */
+    private String modules;
+
+    /**
+     * 逗号分隔的协议号或者协议类的简单名称
+     */
+    private String protocols;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public void setThread(String thread) {
+        this.thread = thread;
+    }
+
+    public String getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(String queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public String getTaskDispatch() {
+        return taskDispatch;
+    }
+
+    public void setTaskDispatch(String taskDispatch) {
+        this.taskDispatch = taskDispatch;
+    }
+
+    public String getModules() {
+        return modules;
+    }
+
+    public void setModules(String modules) {
+        this.modules = modules;
+    }
+
+    public String getProtocols() {
+        return protocols;
+    }
+
+    public void setProtocols(String protocols) {
+        this.protocols = protocols;
+    }
+
+}
@@ -45,6 +45,13 @@ public class NetConfig {
     private boolean goProtocol;
     private boolean protobufProtocol;
 
+    /**
+     * 包体（packet + attachment）超过这个字节数的时候使用Deflate压缩，不配置或者小于等于0则不压缩
+     * <p>
+     * 只对服务之间的连接生效（provider的TcpServer和consumer的TcpClient），两端都需要配置；网关和其它面向客户端的连接不会压缩，也不接受压缩的帧
+     */
+    private String compressThreshold;
+
     /**
      * 注册中心
      */
@@ -206,6 +213,14 @@ public class NetConfig {
         this.goProtocol = goProtocol;
     }
 
+    public String getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(String compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -33,12 +33,77 @@ public class ProviderConfig {
      */
     private String taskDispatch;
 
+    /**
+     * consistent-hash派发的时候是否开启热点线程的再平衡，true或者false
+     */
+    private String taskRebalance;
+
     private String thread;
 
+    /**
+     * task的执行模式，lane为固定数量的线程，actor为每个executorConsistentHash一个邮箱（JDK21以上使用虚拟线程，否则使用thread个平台线程）
+     */
+    private String taskMode;
+
+    /**
+     * lane模式下syncAsk的等待方式，block为阻塞当前线程，continuation为只暂停当前actor，等待期间当前线程继续执行其它actor的任务
+     */
+    private String syncAskMode;
+
+    /**
+     * 每个task线程邮箱的容量，不配置则为无界队列
+     */
+    private String queueCapacity;
+
+    /**
+     * TaskBus的准入控制，参考TaskAdmission，不配置则不限制
+     * shedLaneDepth：单个task线程排队的任务数量；shedGlobalDepth：所有task线程排队的任务数量；shedQueueAge：任务排队的时间（毫秒）
+     * shedCritical：永远不会被拒绝的协议；shedLow：达到阈值一半就拒绝的协议，逗号分隔的协议号或者协议类的简单名称
+     */
+    private String shedLaneDepth;
+    private String shedGlobalDepth;
+    private String shedQueueAge;
+    private String shedCritical;
+    private String shedLow;
+
+    /**
+     * 发送消息的flush模式，immediate为每个包都立即flush，task为同一个task中发送的包合并到task执行完成后统一flush
+     */
+    private String flushMode;
+
+    /**
+     * task模式下，同一个session缓存的包数量，字节数，时间（毫秒）超过阈值则提前flush
+     */
+    private String flushMaxPackets;
+
+    private String flushMaxBytes;
+
+    private String flushMaxDelay;
+
+    /**
+     * channel不可写的时候，每个session的发送队列的容量，超过则断开连接，不配置则不开启发送队列
+     */
+    private String outboundCapacity;
+
+    /**
+     * 发送队列中只保留最新的一个包的协议号，用逗号分隔
+     */
+    private String outboundCoalesce;
+
+    /**
+     * 服务提供者的TcpServer使用SO_REUSEPORT绑定的channel数量，只有linux的epoll可用的时候才生效
+     */
+    private String reusePort;
+
     private String address;
 
     private List<ProviderModule> providers;
 
+    /**
+     * 独立的task线程池，慢的模块（如邮件，排行榜查询）放在自己的线程池中，不会阻塞其它模块的请求，参考TaskBus
+     */
+    private List<ExecutorGroupConfig> executorGroups;
+
     public static ProviderConfig valueOf(String address, List<ProviderModule> modules) {
         ProviderConfig config = new ProviderConfig();
         config.address = address;
@@ -63,6 +128,14 @@ public class ProviderConfig {
         this.taskDispatch = taskDispatch;
     }
 
+    public String getTaskRebalance() {
+        return taskRebalance;
+    }
+
+    public void setTaskRebalance(String taskRebalance) {
+        this.taskRebalance = taskRebalance;
+    }
+
     public String getThread() {
         return thread;
     }
@@ -71,6 +144,126 @@ public class ProviderConfig {
         this.thread = thread;
     }
 
+    public String getTaskMode() {
+        return taskMode;
+    }
+
+    public void setTaskMode(String taskMode) {
+        this.taskMode = taskMode;
+    }
+
+    public String getSyncAskMode() {
+        return syncAskMode;
+    }
+
+    public void setSyncAskMode(String syncAskMode) {
+        this.syncAskMode = syncAskMode;
+    }
+
+    public String getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(String queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public String getShedLaneDepth() {
+        return shedLaneDepth;
+    }
+
+    public void setShedLaneDepth(String shedLaneDepth) {
+        this.shedLaneDepth = shedLaneDepth;
+    }
+
+    public String getShedGlobalDepth() {
+        return shedGlobalDepth;
+    }
+
+    public void setShedGlobalDepth(String shedGlobalDepth) {
+        this.shedGlobalDepth = shedGlobalDepth;
+    }
+
+    public String getShedQueueAge() {
+        return shedQueueAge;
+    }
+
+    public void setShedQueueAge(String shedQueueAge) {
+        this.shedQueueAge = shedQueueAge;
+    }
+
+    public String getShedCritical() {
+        return shedCritical;
+    }
+
+    public void setShedCritical(String shedCritical) {
+        this.shedCritical = shedCritical;
+    }
+
+    public String getShedLow() {
+        return shedLow;
+    }
+
+    public void setShedLow(String shedLow) {
+        this.shedLow = shedLow;
+    }
+
+    public String getFlushMode() {
+        return flushMode;
+    }
+
+    public void setFlushMode(String flushMode) {
+        this.flushMode = flushMode;
+    }
+
+    public String getFlushMaxPackets() {
+        return flushMaxPackets;
+    }
+
+    public void setFlushMaxPackets(String flushMaxPackets) {
+        this.flushMaxPackets = flushMaxPackets;
+    }
+
+    public String getFlushMaxBytes() {
+        return flushMaxBytes;
+    }
+
+    public void setFlushMaxBytes(String flushMaxBytes) {
+        this.flushMaxBytes = flushMaxBytes;
+    }
+
+    public String getFlushMaxDelay() {
+        return flushMaxDelay;
+    }
+
+    public void setFlushMaxDelay(String flushMaxDelay) {
+        this.flushMaxDelay = flushMaxDelay;
+    }
+
+    public String getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    public void setOutboundCapacity(String outboundCapacity) {
+        this.outboundCapacity = outboundCapacity;
+    }
+
+    public String getOutboundCoalesce() {
+        return outboundCoalesce;
+    }
+
+    public void setOutboundCoalesce(String outboundCoalesce) {
+        this.outboundCoalesce = outboundCoalesce;
+    }
+
+    public String getReusePort() {
+        return reusePort;
+    }
+
+    public void setReusePort(String reusePort) {
+        this.reusePort = reusePort;
+    }
+
     public String getAddress() {
         return address;
     }
@@ -87,6 +280,14 @@ public class ProviderConfig {
         this.providers = providers;
     }
 
+    public List<ExecutorGroupConfig> getExecutorGroups() {
+        return executorGroups;
+    }
+
+    public void setExecutorGroups(List<ExecutorGroupConfig> executorGroups) {
+        this.executorGroups = executorGroups;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -17,7 +17,6 @@ import com.zfoo.net.NetContext;
 import com.zfoo.net.consumer.balancer.AbstractConsumerLoadBalancer;
 import com.zfoo.net.consumer.balancer.IConsumerLoadBalancer;
 import com.zfoo.net.packet.common.Error;
-import com.zfoo.net.router.Router;
 import com.zfoo.net.router.answer.AsyncAnswer;
 import com.zfoo.net.router.answer.SyncAnswer;
 import com.zfoo.net.router.attachment.NoAnswerAttachment;
@@ -25,21 +24,25 @@ import com.zfoo.net.router.attachment.SignalAttachment;
 import com.zfoo.net.router.exception.ErrorResponseException;
 import com.zfoo.net.router.exception.NetTimeOutException;
 import com.zfoo.net.router.exception.UnexpectedProtocolException;
+import com.zfoo.net.router.route.Deadline;
 import com.zfoo.net.router.route.SignalBridge;
+import com.zfoo.net.task.TaskBus;
 import com.zfoo.protocol.IPacket;
 import com.zfoo.protocol.ProtocolManager;
 import com.zfoo.protocol.collection.CollectionUtils;
+import com.zfoo.protocol.exception.RunException;
 import com.zfoo.protocol.registration.ProtocolModule;
 import com.zfoo.protocol.util.JsonUtils;
 import com.zfoo.protocol.util.StringUtils;
 import com.zfoo.util.math.HashUtils;
+import com.zfoo.util.math.NumberUtils;
 import com.zfoo.util.math.RandomUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -66,6 +69,32 @@ public class Consumer implements IConsumer {
         for (var consumer : consumers) {
             consumerLoadBalancerMap.put(consumer.getProtocolModule(), AbstractConsumerLoadBalancer.valueOf(consumer.getLoadBalancer()));
         }
+
+        // 请求的超时时间
+        if (StringUtils.isNotBlank(consumerConfig.getTimeout())) {
+            SignalBridge.setDefaultTimeout(Long.parseLong(consumerConfig.getTimeout()));
+        }
+        if (CollectionUtils.isNotEmpty(consumerConfig.getTimeouts())) {
+            for (var entry : consumerConfig.getTimeouts().entrySet()) {
+                var protocolId = protocolIdOf(entry.getKey());
+                SignalBridge.setTimeout(protocolId, Long.parseLong(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * @param protocol 协议号或者协议类的简单名称
+     */
+    private short protocolIdOf(String protocol) {
+        if (NumberUtils.isInteger(protocol)) {
+            return Short.parseShort(protocol);
+        }
+        for (var protocolRegistration : ProtocolManager.protocols) {
+            if (protocolRegistration != null && protocolRegistration.protocolConstructor().getDeclaringClass().getSimpleName().equals(protocol)) {
+                return protocolRegistration.protocolId();
+            }
+        }
+        throw new RunException("consumer timeout can not find protocol:[{}]", protocol);
     }
 
     @Override
@@ -79,7 +108,7 @@ public class Consumer implements IConsumer {
             var loadBalancer = loadBalancer(ProtocolManager.moduleByProtocolId(packet.protocolId()));
             var session = loadBalancer.loadBalancer(packet, argument);
             var executorConsistentHash = (argument == null) ? RandomUtils.randomInt() : HashUtils.fnvHash(argument);
-            NetContext.getRouter().send(session, packet, NoAnswerAttachment.valueOf(executorConsistentHash));
+            NetContext.getRouter().send(AbstractConsumerLoadBalancer.stripe(session, executorConsistentHash), packet, NoAnswerAttachment.valueOf(executorConsistentHash));
         } catch (Throwable t) {
             logger.error("consumer发送未知异常", t);
         }
@@ -95,6 +124,10 @@ public class Consumer implements IConsumer {
         var clientSignalAttachment = new SignalAttachment();
         var executorConsistentHash = (argument == null) ? RandomUtils.randomInt() : HashUtils.fnvHash(argument);
         clientSignalAttachment.setExecutorConsistentHash(executorConsistentHash);
+        var responseFuture = new CompletableFuture<IPacket>();
+        clientSignalAttachment.setResponseFuture(responseFuture);
+        var deadline = Deadline.askDeadline(SignalBridge.timeout(packet.protocolId()));
+        clientSignalAttachment.setDeadline(deadline);
 
         try {
             SignalBridge.addSignalAttachment(clientSignalAttachment);
@@ -102,9 +135,10 @@ public class Consumer implements IConsumer {
             // load balancer之前调用
             loadBalancer.beforeLoadBalancer(session, packet, clientSignalAttachment);
 
-            NetContext.getRouter().send(session, packet, clientSignalAttachment);
+            // 负载均衡器统计的是服务提供者，只有发送的时候才选择具体的连接
+            NetContext.getRouter().send(AbstractConsumerLoadBalancer.stripe(session, executorConsistentHash), packet, clientSignalAttachment);
 
-            IPacket responsePacket = clientSignalAttachment.getResponseFuture().get(Router.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+            IPacket responsePacket = TaskBus.await(responseFuture, Deadline.remaining(deadline));
 
             if (responsePacket.protocolId() == Error.errorProtocolId()) {
                 throw new ErrorResponseException((Error) responsePacket);
@@ -113,16 +147,15 @@ public class Consumer implements IConsumer {
                 throw new UnexpectedProtocolException(StringUtils.format("client expect protocol:[{}], but found protocol:[{}]"
                         , answerClass, responsePacket.getClass().getName()));
             }
-            var syncAnswer = new SyncAnswer<>((T) responsePacket, clientSignalAttachment);
-
-            // load balancer之后调用
-            loadBalancer.afterLoadBalancer(session, packet, clientSignalAttachment);
-            return syncAnswer;
+            return new SyncAnswer<>((T) responsePacket, clientSignalAttachment);
         } catch (TimeoutException e) {
             throw new NetTimeOutException(StringUtils.format("syncAsk timeout exception, ask:[{}], attachment:[{}]"
                     , JsonUtils.object2String(packet), JsonUtils.object2String(clientSignalAttachment)));
         } finally {
             SignalBridge.removeSignalAttachment(clientSignalAttachment);
+
+            // load balancer之后调用，收到回复或者超时都会调用
+            loadBalancer.afterLoadBalancer(session, packet, clientSignalAttachment);
         }
     }
 
@@ -130,13 +163,14 @@ public class Consumer implements IConsumer {
     public <T extends IPacket> AsyncAnswer<T> asyncAsk(IPacket packet, Class<T> answerClass, Object argument) {
         var loadBalancer = loadBalancer(ProtocolManager.moduleByProtocolId(packet.protocolId()));
         var session = loadBalancer.loadBalancer(packet, argument);
-        var asyncAnswer = NetContext.getRouter().asyncAsk(session, packet, answerClass, argument);
+        var stripeHash = (argument == null) ? RandomUtils.randomInt() : HashUtils.fnvHash(argument);
+        var asyncAnswer = NetContext.getRouter().asyncAsk(AbstractConsumerLoadBalancer.stripe(session, stripeHash), packet, answerClass, argument);
 
         // load balancer之前调用
         loadBalancer.beforeLoadBalancer(session, packet, asyncAnswer.getSignalAttachment());
 
-        // load balancer之后调用
-        asyncAnswer.thenAccept(responsePacket -> loadBalancer.afterLoadBalancer(session, packet, asyncAnswer.getSignalAttachment()));
+        // load balancer之后调用，收到回复或者超时都会调用
+        asyncAnswer.setCompleteCallback(() -> loadBalancer.afterLoadBalancer(session, packet, asyncAnswer.getSignalAttachment()));
         return asyncAnswer;
     }
 
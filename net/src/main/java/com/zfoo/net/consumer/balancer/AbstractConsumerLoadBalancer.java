@@ -19,14 +19,15 @@ import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.session.model.Session;
 import com.zfoo.protocol.IPacket;
 import com.zfoo.protocol.ProtocolManager;
-import com.zfoo.protocol.model.Pair;
 import com.zfoo.protocol.registration.ProtocolModule;
 import com.zfoo.protocol.util.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * @author jaysunxiao
@@ -46,52 +47,187 @@ public abstract class AbstractConsumerLoadBalancer implements IConsumerLoadBalan
             case "shortest-time":
                 balancer = ShortestTimeConsumerLoadBalancer.getInstance();
                 break;
+            case "ewma":
+                balancer = EwmaConsumerLoadBalancer.getInstance();
+                break;
             default:
                 throw new RuntimeException(StringUtils.format("无法识别负载均衡器[{}]", loadBalancer));
         }
         return balancer;
     }
 
+    private static final Session[] EMPTY_SESSIONS = new Session[0];
+
+    /**
+     * 路由表快照，只有在clientSessionChangeId变化的时候才重新生成，然后原子的替换，发送的时候不需要遍历所有的session也不会创建对象
+     */
+    private static class RouteSnapshot {
+        private final int clientSessionChangeId;
+
+        /**
+         * index：ProtocolModule的id，value：提供这个模块的服务提供者，按照sid排序
+         * <p>
+         * 和同一个服务提供者有多个连接的时候，只放入序号最小的连接，负载均衡器只需要选择服务提供者
+         */
+        private final Session[][] moduleSessions;
+
+        /**
+         * key：服务提供者的RegisterVO（同一个服务提供者的所有连接共享同一个RegisterVO对象），value：按照序号排列的所有连接，断开的序号用后面的连接补齐
+         * <p>
+         * 只有多个连接的服务提供者才会放入
+         */
+        private final IdentityHashMap<Object, Session[]> providerStripes;
+
+        private RouteSnapshot(int clientSessionChangeId, Session[][] moduleSessions, IdentityHashMap<Object, Session[]> providerStripes) {
+            this.clientSessionChangeId = clientSessionChangeId;
+            this.moduleSessions = moduleSessions;
+            this.providerStripes = providerStripes;
+        }
+    }
+
+    private static volatile RouteSnapshot routeSnapshot = new RouteSnapshot(0, new Session[0][], new IdentityHashMap<>());
+
     public List<Session> getSessionsByPacket(IPacket packet) {
         return getSessionsByModule(ProtocolManager.moduleByProtocolId(packet.protocolId()));
     }
 
+    /**
+     * 返回的列表不能修改，发送消息的时候优先使用sessionsByModule
+     */
     public List<Session> getSessionsByModule(ProtocolModule module) {
-        var clientSessionMap = NetContext.getSessionManager().getClientSessionMap();
-        var sessions = clientSessionMap.values().stream()
-                .filter(it -> {
-                    var attribute = it.getAttribute(AttributeType.CONSUMER);
-                    if (Objects.nonNull(attribute)) {
-                        var registerVO = (RegisterVO) attribute;
-                        return Objects.nonNull(registerVO.getProviderConfig()) && registerVO.getProviderConfig().getProviders().stream().anyMatch(provider -> provider.getProtocolModule().equals(module));
-                    } else {
-                        return false;
-                    }
-                })
-                .collect(Collectors.toList());
-        return sessions;
+        return Arrays.asList(sessionsByModule(module));
+    }
+
+    /**
+     * 提供这个模块的所有服务提供者，返回的是快照中的数组，调用者不能修改
+     */
+    public Session[] sessionsByModule(ProtocolModule module) {
+        var moduleSessions = currentRouteSnapshot().moduleSessions;
+        var moduleId = module.getId();
+        return moduleId < moduleSessions.length ? moduleSessions[moduleId] : EMPTY_SESSIONS;
+    }
+
+    /**
+     * 和负载均衡器选出的服务提供者有多个连接的时候，通过executorConsistentHash选择其中一个连接
+     * <p>
+     * 同一个actor的消息总是走同一个连接，保证了顺序，不同actor的消息的编解码和io分散到多个连接的EventLoop上
+     */
+    public static Session stripe(Session session, int executorConsistentHash) {
+        var providerStripes = currentRouteSnapshot().providerStripes;
+        if (providerStripes.isEmpty()) {
+            return session;
+        }
+        var attribute = session.getAttribute(AttributeType.CONSUMER);
+        if (attribute == null) {
+            return session;
+        }
+        var stripes = providerStripes.get(attribute);
+        if (stripes == null) {
+            return session;
+        }
+        return stripes[Math.abs(executorConsistentHash % stripes.length)];
+    }
+
+    public static int stripeOf(Session session) {
+        Integer stripe = session.getAttribute(AttributeType.CONSUMER_STRIPE);
+        return stripe == null ? 0 : stripe;
     }
 
-    public List<Session> sessionsByModule(ProtocolModule module) {
+    private static RouteSnapshot currentRouteSnapshot() {
+        var snapshot = routeSnapshot;
+        var changeId = NetContext.getSessionManager().getClientSessionChangeId();
+        if (snapshot.clientSessionChangeId != changeId) {
+            snapshot = rebuildRouteSnapshot(changeId);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 多个线程同时重新生成的结果是一样的，旧的快照被后发布的时候，下一次调用会因为changeId不相等再次生成
+     */
+    private static RouteSnapshot rebuildRouteSnapshot(int clientSessionChangeId) {
+        // 先把同一个服务提供者的多个连接放在一起
+        var providerSessionMap = new IdentityHashMap<RegisterVO, List<Session>>();
         var clientSessionMap = NetContext.getSessionManager().getClientSessionMap();
-        var sessions = new ArrayList<Session>();
-        for(var clientSession : clientSessionMap.values()) {
+        for (var clientSession : clientSessionMap.values()) {
             var attribute = clientSession.getAttribute(AttributeType.CONSUMER);
             if (attribute == null) {
                 continue;
             }
 
             var registerVO = (RegisterVO) attribute;
-            var providerConfig = registerVO.getProviderConfig();
-            if (providerConfig == null) {
+            if (registerVO.getProviderConfig() == null) {
+                continue;
+            }
+            providerSessionMap.computeIfAbsent(registerVO, it -> new ArrayList<>()).add(clientSession);
+        }
+
+        var moduleSessionLists = new List[ProtocolManager.MAX_MODULE_NUM];
+        var providerStripes = new IdentityHashMap<Object, Session[]>();
+        for (var entry : providerSessionMap.entrySet()) {
+            var registerVO = entry.getKey();
+            var sessionList = entry.getValue();
+            sessionList.sort(Comparator.comparingInt(AbstractConsumerLoadBalancer::stripeOf).thenComparingLong(Session::getSid));
+
+            var provider = sessionList.get(0);
+            for (var providerModule : registerVO.getProviderConfig().getProviders()) {
+                var moduleId = providerModule.getProtocolModule().getId();
+                var moduleSessionList = (List<Session>) moduleSessionLists[moduleId];
+                if (moduleSessionList == null) {
+                    moduleSessionList = new ArrayList<>();
+                    moduleSessionLists[moduleId] = moduleSessionList;
+                }
+                if (!moduleSessionList.contains(provider)) {
+                    moduleSessionList.add(provider);
+                }
+            }
+
+            if (sessionList.size() > 1) {
+                providerStripes.put(registerVO, toStripes(sessionList));
+            }
+        }
+
+        var moduleSessions = new Session[ProtocolManager.MAX_MODULE_NUM][];
+        for (var i = 0; i < moduleSessions.length; i++) {
+            var sessionList = (List<Session>) moduleSessionLists[i];
+            if (sessionList == null) {
+                moduleSessions[i] = EMPTY_SESSIONS;
                 continue;
             }
+            var sessions = sessionList.toArray(EMPTY_SESSIONS);
+            Arrays.sort(sessions, Comparator.comparingLong(Session::getSid));
+            moduleSessions[i] = sessions;
+        }
+
+        var snapshot = new RouteSnapshot(clientSessionChangeId, moduleSessions, providerStripes);
+        routeSnapshot = snapshot;
+        return snapshot;
+    }
 
-            if (providerConfig.getProviders().stream().anyMatch(it -> it.getProtocolModule().getId() == module.getId())) {
-                sessions.add(clientSession);
+    /**
+     * 数组的长度为最大的序号加1，某个序号的连接断开重连的时候，只有这个序号上的actor会临时改走后面的连接，其它actor的连接不变
+     */
+    private static Session[] toStripes(List<Session> sortedSessions) {
+        var stripes = new Session[stripeOf(sortedSessions.get(sortedSessions.size() - 1)) + 1];
+        for (var session : sortedSessions) {
+            var stripe = stripeOf(session);
+            if (stripes[stripe] == null) {
+                stripes[stripe] = session;
+            }
+        }
+        for (var i = 0; i < stripes.length; i++) {
+            if (stripes[i] != null) {
+                continue;
+            }
+            for (var j = 1; j < stripes.length; j++) {
+                var next = stripes[(i + j) % stripes.length];
+                if (next != null) {
+                    stripes[i] = next;
+                    break;
+                }
             }
         }
-        return sessions;
+        return stripes;
     }
 
 
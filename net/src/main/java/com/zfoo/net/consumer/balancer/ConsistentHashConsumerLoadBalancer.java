@@ -22,7 +22,7 @@ import com.zfoo.protocol.collection.CollectionUtils;
 import com.zfoo.protocol.exception.RunException;
 import com.zfoo.protocol.model.Pair;
 import com.zfoo.protocol.registration.ProtocolModule;
-import com.zfoo.util.math.ConsistentHash;
+import com.zfoo.util.math.ConsistentHashRing;
 import org.springframework.lang.Nullable;
 
 import java.util.HashSet;
@@ -43,7 +43,7 @@ public class ConsistentHashConsumerLoadBalancer extends AbstractConsumerLoadBala
     public static final ConsistentHashConsumerLoadBalancer INSTANCE = new ConsistentHashConsumerLoadBalancer();
 
     private volatile int lastClientSessionChangeId = 0;
-    private static final Map<ProtocolModule, ConsistentHash<String, Long>> consistentHashMap = new ConcurrentHashMap<>();
+    private static final Map<ProtocolModule, ConsistentHashRing<String, Long>> consistentHashMap = new ConcurrentHashMap<>();
     private static final int VIRTUAL_NODE_NUMS = 200;
 
     private ConsistentHashConsumerLoadBalancer() {
@@ -65,7 +65,17 @@ public class ConsistentHashConsumerLoadBalancer extends AbstractConsumerLoadBala
         if (argument == null) {
             return RandomConsumerLoadBalancer.getInstance().loadBalancer(packet, argument);
         }
+        return loadBalancer(packet.protocolId(), argument);
+    }
 
+    /**
+     * 网关透传的时候没有解码包体，只能通过协议号选择服务提供者
+     *
+     * @param protocolId 请求包的协议号
+     * @param argument   参数，一般要能代表唯一性，比如用户的id，不能为null
+     * @return 调用的session
+     */
+    public Session loadBalancer(short protocolId, Object argument) {
         // 如果更新时间不匹配，则更新到最新的服务提供者
         var currentClientSessionChangeId = NetContext.getSessionManager().getClientSessionChangeId();
         if (currentClientSessionChangeId != lastClientSessionChangeId) {
@@ -78,13 +88,13 @@ public class ConsistentHashConsumerLoadBalancer extends AbstractConsumerLoadBala
             lastClientSessionChangeId = currentClientSessionChangeId;
         }
 
-        var module = ProtocolManager.moduleByProtocolId(packet.protocolId());
+        var module = ProtocolManager.moduleByProtocolId(protocolId);
         var consistentHash = consistentHashMap.get(module);
         if (consistentHash == null) {
             consistentHash = updateModuleToConsistentHash(module);
         }
-        if (consistentHash == null) {
-            throw new RunException("一致性hash负载均衡[protocolId:{}]参数[argument:{}],没有服务提供者提供服务[module:{}]", packet.protocolId(), argument, module);
+        if (consistentHash == null || consistentHash.size() == 0) {
+            throw new RunException("一致性hash负载均衡[protocolId:{}]参数[argument:{}],没有服务提供者提供服务[module:{}]", protocolId, argument, module);
         }
         var sid = consistentHash.getRealNode(argument).getValue();
         return NetContext.getSessionManager().getClientSession(sid);
@@ -93,7 +103,7 @@ public class ConsistentHashConsumerLoadBalancer extends AbstractConsumerLoadBala
 
 
     @Nullable
-    private ConsistentHash<String, Long> updateModuleToConsistentHash(ProtocolModule module) {
+    private ConsistentHashRing<String, Long> updateModuleToConsistentHash(ProtocolModule module) {
         var sessionStringList = getSessionsByModule(module)
                 .stream()
                 .map(session -> new Pair<>(session.getAttribute(AttributeType.CONSUMER).toString(), session.getSid()))
@@ -105,7 +115,7 @@ public class ConsistentHashConsumerLoadBalancer extends AbstractConsumerLoadBala
             return null;
         }
 
-        var consistentHash = new ConsistentHash<>(sessionStringList, VIRTUAL_NODE_NUMS);
+        var consistentHash = new ConsistentHashRing<>(sessionStringList, VIRTUAL_NODE_NUMS);
         consistentHashMap.put(module, consistentHash);
         return consistentHash;
     }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.consumer.balancer;
+
+import com.zfoo.net.packet.common.Error;
+import com.zfoo.net.router.attachment.SignalAttachment;
+import com.zfoo.net.router.route.SignalBridge;
+import com.zfoo.net.session.model.AttributeType;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.protocol.IPacket;
+import com.zfoo.protocol.ProtocolManager;
+import com.zfoo.protocol.exception.RunException;
+import com.zfoo.util.math.RandomUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟感知的负载均衡器，配置为ewma
+ * <p>
+ * 1. 每个服务提供者的每个请求协议都记录了响应时间的EWMA（指数加权移动平均）和正在处理的请求数量，全部使用原始类型的数组保存
+ * 2. 使用power-of-two-choices选择服务提供者：随机选择两个服务提供者，选择负载（EWMA * (正在处理的请求数量 + 1)）小的那个，时间复杂度O(1)
+ * 3. 返回Error或者超时的服务提供者会被惩罚，EWMA会按照半衰期衰减，被惩罚的服务提供者空闲一段时间后可以重新被选中
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class EwmaConsumerLoadBalancer extends AbstractConsumerLoadBalancer {
+
+    private static final EwmaConsumerLoadBalancer INSTANCE = new EwmaConsumerLoadBalancer();
+
+    /**
+     * EWMA的平滑系数，新的样本占的比重
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * EWMA的半衰期，一个服务提供者的协议没有新的样本时，每经过一个半衰期EWMA减半
+     */
+    private static final long HALF_LIFE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * 返回Error的惩罚倍数
+     */
+    private static final int ERROR_PENALTY = 4;
+
+    /**
+     * 协议号到紧凑下标的映射，-1表示没有分配下标，只为注册过的协议分配下标
+     * <p>
+     * 第一次使用的时候才生成，遇到没有分配下标的协议时重新生成，已经分配的下标不会改变，所以不依赖协议注册和类加载的先后顺序
+     */
+    private static volatile short[] protocolIndexes = null;
+    private static int protocolSize = 0;
+
+    private static int protocolIndex(short protocolId) {
+        var indexes = protocolIndexes;
+        if (indexes != null && indexes[protocolId] >= 0) {
+            return indexes[protocolId];
+        }
+        synchronized (EwmaConsumerLoadBalancer.class) {
+            indexes = protocolIndexes;
+            if (indexes == null || indexes[protocolId] < 0) {
+                var newIndexes = new short[ProtocolManager.MAX_PROTOCOL_NUM];
+                if (indexes == null) {
+                    Arrays.fill(newIndexes, (short) -1);
+                } else {
+                    System.arraycopy(indexes, 0, newIndexes, 0, indexes.length);
+                }
+                for (var protocolRegistration : ProtocolManager.protocols) {
+                    if (protocolRegistration != null && newIndexes[protocolRegistration.protocolId()] < 0) {
+                        newIndexes[protocolRegistration.protocolId()] = (short) protocolSize++;
+                    }
+                }
+                protocolIndexes = indexes = newIndexes;
+            }
+        }
+        if (indexes[protocolId] < 0) {
+            throw new RunException("ewma负载均衡的协议[protocolId:{}]没有注册", protocolId);
+        }
+        return indexes[protocolId];
+    }
+
+    /**
+     * 一个服务提供者session的一组统计数组，index为协议的紧凑下标
+     */
+    private static class Slots {
+        /**
+         * 响应时间的EWMA（纳秒），0表示还没有样本。多个线程同时更新的时候可能丢失一个样本，对EWMA没有影响
+         */
+        private final AtomicLongArray ewmaNanos;
+        private final AtomicLongArray updateNanos;
+
+        /**
+         * 已经发送还没有收到回复的请求数量
+         */
+        private final AtomicIntegerArray inflights;
+
+        private Slots(int size) {
+            this.ewmaNanos = new AtomicLongArray(size);
+            this.updateNanos = new AtomicLongArray(size);
+            this.inflights = new AtomicIntegerArray(size);
+        }
+    }
+
+    /**
+     * 一个服务提供者session的统计，协议注册之后分配了新的下标时统计数组会扩容
+     */
+    private static class LatencyStats {
+        private volatile Slots slots = new Slots(0);
+
+        private Slots slots(int index) {
+            var current = slots;
+            if (index < current.inflights.length()) {
+                return current;
+            }
+            synchronized (this) {
+                current = slots;
+                if (index >= current.inflights.length()) {
+                    var newSlots = new Slots(Math.max(index + 1, protocolSize));
+                    for (var i = 0; i < current.inflights.length(); i++) {
+                        newSlots.ewmaNanos.set(i, current.ewmaNanos.get(i));
+                        newSlots.updateNanos.set(i, current.updateNanos.get(i));
+                        newSlots.inflights.set(i, current.inflights.get(i));
+                    }
+                    slots = current = newSlots;
+                }
+            }
+            return current;
+        }
+
+        private long ewma(int index, long now) {
+            var current = slots(index);
+            var ewma = current.ewmaNanos.get(index);
+            if (ewma <= 0) {
+                return 0;
+            }
+            // 按照半衰期衰减，防止被惩罚的服务提供者再也不会被选中
+            var halfLives = (now - current.updateNanos.get(index)) / HALF_LIFE_NANOS;
+            return halfLives >= Long.SIZE ? 0 : ewma >> halfLives;
+        }
+
+        private long cost(int index, long now) {
+            // 没有样本的服务提供者优先被选中，用来探测它的响应时间
+            return Math.max(ewma(index, now), 1) * (slots(index).inflights.get(index) + 1);
+        }
+
+        private void update(int index, long sample, long now) {
+            var ewma = ewma(index, now);
+            var newEwma = ewma <= 0 ? sample : (long) (ewma + ALPHA * (sample - ewma));
+            var current = slots(index);
+            current.ewmaNanos.set(index, Math.max(newEwma, 1));
+            current.updateNanos.set(index, now);
+        }
+    }
+
+    private EwmaConsumerLoadBalancer() {
+    }
+
+    public static EwmaConsumerLoadBalancer getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public Session loadBalancer(IPacket packet, Object argument) {
+        var module = ProtocolManager.moduleByProtocolId(packet.protocolId());
+        var sessions = sessionsByModule(module);
+
+        var size = sessions.length;
+        if (size == 0) {
+            throw new RunException("ewma负载均衡[protocolId:{}]参数[argument:{}],没有服务提供者提供服务[module:{}]", packet.protocolId(), argument, module);
+        }
+        if (size == 1) {
+            return sessions[0];
+        }
+
+        // 随机选择两个不同的服务提供者
+        var random = RandomUtils.getRandom();
+        var i = random.nextInt(size);
+        var j = random.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+
+        var a = sessions[i];
+        var b = sessions[j];
+        var index = protocolIndex(packet.protocolId());
+        var now = System.nanoTime();
+        return latencyStats(a).cost(index, now) <= latencyStats(b).cost(index, now) ? a : b;
+    }
+
+    @Override
+    public void beforeLoadBalancer(Session session, IPacket packet, SignalAttachment attachment) {
+        // EWMA负载均衡器中timestamp记录的是发送时的纳秒时间
+        attachment.setTimestamp(System.nanoTime());
+        var index = protocolIndex(packet.protocolId());
+        latencyStats(session).slots(index).inflights.incrementAndGet(index);
+    }
+
+    /**
+     * 收到回复或者超时都会调用，超时的时候responsePacket为null
+     */
+    @Override
+    public void afterLoadBalancer(Session session, IPacket packet, SignalAttachment attachment) {
+        var stats = latencyStats(session);
+        var index = protocolIndex(packet.protocolId());
+        var now = System.nanoTime();
+        stats.slots(index).inflights.decrementAndGet(index);
+
+        var sample = now - attachment.getTimestamp();
+        var response = attachment.getResponsePacket();
+        if (response == null) {
+            // 超时，使用两倍的超时时间作为样本
+            sample = Math.max(sample, TimeUnit.MILLISECONDS.toNanos(SignalBridge.timeout(packet.protocolId()))) << 1;
+        } else if (response.protocolId() == Error.errorProtocolId()) {
+            sample = Math.max(sample, stats.ewma(index, now)) * ERROR_PENALTY;
+        }
+        stats.update(index, sample, now);
+    }
+
+    private LatencyStats latencyStats(Session session) {
+        LatencyStats stats = session.getAttribute(AttributeType.LATENCY_STATS);
+        if (stats != null) {
+            return stats;
+        }
+        stats = new LatencyStats();
+        LatencyStats oldStats = session.putAttributeIfAbsent(AttributeType.LATENCY_STATS, stats);
+        return oldStats == null ? stats : oldStats;
+    }
+
+}
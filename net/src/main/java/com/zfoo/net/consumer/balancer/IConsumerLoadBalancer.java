@@ -36,6 +36,9 @@ public interface IConsumerLoadBalancer {
     default void beforeLoadBalancer(Session session, IPacket packet, SignalAttachment attachment) {
     }
 
+    /**
+     * 收到回复或者超时的时候调用，超时的时候attachment.getResponsePacket()为null
+     */
     default void afterLoadBalancer(Session session, IPacket packet, SignalAttachment attachment) {
     }
 
@@ -39,9 +39,9 @@ public class RandomConsumerLoadBalancer extends AbstractConsumerLoadBalancer {
     @Override
     public Session loadBalancer(IPacket packet, Object argument) {
         var module = ProtocolManager.moduleByProtocolId(packet.protocolId());
-        var sessions = getSessionsByModule(module);
+        var sessions = sessionsByModule(module);
 
-        if (sessions.isEmpty()) {
+        if (sessions.length == 0) {
             throw new RunException("一致性hash负载均衡[protocolId:{}]参数[argument:{}],没有服务提供者提供服务[module:{}]", packet.protocolId(), argument, module);
         }
 
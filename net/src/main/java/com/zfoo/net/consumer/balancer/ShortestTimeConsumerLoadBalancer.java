@@ -13,6 +13,7 @@
 
 package com.zfoo.net.consumer.balancer;
 
+import com.zfoo.net.packet.common.Error;
 import com.zfoo.net.router.attachment.SignalAttachment;
 import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.session.model.Session;
@@ -81,6 +82,11 @@ public class ShortestTimeConsumerLoadBalancer extends AbstractConsumerLoadBalanc
 
     @Override
     public void afterLoadBalancer(Session session, IPacket packet, SignalAttachment attachment) {
+        // 只记录正常回复的响应时间，超时和Error不记录
+        var responsePacket = attachment.getResponsePacket();
+        if (responsePacket == null || responsePacket.protocolId() == Error.errorProtocolId()) {
+            return;
+        }
         var map = (Map<Short, Long>) session.getAttribute(AttributeType.RESPONSE_TIME);
         if (map == null) {
             map = new ConcurrentHashMap<>();
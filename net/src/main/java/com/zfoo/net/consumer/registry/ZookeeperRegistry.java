@@ -15,12 +15,15 @@ package com.zfoo.net.consumer.registry;
 
 import com.zfoo.event.manager.EventBus;
 import com.zfoo.net.NetContext;
+import com.zfoo.net.consumer.balancer.AbstractConsumerLoadBalancer;
 import com.zfoo.net.consumer.event.ConsumerStartEvent;
 import com.zfoo.net.core.tcp.TcpClient;
 import com.zfoo.net.core.tcp.TcpServer;
+import com.zfoo.net.router.route.LocalBridge;
 import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.util.SessionUtils;
 import com.zfoo.protocol.collection.ArrayUtils;
+import com.zfoo.protocol.collection.CollectionUtils;
 import com.zfoo.protocol.collection.concurrent.ConcurrentArrayList;
 import com.zfoo.protocol.collection.concurrent.ConcurrentHashSet;
 import com.zfoo.protocol.exception.ExceptionUtils;
@@ -78,6 +81,11 @@ public class ZookeeperRegistry implements IRegistry {
 
     private static final long RETRY_SECONDS = 5;
 
+    /**
+     * 连接自己进程中的provider的时候，等待LocalBridge配对的时间（毫秒）
+     */
+    private static final long LOCAL_PEER_TIMEOUT = 3000;
+
     private static final ExecutorService executor = Executors.newSingleThreadExecutor(new ConfigThreadFactory());
 
     private static class ConfigThreadFactory implements ThreadFactory {
@@ -158,6 +166,11 @@ public class ZookeeperRegistry implements IRegistry {
         // 服务提供者也仅仅是一个TcpServer
         // 这里可以看出并没有指定接口，是找一个可用的端口
         var providerServer = new TcpServer(providerConfig.localHostAndPortOrDefault());
+        providerServer.setCompress(true);
+        providerServer.setBatch(true);
+        if (StringUtils.isNotBlank(providerConfig.getReusePort())) {
+            providerServer.setReusePort(Integer.parseInt(providerConfig.getReusePort()));
+        }
         providerServer.start();
     }
 
@@ -467,32 +480,58 @@ public class ZookeeperRegistry implements IRegistry {
                     })
                     .collect(Collectors.toList());
 
-            if (consumerClientList.size() == 1) {
-                var consumer = consumerClientList.get(0);
-                if (SessionUtils.isActive(consumer)) {
+            // 和同一个服务提供者可以建立多个连接，每个序号（stripe）一个连接，参考AbstractConsumerLoadBalancer.stripe
+            var connectionNum = connectionNum(providerCache);
+            for (var stripe = 0; stripe < connectionNum; stripe++) {
+                var currentStripe = stripe;
+                var stripeClientList = consumerClientList.stream()
+                        .filter(it -> AbstractConsumerLoadBalancer.stripeOf(it) == currentStripe)
+                        .collect(Collectors.toList());
+
+                if (stripeClientList.size() == 1) {
+                    var consumer = stripeClientList.get(0);
+                    if (SessionUtils.isActive(consumer)) {
+                        continue;
+                    } else {
+                        recheckFlag = true;
+                        NetContext.getSessionManager().removeClientSession(consumer);
+                        logger.error("[consumer:{}]失去连接，从clientSession中移除", consumer);
+                        continue;
+                    }
+                } else if (stripeClientList.size() > 1) {
+                    logger.error("[consumerClientList:{}]中有多个重复的[RegisterVO:{}][stripe:{}]", stripeClientList, providerCache, stripe);
                     continue;
-                } else {
+                }
+
+                // 自己作为消费者，要创建一个TcpClient去连接服务提供者
+                var client = new TcpClient(HostAndPort.valueOf(providerCache.getProviderConfig().getAddress()));
+                client.setCompress(true);
+                client.setBatch(true);
+                var session = client.start();
+
+                // 自己作为消费者，使用TcpClient连接服务提供者不成功
+                if (Objects.isNull(session)) {
+                    logger.error("[consumer:{}][stripe:{}]启动失败，等待[{}]秒，重新检查consumer", providerCache, stripe, RETRY_SECONDS);
                     recheckFlag = true;
-                    NetContext.getSessionManager().removeClientSession(consumer);
-                    logger.error("[consumer:{}]失去连接，从clientSession中移除", consumer);
                     continue;
                 }
-            } else if (consumerClientList.size() > 1) {
-                logger.error("[consumerClientList:{}]中有多个重复的[RegisterVO:{}]", consumerClientList, providerCache);
-                continue;
-            }
 
-            // 自己作为消费者，要创建一个TcpClient去连接服务提供者
-            var client = new TcpClient(HostAndPort.valueOf(providerCache.getProviderConfig().getAddress()));
-            var session = client.start();
+                // 连接的是自己进程中的provider，在路由表中可见之前完成配对，之后的包不会和socket中的包乱序
+                if (LocalBridge.isEnable() && isLocalProvider(providerCache) && !LocalBridge.awaitPeer(session, LOCAL_PEER_TIMEOUT)) {
+                    logger.warn("[consumer:{}][stripe:{}] can not link to provider in the same process, use socket instead", providerCache, stripe);
+                }
 
-            // 自己作为消费者，使用TcpClient连接服务提供者不成功
-            if (Objects.isNull(session)) {
-                logger.error("[consumer:{}]启动失败，等待[{}]秒，重新检查consumer", providerCache, RETRY_SECONDS);
-                recheckFlag = true;
-            } else {
-                // 连接上了服务提供者
+                // 连接上了服务提供者，先设置序号再设置CONSUMER，路由表中不会出现没有序号的连接
+                if (stripe > 0) {
+                    session.putAttribute(AttributeType.CONSUMER_STRIPE, stripe);
+                }
                 session.putAttribute(AttributeType.CONSUMER, providerCache);
+                NetContext.getSessionManager().updateClientSessionChangeId();
+
+                // 其它的连接只是分担流量，只有第一个连接会通知上层和写入zookeeper
+                if (stripe > 0) {
+                    continue;
+                }
                 EventBus.asyncSubmit(ConsumerStartEvent.valueOf(providerCache, session));
 
                 try {
@@ -519,6 +558,30 @@ public class ZookeeperRegistry implements IRegistry {
         }
     }
 
+    private boolean isLocalProvider(RegisterVO providerCache) {
+        var providerConfig = NetContext.getConfigManager().getLocalConfig().getProvider();
+        return providerConfig != null && Objects.equals(providerConfig.getAddress(), providerCache.getProviderConfig().getAddress());
+    }
+
+    /**
+     * 本地消费这个服务提供者的所有模块中配置的最大连接数量，不配置则为1
+     */
+    private int connectionNum(RegisterVO providerCache) {
+        var consumerConfig = NetContext.getConfigManager().getLocalConfig().getConsumer();
+        if (consumerConfig == null || CollectionUtils.isEmpty(consumerConfig.getConsumers())) {
+            return 1;
+        }
+        var connectionNum = 1;
+        for (var providerModule : providerCache.getProviderConfig().getProviders()) {
+            for (var consumerModule : consumerConfig.getConsumers()) {
+                if (consumerModule.matchProvider(providerModule) && StringUtils.isNotBlank(consumerModule.getConnection())) {
+                    connectionNum = Math.max(connectionNum, Integer.parseInt(consumerModule.getConnection()));
+                }
+            }
+        }
+        return connectionNum;
+    }
+
     /**
      * 为某个路径下设置数据
      *
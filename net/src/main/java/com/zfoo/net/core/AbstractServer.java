@@ -16,9 +16,11 @@ package com.zfoo.net.core;
 import com.zfoo.protocol.util.IOUtils;
 import com.zfoo.util.ThreadUtils;
 import com.zfoo.util.net.HostAndPort;
+import io.netty.bootstrap.AbstractBootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -55,6 +57,16 @@ public abstract class AbstractServer implements IServer {
 
     protected Channel channel;
 
+    /**
+     * 使用SO_REUSEPORT在同一个端口上绑定的channel数量，内核会把连接（udp为数据包）分散到这些channel上
+     */
+    protected int reusePort = 1;
+
+    /**
+     * 绑定的所有channel，没有开启SO_REUSEPORT的时候只有一个
+     */
+    protected final List<Channel> channels = new ArrayList<>(1);
+
     public AbstractServer(HostAndPort host) {
         this.hostAddress = host.getHost();
         this.port = host.getPort();
@@ -62,6 +74,49 @@ public abstract class AbstractServer implements IServer {
 
     public abstract ChannelInitializer<? extends Channel> channelChannelInitializer();
 
+    /**
+     * 开启SO_REUSEPORT，在同一个端口上绑定多个channel，每个channel都有自己的accept线程，需要在start之前调用
+     * <p>
+     * 只有linux的epoll可用的时候才会生效，否则依然只绑定一个channel
+     *
+     * @param channelNum 绑定的channel数量，一般为cpu的数量
+     */
+    public void setReusePort(int channelNum) {
+        this.reusePort = Math.max(1, channelNum);
+    }
+
+    /**
+     * @return SO_REUSEPORT实际绑定的channel数量
+     */
+    protected int reusePortChannelNum() {
+        if (reusePort <= 1) {
+            return 1;
+        }
+        if (!Epoll.isAvailable()) {
+            logger.warn("{} SO_REUSEPORT needs epoll, only bind one channel", this.getClass().getSimpleName());
+            return 1;
+        }
+        return reusePort;
+    }
+
+    /**
+     * 绑定端口，开启SO_REUSEPORT的时候会绑定多个channel
+     */
+    protected void bind(AbstractBootstrap<?, ?> bootstrap, int channelNum) {
+        if (channelNum > 1) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        for (var i = 0; i < channelNum; i++) {
+            var future = bootstrap.bind(hostAddress, port);
+            future.syncUninterruptibly();
+            channels.add(future.channel());
+            if (i == 0) {
+                channelFuture = future;
+                channel = future.channel();
+            }
+        }
+    }
+
     @Override
     public void start() {
         doStart(channelChannelInitializer());
@@ -69,10 +124,13 @@ public abstract class AbstractServer implements IServer {
 
     protected synchronized void doStart(ChannelInitializer<? extends Channel> channelChannelInitializer) {
         var cpuNum = Runtime.getRuntime().availableProcessors();
+        var channelNum = reusePortChannelNum();
         // 一条线程持有一个端口对应的selector，如果我们启动不仅仅是一个服务器端口的话，为了更好的性能需要修改对应的bossGroup数量
+        // SO_REUSEPORT的每一个channel都注册到不同的boss线程上
+        var bossNum = Math.max(channelNum, Math.max(1, cpuNum / 8));
         bossGroup = Epoll.isAvailable()
-                ? new EpollEventLoopGroup(Math.max(1, cpuNum / 8), new DefaultThreadFactory("netty-boss", true))
-                : new NioEventLoopGroup(Math.max(1, cpuNum / 8), new DefaultThreadFactory("netty-boss", true));
+                ? new EpollEventLoopGroup(bossNum, new DefaultThreadFactory("netty-boss", true))
+                : new NioEventLoopGroup(bossNum, new DefaultThreadFactory("netty-boss", true));
 
         workerGroup = Epoll.isAvailable()
                 ? new EpollEventLoopGroup(cpuNum * 2, new DefaultThreadFactory("netty-worker", true))
@@ -92,13 +150,11 @@ public abstract class AbstractServer implements IServer {
 
 
         // 异步
-        channelFuture = bootstrap.bind(hostAddress, port);
-        channelFuture.syncUninterruptibly();
-        channel = channelFuture.channel();
+        bind(bootstrap, channelNum);
 
         allServers.add(this);
 
-        logger.info("{} started at [{}:{}]", this.getClass().getSimpleName(), hostAddress, port);
+        logger.info("{} started at [{}:{}] [channel:{}]", this.getClass().getSimpleName(), hostAddress, port, channels.size());
     }
 
 
@@ -115,9 +171,9 @@ public abstract class AbstractServer implements IServer {
             }
         }
 
-        if (channel != null) {
+        for (var reusePortChannel : channels) {
             try {
-                channel.close();
+                reusePortChannel.close();
             } catch (Exception e) {
                 logger.warn(e.getMessage(), e);
             }
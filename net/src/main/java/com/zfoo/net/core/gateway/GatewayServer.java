@@ -15,6 +15,7 @@ package com.zfoo.net.core.gateway;
 
 import com.zfoo.net.core.AbstractServer;
 import com.zfoo.net.handler.GatewayRouteHandler;
+import com.zfoo.net.handler.codec.tcp.GatewayTcpCodecHandler;
 import com.zfoo.net.handler.codec.tcp.TcpCodecHandler;
 import com.zfoo.net.handler.idle.ServerIdleHandler;
 import com.zfoo.net.session.model.Session;
@@ -35,30 +36,43 @@ public class GatewayServer extends AbstractServer {
 
     private BiFunction<Session, IPacket, Boolean> packetFilter;
 
+    /**
+     * 透传模式，网关只读取协议号，不解码包体，直接转发客户端的原始帧给服务提供者；
+     * 透传的帧不经过LocalBridge和压缩，参考GatewayRouteHandler.forwardingFrame
+     */
+    private boolean forward;
+
     public GatewayServer(HostAndPort host, @Nullable BiFunction<Session, IPacket, Boolean> packetFilter) {
+        this(host, packetFilter, false);
+    }
+
+    public GatewayServer(HostAndPort host, @Nullable BiFunction<Session, IPacket, Boolean> packetFilter, boolean forward) {
         super(host);
         this.packetFilter = packetFilter;
+        this.forward = forward;
     }
 
     @Override
     public ChannelInitializer<SocketChannel> channelChannelInitializer() {
-        return new ChannelHandlerInitializer(packetFilter);
+        return new ChannelHandlerInitializer(packetFilter, forward);
     }
 
 
     private static class ChannelHandlerInitializer extends ChannelInitializer<SocketChannel> {
 
         private BiFunction<Session, IPacket, Boolean> packetFilter;
+        private boolean forward;
 
-        public ChannelHandlerInitializer(BiFunction<Session, IPacket, Boolean> packetFilter) {
+        public ChannelHandlerInitializer(BiFunction<Session, IPacket, Boolean> packetFilter, boolean forward) {
             this.packetFilter = packetFilter;
+            this.forward = forward;
         }
 
         @Override
         protected void initChannel(SocketChannel channel) {
             channel.pipeline().addLast(new IdleStateHandler(0, 0, 180));
             channel.pipeline().addLast(new ServerIdleHandler());
-            channel.pipeline().addLast(new TcpCodecHandler());
+            channel.pipeline().addLast(forward ? new GatewayTcpCodecHandler(packetFilter != null) : new TcpCodecHandler());
             channel.pipeline().addLast(new GatewayRouteHandler(packetFilter));
         }
     }
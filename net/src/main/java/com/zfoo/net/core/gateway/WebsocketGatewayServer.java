@@ -15,7 +15,10 @@ package com.zfoo.net.core.gateway;
 
 import com.zfoo.net.core.AbstractServer;
 import com.zfoo.net.handler.GatewayRouteHandler;
+import com.zfoo.net.handler.codec.websocket.GatewayWebSocketCodecHandler;
 import com.zfoo.net.handler.codec.websocket.WebSocketCodecHandler;
+import com.zfoo.net.handler.codec.websocket.WebSocketCompressionHandler;
+import com.zfoo.net.handler.codec.websocket.WebSocketStats;
 import com.zfoo.net.handler.idle.ServerIdleHandler;
 import com.zfoo.net.session.model.Session;
 import com.zfoo.protocol.IPacket;
@@ -40,35 +43,74 @@ public class WebsocketGatewayServer extends AbstractServer {
 
     private BiFunction<Session, IPacket, Boolean> packetFilter;
 
+    /**
+     * 透传模式，网关只读取协议号，不解码包体，直接转发客户端的原始帧给服务提供者；
+     * 透传的帧不经过LocalBridge和压缩，参考GatewayRouteHandler.forwardingFrame
+     */
+    private boolean forward;
+
+    /**
+     * 协商permessage-deflate压缩，需要客户端也支持（浏览器默认支持）；默认关闭，开启以后解压后的消息不能超过WebSocketCompressionHandler.DEFAULT_MAX_INFLATED_BYTES
+     */
+    private boolean compress;
+
+    /**
+     * 同一次flush之前写入的包合并到一个websocket帧中发送
+     */
+    private boolean mergeFrame;
+
     public WebsocketGatewayServer(HostAndPort host, @Nullable BiFunction<Session, IPacket, Boolean> packetFilter) {
+        this(host, packetFilter, false);
+    }
+
+    public WebsocketGatewayServer(HostAndPort host, @Nullable BiFunction<Session, IPacket, Boolean> packetFilter, boolean forward) {
         super(host);
         this.packetFilter = packetFilter;
+        this.forward = forward;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public void setMergeFrame(boolean mergeFrame) {
+        this.mergeFrame = mergeFrame;
     }
 
     @Override
     public ChannelInitializer<SocketChannel> channelChannelInitializer() {
-        return new ChannelHandlerInitializer(packetFilter);
+        return new ChannelHandlerInitializer(packetFilter, forward, compress, mergeFrame);
     }
 
 
     private static class ChannelHandlerInitializer extends ChannelInitializer<SocketChannel> {
 
         private BiFunction<Session, IPacket, Boolean> packetFilter;
+        private boolean forward;
+        private boolean compress;
+        private boolean mergeFrame;
 
-        public ChannelHandlerInitializer(BiFunction<Session, IPacket, Boolean> packetFilter) {
+        public ChannelHandlerInitializer(BiFunction<Session, IPacket, Boolean> packetFilter, boolean forward, boolean compress, boolean mergeFrame) {
             this.packetFilter = packetFilter;
+            this.forward = forward;
+            this.compress = compress;
+            this.mergeFrame = mergeFrame;
         }
 
         @Override
         protected void initChannel(SocketChannel channel) {
+            channel.pipeline().addLast(WebSocketStats.wireBytesHandler());
             channel.pipeline().addLast(new IdleStateHandler(0, 0, 180));
             channel.pipeline().addLast(new ServerIdleHandler());
 
             channel.pipeline().addLast(new HttpServerCodec(8 * IOUtils.BYTES_PER_KB, 16 * IOUtils.BYTES_PER_KB, 16 * IOUtils.BYTES_PER_KB));
             channel.pipeline().addLast(new HttpObjectAggregator(16 * IOUtils.BYTES_PER_MB));
-            channel.pipeline().addLast(new WebSocketServerProtocolHandler("/websocket"));
+            if (compress) {
+                channel.pipeline().addLast(new WebSocketCompressionHandler());
+            }
+            channel.pipeline().addLast(new WebSocketServerProtocolHandler("/websocket", null, compress));
             channel.pipeline().addLast(new ChunkedWriteHandler());
-            channel.pipeline().addLast(new WebSocketCodecHandler());
+            channel.pipeline().addLast(forward ? new GatewayWebSocketCodecHandler(packetFilter != null, mergeFrame) : new WebSocketCodecHandler(mergeFrame));
             channel.pipeline().addLast(new GatewayRouteHandler(packetFilter));
         }
     }
@@ -0,0 +1,813 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * KCP可靠udp协议（ARQ）的java实现，算法和报文格式都和ikcp.c一致，可以和其它语言的KCP客户端互通
+ * <p>
+ * 报文头部24byte，小端：conv(4) + cmd(1) + frg(1) + wnd(2) + ts(4) + sn(4) + una(4) + len(4) + data
+ * <p>
+ * 1. una为累计确认，ACK为每一个包单独确认（选择性确认），收到后面包的ACK会增加前面包的fastack，达到fastresend次则快速重传
+ * 2. nodelay模式下RTO不会翻倍，最小RTO为30ms，nocwnd关闭拥塞控制，只受发送窗口和接收窗口的限制
+ * 3. 消息模式，一个消息最多被分成rcvWnd个分片，接收方重组后返回完整的消息
+ * <p>
+ * 不是线程安全的，所有的方法都需要在同一个线程中调用
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class Kcp {
+
+    public static final int RTO_NDL = 30;
+    public static final int RTO_MIN = 100;
+    public static final int RTO_DEF = 200;
+    public static final int RTO_MAX = 60000;
+
+    public static final byte CMD_PUSH = 81;
+    public static final byte CMD_ACK = 82;
+    public static final byte CMD_WASK = 83;
+    public static final byte CMD_WINS = 84;
+
+    private static final int ASK_SEND = 1;
+    private static final int ASK_TELL = 2;
+
+    public static final int WND_SND = 32;
+    public static final int WND_RCV = 128;
+    public static final int MTU_DEF = 1400;
+    public static final int INTERVAL = 100;
+    public static final int OVERHEAD = 24;
+    public static final int DEADLINK = 20;
+
+    private static final int THRESH_INIT = 2;
+    private static final int THRESH_MIN = 2;
+    private static final int PROBE_INIT = 7000;
+    private static final int PROBE_LIMIT = 120000;
+    private static final int FASTACK_LIMIT = 5;
+
+    /**
+     * 最多255个分片，frg只有1个字节
+     */
+    private static final int MAX_FRAGMENT = 255;
+
+    public interface Output {
+        /**
+         * 发送一个udp包，data在方法返回后会被复用，需要立即发送或者复制
+         */
+        void output(byte[] data, int length);
+    }
+
+    private static class Segment {
+        private int conv;
+        private byte cmd;
+        private int frg;
+        private int wnd;
+        private int ts;
+        private int sn;
+        private int una;
+        private int resendts;
+        private int rto;
+        private int fastack;
+        private int xmit;
+        private byte[] data;
+
+        private Segment(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final int conv;
+    private final Output output;
+
+    private int mtu = MTU_DEF;
+    private int mss = MTU_DEF - OVERHEAD;
+    private int state;
+
+    private int sndUna;
+    private int sndNxt;
+    private int rcvNxt;
+
+    private int ssthresh = THRESH_INIT;
+    private int rxRttval;
+    private int rxSrtt;
+    private int rxRto = RTO_DEF;
+    private int rxMinrto = RTO_MIN;
+
+    private int sndWnd = WND_SND;
+    private int rcvWnd = WND_RCV;
+    private int rmtWnd = WND_RCV;
+    private int cwnd;
+    private int probe;
+
+    private int current;
+    private int interval = INTERVAL;
+    private int tsFlush = INTERVAL;
+    private int xmit;
+
+    private int nodelay;
+    private boolean updated;
+    private int tsProbe;
+    private int probeWait;
+    private int deadLink = DEADLINK;
+    private int incr;
+
+    private final ArrayDeque<Segment> sndQueue = new ArrayDeque<>();
+    private final ArrayDeque<Segment> rcvQueue = new ArrayDeque<>();
+    private final ArrayList<Segment> sndBuf = new ArrayList<>();
+    private final ArrayList<Segment> rcvBuf = new ArrayList<>();
+
+    /**
+     * 待发送的ACK，每两个int为一组：sn，ts
+     */
+    private int[] ackList = new int[16];
+    private int ackCount;
+
+    private int fastresend;
+    private int fastlimit = FASTACK_LIMIT;
+    private boolean nocwnd;
+
+    private byte[] buffer = new byte[(MTU_DEF + OVERHEAD) * 3];
+
+    public Kcp(int conv, Output output) {
+        this.conv = conv;
+        this.output = output;
+    }
+
+    // -------------------------------------------------user api-------------------------------------------------
+
+    /**
+     * 接收一个完整的消息
+     *
+     * @return 没有完整的消息返回null
+     */
+    public byte[] recv() {
+        if (rcvQueue.isEmpty()) {
+            return null;
+        }
+
+        var peekSize = peekSize();
+        if (peekSize < 0) {
+            return null;
+        }
+
+        var recover = rcvQueue.size() >= rcvWnd;
+
+        // 合并分片
+        var data = new byte[peekSize];
+        var offset = 0;
+        while (!rcvQueue.isEmpty()) {
+            var segment = rcvQueue.poll();
+            System.arraycopy(segment.data, 0, data, offset, segment.data.length);
+            offset += segment.data.length;
+            if (segment.frg == 0) {
+                break;
+            }
+        }
+
+        moveRcvBuf();
+
+        // 接收窗口从满变为不满，主动告诉对方窗口大小
+        if (recover && rcvQueue.size() < rcvWnd) {
+            probe |= ASK_TELL;
+        }
+        return data;
+    }
+
+    /**
+     * 下一个完整的消息的大小，没有完整的消息返回-1
+     */
+    public int peekSize() {
+        var segment = rcvQueue.peek();
+        if (segment == null) {
+            return -1;
+        }
+        if (segment.frg == 0) {
+            return segment.data.length;
+        }
+        if (rcvQueue.size() < segment.frg + 1) {
+            return -1;
+        }
+        var length = 0;
+        for (var seg : rcvQueue) {
+            length += seg.data.length;
+            if (seg.frg == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 发送一个消息，消息会被分成多个分片放入发送队列，在下一次flush的时候发送
+     *
+     * @return 0为成功，负数为消息太大
+     */
+    public int send(byte[] data, int offset, int length) {
+        if (length < 0) {
+            return -1;
+        }
+        var count = length <= mss ? 1 : (length + mss - 1) / mss;
+        if (count > Math.min(rcvWnd, MAX_FRAGMENT)) {
+            return -2;
+        }
+
+        for (var i = 0; i < count; i++) {
+            var size = Math.min(length, mss);
+            var segment = new Segment(Arrays.copyOfRange(data, offset, offset + size));
+            segment.frg = count - i - 1;
+            sndQueue.offer(segment);
+            offset += size;
+            length -= size;
+        }
+        return 0;
+    }
+
+    /**
+     * 输入一个收到的udp包
+     *
+     * @return 0为成功，负数为非法的包
+     */
+    public int input(byte[] data, int offset, int length) {
+        var prevUna = sndUna;
+        var maxAck = 0;
+        var latestTs = 0;
+        var hasAck = false;
+
+        if (length < OVERHEAD) {
+            return -1;
+        }
+
+        while (length >= OVERHEAD) {
+            var segConv = readInt(data, offset);
+            if (segConv != conv) {
+                return -1;
+            }
+            var cmd = data[offset + 4];
+            var frg = data[offset + 5] & 0xFF;
+            var wnd = (data[offset + 6] & 0xFF) | ((data[offset + 7] & 0xFF) << 8);
+            var ts = readInt(data, offset + 8);
+            var sn = readInt(data, offset + 12);
+            var una = readInt(data, offset + 16);
+            var len = readInt(data, offset + 20);
+            offset += OVERHEAD;
+            length -= OVERHEAD;
+
+            if (len < 0 || length < len) {
+                return -2;
+            }
+            if (cmd != CMD_PUSH && cmd != CMD_ACK && cmd != CMD_WASK && cmd != CMD_WINS) {
+                return -3;
+            }
+
+            rmtWnd = wnd;
+            parseUna(una);
+            shrinkBuf();
+
+            if (cmd == CMD_ACK) {
+                if (current - ts >= 0) {
+                    updateAck(current - ts);
+                }
+                parseAck(sn);
+                shrinkBuf();
+                if (!hasAck) {
+                    hasAck = true;
+                    maxAck = sn;
+                    latestTs = ts;
+                } else if (sn - maxAck > 0) {
+                    maxAck = sn;
+                    latestTs = ts;
+                }
+            } else if (cmd == CMD_PUSH) {
+                if (sn - (rcvNxt + rcvWnd) < 0) {
+                    ackPush(sn, ts);
+                    if (sn - rcvNxt >= 0) {
+                        var segment = new Segment(Arrays.copyOfRange(data, offset, offset + len));
+                        segment.conv = segConv;
+                        segment.cmd = cmd;
+                        segment.frg = frg;
+                        segment.wnd = wnd;
+                        segment.ts = ts;
+                        segment.sn = sn;
+                        segment.una = una;
+                        parseData(segment);
+                    }
+                }
+            } else if (cmd == CMD_WASK) {
+                // 对方询问窗口大小，下一次flush的时候告诉对方
+                probe |= ASK_TELL;
+            }
+
+            offset += len;
+            length -= len;
+        }
+
+        if (hasAck) {
+            parseFastack(maxAck);
+        }
+
+        // 有新的包被确认，增加拥塞窗口
+        if (sndUna - prevUna > 0 && cwnd < rmtWnd) {
+            if (cwnd < ssthresh) {
+                cwnd++;
+                incr += mss;
+            } else {
+                if (incr < mss) {
+                    incr = mss;
+                }
+                incr += (mss * mss) / incr + (mss / 16);
+                if ((cwnd + 1) * mss <= incr) {
+                    cwnd = (incr + mss - 1) / mss;
+                }
+            }
+            if (cwnd > rmtWnd) {
+                cwnd = rmtWnd;
+                incr = rmtWnd * mss;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 更新时钟，每隔interval毫秒flush一次
+     *
+     * @param current 当前的毫秒时间，只使用低32位
+     */
+    public void update(int current) {
+        this.current = current;
+        if (!updated) {
+            updated = true;
+            tsFlush = current;
+        }
+
+        var slap = current - tsFlush;
+        if (slap >= 10000 || slap < -10000) {
+            tsFlush = current;
+            slap = 0;
+        }
+
+        if (slap >= 0) {
+            tsFlush += interval;
+            if (current - tsFlush >= 0) {
+                tsFlush = current + interval;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 下一次需要调用update的时间，参考ikcp_check，send和input以后需要重新计算
+     * <p>
+     * 和ikcp不同的是，只有在有ACK，新数据或者窗口探测等待flush的时候才会每隔interval调用一次update，
+     * 否则只需要在最早的超时重传的时间调用；没有任何数据等待确认的时候返回current + RTO_MAX
+     *
+     * @param current 当前的毫秒时间，只使用低32位
+     */
+    public int check(int current) {
+        if (!updated) {
+            return current;
+        }
+
+        var waitFlush = ackCount > 0 || !sndQueue.isEmpty() || probe != 0 || rmtWnd == 0;
+        var tmFlush = RTO_MAX;
+        if (waitFlush) {
+            var ts = tsFlush;
+            var slap = current - ts;
+            if (slap >= 10000 || slap < -10000) {
+                ts = current;
+            }
+            if (current - ts >= 0) {
+                return current;
+            }
+            tmFlush = ts - current;
+        }
+
+        var tmPacket = RTO_MAX;
+        for (var segment : sndBuf) {
+            var diff = segment.resendts - current;
+            if (diff <= 0) {
+                return current;
+            }
+            tmPacket = Math.min(tmPacket, diff);
+            // 快速重传在下一次flush的时候发送
+            if (fastresend > 0 && segment.fastack >= fastresend) {
+                waitFlush = true;
+            }
+        }
+
+        var minimal = Math.min(tmPacket, tmFlush);
+        if (waitFlush) {
+            minimal = Math.min(minimal, interval);
+        }
+        return current + minimal;
+    }
+
+    /**
+     * 发送ACK，窗口探测和发送窗口内的数据
+     */
+    public void flush() {
+        if (!updated) {
+            return;
+        }
+
+        var offset = 0;
+
+        // 发送ACK
+        var wnd = wndUnused();
+        for (var i = 0; i < ackCount; i++) {
+            offset = makeSpace(offset, OVERHEAD);
+            offset = encode(offset, CMD_ACK, 0, wnd, ackList[i * 2 + 1], ackList[i * 2], rcvNxt, 0);
+        }
+        ackCount = 0;
+
+        // 对方的接收窗口为0，定时询问对方的窗口大小
+        if (rmtWnd == 0) {
+            if (probeWait == 0) {
+                probeWait = PROBE_INIT;
+                tsProbe = current + probeWait;
+            } else if (current - tsProbe >= 0) {
+                if (probeWait < PROBE_INIT) {
+                    probeWait = PROBE_INIT;
+                }
+                probeWait += probeWait / 2;
+                if (probeWait > PROBE_LIMIT) {
+                    probeWait = PROBE_LIMIT;
+                }
+                tsProbe = current + probeWait;
+                probe |= ASK_SEND;
+            }
+        } else {
+            tsProbe = 0;
+            probeWait = 0;
+        }
+
+        if ((probe & ASK_SEND) != 0) {
+            offset = makeSpace(offset, OVERHEAD);
+            offset = encode(offset, CMD_WASK, 0, wnd, 0, 0, rcvNxt, 0);
+        }
+        if ((probe & ASK_TELL) != 0) {
+            offset = makeSpace(offset, OVERHEAD);
+            offset = encode(offset, CMD_WINS, 0, wnd, 0, 0, rcvNxt, 0);
+        }
+        probe = 0;
+
+        // 把发送队列中的包移动到发送缓冲区
+        var cwndLimit = Math.min(sndWnd, rmtWnd);
+        if (!nocwnd) {
+            cwndLimit = Math.min(cwnd, cwndLimit);
+        }
+        while (sndNxt - (sndUna + cwndLimit) < 0) {
+            var segment = sndQueue.poll();
+            if (segment == null) {
+                break;
+            }
+            segment.conv = conv;
+            segment.cmd = CMD_PUSH;
+            segment.wnd = wnd;
+            segment.ts = current;
+            segment.sn = sndNxt++;
+            segment.una = rcvNxt;
+            segment.resendts = current;
+            segment.rto = rxRto;
+            segment.fastack = 0;
+            segment.xmit = 0;
+            sndBuf.add(segment);
+        }
+
+        var resent = fastresend > 0 ? fastresend : Integer.MAX_VALUE;
+        var rtoMin = nodelay == 0 ? (rxRto >> 3) : 0;
+
+        var change = false;
+        var lost = false;
+        for (var segment : sndBuf) {
+            var needSend = false;
+            if (segment.xmit == 0) {
+                // 第一次发送
+                needSend = true;
+                segment.xmit++;
+                segment.rto = rxRto;
+                segment.resendts = current + segment.rto + rtoMin;
+            } else if (current - segment.resendts >= 0) {
+                // 超时重传
+                needSend = true;
+                segment.xmit++;
+                xmit++;
+                if (nodelay == 0) {
+                    segment.rto += Math.max(segment.rto, rxRto);
+                } else {
+                    var step = nodelay < 2 ? segment.rto : rxRto;
+                    segment.rto += step / 2;
+                }
+                segment.resendts = current + segment.rto;
+                lost = true;
+            } else if (segment.fastack >= resent) {
+                // 快速重传
+                if (segment.xmit <= fastlimit || fastlimit <= 0) {
+                    needSend = true;
+                    segment.xmit++;
+                    segment.fastack = 0;
+                    segment.resendts = current + segment.rto;
+                    change = true;
+                }
+            }
+
+            if (needSend) {
+                segment.ts = current;
+                segment.wnd = wnd;
+                segment.una = rcvNxt;
+                offset = makeSpace(offset, OVERHEAD + segment.data.length);
+                offset = encode(offset, CMD_PUSH, segment.frg, wnd, segment.ts, segment.sn, rcvNxt, segment.data.length);
+                System.arraycopy(segment.data, 0, buffer, offset, segment.data.length);
+                offset += segment.data.length;
+                if (segment.xmit >= deadLink) {
+                    state = -1;
+                }
+            }
+        }
+
+        if (offset > 0) {
+            output.output(buffer, offset);
+        }
+
+        if (change) {
+            var inflight = sndNxt - sndUna;
+            ssthresh = Math.max(inflight / 2, THRESH_MIN);
+            cwnd = ssthresh + resent;
+            incr = cwnd * mss;
+        }
+
+        if (lost) {
+            ssthresh = Math.max(cwndLimit / 2, THRESH_MIN);
+            cwnd = 1;
+            incr = mss;
+        }
+
+        if (cwnd < 1) {
+            cwnd = 1;
+            incr = mss;
+        }
+    }
+
+    // -------------------------------------------------config-------------------------------------------------
+
+    /**
+     * @param nodelay  0不开启，1开启，2为更激进的RTO计算
+     * @param interval flush的间隔，10到5000毫秒
+     * @param resend   快速重传的ACK跨越次数，0为关闭快速重传
+     * @param nc       是否关闭拥塞控制
+     */
+    public void setNodelay(int nodelay, int interval, int resend, boolean nc) {
+        if (nodelay >= 0) {
+            this.nodelay = nodelay;
+            this.rxMinrto = nodelay != 0 ? RTO_NDL : RTO_MIN;
+        }
+        if (interval >= 0) {
+            this.interval = Math.min(Math.max(interval, 10), 5000);
+        }
+        if (resend >= 0) {
+            this.fastresend = resend;
+        }
+        this.nocwnd = nc;
+    }
+
+    public void setWindow(int sndWnd, int rcvWnd) {
+        if (sndWnd > 0) {
+            this.sndWnd = sndWnd;
+        }
+        if (rcvWnd > 0) {
+            this.rcvWnd = Math.max(rcvWnd, WND_RCV);
+        }
+    }
+
+    public void setMtu(int mtu) {
+        if (mtu < 50 || mtu < OVERHEAD) {
+            throw new IllegalArgumentException("kcp mtu is too small:" + mtu);
+        }
+        this.mtu = mtu;
+        this.mss = mtu - OVERHEAD;
+        this.buffer = new byte[(mtu + OVERHEAD) * 3];
+    }
+
+    public void setDeadLink(int deadLink) {
+        this.deadLink = deadLink;
+    }
+
+    // -------------------------------------------------state-------------------------------------------------
+
+    public int getConv() {
+        return conv;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public int getMss() {
+        return mss;
+    }
+
+    /**
+     * 一个包的重传次数达到deadLink次以后，认为连接已经断开
+     */
+    public boolean isDeadLink() {
+        return state < 0;
+    }
+
+    /**
+     * 还没有被确认的包的数量
+     */
+    public int waitSnd() {
+        return sndBuf.size() + sndQueue.size();
+    }
+
+    /**
+     * 超时重传的总次数
+     */
+    public int getXmit() {
+        return xmit;
+    }
+
+    public int getRto() {
+        return rxRto;
+    }
+
+    public int getSrtt() {
+        return rxSrtt;
+    }
+
+    // -------------------------------------------------internal-------------------------------------------------
+
+    private int wndUnused() {
+        return rcvQueue.size() < rcvWnd ? rcvWnd - rcvQueue.size() : 0;
+    }
+
+    private void updateAck(int rtt) {
+        if (rxSrtt == 0) {
+            rxSrtt = rtt;
+            rxRttval = rtt / 2;
+        } else {
+            var delta = Math.abs(rtt - rxSrtt);
+            rxRttval = (3 * rxRttval + delta) / 4;
+            rxSrtt = (7 * rxSrtt + rtt) / 8;
+            if (rxSrtt < 1) {
+                rxSrtt = 1;
+            }
+        }
+        var rto = rxSrtt + Math.max(interval, 4 * rxRttval);
+        rxRto = Math.min(Math.max(rxMinrto, rto), RTO_MAX);
+    }
+
+    private void shrinkBuf() {
+        sndUna = sndBuf.isEmpty() ? sndNxt : sndBuf.get(0).sn;
+    }
+
+    private void parseAck(int sn) {
+        if (sn - sndUna < 0 || sn - sndNxt >= 0) {
+            return;
+        }
+        for (var i = 0; i < sndBuf.size(); i++) {
+            var segment = sndBuf.get(i);
+            if (sn == segment.sn) {
+                sndBuf.remove(i);
+                break;
+            }
+            if (sn - segment.sn < 0) {
+                break;
+            }
+        }
+    }
+
+    private void parseUna(int una) {
+        var count = 0;
+        for (var segment : sndBuf) {
+            if (una - segment.sn > 0) {
+                count++;
+            } else {
+                break;
+            }
+        }
+        if (count > 0) {
+            sndBuf.subList(0, count).clear();
+        }
+    }
+
+    private void parseFastack(int sn) {
+        if (sn - sndUna < 0 || sn - sndNxt >= 0) {
+            return;
+        }
+        for (var segment : sndBuf) {
+            if (sn - segment.sn < 0) {
+                break;
+            }
+            if (sn != segment.sn) {
+                segment.fastack++;
+            }
+        }
+    }
+
+    private void ackPush(int sn, int ts) {
+        if (ackCount * 2 + 2 > ackList.length) {
+            ackList = Arrays.copyOf(ackList, ackList.length << 1);
+        }
+        ackList[ackCount * 2] = sn;
+        ackList[ackCount * 2 + 1] = ts;
+        ackCount++;
+    }
+
+    private void parseData(Segment newSegment) {
+        var sn = newSegment.sn;
+        if (sn - (rcvNxt + rcvWnd) >= 0 || sn - rcvNxt < 0) {
+            return;
+        }
+
+        // 从后往前找到插入的位置，接收缓冲区按照sn排序
+        var index = rcvBuf.size() - 1;
+        for (; index >= 0; index--) {
+            var segment = rcvBuf.get(index);
+            if (segment.sn == sn) {
+                // 重复的包
+                return;
+            }
+            if (sn - segment.sn > 0) {
+                break;
+            }
+        }
+        rcvBuf.add(index + 1, newSegment);
+
+        moveRcvBuf();
+    }
+
+    /**
+     * 把接收缓冲区中连续的包移动到接收队列
+     */
+    private void moveRcvBuf() {
+        var count = 0;
+        for (var segment : rcvBuf) {
+            if (segment.sn == rcvNxt && rcvQueue.size() < rcvWnd) {
+                rcvQueue.offer(segment);
+                rcvNxt++;
+                count++;
+            } else {
+                break;
+            }
+        }
+        if (count > 0) {
+            rcvBuf.subList(0, count).clear();
+        }
+    }
+
+    /**
+     * buffer剩余的空间不够的时候，先发送buffer中的数据
+     */
+    private int makeSpace(int offset, int space) {
+        if (offset + space > mtu && offset > 0) {
+            output.output(buffer, offset);
+            return 0;
+        }
+        return offset;
+    }
+
+    private int encode(int offset, byte cmd, int frg, int wnd, int ts, int sn, int una, int len) {
+        writeInt(buffer, offset, conv);
+        buffer[offset + 4] = cmd;
+        buffer[offset + 5] = (byte) frg;
+        buffer[offset + 6] = (byte) wnd;
+        buffer[offset + 7] = (byte) (wnd >>> 8);
+        writeInt(buffer, offset + 8, ts);
+        writeInt(buffer, offset + 12, sn);
+        writeInt(buffer, offset + 16, una);
+        writeInt(buffer, offset + 20, len);
+        return offset + OVERHEAD;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * 读取小端的int，conv在解包之前也需要读取，所以是public的
+     */
+    public static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+                | ((bytes[offset + 1] & 0xFF) << 8)
+                | ((bytes[offset + 2] & 0xFF) << 16)
+                | ((bytes[offset + 3] & 0xFF) << 24);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.core.AbstractClient;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.protocol.exception.ExceptionUtils;
+import com.zfoo.util.math.RandomUtils;
+import com.zfoo.util.net.HostAndPort;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 一个KcpClient独占一个udp channel，conv随机生成
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class KcpClient extends AbstractClient {
+
+    private final KcpConfig config;
+
+    public KcpClient(HostAndPort host) {
+        this(host, KcpConfig.fastMode());
+    }
+
+    public KcpClient(HostAndPort host, KcpConfig config) {
+        super(host);
+        this.config = config;
+    }
+
+    @Override
+    public synchronized Session start() {
+        try {
+            this.bootstrap = new Bootstrap();
+            this.bootstrap.group(nioEventLoopGroup)
+                    .channel(Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                    .handler(channelChannelInitializer());
+
+            // bind(0)随机选择一个端口
+            var channelFuture = bootstrap.bind(0).sync();
+            channelFuture.syncUninterruptibly();
+
+            if (channelFuture.isSuccess()) {
+                if (channelFuture.channel().isActive()) {
+                    var channel = channelFuture.channel();
+                    var handler = channel.pipeline().get(KcpRouteHandler.class);
+                    var remoteAddress = new InetSocketAddress(hostAddress, port);
+                    var session = new KcpSession(channel, handler, remoteAddress, RandomUtils.randomInt(), config, false);
+                    handler.addSession(session);
+                    NetContext.getSessionManager().addClientSession(session);
+                    session.start();
+                    logger.info("KcpClient started at [{}] [remote:{}] [conv:{}]", channel.localAddress(), remoteAddress, session.getConv());
+                    return session;
+                }
+            } else if (channelFuture.cause() != null) {
+                logger.error(ExceptionUtils.getMessage(channelFuture.cause()));
+            } else {
+                logger.error("启动客户端[client:{}]未知错误", this);
+            }
+        } catch (Exception e) {
+            logger.error(ExceptionUtils.getMessage(e));
+        }
+        return null;
+    }
+
+    @Override
+    public ChannelInitializer<Channel> channelChannelInitializer() {
+        return new ChannelHandlerInitializer(config);
+    }
+
+
+    private static class ChannelHandlerInitializer extends ChannelInitializer<Channel> {
+        private final KcpConfig config;
+
+        private ChannelHandlerInitializer(KcpConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        protected void initChannel(Channel channel) {
+            channel.pipeline().addLast(new KcpRouteHandler(false, config));
+        }
+    }
+
+}
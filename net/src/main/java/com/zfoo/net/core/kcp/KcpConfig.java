@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+/**
+ * KCP的参数，服务器和客户端的参数需要保持一致
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class KcpConfig {
+
+    /**
+     * 0不开启，1开启nodelay，2为更激进的RTO计算
+     */
+    private int nodelay;
+
+    /**
+     * 内部flush的间隔，毫秒
+     */
+    private int interval;
+
+    /**
+     * 快速重传的ACK跨越次数，0为关闭快速重传
+     */
+    private int resend;
+
+    /**
+     * 是否关闭拥塞控制
+     */
+    private boolean nocwnd;
+
+    private int sndWnd;
+    private int rcvWnd;
+    private int mtu;
+
+    /**
+     * 超过这个时间没有收到任何包则关闭session，毫秒
+     */
+    private int idleTimeout;
+
+    public static KcpConfig valueOf(int nodelay, int interval, int resend, boolean nocwnd, int sndWnd, int rcvWnd, int mtu, int idleTimeout) {
+        var config = new KcpConfig();
+        config.nodelay = nodelay;
+        config.interval = interval;
+        config.resend = resend;
+        config.nocwnd = nocwnd;
+        config.sndWnd = sndWnd;
+        config.rcvWnd = rcvWnd;
+        config.mtu = mtu;
+        config.idleTimeout = idleTimeout;
+        return config;
+    }
+
+    /**
+     * 低延迟模式，适合游戏的实时同步，会多消耗一些带宽
+     */
+    public static KcpConfig fastMode() {
+        return valueOf(1, 10, 2, true, 256, 256, Kcp.MTU_DEF, 30_000);
+    }
+
+    /**
+     * 和TCP相近的模式，有拥塞控制
+     */
+    public static KcpConfig normalMode() {
+        return valueOf(0, 40, 0, false, Kcp.WND_SND, Kcp.WND_RCV, Kcp.MTU_DEF, 30_000);
+    }
+
+    public int getNodelay() {
+        return nodelay;
+    }
+
+    public void setNodelay(int nodelay) {
+        this.nodelay = nodelay;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    public int getResend() {
+        return resend;
+    }
+
+    public void setResend(int resend) {
+        this.resend = resend;
+    }
+
+    public boolean isNocwnd() {
+        return nocwnd;
+    }
+
+    public void setNocwnd(boolean nocwnd) {
+        this.nocwnd = nocwnd;
+    }
+
+    public int getSndWnd() {
+        return sndWnd;
+    }
+
+    public void setSndWnd(int sndWnd) {
+        this.sndWnd = sndWnd;
+    }
+
+    public int getRcvWnd() {
+        return rcvWnd;
+    }
+
+    public void setRcvWnd(int rcvWnd) {
+        this.rcvWnd = rcvWnd;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+}
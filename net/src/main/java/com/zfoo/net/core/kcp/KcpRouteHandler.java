@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.util.SessionUtils;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个udp channel对应一个KcpRouteHandler，按照对方的地址和conv把udp包分发到对应的KcpSession
+ * <p>
+ * 服务器收到新的conv的PUSH包时创建KcpSession，客户端只有自己创建的一个KcpSession
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class KcpRouteHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(KcpRouteHandler.class);
+
+    private static class ConvKey {
+        private final InetSocketAddress address;
+        private final int conv;
+
+        private ConvKey(InetSocketAddress address, int conv) {
+            this.address = address;
+            this.conv = conv;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ConvKey convKey = (ConvKey) o;
+            return conv == convKey.conv && address.equals(convKey.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(address, conv);
+        }
+    }
+
+    private final boolean server;
+    private final KcpConfig config;
+
+    private final Map<ConvKey, KcpSession> sessionMap = new ConcurrentHashMap<>();
+
+    public KcpRouteHandler(boolean server, KcpConfig config) {
+        this.server = server;
+        this.config = config;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        var datagramPacket = (DatagramPacket) msg;
+        try {
+            var content = datagramPacket.content();
+            if (content.readableBytes() < Kcp.OVERHEAD) {
+                return;
+            }
+
+            var conv = content.getIntLE(content.readerIndex());
+            var sender = datagramPacket.sender();
+            var key = new ConvKey(sender, conv);
+            var session = sessionMap.get(key);
+            if (session == null) {
+                // 只有服务器收到数据包的时候才创建连接，其它的包（如对已经关闭的连接的ACK）直接丢弃
+                if (!server || content.getByte(content.readerIndex() + 4) != Kcp.CMD_PUSH) {
+                    return;
+                }
+                session = new KcpSession(ctx.channel(), this, sender, conv, config, true);
+                sessionMap.put(key, session);
+                NetContext.getSessionManager().addServerSession(session);
+                session.start();
+                logger.info("kcp server session is active {} [remote:{}] [conv:{}]", SessionUtils.sessionSimpleInfo(session), sender, conv);
+            }
+            session.input(content);
+        } finally {
+            ReferenceCountUtil.release(datagramPacket);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        super.channelInactive(ctx);
+        for (var session : new ArrayList<>(sessionMap.values())) {
+            session.close();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // udp channel被所有的KcpSession共用，不能因为一个异常关闭
+        logger.error("kcp channel exception caught [channel:{}]", ctx.channel(), cause);
+    }
+
+    public void addSession(KcpSession session) {
+        sessionMap.put(new ConvKey(session.getRemoteAddress(), session.getConv()), session);
+    }
+
+    public void removeSession(KcpSession session) {
+        sessionMap.remove(new ConvKey(session.getRemoteAddress(), session.getConv()), session);
+    }
+
+    public int sessionSize() {
+        return sessionMap.size();
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+import com.zfoo.net.core.AbstractServer;
+import com.zfoo.util.net.HostAndPort;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于udp的可靠的低延迟服务器，一个udp channel上有多个KcpSession
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class KcpServer extends AbstractServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(KcpServer.class);
+
+    private final KcpConfig config;
+
+    public KcpServer(HostAndPort host) {
+        this(host, KcpConfig.fastMode());
+    }
+
+    public KcpServer(HostAndPort host, KcpConfig config) {
+        super(host);
+        this.config = config;
+    }
+
+    @Override
+    public void start() {
+        var cpuNum = Runtime.getRuntime().availableProcessors();
+        var channelNum = reusePortChannelNum();
+
+        // 配置服务端nio线程组
+        workerGroup = Epoll.isAvailable()
+                ? new EpollEventLoopGroup(cpuNum * 2, new DefaultThreadFactory("netty-worker", true))
+                : new NioEventLoopGroup(cpuNum * 2, new DefaultThreadFactory("netty-worker", true));
+
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(workerGroup)
+                .channel(Epoll.isAvailable() ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                .handler(channelChannelInitializer());
+
+        // 异步，开启SO_REUSEPORT的时候绑定多个udp socket，同一个客户端的包总是被分配到同一个socket上
+        bind(bootstrap, channelNum);
+
+        allServers.add(this);
+
+        logger.info("{} started at [{}:{}] [channel:{}] [nodelay:{}] [interval:{}]", this.getClass().getSimpleName(), hostAddress, port, channels.size(), config.getNodelay(), config.getInterval());
+    }
+
+    @Override
+    public ChannelInitializer<Channel> channelChannelInitializer() {
+        return new ChannelHandlerInitializer(config);
+    }
+
+
+    private static class ChannelHandlerInitializer extends ChannelInitializer<Channel> {
+        private final KcpConfig config;
+
+        private ChannelHandlerInitializer(KcpConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        protected void initChannel(Channel channel) {
+            channel.pipeline().addLast(new KcpRouteHandler(true, config));
+        }
+    }
+}
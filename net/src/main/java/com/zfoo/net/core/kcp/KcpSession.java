@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+import com.zfoo.event.manager.EventBus;
+import com.zfoo.net.NetContext;
+import com.zfoo.net.core.tcp.model.ClientSessionInactiveEvent;
+import com.zfoo.net.core.tcp.model.ServerSessionInactiveEvent;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
+import com.zfoo.net.packet.service.PacketService;
+import com.zfoo.net.session.model.AttributeType;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.net.util.SessionUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个KCP连接，多个KcpSession共用一个udp channel，通过对方的地址和conv区分
+ * <p>
+ * KCP的所有操作都在channel的io线程中执行，业务线程中发送的包先编码，再提交到io线程中放入KCP的发送队列
+ * <p>
+ * KCP的一个消息就是一个完整的帧：包的长度 + 包体 + 附加包，和TCP的帧格式一样，所以压缩，SignalAttachment等都可以正常使用
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class KcpSession extends Session {
+
+    private static final Logger logger = LoggerFactory.getLogger(KcpSession.class);
+
+    private final KcpRouteHandler handler;
+    private final InetSocketAddress remoteAddress;
+    private final KcpConfig config;
+    private final boolean server;
+    private final Kcp kcp;
+
+    /**
+     * 下一次update的定时任务和时间，只在io线程中读写
+     */
+    private ScheduledFuture<?> updateFuture;
+    private int nextUpdateTime;
+    private volatile boolean closed;
+    private int lastReceiveTime;
+
+    public KcpSession(Channel channel, KcpRouteHandler handler, InetSocketAddress remoteAddress, int conv, KcpConfig config, boolean server) {
+        super(channel);
+        this.handler = handler;
+        this.remoteAddress = remoteAddress;
+        this.config = config;
+        this.server = server;
+        this.kcp = new Kcp(conv, (data, length) -> {
+            var buffer = channel.alloc().ioBuffer(length);
+            buffer.writeBytes(data, 0, length);
+            channel.write(new DatagramPacket(buffer, remoteAddress));
+        });
+        kcp.setNodelay(config.getNodelay(), config.getInterval(), config.getResend(), config.isNocwnd());
+        kcp.setWindow(config.getSndWnd(), config.getRcvWnd());
+        kcp.setMtu(config.getMtu());
+    }
+
+    /**
+     * KCP使用的毫秒时钟，只需要相对时间，溢出以后通过有符号的差值比较
+     */
+    private static int currentMillis() {
+        return (int) (System.nanoTime() / 1_000_000);
+    }
+
+    /**
+     * 开始驱动KCP的重传和flush
+     */
+    public void start() {
+        getChannel().eventLoop().execute(() -> {
+            lastReceiveTime = currentMillis();
+            kcp.update(lastReceiveTime);
+            scheduleUpdate(lastReceiveTime);
+        });
+    }
+
+    private void update() {
+        updateFuture = null;
+        if (closed) {
+            return;
+        }
+        var now = currentMillis();
+        kcp.update(now);
+        getChannel().flush();
+
+        if (kcp.isDeadLink()) {
+            logger.warn("kcp session dead link and will be closed {} [remote:{}]", SessionUtils.sessionSimpleInfo(this), remoteAddress);
+            close();
+        } else if (config.getIdleTimeout() > 0 && now - lastReceiveTime > config.getIdleTimeout()) {
+            logger.warn("kcp session idle timeout and will be closed {} [remote:{}]", SessionUtils.sessionSimpleInfo(this), remoteAddress);
+            close();
+        } else {
+            scheduleUpdate(now);
+        }
+    }
+
+    /**
+     * 按照kcp.check的时间调度下一次update，不使用固定频率的定时任务，空闲的session只在空闲超时的时候检查一次
+     * <p>
+     * 已经有更早的update的时候不重新调度，send和input以后调用，让新的数据和ACK及时发送
+     */
+    private void scheduleUpdate(int now) {
+        if (closed) {
+            return;
+        }
+        var next = kcp.check(now);
+        if (config.getIdleTimeout() > 0) {
+            var idleTime = lastReceiveTime + config.getIdleTimeout() + 1;
+            if (idleTime - next < 0) {
+                next = idleTime;
+            }
+        }
+        if (updateFuture != null) {
+            if (next - nextUpdateTime >= 0) {
+                return;
+            }
+            updateFuture.cancel(false);
+        }
+        nextUpdateTime = next;
+        updateFuture = getChannel().eventLoop().schedule(this::update, Math.max(next - now, 1), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在任意线程中调用，编码在调用线程中执行
+     */
+    public void send(EncodedPacketInfo packetInfo) {
+        if (closed) {
+            logger.warn("kcp session is closed and can not send [protocolId:{}] {}", packetInfo.getPacket().protocolId(), SessionUtils.sessionSimpleInfo(this));
+            return;
+        }
+
+        var buffer = getChannel().alloc().heapBuffer();
+        byte[] bytes;
+        try {
+            NetContext.getPacketService().write(buffer, packetInfo.getPacket(), packetInfo.getAttachment());
+            bytes = new byte[buffer.readableBytes()];
+            buffer.readBytes(bytes);
+        } finally {
+            buffer.release();
+        }
+        increaseWriteBytes(bytes.length);
+
+        var eventLoop = getChannel().eventLoop();
+        if (eventLoop.inEventLoop()) {
+            doSend(bytes);
+        } else {
+            eventLoop.execute(() -> doSend(bytes));
+        }
+    }
+
+    private void doSend(byte[] bytes) {
+        if (closed) {
+            return;
+        }
+        if (kcp.send(bytes, 0, bytes.length) < 0) {
+            logger.error("kcp session send packet too large [length:{}] [mss:{}] {}", bytes.length, kcp.getMss(), SessionUtils.sessionSimpleInfo(this));
+            return;
+        }
+        // nodelay模式下不等待下一次update，立刻发送
+        if (config.getNodelay() > 0) {
+            kcp.flush();
+            getChannel().flush();
+            increaseFlushCount();
+        }
+        scheduleUpdate(currentMillis());
+    }
+
+    /**
+     * 在io线程中调用，输入一个udp包，解析出完整的帧以后交给Router处理
+     */
+    public void input(ByteBuf content) {
+        if (closed) {
+            return;
+        }
+
+        var bytes = new byte[content.readableBytes()];
+        content.readBytes(bytes);
+        if (kcp.input(bytes, 0, bytes.length) < 0) {
+            return;
+        }
+        var now = currentMillis();
+        lastReceiveTime = now;
+
+        byte[] frame;
+        while ((frame = kcp.recv()) != null) {
+            try {
+                var buffer = Unpooled.wrappedBuffer(frame);
+                // 包的长度，KCP的消息已经是完整的帧
+                buffer.skipBytes(PacketService.PACKET_HEAD_LENGTH);
+                var packetInfo = NetContext.getPacketService().read(buffer);
+                NetContext.getRouter().receive(this, packetInfo.getPacket(), packetInfo.getAttachment());
+            } catch (Throwable t) {
+                logger.error("kcp session decode exception {} [remote:{}]", SessionUtils.sessionSimpleInfo(this), remoteAddress, t);
+            }
+        }
+
+        // nodelay模式下立刻回复ACK，减少对方的重传
+        if (config.getNodelay() > 0) {
+            kcp.flush();
+            getChannel().flush();
+        }
+        scheduleUpdate(now);
+    }
+
+    /**
+     * 多个KcpSession共用一个channel，关闭的时候只移除自己，不关闭channel
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        var eventLoop = getChannel().eventLoop();
+        if (eventLoop.inEventLoop()) {
+            cancelUpdate();
+        } else {
+            eventLoop.execute(this::cancelUpdate);
+        }
+        handler.removeSession(this);
+
+        if (server) {
+            NetContext.getSessionManager().removeServerSession(this);
+            EventBus.asyncSubmit(ServerSessionInactiveEvent.valueOf(this));
+            logger.warn("kcp server session is inactive {} [remote:{}]", SessionUtils.sessionSimpleInfo(this), remoteAddress);
+        } else {
+            var consumeAttribute = getAttribute(AttributeType.CONSUMER);
+            NetContext.getSessionManager().removeClientSession(this);
+            EventBus.asyncSubmit(ClientSessionInactiveEvent.valueOf(this));
+            // 客户端独占一个channel，可以直接关闭
+            getChannel().close();
+            if (consumeAttribute != null) {
+                NetContext.getConfigManager().getRegistry().checkConsumer();
+            }
+            logger.warn("kcp client session is inactive {} [remote:{}]", SessionUtils.sessionSimpleInfo(this), remoteAddress);
+        }
+    }
+
+    private void cancelUpdate() {
+        if (updateFuture != null) {
+            updateFuture.cancel(false);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getConv() {
+        return kcp.getConv();
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * 还没有被对方确认的消息的数量，可以用来判断是否发送得太快
+     */
+    public int waitSnd() {
+        return kcp.waitSnd();
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import java.net.SocketAddress;
+import java.util.Objects;
+
+/**
+ * 共享内存连接的一端，客户端的localAddress等于服务器的remoteAddress
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmAddress extends SocketAddress {
+
+    private final String path;
+    private final boolean client;
+
+    public ShmAddress(String path, boolean client) {
+        this.path = path;
+        this.client = client;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ShmAddress that = (ShmAddress) o;
+        return client == that.client && Objects.equals(path, that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, client);
+    }
+
+    @Override
+    public String toString() {
+        return "shm:" + path + (client ? "#client" : "#server");
+    }
+
+}
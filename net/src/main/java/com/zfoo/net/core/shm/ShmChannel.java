@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import com.zfoo.protocol.util.IOUtils;
+import com.zfoo.util.ThreadUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AbstractChannel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelMetadata;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 共享内存连接的channel，pipeline和TCP相同（TcpCodecHandler + RouteHandler），所以Session，帧的格式，网关的透传都不需要修改
+ * <p>
+ * 每个channel注册在一个单线程的io线程上，pipeline的读写都在io线程中执行，和socket的channel一样可以使用OutboundQueue，PacketBatcher，FlushBatcher。
+ * ShmConnection的读线程只负责把环形缓冲区中的字节拷贝出来交给io线程，不会执行pipeline，也就不会因为发送而阻塞。
+ * <p>
+ * 写入的时候环形缓冲区满了，剩下的字节留在netty的发送缓冲区中，channel超过高水位以后变为不可写，
+ * io线程定时重试，超过writeTimeout对方还没有读取则关闭连接。
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmChannel extends AbstractChannel {
+
+    private static final ChannelMetadata METADATA = new ChannelMetadata(false);
+
+    /**
+     * 所有共享内存连接共用的io线程，一个channel固定在其中的一个线程
+     */
+    private static final EventLoopGroup eventLoopGroup = new DefaultEventLoopGroup(Runtime.getRuntime().availableProcessors(), new DefaultThreadFactory("shm-io", true));
+
+    private final ChannelConfig config;
+    private final ShmConnection connection;
+    private final ShmAddress localAddress;
+    private final ShmAddress remoteAddress;
+
+    private volatile boolean open = true;
+
+    /**
+     * 读线程已经交给io线程，但是io线程还没有处理的字节数，超过环形缓冲区的大小读线程暂停读取
+     */
+    private final AtomicInteger pendingReadBytes = new AtomicInteger(0);
+
+    /**
+     * 下面的变量只在io线程中访问；fullTime为环形缓冲区满了以后开始等待的时间，0表示没有等待
+     */
+    private long fullTime;
+    private boolean flushScheduled;
+
+    private final Runnable flushTask = () -> {
+        flushScheduled = false;
+        unsafe().flush();
+    };
+
+    private ShmChannel(ShmConnection connection) {
+        super(null);
+        this.connection = connection;
+        this.config = new DefaultChannelConfig(this);
+        this.config.setWriteBufferWaterMark(new WriteBufferWaterMark(16 * IOUtils.BYTES_PER_KB, 16 * IOUtils.BYTES_PER_MB));
+        var path = connection.getPath().toString();
+        this.localAddress = new ShmAddress(path, !connection.isServer());
+        this.remoteAddress = new ShmAddress(path, connection.isServer());
+    }
+
+    /**
+     * 注册以后channel就是active的，pipeline中的RouteHandler会收到channelActive
+     */
+    public static ShmChannel open(ShmConnection connection, ChannelHandler initializer) throws Exception {
+        var channel = new ShmChannel(connection);
+        channel.pipeline().addLast(initializer);
+        eventLoopGroup.register(channel).sync();
+        return channel;
+    }
+
+    public synchronized static void shutdown() {
+        ThreadUtils.shutdownEventLoopGracefully("shm-io", eventLoopGroup);
+    }
+
+    /**
+     * 读线程调用，把从环形缓冲区中读取的字节交给io线程解码
+     */
+    void fireRead(ByteBuf byteBuf) {
+        var length = byteBuf.readableBytes();
+        pendingReadBytes.addAndGet(length);
+        try {
+            eventLoop().execute(() -> {
+                pendingReadBytes.addAndGet(-length);
+                if (!isActive()) {
+                    byteBuf.release();
+                    return;
+                }
+                pipeline().fireChannelRead(byteBuf);
+                pipeline().fireChannelReadComplete();
+            });
+        } catch (RejectedExecutionException e) {
+            pendingReadBytes.addAndGet(-length);
+            byteBuf.release();
+        }
+    }
+
+    int pendingReadBytes() {
+        return pendingReadBytes.get();
+    }
+
+    /**
+     * 在io线程中调用，把发送缓冲区中的字节尽可能多的写入环形缓冲区，写入以后对方立刻可见
+     */
+    @Override
+    protected void doWrite(ChannelOutboundBuffer in) throws Exception {
+        while (!in.isEmpty()) {
+            if (connection.isClosed() || connection.isPeerClosed()) {
+                throw new ClosedChannelException();
+            }
+
+            var nioBuffers = in.nioBuffers();
+            var nioBufferCount = in.nioBufferCount();
+            var writtenBytes = 0L;
+            var full = false;
+            for (var i = 0; i < nioBufferCount; i++) {
+                var nioBuffer = nioBuffers[i];
+                writtenBytes += connection.write(nioBuffer);
+                if (nioBuffer.hasRemaining()) {
+                    full = true;
+                    break;
+                }
+            }
+            in.removeBytes(writtenBytes);
+
+            if (!full) {
+                continue;
+            }
+
+            // 环形缓冲区满了，不阻塞io线程，稍后重试
+            var now = System.currentTimeMillis();
+            if (writtenBytes > 0 || fullTime == 0) {
+                fullTime = now;
+            } else if (now - fullTime > connection.getConfig().getWriteTimeout()) {
+                throw new IOException("shm ring is full and peer does not read in " + connection.getConfig().getWriteTimeout() + "ms: " + connection.getPath());
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                eventLoop().schedule(flushTask, connection.getConfig().getParkMicros(), TimeUnit.MICROSECONDS);
+            }
+            return;
+        }
+        fullTime = 0;
+    }
+
+    @Override
+    protected Object filterOutboundMessage(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return msg;
+        }
+        throw new UnsupportedOperationException("shm channel only supports ByteBuf but found " + msg.getClass().getSimpleName());
+    }
+
+    @Override
+    protected void doClose() {
+        open = false;
+        connection.close();
+    }
+
+    @Override
+    protected void doDisconnect() {
+        doClose();
+    }
+
+    @Override
+    protected void doBind(SocketAddress localAddress) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected void doBeginRead() {
+        // 读取由ShmConnection的读线程驱动
+    }
+
+    @Override
+    protected boolean isCompatible(EventLoop loop) {
+        return loop instanceof DefaultEventLoop;
+    }
+
+    @Override
+    protected AbstractUnsafe newUnsafe() {
+        return new ShmUnsafe();
+    }
+
+    @Override
+    protected SocketAddress localAddress0() {
+        return localAddress;
+    }
+
+    @Override
+    protected SocketAddress remoteAddress0() {
+        return remoteAddress;
+    }
+
+    @Override
+    public ChannelConfig config() {
+        return config;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isActive() {
+        return open;
+    }
+
+    @Override
+    public ChannelMetadata metadata() {
+        return METADATA;
+    }
+
+    public ShmConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * 连接在创建channel之前已经通过ShmConnection建立，不支持再次connect
+     */
+    private class ShmUnsafe extends AbstractUnsafe {
+        @Override
+        public void connect(SocketAddress remoteAddress, SocketAddress localAddress, ChannelPromise promise) {
+            safeSetFailure(promise, new UnsupportedOperationException("shm channel is already connected"));
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.core.AbstractClient;
+import com.zfoo.net.handler.BaseRouteHandler;
+import com.zfoo.net.handler.ClientRouteHandler;
+import com.zfoo.net.handler.codec.tcp.TcpCodecHandler;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.protocol.exception.ExceptionUtils;
+import com.zfoo.util.net.HostAndPort;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+
+/**
+ * 共享内存的客户端，一个ShmClient对应一个连接文件，只能连接同一台机器上的ShmServer
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmClient extends AbstractClient {
+
+    private final ShmConfig config;
+
+    public ShmClient(HostAndPort host) {
+        this(host, ShmConfig.defaultConfig());
+    }
+
+    public ShmClient(HostAndPort host, ShmConfig config) {
+        super(host);
+        this.config = config;
+    }
+
+    @Override
+    public synchronized Session start() {
+        ShmConnection connection = null;
+        try {
+            connection = ShmConnection.connect(ShmConnection.directory(config, port), config);
+            var channel = ShmChannel.open(connection, channelChannelInitializer());
+            var session = BaseRouteHandler.initChannel(channel);
+            NetContext.getSessionManager().addClientSession(session);
+            connection.start(channel);
+            logger.info("ShmClient started at [{}]", connection.getPath());
+            return session;
+        } catch (Exception e) {
+            if (connection != null) {
+                connection.close();
+            }
+            logger.error(ExceptionUtils.getMessage(e));
+        }
+        return null;
+    }
+
+    @Override
+    public ChannelInitializer<Channel> channelChannelInitializer() {
+        return new ChannelHandlerInitializer();
+    }
+
+
+    private static class ChannelHandlerInitializer extends ChannelInitializer<Channel> {
+        @Override
+        protected void initChannel(Channel channel) {
+            channel.pipeline().addLast(new TcpCodecHandler());
+            channel.pipeline().addLast(new ClientRouteHandler());
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import com.zfoo.protocol.util.IOUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 共享内存传输的配置，ShmServer和ShmClient需要使用相同的directory
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmConfig {
+
+    /**
+     * 共享内存文件所在的目录，linux下默认为/dev/shm（内存文件系统，不会刷盘）
+     */
+    private String directory;
+
+    /**
+     * 每个方向的环形缓冲区的大小，必须是2的幂，由客户端决定
+     */
+    private int capacity;
+
+    /**
+     * 没有数据的时候，先忙等spinCount次再挂起，忙等越久延迟越低，占用的cpu越多
+     */
+    private int spinCount;
+
+    /**
+     * 忙等以后每次挂起的时间，微秒
+     */
+    private int parkMicros;
+
+    /**
+     * 超过这个时间对方没有更新心跳则认为对方的进程已经退出，关闭连接，毫秒
+     */
+    private int idleTimeout;
+
+    /**
+     * 客户端等待服务器接受连接的时间，毫秒
+     */
+    private int connectTimeout;
+
+    /**
+     * 发送的时候环形缓冲区满了，超过这个时间对方还没有读取则关闭连接，毫秒
+     */
+    private int writeTimeout;
+
+    public static ShmConfig valueOf(String directory, int capacity, int spinCount, int parkMicros, int idleTimeout, int connectTimeout, int writeTimeout) {
+        var config = new ShmConfig();
+        config.directory = directory;
+        config.capacity = capacity;
+        config.spinCount = spinCount;
+        config.parkMicros = parkMicros;
+        config.idleTimeout = idleTimeout;
+        config.connectTimeout = connectTimeout;
+        config.writeTimeout = writeTimeout;
+        return config;
+    }
+
+    public static ShmConfig defaultConfig() {
+        var shm = Path.of("/dev/shm");
+        var directory = Files.isDirectory(shm) ? shm.toString() : System.getProperty("java.io.tmpdir");
+        return valueOf(directory, 4 * IOUtils.BYTES_PER_MB, 10000, 50, 10000, 3000, 5000);
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSpinCount() {
+        return spinCount;
+    }
+
+    public int getParkMicros() {
+        return parkMicros;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+}
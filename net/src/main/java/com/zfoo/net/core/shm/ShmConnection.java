@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一个共享内存连接，对应一个内存映射文件：头部 + 客户端到服务器的环形缓冲区 + 服务器到客户端的环形缓冲区
+ * <p>
+ * 客户端创建文件并且初始化头部，状态设置为CLIENT_READY；服务器扫描目录发现新的文件，把状态修改为ACCEPTED，连接建立。
+ * 每个连接有一个读线程，先忙等再挂起，读到的字节交给channel的io线程解码；写入只在channel的io线程中执行，所以只有一个生产者。
+ * <p>
+ * 双方的读线程定期在头部更新自己的心跳，对方的进程崩溃以后心跳超时，关闭连接。
+ * 映射的内存不主动释放，等待GC回收，防止关闭的时候其它线程还在访问导致进程崩溃。
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmConnection {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShmConnection.class);
+
+    public static final String FILE_SUFFIX = ".ring";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x7A666F6F;
+
+    private static final int STATE_CLIENT_READY = 1;
+    private static final int STATE_ACCEPTED = 2;
+
+    private static final int CLOSED_CLIENT = 1;
+    private static final int CLOSED_SERVER = 2;
+
+    // 头部的布局，心跳各自独占一个缓存行
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int STATE_OFFSET = 8;
+    private static final int CLOSED_OFFSET = 12;
+    private static final int CLIENT_HEARTBEAT_OFFSET = 64;
+    private static final int SERVER_HEARTBEAT_OFFSET = 128;
+    private static final int HEADER_SIZE = 192;
+
+    private static final long HEARTBEAT_PERIOD = 1000;
+
+    /**
+     * 每次从环形缓冲区读取的最大字节数
+     */
+    private static final int MAX_READ_BYTES = 64 * 1024;
+
+    private static final AtomicInteger ATOMIC_ID = new AtomicInteger(0);
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final ShmConfig config;
+    private final boolean server;
+
+    private final ShmRing inbound;
+    private final ShmRing outbound;
+
+    private volatile boolean closed;
+    private volatile ShmChannel channel;
+
+    private ShmConnection(Path path, MappedByteBuffer buffer, ShmConfig config, boolean server) {
+        this.path = path;
+        this.buffer = buffer;
+        this.config = config;
+        this.server = server;
+        var capacity = (int) ShmRing.INT_HANDLE.get(buffer, CAPACITY_OFFSET);
+        var clientToServer = new ShmRing(buffer, HEADER_SIZE, capacity);
+        var serverToClient = new ShmRing(buffer, HEADER_SIZE + ShmRing.size(capacity), capacity);
+        this.inbound = server ? clientToServer : serverToClient;
+        this.outbound = server ? serverToClient : clientToServer;
+    }
+
+    /**
+     * 服务器监听的目录，同一个目录下通过端口区分不同的服务器
+     */
+    public static Path directory(ShmConfig config, int port) {
+        return Path.of(config.getDirectory(), "zfoo-shm-" + port);
+    }
+
+    private static MappedByteBuffer map(Path path, long size, StandardOpenOption... options) throws IOException {
+        try (var fileChannel = FileChannel.open(path, options)) {
+            return fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * 客户端创建连接，等待服务器接受
+     */
+    public static ShmConnection connect(Path directory, ShmConfig config) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("shm server is not started, directory does not exist: " + directory);
+        }
+        var capacity = config.getCapacity();
+        var size = HEADER_SIZE + 2L * ShmRing.size(capacity);
+        var name = ProcessHandle.current().pid() + "-" + ATOMIC_ID.incrementAndGet() + "-" + System.nanoTime();
+        var tempPath = directory.resolve(name + TEMP_SUFFIX);
+        var path = directory.resolve(name + FILE_SUFFIX);
+
+        // 先在临时文件中初始化头部，再原子的重命名，服务器不会看到初始化了一半的文件
+        var buffer = map(tempPath, size, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ShmRing.INT_HANDLE.set(buffer, MAGIC_OFFSET, MAGIC);
+        ShmRing.INT_HANDLE.set(buffer, CAPACITY_OFFSET, capacity);
+        ShmRing.LONG_HANDLE.set(buffer, CLIENT_HEARTBEAT_OFFSET, System.currentTimeMillis());
+        ShmRing.INT_HANDLE.setRelease(buffer, STATE_OFFSET, STATE_CLIENT_READY);
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+
+        var connection = new ShmConnection(path, buffer, config, false);
+        var deadline = System.currentTimeMillis() + config.getConnectTimeout();
+        while ((int) ShmRing.INT_HANDLE.getAcquire(buffer, STATE_OFFSET) != STATE_ACCEPTED) {
+            if (System.currentTimeMillis() > deadline) {
+                Files.deleteIfExists(path);
+                throw new IOException("shm server does not accept connection in " + config.getConnectTimeout() + "ms: " + path);
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return connection;
+    }
+
+    /**
+     * 服务器接受客户端创建的连接
+     *
+     * @return 文件不是一个等待接受的连接则返回null
+     */
+    public static ShmConnection accept(Path path, ShmConfig config) throws IOException {
+        var size = Files.size(path);
+        if (size < HEADER_SIZE) {
+            return null;
+        }
+        var buffer = map(path, size, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if ((int) ShmRing.INT_HANDLE.getAcquire(buffer, MAGIC_OFFSET) != MAGIC) {
+            return null;
+        }
+        var capacity = (int) ShmRing.INT_HANDLE.get(buffer, CAPACITY_OFFSET);
+        if (size < HEADER_SIZE + 2L * ShmRing.size(capacity)) {
+            return null;
+        }
+        ShmRing.LONG_HANDLE.setRelease(buffer, SERVER_HEARTBEAT_OFFSET, System.currentTimeMillis());
+        if (!ShmRing.INT_HANDLE.compareAndSet(buffer, STATE_OFFSET, STATE_CLIENT_READY, STATE_ACCEPTED)) {
+            return null;
+        }
+        return new ShmConnection(path, buffer, config, true);
+    }
+
+    /**
+     * 开始读取对方发送过来的字节，交给channel的io线程解码
+     */
+    public void start(ShmChannel channel) {
+        this.channel = channel;
+        var thread = new FastThreadLocalThread(this::readLoop, "shm-reader-" + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readLoop() {
+        var idle = 0;
+        var lastHeartbeat = 0L;
+        while (!closed) {
+            try {
+                // io线程处理不过来的时候暂停读取，数据留在环形缓冲区中，对方写满以后等待
+                var readableBytes = channel.pendingReadBytes() < inbound.capacity() ? inbound.readableBytes() : 0;
+                if (readableBytes > 0) {
+                    var length = Math.min(readableBytes, MAX_READ_BYTES);
+                    ByteBuf byteBuf = channel.alloc().ioBuffer(length);
+                    var n = inbound.read(byteBuf.nioBuffer(byteBuf.writerIndex(), length));
+                    byteBuf.writerIndex(byteBuf.writerIndex() + n);
+                    channel.fireRead(byteBuf);
+                    idle = 0;
+                    continue;
+                }
+
+                var now = System.currentTimeMillis();
+                if (now - lastHeartbeat >= HEARTBEAT_PERIOD) {
+                    lastHeartbeat = now;
+                    ShmRing.LONG_HANDLE.setRelease(buffer, server ? SERVER_HEARTBEAT_OFFSET : CLIENT_HEARTBEAT_OFFSET, now);
+                    if (isPeerClosed()) {
+                        logger.warn("shm connection is closed by peer [{}]", path);
+                        channel.close();
+                        return;
+                    }
+                    var peerHeartbeat = (long) ShmRing.LONG_HANDLE.getAcquire(buffer, server ? CLIENT_HEARTBEAT_OFFSET : SERVER_HEARTBEAT_OFFSET);
+                    if (now - peerHeartbeat > config.getIdleTimeout()) {
+                        logger.warn("shm connection peer heartbeat timeout and will be closed [{}]", path);
+                        channel.close();
+                        return;
+                    }
+                }
+                idle = idle(idle);
+            } catch (Throwable t) {
+                logger.error("shm connection read exception [{}]", path, t);
+                channel.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 先忙等，再挂起
+     */
+    private int idle(int idle) {
+        if (idle < config.getSpinCount()) {
+            Thread.onSpinWait();
+            return idle + 1;
+        }
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(config.getParkMicros()));
+        return idle;
+    }
+
+    boolean isPeerClosed() {
+        var closedBits = (int) ShmRing.INT_HANDLE.getAcquire(buffer, CLOSED_OFFSET);
+        return (closedBits & (server ? CLOSED_CLIENT : CLOSED_SERVER)) != 0;
+    }
+
+    /**
+     * 只在channel的io线程中调用，写入src中尽可能多的字节，不会等待
+     *
+     * @return 写入的字节数，环形缓冲区满了返回0
+     */
+    int write(ByteBuffer src) {
+        return outbound.write(src);
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ShmRing.INT_HANDLE.getAndBitwiseOr(buffer, CLOSED_OFFSET, server ? CLOSED_SERVER : CLOSED_CLIENT);
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("shm connection delete file exception [{}]", path, e);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isServer() {
+        return server;
+    }
+
+    public ShmConfig getConfig() {
+        return config;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+}
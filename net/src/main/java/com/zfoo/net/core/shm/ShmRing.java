@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 共享内存中的单生产者单消费者环形缓冲区，传输的是字节流，和TCP一样由上层的TcpCodecHandler拆分帧
+ * <p>
+ * 布局：写指针（独占一个缓存行） + 读指针（独占一个缓存行） + 数据区，指针是单调递增的long，数据区的大小为2的幂。
+ * 生产者发布写指针使用release语义，消费者读取写指针使用acquire语义，读指针反之，所以不需要锁也能跨进程同步。
+ * <p>
+ * 一个进程中一个环形缓冲区要么只写要么只读，写入的线程需要调用者保证只有一个（ShmChannel的io线程）
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmRing {
+
+    static final VarHandle LONG_HANDLE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    static final VarHandle INT_HANDLE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int CACHE_LINE = 64;
+
+    private static final int WRITE_INDEX_OFFSET = 0;
+    private static final int READ_INDEX_OFFSET = 2 * CACHE_LINE;
+    public static final int HEADER_SIZE = 4 * CACHE_LINE;
+
+    private final ByteBuffer buffer;
+    private final int writeIndexOffset;
+    private final int readIndexOffset;
+    private final int dataOffset;
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * 拷贝数据使用的视图，只在当前进程唯一的读或者写线程中使用
+     */
+    private final ByteBuffer view;
+
+    /**
+     * 缓存的对方的指针，只有空间不够的时候才重新读取，减少缓存行的竞争
+     */
+    private long cachedReadIndex;
+    private long cachedWriteIndex;
+
+    /**
+     * @param buffer   映射的共享内存，offset需要8字节对齐
+     * @param capacity 数据区的大小，必须是2的幂
+     */
+    public ShmRing(ByteBuffer buffer, int offset, int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("shm ring capacity must be a power of 2 but is " + capacity);
+        }
+        if ((offset & 7) != 0) {
+            throw new IllegalArgumentException("shm ring offset must be aligned to 8 bytes but is " + offset);
+        }
+        this.buffer = buffer;
+        this.writeIndexOffset = offset + WRITE_INDEX_OFFSET;
+        this.readIndexOffset = offset + READ_INDEX_OFFSET;
+        this.dataOffset = offset + HEADER_SIZE;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.view = buffer.duplicate();
+        this.cachedReadIndex = readIndex();
+        this.cachedWriteIndex = writeIndex();
+    }
+
+    /**
+     * 一个环形缓冲区占用的字节数
+     */
+    public static int size(int capacity) {
+        return HEADER_SIZE + capacity;
+    }
+
+    private long writeIndex() {
+        return (long) LONG_HANDLE.getAcquire(buffer, writeIndexOffset);
+    }
+
+    private long readIndex() {
+        return (long) LONG_HANDLE.getAcquire(buffer, readIndexOffset);
+    }
+
+    /**
+     * 生产者调用，写入src中尽可能多的字节
+     *
+     * @return 写入的字节数，缓冲区满了返回0
+     */
+    public int write(ByteBuffer src) {
+        var writeIndex = (long) LONG_HANDLE.get(buffer, writeIndexOffset);
+        var length = src.remaining();
+        var free = capacity - (int) (writeIndex - cachedReadIndex);
+        if (free < length) {
+            cachedReadIndex = readIndex();
+            free = capacity - (int) (writeIndex - cachedReadIndex);
+        }
+        var n = Math.min(free, length);
+        if (n <= 0) {
+            return 0;
+        }
+
+        var position = (int) (writeIndex & mask);
+        var first = Math.min(n, capacity - position);
+        var limit = src.limit();
+        try {
+            src.limit(src.position() + first);
+            view.clear().position(dataOffset + position);
+            view.put(src);
+            if (first < n) {
+                src.limit(src.position() + n - first);
+                view.clear().position(dataOffset);
+                view.put(src);
+            }
+        } finally {
+            src.limit(limit);
+        }
+
+        LONG_HANDLE.setRelease(buffer, writeIndexOffset, writeIndex + n);
+        return n;
+    }
+
+    /**
+     * 消费者调用，读取尽可能多的字节到dst中
+     *
+     * @return 读取的字节数，缓冲区为空返回0
+     */
+    public int read(ByteBuffer dst) {
+        var readIndex = (long) LONG_HANDLE.get(buffer, readIndexOffset);
+        var available = (int) (cachedWriteIndex - readIndex);
+        if (available <= 0) {
+            cachedWriteIndex = writeIndex();
+            available = (int) (cachedWriteIndex - readIndex);
+        }
+        var n = Math.min(available, dst.remaining());
+        if (n <= 0) {
+            return 0;
+        }
+
+        var position = (int) (readIndex & mask);
+        var first = Math.min(n, capacity - position);
+        view.clear().position(dataOffset + position).limit(dataOffset + position + first);
+        dst.put(view);
+        if (first < n) {
+            view.clear().position(dataOffset).limit(dataOffset + n - first);
+            dst.put(view);
+        }
+
+        LONG_HANDLE.setRelease(buffer, readIndexOffset, readIndex + n);
+        return n;
+    }
+
+    /**
+     * 消费者调用，可以读取的字节数
+     */
+    public int readableBytes() {
+        var readIndex = (long) LONG_HANDLE.get(buffer, readIndexOffset);
+        var available = (int) (cachedWriteIndex - readIndex);
+        if (available <= 0) {
+            cachedWriteIndex = writeIndex();
+            available = (int) (cachedWriteIndex - readIndex);
+        }
+        return available;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import com.zfoo.net.core.AbstractServer;
+import com.zfoo.net.handler.ServerRouteHandler;
+import com.zfoo.net.handler.codec.tcp.TcpCodecHandler;
+import com.zfoo.protocol.exception.RunException;
+import com.zfoo.util.net.HostAndPort;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 同一台机器上的进程之间通过共享内存通信的服务器，不经过内核的网络协议栈
+ * <p>
+ * 只使用端口区分不同的服务器，host被忽略；客户端在目录中创建连接文件，服务器的accept线程扫描目录接受新的连接
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmServer extends AbstractServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShmServer.class);
+
+    private static final long ACCEPT_PERIOD_MILLIS = 10;
+
+    private final ShmConfig config;
+
+    private final Path directory;
+
+    /**
+     * key：连接文件的路径
+     */
+    private final Map<Path, ShmChannel> channelMap = new ConcurrentHashMap<>();
+
+    /**
+     * 不能接受的连接文件（服务器崩溃以后残留的已经接受过的连接，格式错误的文件），只在accept线程中访问，
+     * 记录下来不再重复的映射，文件被删除以后从这里移除
+     */
+    private final Set<Path> rejectedPaths = new HashSet<>();
+
+    private volatile boolean running;
+
+    public ShmServer(HostAndPort host) {
+        this(host, ShmConfig.defaultConfig());
+    }
+
+    public ShmServer(HostAndPort host, ShmConfig config) {
+        super(host);
+        this.config = config;
+        this.directory = ShmConnection.directory(config, port);
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RunException(e, "shm server can not create directory [{}]", directory);
+        }
+        running = true;
+        var thread = new Thread(this::acceptLoop, "shm-acceptor-" + port);
+        thread.setDaemon(true);
+        thread.start();
+
+        allServers.add(this);
+
+        logger.info("{} started at [{}] [capacity:{}]", this.getClass().getSimpleName(), directory, config.getCapacity());
+    }
+
+    private void acceptLoop() {
+        var existPaths = new HashSet<Path>();
+        while (running) {
+            existPaths.clear();
+            try (var paths = Files.newDirectoryStream(directory, "*" + ShmConnection.FILE_SUFFIX)) {
+                for (var path : paths) {
+                    existPaths.add(path);
+                    if (!channelMap.containsKey(path) && !rejectedPaths.contains(path)) {
+                        accept(path);
+                    }
+                }
+                rejectedPaths.retainAll(existPaths);
+            } catch (Throwable t) {
+                logger.error("shm server accept exception [{}]", directory, t);
+            }
+            // 移除已经关闭的连接
+            channelMap.values().removeIf(it -> it.getConnection().isClosed());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(ACCEPT_PERIOD_MILLIS));
+        }
+    }
+
+    private void accept(Path path) throws Exception {
+        ShmConnection connection;
+        try {
+            connection = ShmConnection.accept(path, config);
+        } catch (IOException e) {
+            logger.warn("shm server can not map connection file [{}]", path, e);
+            connection = null;
+        }
+        if (connection == null) {
+            logger.warn("shm server rejects connection file [{}]", path);
+            rejectedPaths.add(path);
+            return;
+        }
+        var channel = ShmChannel.open(connection, channelChannelInitializer());
+        channelMap.put(path, channel);
+        connection.start(channel);
+    }
+
+    @Override
+    public ChannelInitializer<Channel> channelChannelInitializer() {
+        return new ChannelHandlerInitializer();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        running = false;
+        for (var channel : channelMap.values()) {
+            try {
+                channel.close();
+            } catch (Exception e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+        channelMap.clear();
+    }
+
+
+    private static class ChannelHandlerInitializer extends ChannelInitializer<Channel> {
+        @Override
+        protected void initChannel(Channel channel) {
+            // 对方进程退出通过ShmConnection的心跳检测，不需要IdleStateHandler
+            channel.pipeline().addLast(new TcpCodecHandler());
+            channel.pipeline().addLast(new ServerRouteHandler());
+        }
+    }
+
+}
@@ -29,24 +29,50 @@ import io.netty.handler.timeout.IdleStateHandler;
  */
 public class TcpClient extends AbstractClient {
 
+    private boolean compress;
+
+    private boolean batch;
+
     public TcpClient(HostAndPort host) {
         super(host);
     }
 
+    /**
+     * 允许压缩，只有服务之间的连接才能开启（如consumer连接provider的客户端）
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * 允许多包的帧，只有consumer和provider之间的连接才能开启（如consumer连接provider的客户端），见PacketBatcher
+     */
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+
     @Override
     public ChannelInitializer<? extends Channel> channelChannelInitializer() {
-        return new ChannelHandlerInitializer();
+        return new ChannelHandlerInitializer(compress, batch);
     }
 
 
     private static class ChannelHandlerInitializer extends ChannelInitializer<SocketChannel> {
+        private final boolean compress;
+        private final boolean batch;
+
+        private ChannelHandlerInitializer(boolean compress, boolean batch) {
+            this.compress = compress;
+            this.batch = batch;
+        }
+
         @Override
         protected void initChannel(SocketChannel channel) {
             // 可以看出来，这个客户端检测到空闲的时间是60s，相对短一点，这样子就可以发送心跳。
             // 服务器端则是180s，相对长一点，一旦检测到空闲，则把客户端踢掉。
             channel.pipeline().addLast(new IdleStateHandler(0, 0, 60));
             channel.pipeline().addLast(new ClientIdleHandler());
-            channel.pipeline().addLast(new TcpCodecHandler());
+            channel.pipeline().addLast(new TcpCodecHandler(compress, batch));
             channel.pipeline().addLast(new ClientRouteHandler());
         }
     }
@@ -28,22 +28,48 @@ import io.netty.handler.timeout.IdleStateHandler;
  */
 public class TcpServer extends AbstractServer {
 
+    private boolean compress;
+
+    private boolean batch;
+
     public TcpServer(HostAndPort host) {
         super(host);
     }
 
+    /**
+     * 允许压缩，只有服务之间的连接才能开启（如provider的服务器），客户端生成的协议代码不支持压缩的帧
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * 允许多包的帧，只有consumer和provider之间的连接才能开启（如provider的服务器），见PacketBatcher
+     */
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+
     @Override
     public ChannelInitializer<SocketChannel> channelChannelInitializer() {
-        return new ChannelHandlerInitializer();
+        return new ChannelHandlerInitializer(compress, batch);
     }
 
 
     private static class ChannelHandlerInitializer extends ChannelInitializer<SocketChannel> {
+        private final boolean compress;
+        private final boolean batch;
+
+        private ChannelHandlerInitializer(boolean compress, boolean batch) {
+            this.compress = compress;
+            this.batch = batch;
+        }
+
         @Override
         protected void initChannel(SocketChannel channel) {
             channel.pipeline().addLast(new IdleStateHandler(0, 0, 180));
             channel.pipeline().addLast(new ServerIdleHandler());
-            channel.pipeline().addLast(new TcpCodecHandler());
+            channel.pipeline().addLast(new TcpCodecHandler(compress, batch));
             channel.pipeline().addLast(new ServerRouteHandler());
         }
     }
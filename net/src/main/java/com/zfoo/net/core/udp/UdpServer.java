@@ -44,6 +44,7 @@ public class UdpServer extends AbstractServer {
     @Override
     public void start() {
         var cpuNum = Runtime.getRuntime().availableProcessors();
+        var channelNum = reusePortChannelNum();
 
         // 配置服务端nio线程组
         workerGroup = Epoll.isAvailable()
@@ -56,14 +57,12 @@ public class UdpServer extends AbstractServer {
                 .option(ChannelOption.SO_BROADCAST, true)
                 .handler(channelChannelInitializer());
 
-        // 异步
-        channelFuture = bootstrap.bind(hostAddress, port);
-        channelFuture.syncUninterruptibly();
-        channel = channelFuture.channel();
+        // 异步，开启SO_REUSEPORT的时候绑定多个udp socket，分散到不同的worker线程上读取
+        bind(bootstrap, channelNum);
 
         allServers.add(this);
 
-        logger.info("{} started at [{}:{}]", this.getClass().getSimpleName(), hostAddress, port);
+        logger.info("{} started at [{}:{}] [channel:{}]", this.getClass().getSimpleName(), hostAddress, port, channels.size());
     }
 
     @Override
@@ -16,6 +16,8 @@ package com.zfoo.net.core.websocket;
 import com.zfoo.net.core.AbstractServer;
 import com.zfoo.net.handler.ServerRouteHandler;
 import com.zfoo.net.handler.codec.websocket.WebSocketCodecHandler;
+import com.zfoo.net.handler.codec.websocket.WebSocketCompressionHandler;
+import com.zfoo.net.handler.codec.websocket.WebSocketStats;
 import com.zfoo.protocol.util.IOUtils;
 import com.zfoo.util.net.HostAndPort;
 import io.netty.channel.ChannelInitializer;
@@ -31,31 +33,67 @@ import io.netty.handler.stream.ChunkedWriteHandler;
  */
 public class WebsocketServer extends AbstractServer {
 
+    /**
+     * 协商permessage-deflate压缩，需要客户端也支持（浏览器默认支持）；默认关闭，开启以后解压后的消息不能超过WebSocketCompressionHandler.DEFAULT_MAX_INFLATED_BYTES
+     */
+    private boolean compress;
+
+    /**
+     * 同一次flush之前写入的包合并到一个websocket帧中发送
+     */
+    private boolean mergeFrame;
+
     public WebsocketServer(HostAndPort host) {
         super(host);
     }
 
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public void setMergeFrame(boolean mergeFrame) {
+        this.mergeFrame = mergeFrame;
+    }
+
     @Override
     public ChannelInitializer<SocketChannel> channelChannelInitializer() {
-        return new ChannelHandlerInitializer();
+        return new ChannelHandlerInitializer(compress, mergeFrame);
     }
 
 
     public static class ChannelHandlerInitializer extends ChannelInitializer<SocketChannel> {
 
+        private final boolean compress;
+        private final boolean mergeFrame;
+
+        public ChannelHandlerInitializer() {
+            this(false, false);
+        }
+
+        public ChannelHandlerInitializer(boolean compress, boolean mergeFrame) {
+            this.compress = compress;
+            this.mergeFrame = mergeFrame;
+        }
+
         @Override
         public void initChannel(SocketChannel channel) {
+            // 统计实际写入socket的字节数
+            channel.pipeline().addLast(WebSocketStats.wireBytesHandler());
             // 编解码 http 请求
             channel.pipeline().addLast(new HttpServerCodec(8 * IOUtils.BYTES_PER_KB, 16 * IOUtils.BYTES_PER_KB, 16 * IOUtils.BYTES_PER_KB));
             // 聚合解码 HttpRequest/HttpContent/LastHttpContent 到 FullHttpRequest
             // 保证接收的 Http 请求的完整性
             channel.pipeline().addLast(new HttpObjectAggregator(16 * IOUtils.BYTES_PER_MB));
+            // permessage-deflate压缩，需要在WebSocketServerProtocolHandler之前
+            if (compress) {
+                channel.pipeline().addLast(new WebSocketCompressionHandler());
+            }
             // 处理其他的 WebSocketFrame
-            channel.pipeline().addLast(new WebSocketServerProtocolHandler("/websocket"));
+            channel.pipeline().addLast(new WebSocketServerProtocolHandler("/websocket", null, compress));
             // 写文件内容，支持异步发送大的码流，一般用于发送文件流
             channel.pipeline().addLast(new ChunkedWriteHandler());
             // 编解码WebSocketFrame二进制协议
-            channel.pipeline().addLast(new WebSocketCodecHandler());
+            channel.pipeline().addLast(new WebSocketCodecHandler(mergeFrame));
             channel.pipeline().addLast(new ServerRouteHandler());
         }
     }
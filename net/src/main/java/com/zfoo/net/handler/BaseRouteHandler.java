@@ -15,6 +15,7 @@ package com.zfoo.net.handler;
 
 import com.zfoo.net.NetContext;
 import com.zfoo.net.packet.model.DecodedPacketInfo;
+import com.zfoo.net.router.route.OutboundQueue;
 import com.zfoo.net.session.model.Session;
 import com.zfoo.net.util.SessionUtils;
 import com.zfoo.protocol.util.StringUtils;
@@ -58,6 +59,20 @@ public class BaseRouteHandler extends ChannelInboundHandlerAdapter {
         NetContext.getRouter().receive(session, decodedPacketInfo.getPacket(), decodedPacketInfo.getAttachment());
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        super.channelWritabilityChanged(ctx);
+        if (!ctx.channel().isWritable()) {
+            return;
+        }
+        var session = SessionUtils.getSession(ctx);
+        if (session == null) {
+            return;
+        }
+        // channel重新变为可写，发送session的发送队列中等待的包
+        OutboundQueue.drain(session);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         try {
@@ -15,6 +15,7 @@ package com.zfoo.net.handler;
 
 import com.zfoo.event.manager.EventBus;
 import com.zfoo.net.NetContext;
+import com.zfoo.net.consumer.balancer.AbstractConsumerLoadBalancer;
 import com.zfoo.net.consumer.balancer.ConsistentHashConsumerLoadBalancer;
 import com.zfoo.net.core.gateway.IGatewayLoadBalancer;
 import com.zfoo.net.core.gateway.model.GatewaySessionInactiveEvent;
@@ -22,9 +23,12 @@ import com.zfoo.net.packet.common.Heartbeat;
 import com.zfoo.net.packet.common.Ping;
 import com.zfoo.net.packet.common.Pong;
 import com.zfoo.net.packet.model.DecodedPacketInfo;
+import com.zfoo.net.packet.model.ForwardPacketInfo;
 import com.zfoo.net.router.attachment.GatewayAttachment;
 import com.zfoo.net.router.attachment.IAttachment;
 import com.zfoo.net.router.attachment.SignalAttachment;
+import com.zfoo.net.router.route.Deadline;
+import com.zfoo.net.router.route.SignalBridge;
 import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.session.model.Session;
 import com.zfoo.net.util.SessionUtils;
@@ -32,6 +36,7 @@ import com.zfoo.protocol.IPacket;
 import com.zfoo.protocol.util.JsonUtils;
 import com.zfoo.protocol.util.StringUtils;
 import com.zfoo.scheduler.util.TimeUtils;
+import com.zfoo.util.math.HashUtils;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
@@ -62,6 +67,12 @@ public class GatewayRouteHandler extends ServerRouteHandler {
             return;
         }
 
+        // 透传模式下只读取了协议号，直接转发原始的帧
+        if (msg instanceof ForwardPacketInfo) {
+            forwardingFrame(session, (ForwardPacketInfo) msg);
+            return;
+        }
+
         var decodedPacketInfo = (DecodedPacketInfo) msg;
         var packet = decodedPacketInfo.getPacket();
         if (packet.protocolId() == Heartbeat.PROTOCOL_ID) {
@@ -82,6 +93,8 @@ public class GatewayRouteHandler extends ServerRouteHandler {
 
         // 把客户端信息包装为一个GatewayAttachment,因此通过这个网关附加包可以得到玩家的uid、sid之类的信息
         var gatewayAttachment = new GatewayAttachment(session, signalAttachment);
+        // 使用网关自己的超时时间作为截止时间，不使用客户端附加包中的截止时间
+        gatewayAttachment.setDeadline(Deadline.askDeadline(SignalBridge.timeout(packet.protocolId())));
 
         // 网关优先使用IGatewayLoadBalancer作为一致性hash的计算参数，然后才会使用客户端的session做参数
         // 例子：以聊天服务来说，玩家知道自己在哪个群组groupId中，那往这个群发送消息时，会在Packet中带上这个groupId做为一致性hash就可以了。
@@ -111,6 +124,7 @@ public class GatewayRouteHandler extends ServerRouteHandler {
     private void forwardingPacket(IPacket packet, IAttachment attachment, Object argument) {
         try {
             var consumerSession = ConsistentHashConsumerLoadBalancer.getInstance().loadBalancer(packet, argument);
+            consumerSession = AbstractConsumerLoadBalancer.stripe(consumerSession, HashUtils.fnvHash(argument));
             NetContext.getRouter().send(consumerSession, packet, attachment);
         } catch (Exception e) {
             logger.error("网关发生异常", e);
@@ -119,6 +133,71 @@ public class GatewayRouteHandler extends ServerRouteHandler {
         }
     }
 
+    /**
+     * 透传客户端的原始帧到Provider，路由规则和forwardingPacket一致，网关不需要重新编码包体
+     * <p>
+     * 透传的帧是已经编码好的，不经过Router.send，只经过Router.sendEncoded中的发送队列，批量队列和flush合并，
+     * 所以透传模式不使用以下这些只在Router.send中生效的功能：
+     * <p>
+     * 1. LocalBridge，provider和网关在同一个进程中的时候透传的帧依然经过socket发送；
+     * 网关自己通过Router.send发送给同一个provider的包（如授权，断开连接的通知）会直接调用对方的Router.receive，可能超过之前透传的帧
+     * <p>
+     * 2. 压缩，客户端的原始帧原样转发，compress-threshold对透传的帧不生效
+     * <p>
+     * 之后在Router.send中增加的发送功能默认也不会作用于透传的帧，需要在这里单独处理
+     */
+    private void forwardingFrame(Session session, ForwardPacketInfo forwardPacketInfo) {
+        try {
+            var packet = forwardPacketInfo.getPacket();
+            if (packet != null && packetFilter != null && packetFilter.apply(session, packet)) {
+                throw new IllegalArgumentException(StringUtils.format(" session:{}发送了一个非法包[{}]"
+                        , SessionUtils.sessionSimpleInfo(session), JsonUtils.object2String(packet)));
+            }
+
+            // 客户端的附加包在Provider解码的时候放入GatewayAttachment
+            var gatewayAttachment = new GatewayAttachment(session, null);
+            gatewayAttachment.setDeadline(Deadline.askDeadline(SignalBridge.timeout(forwardPacketInfo.getProtocolId())));
+            Object argument;
+            if (packet instanceof IGatewayLoadBalancer) {
+                argument = ((IGatewayLoadBalancer) packet).loadBalancerConsistentHashObject();
+                gatewayAttachment.useExecutorConsistentHash(argument);
+            } else {
+                var uid = (Long) session.getAttribute(AttributeType.UID);
+                argument = uid != null ? uid : session.getSid();
+            }
+
+            var consumerSession = ConsistentHashConsumerLoadBalancer.getInstance().loadBalancer(forwardPacketInfo.getProtocolId(), argument);
+            // 同一个用户的包总是走同一个连接，保证转发的顺序
+            consumerSession = AbstractConsumerLoadBalancer.stripe(consumerSession, HashUtils.fnvHash(argument));
+            var channel = consumerSession.getChannel();
+            var frame = forwardPacketInfo.getFrame();
+
+            // 头部和原始帧组合在一起，原始帧不需要拷贝
+            var head = channel.alloc().ioBuffer();
+            var buffer = channel.alloc().compositeBuffer(2);
+            try {
+                NetContext.getPacketService().writeForwardHead(head, gatewayAttachment, frame.readableBytes());
+                buffer.addComponents(true, head, frame.retain());
+            } catch (Throwable t) {
+                buffer.release();
+                head.release();
+                throw t;
+            }
+
+            consumerSession.increaseWriteBytes(buffer.readableBytes());
+            // 和Router.send经过相同的发送队列，批量队列和flush合并，保证和网关自己发送的包的顺序
+            NetContext.getRouter().sendEncoded(consumerSession, buffer);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("网关发生异常", e);
+        } catch (Throwable t) {
+            logger.error("网关发生错误", t);
+        } finally {
+            forwardPacketInfo.release();
+        }
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         var session = SessionUtils.getSession(ctx);
@@ -12,6 +12,7 @@
 
 package com.zfoo.net.handler.codec.http;
 
+import com.zfoo.net.handler.codec.json.JsonPacketCodec;
 import com.zfoo.net.packet.common.Message;
 import com.zfoo.net.packet.model.DecodedPacketInfo;
 import com.zfoo.net.packet.model.EncodedPacketInfo;
@@ -90,8 +91,13 @@ public class HttpCodecHandler extends MessageToMessageCodec<FullHttpRequest, Enc
                 }
             } else {
                 var byteBuf = channelHandlerContext.alloc().ioBuffer();
-                var jsonStr = JsonUtils.object2String(packet);
-                byteBuf.writeBytes(StringUtils.bytes(jsonStr));
+                try {
+                    // 直接把json写入ByteBuf，不经过String
+                    JsonPacketCodec.writePacket(byteBuf, packet);
+                } catch (Throwable t) {
+                    byteBuf.release();
+                    throw t;
+                }
                 var fullHttpResponse = new DefaultFullHttpResponse(protocolVersion, httpResponseStatus, byteBuf);
 
                 fullHttpResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.handler.codec.json;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.zfoo.net.packet.model.DecodedPacketInfo;
+import com.zfoo.protocol.IPacket;
+import com.zfoo.protocol.ProtocolManager;
+import com.zfoo.protocol.exception.RunException;
+import com.zfoo.protocol.util.JsonUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * json格式的包的流式编解码，直接从ByteBuf中解析，直接写入ByteBuf，不经过String和中间的Map
+ * <p>
+ * 帧的格式和JsonPacket相同：{"protocolId":1,"packet":{...}}
+ * <p>
+ * protocolId在packet之前（JsonPacket序列化的顺序）只需要一次解析；packet在前则先把packet的token缓存下来，读到protocolId以后再反序列化
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class JsonPacketCodec {
+
+    private static final String PROTOCOL_ID_FIELD = "protocolId";
+    private static final String PACKET_FIELD = "packet";
+
+    /**
+     * 每个协议的ObjectReader，index为协议号；ObjectReader是不可变的，并发初始化也是安全的
+     */
+    private static final ObjectReader[] readers = new ObjectReader[ProtocolManager.MAX_PROTOCOL_NUM];
+
+    private static ObjectReader reader(short protocolId) {
+        var reader = readers[protocolId];
+        if (reader == null) {
+            var protocolClass = ProtocolManager.getProtocol(protocolId).protocolConstructor().getDeclaringClass();
+            reader = JsonUtils.MAPPER.readerFor(protocolClass);
+            readers[protocolId] = reader;
+        }
+        return reader;
+    }
+
+    /**
+     * 读取buffer中剩余的全部字节
+     * <p>
+     * ByteBufInputStream同时实现了DataInput，需要转换为InputStream来选择重载的方法
+     */
+    public static DecodedPacketInfo read(ByteBuf buffer) {
+        try (var parser = JsonUtils.MAPPER.getFactory().createParser((InputStream) new ByteBufInputStream(buffer))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RunException("json packet must be an object");
+            }
+
+            var protocolId = Short.MIN_VALUE;
+            IPacket packet = null;
+            TokenBuffer packetTokens = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                var fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (PROTOCOL_ID_FIELD.equals(fieldName)) {
+                    // 兼容字符串格式的协议号
+                    protocolId = parser.currentToken() == JsonToken.VALUE_STRING ? Short.parseShort(parser.getText()) : parser.getShortValue();
+                } else if (PACKET_FIELD.equals(fieldName)) {
+                    if (protocolId != Short.MIN_VALUE) {
+                        packet = reader(protocolId).readValue(parser);
+                    } else {
+                        packetTokens = TokenBuffer.asCopyOfValue(parser);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (protocolId == Short.MIN_VALUE) {
+                throw new RunException("json packet does not contain [{}]", PROTOCOL_ID_FIELD);
+            }
+            if (packetTokens != null) {
+                try (var tokenParser = packetTokens.asParser(JsonUtils.MAPPER)) {
+                    tokenParser.nextToken();
+                    packet = reader(protocolId).readValue(tokenParser);
+                }
+            }
+            if (packet == null) {
+                throw new RunException("json packet does not contain [{}] [protocolId:{}]", PACKET_FIELD, protocolId);
+            }
+            return DecodedPacketInfo.valueOf(packet, null);
+        } catch (RunException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RunException(e, "json packet decode exception");
+        }
+    }
+
+    /**
+     * 写入JsonPacket格式的帧：{"protocolId":1,"packet":{...}}
+     */
+    public static void write(ByteBuf buffer, IPacket packet) {
+        try (var generator = JsonUtils.MAPPER.getFactory().createGenerator((OutputStream) new ByteBufOutputStream(buffer))) {
+            generator.writeStartObject();
+            generator.writeNumberField(PROTOCOL_ID_FIELD, packet.protocolId());
+            generator.writeFieldName(PACKET_FIELD);
+            JsonUtils.MAPPER.writeValue(generator, packet);
+            generator.writeEndObject();
+        } catch (Exception e) {
+            throw new RunException(e, "json packet [protocolId:{}] encode exception", packet.protocolId());
+        }
+    }
+
+    /**
+     * 只写入包体的json，如http的返回
+     */
+    public static void writePacket(ByteBuf buffer, Object packet) {
+        try (var outputStream = new ByteBufOutputStream(buffer)) {
+            JsonUtils.MAPPER.writeValue((OutputStream) outputStream, packet);
+        } catch (Exception e) {
+            throw new RunException(e, "json [class:{}] encode exception", packet.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * 只读取包体的json，如http请求的content，可以在HttpServer的uriResolver中使用
+     */
+    public static <T> T readPacket(ByteBuf buffer, Class<T> clazz) {
+        try (var inputStream = new ByteBufInputStream(buffer)) {
+            return JsonUtils.MAPPER.readValue((InputStream) inputStream, clazz);
+        } catch (Exception e) {
+            throw new RunException(e, "json [class:{}] decode exception", clazz.getSimpleName());
+        }
+    }
+
+}
@@ -13,13 +13,7 @@
 
 package com.zfoo.net.handler.codec.json;
 
-import com.zfoo.net.packet.model.DecodedPacketInfo;
 import com.zfoo.net.packet.model.EncodedPacketInfo;
-import com.zfoo.protocol.IPacket;
-import com.zfoo.protocol.ProtocolManager;
-import com.zfoo.protocol.buffer.ByteBufUtils;
-import com.zfoo.protocol.util.JsonUtils;
-import com.zfoo.protocol.util.StringUtils;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
@@ -28,6 +22,8 @@ import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import java.util.List;
 
 /**
+ * json格式的websocket协议，编解码见JsonPacketCodec
+ *
  * @author godotg
  * @version 3.0
  */
@@ -35,26 +31,18 @@ public class JsonWebSocketCodecHandler extends MessageToMessageCodec<WebSocketFr
 
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, WebSocketFrame webSocketFrame, List<Object> list) {
-        var byteBuf = webSocketFrame.content();
-        var bytes = ByteBufUtils.readAllBytes(byteBuf);
-        var jsonStr = StringUtils.bytesToString(bytes);
-        var jsonMap = JsonUtils.getJsonMap(jsonStr);
-        var protocolId = Short.parseShort(jsonMap.get("protocolId"));
-        var packetStr = jsonMap.get("packet");
-        var protocolClass = ProtocolManager.getProtocol(protocolId).protocolConstructor().getDeclaringClass();
-        var packet = JsonUtils.string2Object(packetStr, protocolClass);
-        list.add(DecodedPacketInfo.valueOf((IPacket) packet, null));
+        list.add(JsonPacketCodec.read(webSocketFrame.content()));
     }
 
     @Override
     protected void encode(ChannelHandlerContext channelHandlerContext, EncodedPacketInfo out, List<Object> list) {
         var byteBuf = channelHandlerContext.alloc().ioBuffer();
-
-        var packet = out.getPacket();
-        var jsonPacket = JsonPacket.valueOf(packet.protocolId(), packet);
-        var bytes = StringUtils.bytes(JsonUtils.object2String(jsonPacket));
-        byteBuf.writeBytes(bytes);
-
+        try {
+            JsonPacketCodec.write(byteBuf, out.getPacket());
+        } catch (Throwable t) {
+            byteBuf.release();
+            throw t;
+        }
         list.add(new BinaryWebSocketFrame(byteBuf));
     }
 
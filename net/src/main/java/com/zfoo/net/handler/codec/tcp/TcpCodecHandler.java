@@ -17,6 +17,7 @@ import com.zfoo.net.NetContext;
 import com.zfoo.net.packet.model.DecodedPacketInfo;
 import com.zfoo.net.packet.model.EncodedPacketInfo;
 import com.zfoo.net.packet.service.PacketService;
+import com.zfoo.net.router.route.PacketBatcher;
 import com.zfoo.net.util.SessionUtils;
 import com.zfoo.protocol.util.IOUtils;
 import com.zfoo.protocol.util.StringUtils;
@@ -40,6 +41,33 @@ public class TcpCodecHandler extends ByteToMessageCodec<EncodedPacketInfo> {
 
     private static final Logger logger = LoggerFactory.getLogger(TcpCodecHandler.class);
 
+    /**
+     * 是否允许压缩，只有服务之间的连接才允许，见NetConfig的compressThreshold
+     */
+    private final boolean compress;
+
+    /**
+     * 是否允许多包的帧，只有consumer和provider之间的连接才允许，见PacketBatcher；面向客户端的连接收到多包的帧会断开连接
+     */
+    private final boolean batch;
+
+    public TcpCodecHandler() {
+        this(false, false);
+    }
+
+    public TcpCodecHandler(boolean compress) {
+        this(compress, false);
+    }
+
+    public TcpCodecHandler(boolean compress, boolean batch) {
+        this.compress = compress;
+        this.batch = batch;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
         // 不够读一个int
@@ -64,8 +92,7 @@ public class TcpCodecHandler extends ByteToMessageCodec<EncodedPacketInfo> {
         try {
             // readRetainedSlice和byte[]数组相比，readRetainedSlice减少了垃圾回收
             tmpByteBuf = in.readRetainedSlice(length);
-            DecodedPacketInfo packetInfo = NetContext.getPacketService().read(tmpByteBuf);
-            out.add(packetInfo);
+            decodeFrame(ctx, tmpByteBuf, out);
         } catch (Exception e) {
             logger.error("decode exception {}", SessionUtils.sessionSimpleInfo(ctx), e);
             throw e;
@@ -77,10 +104,31 @@ public class TcpCodecHandler extends ByteToMessageCodec<EncodedPacketInfo> {
         }
     }
 
+    /**
+     * 解码一个完整的帧
+     *
+     * @param frame 去掉长度以后的帧，调用者负责释放
+     */
+    protected void decodeFrame(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) {
+        var packetService = NetContext.getPacketService();
+        if (packetService.isBatch(frame)) {
+            if (!batch) {
+                throw new IllegalArgumentException(StringUtils.format("batch frame is not allowed {}", SessionUtils.sessionSimpleInfo(ctx)));
+            }
+            // 多包的帧拆成多个DecodedPacketInfo，之后的应答也合并成多包的帧返回
+            PacketBatcher.markPeer(ctx.channel());
+            packetService.readBatch(frame, out);
+        } else {
+            DecodedPacketInfo packetInfo = packetService.read(frame, compress);
+            out.add(packetInfo);
+        }
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, EncodedPacketInfo packetInfo, ByteBuf out) {
         try {
-            NetContext.getPacketService().write(out, packetInfo.getPacket(), packetInfo.getAttachment());
+            NetContext.getPacketService().write(out, packetInfo.getPacket(), packetInfo.getAttachment(), compress);
+            SessionUtils.recordWriteBytes(ctx, out.readableBytes());
         } catch (Exception e) {
             logger.error("[{}] encode exception {}", SessionUtils.sessionSimpleInfo(ctx), packetInfo.getPacket().getClass().getSimpleName(), e);
             throw e;
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.handler.codec.websocket;
+
+import com.zfoo.net.NetContext;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.List;
+
+/**
+ * 网关透传模式的解码器，只读取协议号，不解码包体，解码出来的是ForwardPacketInfo，由GatewayRouteHandler直接转发原始的帧
+ * <p>
+ * 心跳和ping这种网关自己处理的包依然会完整的解码为DecodedPacketInfo
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class GatewayWebSocketCodecHandler extends WebSocketCodecHandler {
+
+    /**
+     * 网关设置了包过滤器的时候需要解码包体
+     */
+    private final boolean decodePacket;
+
+    public GatewayWebSocketCodecHandler(boolean decodePacket) {
+        this(decodePacket, false);
+    }
+
+    public GatewayWebSocketCodecHandler(boolean decodePacket, boolean mergeFrame) {
+        super(mergeFrame);
+        this.decodePacket = decodePacket;
+    }
+
+    @Override
+    protected void decodeFrame(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) {
+        var packetService = NetContext.getPacketService();
+        var forwardPacketInfo = packetService.readForward(frame, decodePacket);
+        if (forwardPacketInfo == null) {
+            out.add(packetService.read(frame));
+        } else {
+            out.add(forwardPacketInfo);
+        }
+    }
+
+}
@@ -17,23 +17,35 @@ import com.zfoo.net.NetContext;
 import com.zfoo.net.packet.model.DecodedPacketInfo;
 import com.zfoo.net.packet.model.EncodedPacketInfo;
 import com.zfoo.net.packet.service.PacketService;
+import com.zfoo.net.util.SessionUtils;
 import com.zfoo.protocol.util.IOUtils;
 import com.zfoo.protocol.util.JsonUtils;
 import com.zfoo.protocol.util.StringUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToMessageCodec;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.PromiseNotifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * header(4byte) + protocolId(2byte) + packet
  * header = body(bytes.length) + protocolId.length(2byte)
+ * <p>
+ * 一个websocket帧中可以有多个包，每个包都有自己的header，解码的时候会依次解析出帧中所有的包
+ * <p>
+ * mergeFrame模式下，同一次flush之前写入的包合并到一个BinaryWebSocketFrame中发送，减少移动网络下websocket帧头和tcp包的数量，
+ * 客户端也需要按照上面的格式循环解析帧中的包
  *
  * @author jaysunxiao
  * @version 3.0
@@ -42,6 +54,29 @@ public class WebSocketCodecHandler extends MessageToMessageCodec<WebSocketFrame,
 
     private static final Logger logger = LoggerFactory.getLogger(WebSocketCodecHandler.class);
 
+    /**
+     * 一个合并的帧最大的字节数和包数量，超过以后不等flush直接发送
+     */
+    private static final int MERGE_MAX_BYTES = 64 * IOUtils.BYTES_PER_KB;
+    private static final int MERGE_MAX_PACKETS = 256;
+
+    private final boolean mergeFrame;
+
+    /**
+     * 下面的变量只在io线程中使用
+     */
+    private CompositeByteBuf mergeBuffer;
+    private int mergePackets;
+    private final List<ChannelPromise> mergePromises = new ArrayList<>();
+
+    public WebSocketCodecHandler() {
+        this(false);
+    }
+
+    public WebSocketCodecHandler(boolean mergeFrame) {
+        this.mergeFrame = mergeFrame;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, WebSocketFrame webSocketFrame, List<Object> list) {
         ByteBuf in = webSocketFrame.content();
@@ -51,43 +86,63 @@ public class WebSocketCodecHandler extends MessageToMessageCodec<WebSocketFrame,
             return;
         }
 
-        in.markReaderIndex();
-        var length = in.readInt();
+        while (in.isReadable()) {
+            // websocket的消息是完整的，帧中剩下的数据不够一个包说明帧的格式错误，抛出异常断开连接
+            if (in.readableBytes() < PacketService.PACKET_HEAD_LENGTH) {
+                throw new IllegalArgumentException(StringUtils.format("truncated packet head [readableBytes:{}]", in.readableBytes()));
+            }
 
-        // 如果长度非法，则抛出异常断开连接，按照自己的使用场景指定合适的长度，防止客户端发送超大包占用带宽
-        if (length < 0 || length > IOUtils.BYTES_PER_MB) {
-            throw new IllegalArgumentException(StringUtils.format("illegal packet [length:{}]", length));
-        }
+            var length = in.readInt();
 
-        // ByteBuf里的数据太小
-        if (in.readableBytes() < length) {
-            in.resetReaderIndex();
-            return;
-        }
+            // 如果长度非法，则抛出异常断开连接，按照自己的使用场景指定合适的长度，防止客户端发送超大包占用带宽
+            if (length < 0 || length > IOUtils.BYTES_PER_MB) {
+                throw new IllegalArgumentException(StringUtils.format("illegal packet [length:{}]", length));
+            }
 
-        ByteBuf tmpByteBuf = null;
-        try {
-            tmpByteBuf = in.readRetainedSlice(length);
-            DecodedPacketInfo packetInfo = NetContext.getPacketService().read(tmpByteBuf);
-            list.add(packetInfo);
-        } catch (Exception e) {
-            logger.error("exception异常", e);
-            throw e;
-        } catch (Throwable t) {
-            logger.error("throwable错误", t);
-            throw t;
-        } finally {
-            ReferenceCountUtil.release(tmpByteBuf);
+            if (in.readableBytes() < length) {
+                throw new IllegalArgumentException(StringUtils.format("truncated packet [length:{}] [readableBytes:{}]", length, in.readableBytes()));
+            }
+
+            ByteBuf tmpByteBuf = null;
+            try {
+                tmpByteBuf = in.readRetainedSlice(length);
+                decodeFrame(channelHandlerContext, tmpByteBuf, list);
+            } catch (Exception e) {
+                logger.error("exception异常", e);
+                throw e;
+            } catch (Throwable t) {
+                logger.error("throwable错误", t);
+                throw t;
+            } finally {
+                ReferenceCountUtil.release(tmpByteBuf);
+            }
         }
     }
 
+    /**
+     * 解码一个完整的帧
+     *
+     * @param frame 去掉长度以后的帧，调用者负责释放
+     */
+    protected void decodeFrame(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) {
+        DecodedPacketInfo packetInfo = NetContext.getPacketService().read(frame);
+        out.add(packetInfo);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext channelHandlerContext, EncodedPacketInfo out, List<Object> list) {
+        var byteBuf = encodePacket(channelHandlerContext, out);
+        WebSocketStats.recordFrame(1, byteBuf.readableBytes());
+        list.add(new BinaryWebSocketFrame(byteBuf));
+    }
+
+    private ByteBuf encodePacket(ChannelHandlerContext channelHandlerContext, EncodedPacketInfo out) {
         try {
             var byteBuf = channelHandlerContext.alloc().ioBuffer();
 
             NetContext.getPacketService().write(byteBuf, out.getPacket(), out.getAttachment());
-            list.add(new BinaryWebSocketFrame(byteBuf));
+            SessionUtils.recordWriteBytes(channelHandlerContext, byteBuf.readableBytes());
+            return byteBuf;
         } catch (Exception e) {
             logger.error("[{}]编码exception异常", JsonUtils.object2String(out), e);
             throw e;
@@ -97,5 +152,82 @@ public class WebSocketCodecHandler extends MessageToMessageCodec<WebSocketFrame,
         }
     }
 
+    // -------------------------------------------------merge frame-------------------------------------------------
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!mergeFrame) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+
+        ByteBuf packetBuf;
+        if (msg instanceof EncodedPacketInfo) {
+            packetBuf = encodePacket(ctx, (EncodedPacketInfo) msg);
+        } else if (msg instanceof BinaryWebSocketFrame) {
+            // SessionGroup广播的已经编码好的包
+            var frame = (BinaryWebSocketFrame) msg;
+            packetBuf = frame.content().retain();
+            frame.release();
+        } else {
+            // 其它的帧不能合并，先发送已经合并的包保证顺序
+            writeMergeFrame(ctx);
+            super.write(ctx, msg, promise);
+            return;
+        }
+
+        if (mergeBuffer == null) {
+            mergeBuffer = ctx.alloc().compositeBuffer(MERGE_MAX_PACKETS);
+        }
+        mergeBuffer.addComponent(true, packetBuf);
+        mergePackets++;
+        if (!promise.isVoid()) {
+            mergePromises.add(promise);
+        }
+
+        if (mergePackets >= MERGE_MAX_PACKETS || mergeBuffer.readableBytes() >= MERGE_MAX_BYTES) {
+            writeMergeFrame(ctx);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        writeMergeFrame(ctx);
+        super.flush(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (mergeBuffer != null) {
+            mergeBuffer.release();
+            mergeBuffer = null;
+            mergePackets = 0;
+            var cause = new ClosedChannelException();
+            for (var promise : mergePromises) {
+                promise.tryFailure(cause);
+            }
+            mergePromises.clear();
+        }
+        super.handlerRemoved(ctx);
+    }
+
+    private void writeMergeFrame(ChannelHandlerContext ctx) {
+        if (mergeBuffer == null) {
+            return;
+        }
+
+        var frame = new BinaryWebSocketFrame(mergeBuffer);
+        WebSocketStats.recordFrame(mergePackets, mergeBuffer.readableBytes());
+        mergeBuffer = null;
+        mergePackets = 0;
+
+        if (mergePromises.isEmpty()) {
+            ctx.write(frame, ctx.voidPromise());
+        } else {
+            var promises = mergePromises.toArray(new ChannelPromise[0]);
+            mergePromises.clear();
+            ctx.write(frame).addListener(new PromiseNotifier<Void, ChannelFuture>(promises));
+        }
+    }
 
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.handler.codec.websocket;
+
+import com.zfoo.protocol.util.IOUtils;
+import com.zfoo.protocol.util.StringUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CorruptedWebSocketFrameException;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate压缩，用来替代netty的WebSocketServerCompressionHandler
+ * <p>
+ * netty 4.1.84的解压没有限制解压后的大小，客户端发送一个很小的压缩帧就可以解压出几十MB的数据（解压炸弹），
+ * 这里的握手和压缩依然使用netty的实现，只是替换了解压，解压后的消息超过maxInflatedBytes则抛出异常断开连接
+ * <p>
+ * 只支持permessage-deflate，不支持已经废弃的deflate-frame
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class WebSocketCompressionHandler extends WebSocketServerExtensionHandler {
+
+    /**
+     * 和WebSocketCodecHandler中一个包的最大长度一致
+     */
+    public static final int DEFAULT_MAX_INFLATED_BYTES = IOUtils.BYTES_PER_MB;
+
+    private static final String CLIENT_NO_CONTEXT = "client_no_context_takeover";
+
+    public WebSocketCompressionHandler() {
+        this(DEFAULT_MAX_INFLATED_BYTES);
+    }
+
+    public WebSocketCompressionHandler(int maxInflatedBytes) {
+        super(new Handshaker(maxInflatedBytes));
+    }
+
+    private static class Handshaker implements WebSocketServerExtensionHandshaker {
+        private final PerMessageDeflateServerExtensionHandshaker handshaker = new PerMessageDeflateServerExtensionHandshaker();
+        private final int maxInflatedBytes;
+
+        private Handshaker(int maxInflatedBytes) {
+            this.maxInflatedBytes = maxInflatedBytes;
+        }
+
+        @Override
+        public WebSocketServerExtension handshakeExtension(WebSocketExtensionData extensionData) {
+            var extension = handshaker.handshakeExtension(extensionData);
+            return extension == null ? null : new Extension(extension, maxInflatedBytes);
+        }
+    }
+
+    private static class Extension implements WebSocketServerExtension {
+        private final WebSocketServerExtension extension;
+        private final int maxInflatedBytes;
+
+        private Extension(WebSocketServerExtension extension, int maxInflatedBytes) {
+            this.extension = extension;
+            this.maxInflatedBytes = maxInflatedBytes;
+        }
+
+        @Override
+        public int rsv() {
+            return extension.rsv();
+        }
+
+        @Override
+        public WebSocketExtensionEncoder newExtensionEncoder() {
+            return extension.newExtensionEncoder();
+        }
+
+        @Override
+        public WebSocketExtensionDecoder newExtensionDecoder() {
+            var noContext = extension.newReponseData().parameters().containsKey(CLIENT_NO_CONTEXT);
+            return new InflateDecoder(maxInflatedBytes, noContext);
+        }
+
+        @Override
+        public WebSocketExtensionData newReponseData() {
+            return extension.newReponseData();
+        }
+    }
+
+    /**
+     * 按照固定大小的块解压，每解压出一块就检查一次消息的总大小，解压过程中占用的内存不会超过maxInflatedBytes
+     */
+    public static class InflateDecoder extends WebSocketExtensionDecoder {
+
+        /**
+         * permessage-deflate发送的时候去掉的结尾，解压的时候在消息的最后一个帧后面补上
+         */
+        private static final byte[] FRAME_TAIL = new byte[]{0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+        private static final int CHUNK_SIZE = 8 * IOUtils.BYTES_PER_KB;
+
+        private final int maxInflatedBytes;
+
+        /**
+         * 协商了client_no_context_takeover，每个消息结束以后重置解压的上下文
+         */
+        private final boolean noContext;
+
+        /**
+         * 下面的变量只在io线程中使用
+         */
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private boolean compressed;
+        private int inflatedBytes;
+
+        public InflateDecoder(int maxInflatedBytes, boolean noContext) {
+            this.maxInflatedBytes = maxInflatedBytes;
+            this.noContext = noContext;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+            // 只有消息的第一个帧有RSV1的标记，之后的ContinuationWebSocketFrame和第一个帧一样处理
+            if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
+                compressed = (frame.rsv() & WebSocketExtension.RSV1) != 0;
+                inflatedBytes = 0;
+            } else if (!(frame instanceof ContinuationWebSocketFrame)) {
+                out.add(frame.retain());
+                return;
+            }
+
+            if (!compressed) {
+                out.add(frame.retain());
+                return;
+            }
+
+            var content = ctx.alloc().buffer();
+            try {
+                inflate(ByteBufUtil.getBytes(frame.content()), content);
+                if (frame.isFinalFragment()) {
+                    inflate(FRAME_TAIL, content);
+                    compressed = false;
+                    if (noContext) {
+                        inflater.reset();
+                    }
+                }
+            } catch (Throwable t) {
+                content.release();
+                throw t;
+            }
+
+            var rsv = frame.rsv() & ~WebSocketExtension.RSV1;
+            if (frame instanceof TextWebSocketFrame) {
+                out.add(new TextWebSocketFrame(frame.isFinalFragment(), rsv, content));
+            } else if (frame instanceof BinaryWebSocketFrame) {
+                out.add(new BinaryWebSocketFrame(frame.isFinalFragment(), rsv, content));
+            } else {
+                out.add(new ContinuationWebSocketFrame(frame.isFinalFragment(), rsv, content));
+            }
+        }
+
+        private void inflate(byte[] input, ByteBuf out) {
+            inflater.setInput(input);
+            try {
+                while (true) {
+                    var length = inflater.inflate(chunk);
+                    if (length <= 0) {
+                        if (inflater.needsDictionary()) {
+                            throw new CorruptedWebSocketFrameException(WebSocketCloseStatus.INVALID_PAYLOAD_DATA, "deflate dictionary is not supported");
+                        }
+                        break;
+                    }
+                    inflatedBytes += length;
+                    if (inflatedBytes > maxInflatedBytes) {
+                        throw new CorruptedWebSocketFrameException(WebSocketCloseStatus.MESSAGE_TOO_BIG
+                                , StringUtils.format("inflated message is larger than [maxInflatedBytes:{}]", maxInflatedBytes));
+                    }
+                    out.writeBytes(chunk, 0, length);
+                }
+            } catch (DataFormatException e) {
+                throw new CorruptedWebSocketFrameException(WebSocketCloseStatus.INVALID_PAYLOAD_DATA, "invalid deflate data", e);
+            }
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+            inflater.end();
+            super.handlerRemoved(ctx);
+        }
+    }
+
+}
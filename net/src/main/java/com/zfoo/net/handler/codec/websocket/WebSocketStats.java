@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.handler.codec.websocket;
+
+import com.zfoo.protocol.util.StringUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * websocket发送的统计，用来观察多包合并和permessage-deflate压缩的效果
+ * <p>
+ * packets / frames为每个帧平均的包数量，wireBytes / payloadBytes为压缩（包括websocket和http的头部）后的比例
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class WebSocketStats {
+
+    private static final LongAdder packets = new LongAdder();
+    private static final LongAdder frames = new LongAdder();
+    private static final LongAdder payloadBytes = new LongAdder();
+    private static final LongAdder wireBytes = new LongAdder();
+
+    private static final WireBytesHandler WIRE_BYTES_HANDLER = new WireBytesHandler();
+
+    /**
+     * 放在pipeline的最前面，统计实际写入socket的字节数
+     */
+    @ChannelHandler.Sharable
+    private static class WireBytesHandler extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf) {
+                wireBytes.add(((ByteBuf) msg).readableBytes());
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    public static ChannelHandler wireBytesHandler() {
+        return WIRE_BYTES_HANDLER;
+    }
+
+    public static void recordFrame(int packetNum, int bytes) {
+        packets.add(packetNum);
+        frames.increment();
+        payloadBytes.add(bytes);
+    }
+
+    public static long getPackets() {
+        return packets.sum();
+    }
+
+    public static long getFrames() {
+        return frames.sum();
+    }
+
+    public static long getPayloadBytes() {
+        return payloadBytes.sum();
+    }
+
+    public static long getWireBytes() {
+        return wireBytes.sum();
+    }
+
+    public static String statsInfo() {
+        var frameNum = frames.sum();
+        var payload = payloadBytes.sum();
+        return StringUtils.format("[websocket packets:{} frames:{} packetsPerFrame:{} payloadBytes:{} wireBytes:{} wireRatio:{}%]"
+                , packets.sum(), frameNum, frameNum == 0 ? 0 : String.format("%.2f", (double) packets.sum() / frameNum)
+                , payload, wireBytes.sum(), payload == 0 ? 100 : wireBytes.sum() * 100 / payload);
+    }
+
+}
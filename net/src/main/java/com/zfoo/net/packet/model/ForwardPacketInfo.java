@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.packet.model;
+
+import com.zfoo.protocol.IPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import org.springframework.lang.Nullable;
+
+/**
+ * 网关透传的包，网关只读取了协议号，没有解码包体，原始的帧（packet + attachment）会被直接转发给服务提供者
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ForwardPacketInfo {
+
+    private short protocolId;
+
+    /**
+     * 只有网关需要计算一致性hash（IGatewayLoadBalancer）或者需要过滤包的时候才会解码，其它情况为null
+     */
+    private IPacket packet;
+
+    /**
+     * 去掉长度后的原始帧，使用者需要调用release释放
+     */
+    private ByteBuf frame;
+
+    public static ForwardPacketInfo valueOf(short protocolId, @Nullable IPacket packet, ByteBuf frame) {
+        var packetInfo = new ForwardPacketInfo();
+        packetInfo.protocolId = protocolId;
+        packetInfo.packet = packet;
+        packetInfo.frame = frame;
+        return packetInfo;
+    }
+
+    public void release() {
+        ReferenceCountUtil.release(frame);
+        frame = null;
+    }
+
+    public short getProtocolId() {
+        return protocolId;
+    }
+
+    public IPacket getPacket() {
+        return packet;
+    }
+
+    public ByteBuf getFrame() {
+        return frame;
+    }
+
+}
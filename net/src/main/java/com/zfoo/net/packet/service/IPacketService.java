@@ -14,11 +14,16 @@
 package com.zfoo.net.packet.service;
 
 import com.zfoo.net.packet.model.DecodedPacketInfo;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
+import com.zfoo.net.packet.model.ForwardPacketInfo;
+import com.zfoo.net.router.attachment.GatewayAttachment;
 import com.zfoo.net.router.attachment.IAttachment;
 import com.zfoo.protocol.IPacket;
 import io.netty.buffer.ByteBuf;
 import org.springframework.lang.Nullable;
 
+import java.util.List;
+
 /**
  * @author jaysunxiao
  * @version 3.0
@@ -29,6 +34,39 @@ public interface IPacketService {
 
     DecodedPacketInfo read(ByteBuf buffer);
 
+    /**
+     * @param compress channel是否允许压缩的帧，不允许的时候收到压缩的帧会抛出异常
+     */
+    DecodedPacketInfo read(ByteBuf buffer, boolean compress);
+
     void write(ByteBuf buffer, IPacket packet, @Nullable IAttachment attachment);
 
+    /**
+     * @param compress channel是否允许压缩，允许并且包体超过compress-threshold的时候压缩
+     */
+    void write(ByteBuf buffer, IPacket packet, @Nullable IAttachment attachment, boolean compress);
+
+    /**
+     * 是否是多包的帧，buffer为已经去掉长度的帧
+     */
+    boolean isBatch(ByteBuf buffer);
+
+    void readBatch(ByteBuf buffer, List<Object> out);
+
+    void writeBatch(ByteBuf buffer, List<EncodedPacketInfo> packetInfos);
+
+    /**
+     * 网关透传模式下读取客户端的帧，只读取协议号，需要的时候才解码包体
+     *
+     * @param decodePacket 是否需要解码包体，实现了IGatewayLoadBalancer的包总是会解码
+     * @return 网关自己处理的包（如心跳）返回null，调用者需要使用read完整的解码
+     */
+    @Nullable
+    ForwardPacketInfo readForward(ByteBuf buffer, boolean decodePacket);
+
+    /**
+     * 写入网关透传的帧的头部，后面紧跟着frameLength长度的客户端原始帧
+     */
+    void writeForwardHead(ByteBuf buffer, GatewayAttachment attachment, int frameLength);
+
 }
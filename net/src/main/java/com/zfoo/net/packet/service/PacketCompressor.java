@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.packet.service;
+
+import com.zfoo.protocol.ProtocolManager;
+import com.zfoo.protocol.buffer.ByteBufUtils;
+import com.zfoo.protocol.util.IOUtils;
+import com.zfoo.protocol.util.StringUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 包体的压缩和解压缩，压缩后的帧：
+ * <p>
+ * header(4byte) + COMPRESS_PROTOCOL_ID(2byte) + rawLength + Deflate(packet + attachment)
+ * <p>
+ * Deflater和Inflater每个线程复用一个，压缩和解压缩的临时内存使用netty的池化内存；同时按照协议号统计压缩率和耗时，用来调整压缩的阈值
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class PacketCompressor {
+
+    /**
+     * 解压缩后的最大长度，防止恶意的压缩包耗尽内存
+     */
+    public static final int MAX_DECOMPRESS_LENGTH = 16 * IOUtils.BYTES_PER_MB;
+
+    /**
+     * 标记和rawLength的最大长度，压缩后节省的字节数小于这个值则不压缩
+     */
+    private static final int COMPRESS_HEAD_LENGTH = 2 + 5;
+
+    /**
+     * 网络包以小包为主，压缩的速度比压缩率更重要
+     */
+    private static final FastThreadLocal<Deflater> deflaterThreadLocal = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    private static final FastThreadLocal<Inflater> inflaterThreadLocal = new FastThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+
+        @Override
+        protected void onRemoval(Inflater inflater) {
+            inflater.end();
+        }
+    };
+
+    private static final AtomicReferenceArray<CompressStats> statsArray = new AtomicReferenceArray<>(ProtocolManager.MAX_PROTOCOL_NUM);
+
+    /**
+     * 一个协议的压缩统计
+     */
+    public static class CompressStats {
+        private final LongAdder compressCount = new LongAdder();
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder compressedBytes = new LongAdder();
+        private final LongAdder compressNanos = new LongAdder();
+        /**
+         * 超过阈值但是压缩后没有变小，按照原始的包发送的次数
+         */
+        private final LongAdder skipCount = new LongAdder();
+        private final LongAdder decompressCount = new LongAdder();
+        private final LongAdder decompressNanos = new LongAdder();
+
+        public long getCompressCount() {
+            return compressCount.sum();
+        }
+
+        public long getRawBytes() {
+            return rawBytes.sum();
+        }
+
+        public long getCompressedBytes() {
+            return compressedBytes.sum();
+        }
+
+        public long getCompressNanos() {
+            return compressNanos.sum();
+        }
+
+        public long getSkipCount() {
+            return skipCount.sum();
+        }
+
+        public long getDecompressCount() {
+            return decompressCount.sum();
+        }
+
+        public long getDecompressNanos() {
+            return decompressNanos.sum();
+        }
+
+        /**
+         * 压缩后的大小和原始大小的比值，越小压缩效果越好
+         */
+        public double ratio() {
+            var raw = rawBytes.sum();
+            return raw == 0 ? 1 : (double) compressedBytes.sum() / raw;
+        }
+    }
+
+    public static boolean isCompress(ByteBuf buffer) {
+        return buffer.readableBytes() >= 2 && buffer.getShort(buffer.readerIndex()) == PacketService.COMPRESS_PROTOCOL_ID;
+    }
+
+    /**
+     * 压缩buffer中从bodyIndex到writerIndex的包体，压缩后的内容覆盖原来的包体；压缩后没有变小则不做任何修改
+     *
+     * @return true表示已经压缩
+     */
+    public static boolean compress(ByteBuf buffer, int bodyIndex, short protocolId) {
+        var startTime = System.nanoTime();
+        var rawLength = buffer.writerIndex() - bodyIndex;
+        var maxLength = rawLength - COMPRESS_HEAD_LENGTH;
+        if (maxLength <= 0) {
+            return false;
+        }
+        var stats = stats(protocolId);
+
+        var deflater = deflaterThreadLocal.get();
+        var output = buffer.alloc().heapBuffer(maxLength, maxLength);
+        try {
+            deflater.reset();
+            deflater.setInput(buffer.nioBuffer(bodyIndex, rawLength));
+            deflater.finish();
+            var array = output.array();
+            var offset = output.arrayOffset();
+            var count = 0;
+            while (!deflater.finished() && count < maxLength) {
+                var length = deflater.deflate(array, offset + count, maxLength - count);
+                if (length <= 0) {
+                    break;
+                }
+                count += length;
+            }
+
+            // 压缩后没有变小，按照原始的包发送
+            if (!deflater.finished()) {
+                stats.skipCount.increment();
+                return false;
+            }
+            output.writerIndex(count);
+
+            buffer.writerIndex(bodyIndex);
+            ByteBufUtils.writeShort(buffer, PacketService.COMPRESS_PROTOCOL_ID);
+            ByteBufUtils.writeInt(buffer, rawLength);
+            buffer.writeBytes(output);
+
+            stats.compressCount.increment();
+            stats.rawBytes.add(rawLength);
+            stats.compressedBytes.add(count);
+            return true;
+        } finally {
+            output.release();
+            stats.compressNanos.add(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 解压缩一个压缩的帧，会读取buffer中剩余的全部字节
+     *
+     * @return 解压缩后的包体（packet + attachment），调用者负责释放
+     */
+    public static ByteBuf decompress(ByteBuf buffer) {
+        var startTime = System.nanoTime();
+        // 跳过压缩的标记
+        ByteBufUtils.readShort(buffer);
+        var rawLength = ByteBufUtils.readInt(buffer);
+        if (rawLength <= 0 || rawLength > MAX_DECOMPRESS_LENGTH) {
+            throw new IllegalArgumentException(StringUtils.format("illegal compress packet [rawLength:{}]", rawLength));
+        }
+
+        var inflater = inflaterThreadLocal.get();
+        var output = buffer.alloc().heapBuffer(rawLength, rawLength);
+        try {
+            inflater.reset();
+            inflater.setInput(buffer.nioBuffer(buffer.readerIndex(), buffer.readableBytes()));
+            var array = output.array();
+            var offset = output.arrayOffset();
+            var count = 0;
+            while (!inflater.finished() && count < rawLength) {
+                var length = inflater.inflate(array, offset + count, rawLength - count);
+                if (length <= 0) {
+                    break;
+                }
+                count += length;
+            }
+            if (!inflater.finished() || count != rawLength) {
+                throw new IllegalArgumentException(StringUtils.format("illegal compress packet [rawLength:{}] [decompressLength:{}]", rawLength, count));
+            }
+            buffer.skipBytes(buffer.readableBytes());
+            output.writerIndex(rawLength);
+        } catch (DataFormatException e) {
+            output.release();
+            throw new IllegalArgumentException(e);
+        } catch (Throwable t) {
+            output.release();
+            throw t;
+        }
+
+        var stats = stats(output.getShort(0));
+        stats.decompressCount.increment();
+        stats.decompressNanos.add(System.nanoTime() - startTime);
+        return output;
+    }
+
+    private static CompressStats stats(short protocolId) {
+        // 非法的协议号在之后的解码中会报错，这里不统计
+        var index = protocolId < 0 ? 0 : protocolId;
+        var stats = statsArray.get(index);
+        if (stats == null) {
+            statsArray.compareAndSet(index, null, new CompressStats());
+            stats = statsArray.get(index);
+        }
+        return stats;
+    }
+
+    // -------------------------------------------------metrics-------------------------------------------------
+
+    /**
+     * @return 协议的压缩统计，没有压缩过的协议返回null
+     */
+    public static CompressStats getStats(short protocolId) {
+        return statsArray.get(protocolId);
+    }
+
+    public static String compressInfo() {
+        var builder = new StringBuilder();
+        for (var i = 0; i < statsArray.length(); i++) {
+            var stats = statsArray.get(i);
+            if (stats == null) {
+                continue;
+            }
+            var compressCount = stats.getCompressCount();
+            var totalCount = compressCount + stats.getSkipCount();
+            var decompressCount = stats.getDecompressCount();
+            builder.append(StringUtils.format("[protocolId:{} compress:{} skip:{} ratio:{}% compressAvg:{}us decompress:{} decompressAvg:{}us]"
+                    , i, compressCount, stats.getSkipCount(), (int) (stats.ratio() * 100)
+                    , totalCount == 0 ? 0 : stats.getCompressNanos() / totalCount / 1000
+                    , decompressCount, decompressCount == 0 ? 0 : stats.getDecompressNanos() / decompressCount / 1000));
+        }
+        return builder.toString();
+    }
+
+}
@@ -14,8 +14,15 @@
 package com.zfoo.net.packet.service;
 
 import com.zfoo.net.NetContext;
+import com.zfoo.net.core.gateway.IGatewayLoadBalancer;
+import com.zfoo.net.packet.common.Heartbeat;
+import com.zfoo.net.packet.common.Ping;
 import com.zfoo.net.packet.model.DecodedPacketInfo;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
+import com.zfoo.net.packet.model.ForwardPacketInfo;
+import com.zfoo.net.router.attachment.GatewayAttachment;
 import com.zfoo.net.router.attachment.IAttachment;
+import com.zfoo.net.router.attachment.SignalAttachment;
 import com.zfoo.net.router.route.PacketBus;
 import com.zfoo.protocol.IPacket;
 import com.zfoo.protocol.ProtocolManager;
@@ -26,6 +33,7 @@ import com.zfoo.protocol.generate.GenerateProtocolFile;
 import com.zfoo.protocol.registration.IProtocolRegistration;
 import com.zfoo.protocol.serializer.CodeLanguage;
 import com.zfoo.protocol.util.DomUtils;
+import com.zfoo.protocol.util.StringUtils;
 import com.zfoo.protocol.xml.XmlProtocols;
 import io.netty.buffer.ByteBuf;
 import org.slf4j.Logger;
@@ -33,6 +41,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.util.ResourceUtils;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.function.Predicate;
 
 /**
@@ -48,6 +57,40 @@ public class PacketService implements IPacketService {
      */
     public static final int PACKET_HEAD_LENGTH = 4;
 
+    /**
+     * 多包的帧的标记，写在协议号的位置，合法的协议号都不是负数
+     * <p>
+     * header(4byte) + BATCH_PROTOCOL_ID(2byte) + count + count * (packet + attachment)
+     */
+    public static final short BATCH_PROTOCOL_ID = -1;
+
+    /**
+     * 多包的帧中一个包最少的字节数，协议号（2byte）+ attachment的标记（1byte）
+     */
+    private static final int BATCH_MIN_PACKET_LENGTH = 3;
+
+    /**
+     * 网关透传的帧的标记，写在协议号的位置
+     * <p>
+     * header(4byte) + GATEWAY_FORWARD_PROTOCOL_ID(2byte) + GatewayAttachment + 客户端的原始帧（packet + attachment）
+     */
+    public static final short GATEWAY_FORWARD_PROTOCOL_ID = -2;
+
+    /**
+     * 压缩的帧的标记，写在协议号的位置，见{@link PacketCompressor}
+     */
+    public static final short COMPRESS_PROTOCOL_ID = -3;
+
+    /**
+     * 包体超过这个字节数的时候压缩，小于等于0则不压缩
+     */
+    private int compressThreshold;
+
+    /**
+     * 协议是否实现了IGatewayLoadBalancer，0为还没有计算，1为实现了，2为没有实现
+     */
+    private final byte[] gatewayLoadBalancerProtocols = new byte[ProtocolManager.MAX_PROTOCOL_NUM];
+
     /**
      * 网络包的约定规则如下：
      * 1. 客户端的请求约定以Request结尾，服务器的响应约定以Response结尾
@@ -82,6 +125,7 @@ public class PacketService implements IPacketService {
 
         var netConfig = NetContext.getConfigManager().getLocalConfig();
         var protocolLocation = netConfig.getProtocolLocation();
+        compressThreshold = StringUtils.isBlank(netConfig.getCompressThreshold()) ? 0 : Integer.parseInt(netConfig.getCompressThreshold());
 
         var generateOperation = new GenerateOperation();
         generateOperation.setFoldProtocol(netConfig.isFoldProtocol());
@@ -135,8 +179,40 @@ public class PacketService implements IPacketService {
 
     @Override
     public DecodedPacketInfo read(ByteBuf buffer) {
+        return read(buffer, false);
+    }
+
+    @Override
+    public DecodedPacketInfo read(ByteBuf buffer, boolean compress) {
         // 包的长度在上一层已经解析过
 
+        // 压缩的帧，解压缩以后按照普通的帧解析；没有开启压缩的channel不接受压缩的帧，防止客户端发送压缩包消耗cpu和内存
+        if (PacketCompressor.isCompress(buffer)) {
+            if (!compress || compressThreshold <= 0) {
+                throw new IllegalArgumentException("compress packet is not allowed in this channel");
+            }
+            var body = PacketCompressor.decompress(buffer);
+            try {
+                return read(body, false);
+            } finally {
+                body.release();
+            }
+        }
+
+        // 网关透传过来的帧，客户端的附加包放到GatewayAttachment中
+        if (buffer.getShort(buffer.readerIndex()) == GATEWAY_FORWARD_PROTOCOL_ID) {
+            ByteBufUtils.readShort(buffer);
+            var gatewayAttachment = (GatewayAttachment) ProtocolManager.read(buffer);
+            var forwardPacket = ProtocolManager.read(buffer);
+            if (ByteBufUtils.tryReadBoolean(buffer)) {
+                var clientAttachment = ProtocolManager.read(buffer);
+                if (clientAttachment instanceof SignalAttachment) {
+                    gatewayAttachment.setSignalAttachment((SignalAttachment) clientAttachment);
+                }
+            }
+            return DecodedPacketInfo.valueOf(forwardPacket, gatewayAttachment);
+        }
+
         // 解析包体
         var packet = ProtocolManager.read(buffer);
         // 解析包的附加包
@@ -147,6 +223,11 @@ public class PacketService implements IPacketService {
 
     @Override
     public void write(ByteBuf buffer, IPacket packet, IAttachment attachment) {
+        write(buffer, packet, attachment, false);
+    }
+
+    @Override
+    public void write(ByteBuf buffer, IPacket packet, IAttachment attachment, boolean compress) {
 
         if (packet == null) {
             logger.error("packet is null and can not be sent.");
@@ -168,6 +249,11 @@ public class PacketService implements IPacketService {
             ProtocolManager.write(buffer, attachment);
         }
 
+        // 包体超过阈值则压缩，压缩后没有变小则依然发送原始的包体
+        if (compress && compressThreshold > 0 && buffer.readableBytes() - PACKET_HEAD_LENGTH > compressThreshold) {
+            PacketCompressor.compress(buffer, PACKET_HEAD_LENGTH, packet.protocolId());
+        }
+
         int length = buffer.readableBytes();
 
         int packetLength = length - PACKET_HEAD_LENGTH;
@@ -178,4 +264,90 @@ public class PacketService implements IPacketService {
 
         buffer.writerIndex(length);
     }
+
+    @Override
+    public ForwardPacketInfo readForward(ByteBuf buffer, boolean decodePacket) {
+        var protocolId = buffer.getShort(buffer.readerIndex());
+        // 客户端的连接不接受压缩的帧，负数的协议号都是非法的
+        if (protocolId < 0 || ProtocolManager.getProtocol(protocolId) == null) {
+            throw new IllegalArgumentException(StringUtils.format("illegal forward packet [protocolId:{}]", protocolId));
+        }
+
+        // 网关自己处理的包
+        if (protocolId == Heartbeat.PROTOCOL_ID || protocolId == Ping.PROTOCOL_ID) {
+            return null;
+        }
+
+        // 只在需要的时候解码包体，解码不会改变buffer的读取位置
+        IPacket packet = null;
+        if (decodePacket || isGatewayLoadBalancer(protocolId)) {
+            packet = ProtocolManager.read(buffer.duplicate());
+        }
+        return ForwardPacketInfo.valueOf(protocolId, packet, buffer.retainedSlice());
+    }
+
+    private boolean isGatewayLoadBalancer(short protocolId) {
+        var flag = gatewayLoadBalancerProtocols[protocolId];
+        if (flag == 0) {
+            var clazz = ProtocolManager.getProtocol(protocolId).protocolConstructor().getDeclaringClass();
+            flag = IGatewayLoadBalancer.class.isAssignableFrom(clazz) ? (byte) 1 : (byte) 2;
+            gatewayLoadBalancerProtocols[protocolId] = flag;
+        }
+        return flag == 1;
+    }
+
+    @Override
+    public void writeForwardHead(ByteBuf buffer, GatewayAttachment attachment, int frameLength) {
+        var startIndex = buffer.writerIndex();
+
+        // 预留写入包的长度，一个int字节大小
+        buffer.writeInt(PACKET_HEAD_LENGTH);
+
+        ByteBufUtils.writeShort(buffer, GATEWAY_FORWARD_PROTOCOL_ID);
+        ProtocolManager.write(buffer, attachment);
+
+        buffer.setInt(startIndex, buffer.writerIndex() - startIndex - PACKET_HEAD_LENGTH + frameLength);
+    }
+
+    @Override
+    public boolean isBatch(ByteBuf buffer) {
+        return buffer.readableBytes() >= 2 && buffer.getShort(buffer.readerIndex()) == BATCH_PROTOCOL_ID;
+    }
+
+    @Override
+    public void readBatch(ByteBuf buffer, List<Object> out) {
+        // 跳过多包的帧的标记
+        ByteBufUtils.readShort(buffer);
+        var count = ByteBufUtils.readInt(buffer);
+        // 每个包至少有协议号和attachment的标记，包的数量不能超过帧中剩下的字节数能容纳的数量，防止伪造的数量
+        if (count < 0 || count > buffer.readableBytes() / BATCH_MIN_PACKET_LENGTH) {
+            throw new IllegalArgumentException(StringUtils.format("illegal batch frame [count:{}] [readableBytes:{}]", count, buffer.readableBytes()));
+        }
+        for (var i = 0; i < count; i++) {
+            out.add(read(buffer));
+        }
+    }
+
+    @Override
+    public void writeBatch(ByteBuf buffer, List<EncodedPacketInfo> packetInfos) {
+        var startIndex = buffer.writerIndex();
+
+        // 预留写入包的长度，一个int字节大小
+        buffer.writeInt(PACKET_HEAD_LENGTH);
+
+        ByteBufUtils.writeShort(buffer, BATCH_PROTOCOL_ID);
+        ByteBufUtils.writeInt(buffer, packetInfos.size());
+        for (var packetInfo : packetInfos) {
+            ProtocolManager.write(buffer, packetInfo.getPacket());
+            var attachment = packetInfo.getAttachment();
+            if (attachment == null) {
+                ByteBufUtils.writeBoolean(buffer, false);
+            } else {
+                ByteBufUtils.writeBoolean(buffer, true);
+                ProtocolManager.write(buffer, attachment);
+            }
+        }
+
+        buffer.setInt(startIndex, buffer.writerIndex() - startIndex - PACKET_HEAD_LENGTH);
+    }
 }
@@ -34,6 +34,14 @@ public interface IRouter {
      */
     void send(Session session, IPacket packet, @Nullable IAttachment attachment);
 
+    /**
+     * 发送已经编码好的消息（如SessionGroup广播的ByteBuf，网关透传的帧），和send一样经过发送队列，批量队列和flush合并，保证和send发送的包的顺序；
+     * 不经过LocalBridge，KCP和压缩
+     *
+     * @param message ByteBuf或者WebSocketFrame，发送以后由netty释放
+     */
+    void sendEncoded(Session session, Object message);
+
     void receive(Session session, IPacket packet, @Nullable IAttachment attachment);
 
     void atReceiver(Session session, IPacket packet, @Nullable IAttachment attachment);
@@ -18,6 +18,7 @@ import com.zfoo.net.NetContext;
 import com.zfoo.net.core.gateway.model.AuthUidToGatewayCheck;
 import com.zfoo.net.core.gateway.model.AuthUidToGatewayConfirm;
 import com.zfoo.net.core.gateway.model.AuthUidToGatewayEvent;
+import com.zfoo.net.core.kcp.KcpSession;
 import com.zfoo.net.core.tcp.model.ServerExceptionEvent;
 import com.zfoo.net.packet.common.Error;
 import com.zfoo.net.packet.common.Heartbeat;
@@ -30,7 +31,12 @@ import com.zfoo.net.router.attachment.SignalAttachment;
 import com.zfoo.net.router.exception.ErrorResponseException;
 import com.zfoo.net.router.exception.NetTimeOutException;
 import com.zfoo.net.router.exception.UnexpectedProtocolException;
+import com.zfoo.net.router.route.Deadline;
+import com.zfoo.net.router.route.FlushBatcher;
+import com.zfoo.net.router.route.LocalBridge;
+import com.zfoo.net.router.route.OutboundQueue;
 import com.zfoo.net.router.route.PacketBus;
+import com.zfoo.net.router.route.PacketBatcher;
 import com.zfoo.net.router.route.SignalBridge;
 import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.session.model.Session;
@@ -47,7 +53,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.lang.Nullable;
 
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -64,7 +70,7 @@ public class Router implements IRouter {
 
     /**
      * 作为服务器接收方，会把receive收到的attachment存储在这个地方，只针对task线程。
-     * atReceiver会设置attachment，但是在方法调用完成会取消，不需要过多关注。
+     * atReceiver会设置attachment，但是在方法调用完成会恢复为调用之前的值，不需要过多关注。
      * asyncAsk会再次设置attachment，需要重点关注。
      */
     private final FastThreadLocal<SignalAttachment> serverReceiveSignalAttachmentThreadLocal = new FastThreadLocal<>();
@@ -99,7 +105,7 @@ public class Router implements IRouter {
                         var removedAttachment = (SignalAttachment) SignalBridge.removeSignalAttachment(signalAttachment);
                         if (removedAttachment != null) {
                             // 这里会让之前的CompletableFuture得到结果，从而像asyncAsk之类的回调到结果
-                            removedAttachment.getResponseFuture().complete(packet);
+                            removedAttachment.complete(packet);
                         } else {
                             logger.error("client receives packet:[{}] and attachment:[{}] from server, but clientAttachmentMap has no attachment, perhaps timeout exception."
                                     , JsonUtils.object2String(packet), JsonUtils.object2String(attachment));
@@ -134,7 +140,7 @@ public class Router implements IRouter {
                                     logger.error("错误的网关授权信息，uid必须大于0");
                                     return;
                                 }
-                                gatewaySession.putAttribute(AttributeType.UID, uid);
+                                NetContext.getSessionManager().bindUid(gatewaySession, uid);
                                 EventBus.asyncSubmit(AuthUidToGatewayEvent.valueOf(gatewaySession.getSid(), uid));
 
                                 NetContext.getRouter().send(session, AuthUidToGatewayConfirm.valueOf(uid), new GatewayAttachment(gatewaySession, null));
@@ -170,13 +176,68 @@ public class Router implements IRouter {
             return;
         }
 
+        // 同一个进程中的consumer和provider直接交给对方的receive，不经过编解码和socket
+        if (LocalBridge.send(session, packet, attachment)) {
+            return;
+        }
+
         var packetInfo = EncodedPacketInfo.valueOf(packet, attachment);
 
+        // KCP的session共用一个udp channel，由KCP自己负责发送和重传
+        if (session instanceof KcpSession) {
+            session.increaseWriteCount();
+            ((KcpSession) session).send(packetInfo);
+            return;
+        }
+
         var channel = session.getChannel();
+
+        // channel不可写的时候放入session的发送队列，等到channel可写的时候再发送
+        if (OutboundQueue.write(session, packetInfo)) {
+            session.increaseWriteCount();
+            return;
+        }
+
         if (!channel.isActive() || !channel.isWritable()) {
             logger.warn("send msg error, protocolId=[{}] isActive=[{}] isWritable=[{}]", packet.protocolId(), channel.isActive(), channel.isWritable());
         }
+
+        session.increaseWriteCount();
+
+        // 服务之间的请求和应答合并成多包的帧发送
+        if (PacketBatcher.write(session, packetInfo)) {
+            return;
+        }
+
+        // 在task线程中发送的消息会合并flush，等到task执行完成才flush
+        if (FlushBatcher.write(session, packetInfo)) {
+            return;
+        }
+
         channel.writeAndFlush(packetInfo);
+        session.increaseFlushCount();
+    }
+
+    @Override
+    public void sendEncoded(Session session, Object message) {
+        session.increaseWriteCount();
+
+        // 发送队列不为空或者channel不可写的时候放入发送队列
+        if (OutboundQueue.write(session, message)) {
+            return;
+        }
+
+        // 批量队列不为空的时候排在批量队列的后面
+        if (PacketBatcher.follow(session, message)) {
+            return;
+        }
+
+        if (FlushBatcher.write(session, message)) {
+            return;
+        }
+
+        session.getChannel().writeAndFlush(message);
+        session.increaseFlushCount();
     }
 
     @Override
@@ -203,6 +264,11 @@ public class Router implements IRouter {
         var clientSignalAttachment = new SignalAttachment();
         var executorConsistentHash = (argument == null) ? RandomUtils.randomInt() : HashUtils.fnvHash(argument);
         clientSignalAttachment.setExecutorConsistentHash(executorConsistentHash);
+        var responseFuture = new CompletableFuture<IPacket>();
+        clientSignalAttachment.setResponseFuture(responseFuture);
+        // 不超过当前正在处理的请求剩下的时间
+        var deadline = Deadline.askDeadline(SignalBridge.timeout(packet.protocolId()));
+        clientSignalAttachment.setDeadline(deadline);
 
         try {
             SignalBridge.addSignalAttachment(clientSignalAttachment);
@@ -210,7 +276,8 @@ public class Router implements IRouter {
             // 里面调用的依然是：send方法发送消息
             send(session, packet, clientSignalAttachment);
 
-            IPacket responsePacket = clientSignalAttachment.getResponseFuture().get(DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+            // continuation模式下等待期间当前线程会执行其它actor的任务，嵌套执行的任务结束后会恢复serverSignalAttachment
+            IPacket responsePacket = TaskBus.await(responseFuture, Deadline.remaining(deadline));
 
             if (responsePacket.protocolId() == Error.errorProtocolId()) {
                 throw new ErrorResponseException((Error) responsePacket);
@@ -246,7 +313,7 @@ public class Router implements IRouter {
     public <T extends IPacket> AsyncAnswer<T> asyncAsk(Session session, IPacket packet, @Nullable Class<T> answerClass, @Nullable Object argument) {
         var clientSignalAttachment = new SignalAttachment();
         // 因此第3个参数传null，会得到一个随机的值，在得到结果回调时，是随机的线程
-        // 这个值用于返回时，在CompletableFuture中选择哪个线程执行，也就是回到哪个线程
+        // 这个值用于服务端选择哪个线程执行，回调则回到发起者的线程
         var executorConsistentHash = (argument == null) ? RandomUtils.randomInt() : HashUtils.fnvHash(argument);
 
         clientSignalAttachment.setExecutorConsistentHash(executorConsistentHash);
@@ -254,70 +321,97 @@ public class Router implements IRouter {
         // 服务器在同步或异步的消息处理中，又调用了同步或异步的方法，这时候threadReceiverAttachment不为空
         var serverSignalAttachment = serverReceiveSignalAttachmentThreadLocal.get();
 
-        try {
-            var asyncAnswer = new AsyncAnswer<T>();
-            asyncAnswer.setSignalAttachment(clientSignalAttachment);
-
-            clientSignalAttachment.getResponseFuture()
-                    // 因此超时的情况，返回的是null
-                    .completeOnTimeout(null, DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS)
-                    .thenApply(answer -> {
-                        if (answer == null) {
-                            throw new NetTimeOutException(StringUtils.format("async ask [{}] timeout exception", packet.getClass().getSimpleName()));
-                        }
+        var asyncAnswer = new AsyncAnswer<T>();
+        asyncAnswer.setSignalAttachment(clientSignalAttachment);
 
-                        if (answer.protocolId() == Error.errorProtocolId()) {
-                            throw new ErrorResponseException((Error) answer);
-                        }
+        // 不超过当前正在处理的请求剩下的时间，回调的时候当前请求的截止时间依然有效
+        var currentDeadline = Deadline.current();
+        var deadline = Deadline.askDeadline(SignalBridge.timeout(packet.protocolId()));
+        clientSignalAttachment.setDeadline(deadline);
 
-                        if (answerClass != null && answerClass != answer.getClass()) {
-                            throw new UnexpectedProtocolException("client expect protocol:[{}], but found protocol:[{}]", answerClass, answer.getClass().getName());
-                        }
-                        return answer;
-                    })
-                    .whenCompleteAsync((answer, throwable) -> {
-                        // 注意：进入这个方法的时机是：在上面的receive方法中，由于是asyncAsk的消息，attachment不为空，会调用CompletableFuture的complete方法
-                        try {
-                            SignalBridge.removeSignalAttachment(clientSignalAttachment);
-
-                            // 接收者在同步或异步的消息处理中，又调用了异步的方法，这时候threadServerAttachment不为空
-                            if (serverSignalAttachment != null) {
-                                serverReceiveSignalAttachmentThreadLocal.set(serverSignalAttachment);
-                            }
+        // 收到回复或者超时的时候，直接在当前线程对应的执行器中回调，回到发起者的线程
+        var callback = new AsyncAskCallback<>(packet, answerClass, asyncAnswer, serverSignalAttachment, currentDeadline);
+        clientSignalAttachment.setResponseCallback(TaskBus.currentThreadExecutor(), callback);
 
-                            // 如果有异常的话，whenCompleteAsync的下一个thenAccept不会执行
-                            if (throwable != null) {
-                                var notCompleteCallback = asyncAnswer.getNotCompleteCallback();
-                                if (notCompleteCallback != null) {
-                                    notCompleteCallback.run();
-                                } else {
-                                    logger.error(ExceptionUtils.getMessage(throwable));
-                                }
-                                return;
-                            }
+        SignalBridge.addSignalAttachment(clientSignalAttachment, Deadline.remaining(deadline));
 
-                            // 异步返回，回调业务逻辑
-                            asyncAnswer.setFuturePacket((T) answer);
-                            asyncAnswer.consume();
-                        } catch (Throwable throwable1) {
-                            logger.error("异步回调方法[ask:{}][answer:{}]错误", packet.getClass().getSimpleName(), answer.getClass().getSimpleName(), throwable1);
-                        } finally {
-                            if (serverSignalAttachment != null) {
-                                serverReceiveSignalAttachmentThreadLocal.set(null);
-                            }
-                        }
+        // 等到上层调用whenComplete才会发送消息
+        asyncAnswer.setAskCallback(() -> send(session, packet, clientSignalAttachment));
+        return asyncAnswer;
+    }
 
-                    }, TaskBus.currentThreadExecutor());
+    /**
+     * 异步请求的回调，在发起者的执行器中执行
+     */
+    private class AsyncAskCallback<T extends IPacket> implements Runnable {
+        private final IPacket packet;
+        private final Class<T> answerClass;
+        private final AsyncAnswer<T> asyncAnswer;
+        private final SignalAttachment serverSignalAttachment;
+        private final long deadline;
+
+        private AsyncAskCallback(IPacket packet, Class<T> answerClass, AsyncAnswer<T> asyncAnswer, SignalAttachment serverSignalAttachment, long deadline) {
+            this.packet = packet;
+            this.answerClass = answerClass;
+            this.asyncAnswer = asyncAnswer;
+            this.serverSignalAttachment = serverSignalAttachment;
+            this.deadline = deadline;
+        }
 
+        @Override
+        public void run() {
+            var answer = asyncAnswer.getSignalAttachment().getResponsePacket();
+            var previousSignalAttachment = serverReceiveSignalAttachmentThreadLocal.get();
+            var previousDeadline = Deadline.enter(deadline);
+            try {
+                // 接收者在同步或异步的消息处理中，又调用了异步的方法，这时候threadServerAttachment不为空
+                if (serverSignalAttachment != null) {
+                    serverReceiveSignalAttachmentThreadLocal.set(serverSignalAttachment);
+                }
 
-            SignalBridge.addSignalAttachment(clientSignalAttachment);
+                var completeCallback = asyncAnswer.getCompleteCallback();
+                if (completeCallback != null) {
+                    completeCallback.run();
+                }
 
-            // 等到上层调用whenComplete才会发送消息
-            asyncAnswer.setAskCallback(() -> send(session, packet, clientSignalAttachment));
-            return asyncAnswer;
-        } catch (Exception e) {
-            SignalBridge.removeSignalAttachment(clientSignalAttachment);
-            throw e;
+                var exception = checkAnswer(answer);
+                if (exception != null) {
+                    var notCompleteCallback = asyncAnswer.getNotCompleteCallback();
+                    if (notCompleteCallback != null) {
+                        notCompleteCallback.run();
+                    } else {
+                        logger.error(ExceptionUtils.getMessage(exception));
+                    }
+                    return;
+                }
+
+                // 异步返回，回调业务逻辑
+                asyncAnswer.setFuturePacket((T) answer);
+                asyncAnswer.consume();
+            } catch (Throwable t) {
+                logger.error("异步回调方法[ask:{}][answer:{}]错误", packet.getClass().getSimpleName(), answer == null ? null : answer.getClass().getSimpleName(), t);
+            } finally {
+                if (serverSignalAttachment != null) {
+                    serverReceiveSignalAttachmentThreadLocal.set(previousSignalAttachment);
+                }
+                Deadline.exit(previousDeadline);
+            }
+        }
+
+        private RuntimeException checkAnswer(IPacket answer) {
+            // 超时的情况，返回的是null
+            if (answer == null) {
+                return new NetTimeOutException(StringUtils.format("async ask [{}] timeout exception", packet.getClass().getSimpleName()));
+            }
+
+            if (answer.protocolId() == Error.errorProtocolId()) {
+                return new ErrorResponseException((Error) answer);
+            }
+
+            if (answerClass != null && answerClass != answer.getClass()) {
+                return new UnexpectedProtocolException("client expect protocol:[{}], but found protocol:[{}]", answerClass, answer.getClass().getName());
+            }
+            return null;
         }
     }
 
@@ -330,6 +424,15 @@ public class Router implements IRouter {
      */
     @Override
     public void atReceiver(Session session, IPacket packet, IAttachment attachment) {
+        // continuation模式下atReceiver可能嵌套在另一个task的syncAsk等待中执行，结束后需要恢复外层task的serverSignalAttachment
+        // 发起者早已超时，不再调用PacketReceiver
+        if (Deadline.isExpired(attachment)) {
+            Deadline.shed(packet.protocolId());
+            return;
+        }
+
+        var previousSignalAttachment = serverReceiveSignalAttachmentThreadLocal.get();
+        var previousDeadline = Deadline.enter(attachment);
         try {
             // 接收者（服务器）同步和异步消息的接收
             if (attachment != null) {
@@ -342,6 +445,9 @@ public class Router implements IRouter {
                 }
             }
 
+            // 开始合并当前task中发送消息的flush
+            FlushBatcher.begin();
+
             // 调用PacketReceiver,进行真正的业务处理,这个submit只是根据packet找到protocolId，然后进行反射调用
             // 这个在哪个线程处理取决于：这个上层的PacketReceiverTask被丢到了哪个线程中
             PacketBus.submit(session, packet, attachment);
@@ -351,11 +457,15 @@ public class Router implements IRouter {
         } catch (Throwable t) {
             logger.error(StringUtils.format("e[uid:{}][sid:{}]未知error错误", session.getAttribute(AttributeType.UID), session.getSid(), t.getMessage()), t);
         } finally {
+            // task执行完成，flush所有合并的消息
+            FlushBatcher.end();
+            Deadline.exit(previousDeadline);
+
             // 如果有服务器在处理同步或者异步消息的时候由于错误没有返回给客户端消息，则可能会残留serverAttachment，所以先移除
             if (attachment != null) {
                 switch (attachment.packetType()) {
                     case SIGNAL_PACKET:
-                        serverReceiveSignalAttachmentThreadLocal.set(null);
+                        serverReceiveSignalAttachmentThreadLocal.set(previousSignalAttachment);
                         break;
                     default:
                         break;
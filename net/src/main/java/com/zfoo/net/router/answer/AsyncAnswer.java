@@ -36,6 +36,11 @@ public class AsyncAnswer<T extends IPacket> implements IAsyncAnswer<T> {
 
     private SafeRunnable notCompleteCallback;
 
+    /**
+     * 收到回复或者超时的时候调用，在业务回调之前执行，consumer用来统计负载均衡
+     */
+    private Runnable completeCallback;
+
 
     @Override
     public IAsyncAnswer<T> thenAccept(Consumer<T> consumer) {
@@ -88,4 +93,12 @@ public class AsyncAnswer<T extends IPacket> implements IAsyncAnswer<T> {
     public SafeRunnable getNotCompleteCallback() {
         return notCompleteCallback;
     }
+
+    public Runnable getCompleteCallback() {
+        return completeCallback;
+    }
+
+    public void setCompleteCallback(Runnable completeCallback) {
+        this.completeCallback = completeCallback;
+    }
 }
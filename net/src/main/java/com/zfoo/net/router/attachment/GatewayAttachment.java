@@ -14,6 +14,7 @@ package com.zfoo.net.router.attachment;
 
 import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.session.model.Session;
+import com.zfoo.protocol.registration.anno.Compatible;
 import com.zfoo.util.math.HashUtils;
 import org.springframework.lang.Nullable;
 
@@ -57,6 +58,13 @@ public class GatewayAttachment implements IAttachment {
      */
     private SignalAttachment signalAttachment;
 
+    /**
+     * 请求的截止时间（毫秒时间戳），由网关转发的时候按照网关自己的超时时间设置，0表示没有截止时间；
+     * 客户端附加包中的截止时间由客户端设置，不可信任，也不会使用
+     */
+    @Compatible(order = 1)
+    private long deadline;
+
 
     public GatewayAttachment() {
     }
@@ -89,6 +97,11 @@ public class GatewayAttachment implements IAttachment {
         }
     }
 
+    @Override
+    public long deadline() {
+        return deadline;
+    }
+
     @Override
     public short protocolId() {
         return PROTOCOL_ID;
@@ -131,6 +144,14 @@ public class GatewayAttachment implements IAttachment {
         this.executorConsistentHash = executorConsistentHash;
     }
 
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     public boolean isClient() {
         return client;
     }
@@ -29,4 +29,11 @@ public interface IAttachment extends IPacket {
      */
     int executorConsistentHash();
 
+    /**
+     * 请求的截止时间（毫秒时间戳），0表示没有截止时间，参考Deadline
+     */
+    default long deadline() {
+        return 0;
+    }
+
 }
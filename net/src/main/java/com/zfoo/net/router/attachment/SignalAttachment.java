@@ -13,10 +13,13 @@
 package com.zfoo.net.router.attachment;
 
 import com.zfoo.protocol.IPacket;
+import com.zfoo.protocol.registration.anno.Compatible;
 import com.zfoo.scheduler.util.TimeUtils;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 附加包对业务层透明，禁止在业务层使用
@@ -45,20 +48,63 @@ public class SignalAttachment implements IAttachment {
      */
     private boolean client = true;
 
+    /**
+     * 请求的截止时间（毫秒时间戳），服务提供者丢弃已经过了截止时间的请求，0表示没有截止时间
+     */
+    @Compatible(order = 1)
+    private long deadline;
+
     /**
      * 客户端发送的时间
      */
     private transient long timestamp = TimeUtils.now();
 
     /**
-     * 客户端收到服务器回复的时候回调的方法
+     * 异步请求超时的时间戳，由SignalBridge的时间轮检查
+     */
+    private transient long timeoutTime;
+
+    /**
+     * 异步请求在SignalBridge时间轮中的节点，收到回复的时候清空，时间轮就不会再持有这个附加包
+     */
+    private transient AtomicReference<SignalAttachment> timeoutNode;
+
+    /**
+     * 同步请求：客户端收到服务器回复的时候完成这个future
+     */
+    private transient CompletableFuture<IPacket> responseFuture;
+
+    /**
+     * 异步请求：客户端收到服务器回复或者超时的时候，直接在responseExecutor中执行responseCallback，回复的包为responsePacket
      */
-    private transient CompletableFuture<IPacket> responseFuture = new CompletableFuture<>();
+    private transient Executor responseExecutor;
+    private transient Runnable responseCallback;
+    private transient IPacket responsePacket;
 
     public SignalAttachment() {
     }
 
 
+    /**
+     * 收到回复或者超时的时候调用，只会被SignalBridge中成功移除了这个附加包的一方调用一次
+     *
+     * @param response 服务器的回复，超时为null
+     */
+    public void complete(IPacket response) {
+        this.responsePacket = response;
+        if (responseFuture != null) {
+            responseFuture.complete(response);
+        }
+        if (responseCallback != null) {
+            responseExecutor.execute(responseCallback);
+        }
+    }
+
+    public void setResponseCallback(Executor responseExecutor, Runnable responseCallback) {
+        this.responseExecutor = responseExecutor;
+        this.responseCallback = responseCallback;
+    }
+
     @Override
     public AttachmentType packetType() {
         return AttachmentType.SIGNAL_PACKET;
@@ -69,6 +115,31 @@ public class SignalAttachment implements IAttachment {
         return executorConsistentHash;
     }
 
+    public long getTimeoutTime() {
+        return timeoutTime;
+    }
+
+    public void setTimeoutTime(long timeoutTime) {
+        this.timeoutTime = timeoutTime;
+    }
+
+    /**
+     * 清空时间轮中的节点，不提供get方法，防止序列化成json的时候循环引用
+     */
+    public void cancelTimeoutNode() {
+        if (timeoutNode != null) {
+            timeoutNode.set(null);
+        }
+    }
+
+    public void setTimeoutNode(AtomicReference<SignalAttachment> timeoutNode) {
+        this.timeoutNode = timeoutNode;
+    }
+
+    public IPacket getResponsePacket() {
+        return responsePacket;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -77,6 +148,11 @@ public class SignalAttachment implements IAttachment {
         this.timestamp = timestamp;
     }
 
+    @Override
+    public long deadline() {
+        return deadline;
+    }
+
     @Override
     public short protocolId() {
         return PROTOCOL_ID;
@@ -116,6 +192,14 @@ public class SignalAttachment implements IAttachment {
         this.executorConsistentHash = executorConsistentHash;
     }
 
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     public boolean isClient() {
         return client;
     }
@@ -23,4 +23,13 @@ import java.lang.annotation.*;
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD})
 public @interface PacketReceiver {
+
+    /**
+     * 在哪个task线程池执行，为空则使用默认的线程池，线程池在provider的executor-group中配置，参考TaskBus
+     * <p>
+     * 注意：不同线程池中的协议，即使executorConsistentHash相同也会在不同的线程中并发执行。
+     * 如果这个方法和其它线程池中的方法修改同一个玩家（actor）的数据，需要自己加锁；最好整个模块使用同一个线程池
+     */
+    String executorGroup() default "";
+
 }
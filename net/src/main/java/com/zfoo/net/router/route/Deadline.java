@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package com.zfoo.net.router.route;
+
+import com.zfoo.net.router.attachment.IAttachment;
+import com.zfoo.protocol.ProtocolManager;
+import com.zfoo.protocol.util.StringUtils;
+import com.zfoo.scheduler.util.TimeUtils;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 请求的截止时间（毫秒时间戳），由发起请求的一方写入SignalAttachment，随着请求传递到服务提供者
+ * <p>
+ * 1. 服务提供者在调用PacketReceiver之前丢弃已经过了截止时间的请求，发起者早已超时，执行了也没有人接收结果
+ * 2. 处理请求的时候又发起了syncAsk或者asyncAsk，新请求的截止时间不会超过当前请求剩下的时间
+ * 3. 截止时间是绝对时间，要求机器之间的时钟同步（NTP），0表示没有截止时间，老版本的请求不会被丢弃
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class Deadline {
+
+    /**
+     * 当前线程正在处理的请求的截止时间
+     */
+    private static final FastThreadLocal<long[]> deadlineThreadLocal = new FastThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * 每个协议被丢弃的请求数量
+     */
+    private static final Map<Short, LongAdder> shedMap = new ConcurrentHashMap<>();
+    private static final LongAdder shedTotal = new LongAdder();
+
+    public static boolean isExpired(IAttachment attachment) {
+        if (attachment == null) {
+            return false;
+        }
+        var deadline = attachment.deadline();
+        return deadline > 0 && TimeUtils.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * 开始处理请求，返回之前的截止时间，处理完成后需要调用exit恢复（处理请求可能嵌套在syncAsk的等待中）
+     */
+    public static long enter(IAttachment attachment) {
+        return enter(attachment == null ? 0 : attachment.deadline());
+    }
+
+    public static long enter(long deadline) {
+        var holder = deadlineThreadLocal.get();
+        var previous = holder[0];
+        holder[0] = deadline;
+        return previous;
+    }
+
+    public static void exit(long previousDeadline) {
+        deadlineThreadLocal.get()[0] = previousDeadline;
+    }
+
+    public static long current() {
+        return deadlineThreadLocal.get()[0];
+    }
+
+    /**
+     * 发起请求的截止时间，不超过请求自己的超时时间，也不超过当前线程正在处理的请求的截止时间
+     */
+    public static long askDeadline(long timeoutMillis) {
+        var deadline = TimeUtils.currentTimeMillis() + timeoutMillis;
+        var current = current();
+        return (current > 0 && current < deadline) ? current : deadline;
+    }
+
+    public static long remaining(long deadline) {
+        return Math.max(deadline - TimeUtils.currentTimeMillis(), 0);
+    }
+
+    public static void shed(short protocolId) {
+        shedMap.computeIfAbsent(protocolId, it -> new LongAdder()).increment();
+        shedTotal.increment();
+    }
+
+    public static long shedCount(short protocolId) {
+        var adder = shedMap.get(protocolId);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public static long shedTotal() {
+        return shedTotal.sum();
+    }
+
+    public static String shedInfo() {
+        var list = new ArrayList<String>();
+        for (var entry : shedMap.entrySet()) {
+            var protocol = ProtocolManager.getProtocol(entry.getKey());
+            var name = protocol == null ? String.valueOf(entry.getKey()) : protocol.protocolConstructor().getDeclaringClass().getSimpleName();
+            list.add(StringUtils.format("{}:{}", name, entry.getValue().sum()));
+        }
+        return StringUtils.format("[deadline shed total:{}] {}", shedTotal.sum(), list);
+    }
+
+}
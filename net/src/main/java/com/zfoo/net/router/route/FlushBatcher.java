@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router.route;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.protocol.util.IOUtils;
+import com.zfoo.protocol.util.StringUtils;
+import com.zfoo.scheduler.util.TimeUtils;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Arrays;
+
+/**
+ * 发送消息的flush合并，同一个task中对同一个session发送的多个包只会触发一次flush，减少write系统调用的次数
+ * <p>
+ * flush的时机：
+ * 1. task执行完成
+ * 2. 同一个session缓存的包数量或者字节数超过阈值
+ * 3. 距离第一个缓存的包超过了flushMaxDelay毫秒，在下一次发送时检查
+ * 4. 在syncAsk阻塞等待之前
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class FlushBatcher {
+
+    public static final String FLUSH_MODE_IMMEDIATE = "immediate";
+    public static final String FLUSH_MODE_TASK = "task";
+
+    private static final int DEFAULT_MAX_PACKETS = 64;
+    private static final int DEFAULT_MAX_BYTES = 64 * IOUtils.BYTES_PER_KB;
+    private static final long DEFAULT_MAX_DELAY = 5;
+
+    private static final boolean ENABLE;
+    private static final int MAX_PACKETS;
+    private static final int MAX_BYTES;
+    private static final long MAX_DELAY;
+
+    /**
+     * 只有在task线程执行PacketReceiverTask的时候才有值，其它线程（如netty的io线程）直接writeAndFlush
+     */
+    private static final FastThreadLocal<Batch> batchThreadLocal = new FastThreadLocal<Batch>() {
+        @Override
+        protected Batch initialValue() {
+            return new Batch();
+        }
+    };
+
+    static {
+        var providerConfig = NetContext.getConfigManager().getLocalConfig().getProvider();
+        if (providerConfig == null) {
+            ENABLE = false;
+            MAX_PACKETS = DEFAULT_MAX_PACKETS;
+            MAX_BYTES = DEFAULT_MAX_BYTES;
+            MAX_DELAY = DEFAULT_MAX_DELAY;
+        } else {
+            ENABLE = FLUSH_MODE_TASK.equals(providerConfig.getFlushMode());
+            MAX_PACKETS = StringUtils.isBlank(providerConfig.getFlushMaxPackets()) ? DEFAULT_MAX_PACKETS : Integer.parseInt(providerConfig.getFlushMaxPackets());
+            MAX_BYTES = StringUtils.isBlank(providerConfig.getFlushMaxBytes()) ? DEFAULT_MAX_BYTES : Integer.parseInt(providerConfig.getFlushMaxBytes());
+            MAX_DELAY = StringUtils.isBlank(providerConfig.getFlushMaxDelay()) ? DEFAULT_MAX_DELAY : Long.parseLong(providerConfig.getFlushMaxDelay());
+        }
+    }
+
+    private static class Batch {
+        /**
+         * continuation模式下task可能嵌套在另一个task的syncAsk等待中执行，嵌套的层数大于0的时候合并flush
+         */
+        private int depth;
+        private int size;
+        private long startTime;
+        private Session[] sessions = new Session[16];
+        private int[] packets = new int[16];
+        private long[] startBytes = new long[16];
+
+        private int indexOf(Session session) {
+            for (var i = 0; i < size; i++) {
+                if (sessions[i] == session) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int add(Session session) {
+            if (size == sessions.length) {
+                var capacity = size << 1;
+                sessions = Arrays.copyOf(sessions, capacity);
+                packets = Arrays.copyOf(packets, capacity);
+                startBytes = Arrays.copyOf(startBytes, capacity);
+            }
+            if (size == 0) {
+                startTime = TimeUtils.currentTimeMillis();
+            }
+            sessions[size] = session;
+            packets[size] = 0;
+            startBytes[size] = session.getWriteBytes();
+            return size++;
+        }
+
+        private void flush(int index) {
+            var session = sessions[index];
+            session.getChannel().flush();
+            session.increaseFlushCount();
+            // 把最后一个元素移动到当前位置
+            var last = --size;
+            sessions[index] = sessions[last];
+            packets[index] = packets[last];
+            startBytes[index] = startBytes[last];
+            sessions[last] = null;
+        }
+
+        private void flushAll() {
+            for (var i = 0; i < size; i++) {
+                var session = sessions[i];
+                session.getChannel().flush();
+                session.increaseFlushCount();
+                sessions[i] = null;
+            }
+            size = 0;
+        }
+    }
+
+    public static boolean isEnable() {
+        return ENABLE;
+    }
+
+    /**
+     * 开始合并当前线程的flush，在PacketReceiverTask执行之前调用
+     */
+    public static void begin() {
+        if (!ENABLE) {
+            return;
+        }
+        batchThreadLocal.get().depth++;
+    }
+
+    /**
+     * flush当前线程缓存的所有session，并且结束合并，在PacketReceiverTask执行之后调用
+     */
+    public static void end() {
+        if (!ENABLE) {
+            return;
+        }
+        var batch = batchThreadLocal.get();
+        batch.flushAll();
+        batch.depth--;
+    }
+
+    /**
+     * flush当前线程缓存的所有session，但是不结束合并，在当前线程要阻塞等待之前调用
+     */
+    public static void flush() {
+        if (!ENABLE) {
+            return;
+        }
+        batchThreadLocal.get().flushAll();
+    }
+
+    /**
+     * @param message 一般是EncodedPacketInfo，广播的时候是已经编码好的ByteBuf或者WebSocketFrame
+     * @return true表示已经写入并且延迟flush；false表示当前线程没有开启合并，调用者需要自己writeAndFlush
+     */
+    public static boolean write(Session session, Object message) {
+        if (!ENABLE) {
+            return false;
+        }
+
+        var batch = batchThreadLocal.get();
+        if (batch.depth <= 0) {
+            return false;
+        }
+
+        // 在write之前记录起始的字节数，在io线程中调用的时候write会直接编码并统计字节数
+        var index = batch.indexOf(session);
+        if (index < 0) {
+            index = batch.add(session);
+        }
+
+        var channel = session.getChannel();
+        channel.write(message);
+
+        // 字节数是在io线程编码后统计的，所以只是一个近似值，用来防止一个task中发送过多的数据
+        var packetNum = ++batch.packets[index];
+        if (packetNum >= MAX_PACKETS || session.getWriteBytes() - batch.startBytes[index] >= MAX_BYTES || !channel.isWritable()) {
+            batch.flush(index);
+        }
+
+        if (batch.size > 0 && TimeUtils.currentTimeMillis() - batch.startTime >= MAX_DELAY) {
+            batch.flushAll();
+        }
+        return true;
+    }
+
+}
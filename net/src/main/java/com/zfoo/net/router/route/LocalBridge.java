@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router.route;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.packet.common.Heartbeat;
+import com.zfoo.net.router.attachment.IAttachment;
+import com.zfoo.net.session.model.AttributeType;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.protocol.IPacket;
+import com.zfoo.protocol.ProtocolManager;
+import com.zfoo.protocol.exception.RunException;
+import com.zfoo.protocol.util.StringUtils;
+import com.zfoo.util.net.NetUtils;
+import io.netty.buffer.ByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 同一个进程中既是consumer又是provider的时候，consumer连接到自己的provider的消息不经过编解码和socket，直接调用对方的Router.receive
+ * <p>
+ * consumer的TcpClient依然会连接自己的TcpServer，用来做服务发现，负载均衡和心跳；两端的session通过socket地址配对，
+ * client session的localAddress等于server session的remoteAddress，配对以后互相记录在AttributeType.LOCAL_PEER中。
+ * <p>
+ * 附加包每次都会复制一份，和socket一样双方各自持有自己的附加包；包体在reference模式下直接传递对象，copy模式下通过协议深拷贝。
+ * reference模式下发送者和接收者共享同一个包，发送以后不能再修改这个包。心跳依然通过socket发送，保持连接的空闲检测。
+ * <p>
+ * 配对在设置AttributeType.CONSUMER之前完成（参考awaitPeer），consumer的连接在路由表中可见之前不会有包经过socket发送，
+ * 所以不会出现先经过socket的包被之后直接调用的包超过的情况；超时没有配对成功的连接之后也不会再配对，一直使用socket。
+ * <p>
+ * 注意：对方的Router.receive在发送者的线程（一般是task线程）中直接执行，而不是在io线程中。
+ * receive中的逻辑，包括回复的SignalBridge完成，TaskAdmission的过载拒绝回复（TaskAdmission.reply）和网关授权（AuthUidToGatewayCheck），
+ * 都在发送者的线程中同步执行；provider的业务逻辑依然通过TaskBus派发到自己的task线程。
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class LocalBridge {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalBridge.class);
+
+    /**
+     * socket：不开启；reference：直接传递包；copy：传递深拷贝的包
+     */
+    public static final String LOCAL_MODE_SOCKET = "socket";
+    public static final String LOCAL_MODE_REFERENCE = "reference";
+    public static final String LOCAL_MODE_COPY = "copy";
+
+    private static final boolean ENABLE;
+
+    private static final boolean COPY;
+
+    /**
+     * 还没有配对的client session，key：client session的localAddress
+     */
+    private static final Map<SocketAddress, Session> clientSessionMap = new HashMap<>();
+
+    /**
+     * 还没有配对的server session，只记录从本机连接过来的session，key：server session的remoteAddress
+     */
+    private static final Map<SocketAddress, Session> serverSessionMap = new HashMap<>();
+
+    /**
+     * 本机的所有地址，只有从这些地址连接过来的server session才可能和自己的client session配对
+     */
+    private static final Set<InetAddress> LOCAL_ADDRESSES;
+
+    private static final LongAdder localCount = new LongAdder();
+
+    static {
+        var consumerConfig = NetContext.getConfigManager().getLocalConfig().getConsumer();
+        var localMode = (consumerConfig == null || StringUtils.isBlank(consumerConfig.getLocalMode())) ? LOCAL_MODE_SOCKET : consumerConfig.getLocalMode();
+        switch (localMode) {
+            case LOCAL_MODE_SOCKET:
+            case LOCAL_MODE_REFERENCE:
+            case LOCAL_MODE_COPY:
+                break;
+            default:
+                throw new RunException("unknown consumer local mode:[{}]", localMode);
+        }
+        ENABLE = !LOCAL_MODE_SOCKET.equals(localMode);
+        COPY = LOCAL_MODE_COPY.equals(localMode);
+        LOCAL_ADDRESSES = ENABLE ? NetUtils.getAllAddress() : Collections.emptySet();
+    }
+
+    public static boolean isEnable() {
+        return ENABLE;
+    }
+
+    /**
+     * 等待client session和自己进程中的server session配对，在设置AttributeType.CONSUMER之前调用
+     *
+     * @param timeoutMillis 等待的时间（毫秒）
+     * @return true表示配对成功；false表示超时，这个连接之后不会再配对，一直使用socket
+     */
+    public static synchronized boolean awaitPeer(Session session, long timeoutMillis) {
+        if (!ENABLE) {
+            return false;
+        }
+        var deadline = System.currentTimeMillis() + timeoutMillis;
+        while (session.getAttribute(AttributeType.LOCAL_PEER) == null) {
+            var remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || !session.getChannel().isActive()) {
+                // 不再配对，避免在路由表中可见以后从socket切换为直接调用
+                clientSessionMap.remove(session.getChannel().localAddress(), session);
+                return false;
+            }
+            try {
+                LocalBridge.class.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                clientSessionMap.remove(session.getChannel().localAddress(), session);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 客户端连接成功的时候调用，这个时候还没有设置AttributeType.CONSUMER，发送的时候再判断是不是consumer的连接
+     */
+    public static synchronized void addClientSession(Session session) {
+        if (!ENABLE) {
+            return;
+        }
+        var localAddress = session.getChannel().localAddress();
+        if (localAddress == null) {
+            return;
+        }
+        // provider先收到连接的情况
+        var serverSession = serverSessionMap.get(localAddress);
+        if (serverSession != null) {
+            link(session, serverSession);
+            return;
+        }
+        clientSessionMap.put(localAddress, session);
+    }
+
+    public static synchronized void addServerSession(Session session) {
+        if (!ENABLE) {
+            return;
+        }
+        var remoteAddress = session.getChannel().remoteAddress();
+        if (remoteAddress == null) {
+            return;
+        }
+        var clientSession = clientSessionMap.get(remoteAddress);
+        if (clientSession != null) {
+            link(clientSession, session);
+            return;
+        }
+        // 网关这种有大量客户端连接的服务器，只记录从本机连接过来的session
+        if (isLocal(remoteAddress)) {
+            serverSessionMap.put(remoteAddress, session);
+        }
+    }
+
+    private static boolean isLocal(SocketAddress address) {
+        if (!(address instanceof InetSocketAddress)) {
+            return false;
+        }
+        var inetAddress = ((InetSocketAddress) address).getAddress();
+        return inetAddress != null && (inetAddress.isLoopbackAddress() || LOCAL_ADDRESSES.contains(inetAddress));
+    }
+
+    public static synchronized void removeSession(Session session) {
+        if (!ENABLE) {
+            return;
+        }
+        var localAddress = session.getChannel().localAddress();
+        if (localAddress != null) {
+            clientSessionMap.remove(localAddress, session);
+        }
+        var remoteAddress = session.getChannel().remoteAddress();
+        if (remoteAddress != null) {
+            serverSessionMap.remove(remoteAddress, session);
+        }
+        Session peer = session.getAttribute(AttributeType.LOCAL_PEER);
+        if (peer != null) {
+            peer.removeAttribute(AttributeType.LOCAL_PEER);
+            session.removeAttribute(AttributeType.LOCAL_PEER);
+        }
+    }
+
+    private static void link(Session clientSession, Session serverSession) {
+        clientSessionMap.remove(clientSession.getChannel().localAddress(), clientSession);
+        serverSessionMap.remove(serverSession.getChannel().remoteAddress(), serverSession);
+        clientSession.putAttribute(AttributeType.LOCAL_PEER, serverSession);
+        serverSession.putAttribute(AttributeType.LOCAL_PEER, clientSession);
+        LocalBridge.class.notifyAll();
+        logger.info("consumer session:[{}] and provider session:[{}] are in the same process, send packets without socket", clientSession.getSid(), serverSession.getSid());
+    }
+
+    /**
+     * 在Router.send中调用，返回true表示已经直接交给了对方的Router.receive
+     */
+    public static boolean send(Session session, IPacket packet, IAttachment attachment) {
+        if (!ENABLE) {
+            return false;
+        }
+        Session peer = session.getAttribute(AttributeType.LOCAL_PEER);
+        if (peer == null || packet.protocolId() == Heartbeat.PROTOCOL_ID || !peer.getChannel().isActive()) {
+            return false;
+        }
+        // 只有consumer的连接才不经过socket，其它的客户端（如测试用的TcpClient）依然走socket
+        if (session.getAttribute(AttributeType.CONSUMER) == null && peer.getAttribute(AttributeType.CONSUMER) == null) {
+            return false;
+        }
+        var receivePacket = COPY ? copy(packet) : packet;
+        var receiveAttachment = attachment == null ? null : (IAttachment) copy(attachment);
+        session.increaseWriteCount();
+        localCount.increment();
+        NetContext.getRouter().receive(peer, receivePacket, receiveAttachment);
+        return true;
+    }
+
+    /**
+     * 通过协议序列化和反序列化深拷贝，和经过socket收到的对象相同，transient的字段不会被复制
+     */
+    public static IPacket copy(IPacket packet) {
+        var buffer = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            ProtocolManager.write(buffer, packet);
+            return ProtocolManager.read(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * 不经过socket发送的消息的数量
+     */
+    public static long localCount() {
+        return localCount.sum();
+    }
+
+}
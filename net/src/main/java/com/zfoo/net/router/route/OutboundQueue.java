@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router.route;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.net.util.SessionUtils;
+import com.zfoo.protocol.ProtocolManager;
+import com.zfoo.protocol.util.StringUtils;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * session的发送队列，用来处理网络很慢的客户端
+ * <p>
+ * 1. channel不可写的时候（netty的发送缓冲区超过了高水位），包先放到session的有界队列中，不再写入netty的发送缓冲区
+ * 2. 配置了合并的协议（如位置同步，状态通知）在队列中只保留最新的一个，位置为第一次放入队列的位置
+ * 3. channel重新变为可写的时候（channelWritabilityChanged）在io线程中把队列中的包发送出去
+ * 4. 队列满了说明客户端已经无法跟上服务器的发送速度，直接断开连接
+ * <p>
+ * 队列不为空的时候，之后发送的包也会放入队列，保证包的发送顺序；广播（SessionGroup）和网关透传的帧等已经编码好的消息同样经过这个队列
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class OutboundQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private static final AttributeKey<Outbound> OUTBOUND_KEY = AttributeKey.valueOf("outboundQueue");
+
+    private static final boolean ENABLE;
+    private static final int CAPACITY;
+
+    /**
+     * 需要合并的协议，index为协议号
+     */
+    private static final boolean[] coalesceProtocols = new boolean[ProtocolManager.MAX_PROTOCOL_NUM];
+
+    static {
+        var providerConfig = NetContext.getConfigManager().getLocalConfig().getProvider();
+        if (providerConfig == null || StringUtils.isBlank(providerConfig.getOutboundCapacity())) {
+            ENABLE = false;
+            CAPACITY = 0;
+        } else {
+            CAPACITY = Integer.parseInt(providerConfig.getOutboundCapacity());
+            ENABLE = CAPACITY > 0;
+            if (StringUtils.isNotBlank(providerConfig.getOutboundCoalesce())) {
+                for (var protocolId : providerConfig.getOutboundCoalesce().split(StringUtils.COMMA_REGEX)) {
+                    coalesceProtocols[Short.parseShort(StringUtils.trim(protocolId))] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 合并的协议在队列中的位置，只保存最新的包
+     */
+    private static class Slot {
+        private EncodedPacketInfo packetInfo;
+
+        private Slot(EncodedPacketInfo packetInfo) {
+            this.packetInfo = packetInfo;
+        }
+    }
+
+    /**
+     * 下面的变量通过synchronized保护
+     */
+    private static class Outbound {
+        /**
+         * EncodedPacketInfo，Slot，或者已经编码好的消息（ByteBuf，WebSocketFrame）
+         */
+        private final ArrayDeque<Object> queue = new ArrayDeque<>();
+
+        /**
+         * key：协议号，还在队列中的合并协议
+         */
+        private final Map<Short, Slot> slotMap = new HashMap<>();
+
+        private boolean closed;
+    }
+
+    public static boolean isEnable() {
+        return ENABLE;
+    }
+
+    /**
+     * @param message EncodedPacketInfo，或者已经编码好的消息；放入队列以后（包括连接已经因为溢出关闭而丢弃）由队列负责释放
+     * @return true表示已经放入发送队列；false表示channel可写并且队列为空，调用者按照原来的方式发送
+     */
+    public static boolean write(Session session, Object message) {
+        if (!ENABLE) {
+            return false;
+        }
+
+        var channel = session.getChannel();
+        var outboundAttr = channel.attr(OUTBOUND_KEY);
+        var outbound = outboundAttr.get();
+        if (outbound == null) {
+            if (channel.isWritable() || !channel.isActive()) {
+                return false;
+            }
+            var newOutbound = new Outbound();
+            if (outboundAttr.setIfAbsent(newOutbound) == null) {
+                // 连接断开的时候释放还在队列中的消息
+                channel.closeFuture().addListener(future -> close(newOutbound));
+            }
+            outbound = outboundAttr.get();
+        }
+
+        synchronized (outbound) {
+            if (outbound.closed) {
+                ReferenceCountUtil.release(message);
+                return true;
+            }
+            if (outbound.queue.isEmpty() && channel.isWritable()) {
+                return false;
+            }
+
+            if (message instanceof EncodedPacketInfo && isCoalesce((EncodedPacketInfo) message)) {
+                var packetInfo = (EncodedPacketInfo) message;
+                var protocolId = packetInfo.getPacket().protocolId();
+                var slot = outbound.slotMap.get(protocolId);
+                if (slot != null) {
+                    slot.packetInfo = packetInfo;
+                    return true;
+                }
+                slot = new Slot(packetInfo);
+                outbound.slotMap.put(protocolId, slot);
+                outbound.queue.offer(slot);
+            } else {
+                outbound.queue.offer(message);
+            }
+
+            if (outbound.queue.size() > CAPACITY) {
+                clear(outbound);
+                logger.warn("session outbound queue overflow [capacity:{}] and will be closed {}", CAPACITY, SessionUtils.sessionSimpleInfo(session));
+                channel.close();
+                return true;
+            }
+        }
+
+        // 放入队列的时候channel刚好变为可写，channelWritabilityChanged可能已经执行过了
+        if (channel.isWritable()) {
+            channel.eventLoop().execute(() -> drain(session));
+        }
+        return true;
+    }
+
+    private static boolean isCoalesce(EncodedPacketInfo packetInfo) {
+        return coalesceProtocols[packetInfo.getPacket().protocolId()] && packetInfo.getAttachment() == null;
+    }
+
+    private static void close(Outbound outbound) {
+        synchronized (outbound) {
+            clear(outbound);
+        }
+    }
+
+    /**
+     * 在锁中调用，丢弃队列中的所有消息，之后放入的消息也会被直接丢弃
+     */
+    private static void clear(Outbound outbound) {
+        outbound.closed = true;
+        for (var element : outbound.queue) {
+            ReferenceCountUtil.release(element);
+        }
+        outbound.queue.clear();
+        outbound.slotMap.clear();
+    }
+
+    /**
+     * channel变为可写的时候在io线程中调用，发送队列中的包直到队列为空或者channel再次不可写
+     */
+    public static void drain(Session session) {
+        if (!ENABLE) {
+            return;
+        }
+
+        var channel = session.getChannel();
+        var outbound = channel.attr(OUTBOUND_KEY).get();
+        if (outbound == null) {
+            return;
+        }
+
+        var count = 0;
+        synchronized (outbound) {
+            while (channel.isWritable()) {
+                var element = outbound.queue.poll();
+                if (element == null) {
+                    break;
+                }
+                Object message;
+                if (element instanceof Slot) {
+                    var packetInfo = ((Slot) element).packetInfo;
+                    outbound.slotMap.remove(packetInfo.getPacket().protocolId());
+                    message = packetInfo;
+                } else {
+                    message = element;
+                }
+                // 在锁中写入，队列为空之前write不会直接发送，保证包的顺序
+                channel.write(message);
+                count++;
+            }
+        }
+
+        if (count > 0) {
+            channel.flush();
+            session.increaseFlushCount();
+        }
+    }
+
+    // -------------------------------------------------metrics-------------------------------------------------
+
+    /**
+     * session的发送队列中等待发送的包的数量
+     */
+    public static int pendingPackets(Session session) {
+        var outbound = session.getChannel().attr(OUTBOUND_KEY).get();
+        if (outbound == null) {
+            return 0;
+        }
+        synchronized (outbound) {
+            return outbound.queue.size();
+        }
+    }
+
+}
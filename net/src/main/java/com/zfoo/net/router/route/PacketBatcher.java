@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router.route;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.handler.BaseRouteHandler;
+import com.zfoo.net.handler.codec.tcp.TcpCodecHandler;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
+import com.zfoo.net.router.attachment.SignalAttachment;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.net.util.SessionUtils;
+import com.zfoo.protocol.util.StringUtils;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 服务之间请求的微批量发送，把发往同一个tcp session的多个Ask合并成一个多包的帧，减少帧的数量和write系统调用的次数
+ * <p>
+ * 1. consumer开启ask-batch后，客户端的SignalAttachment请求先放入session的批量队列，在ask-batch-window微秒后或者达到ask-batch-packets个包的时候发送
+ * 2. provider收到过多包的帧以后，会把这个session的应答同样合并成多包的帧返回，不需要额外配置；
+ * 只有consumer和provider之间的连接（TcpCodecHandler开启了batch）支持多包的帧，面向客户端的连接收到多包的帧会断开连接
+ * 3. 多包的帧在解码的时候会被拆成多个DecodedPacketInfo，每一个请求依然有自己的SignalAttachment，回调依然是单独触发的
+ * 4. 批量队列不为空的时候，发往这个session的其它消息（通知，NoAnswerAttachment，网关的消息，已经编码好的帧）也放入批量队列，
+ * 保证同一个线程发送的消息的顺序不会被打乱
+ * <p>
+ * 批量队列是无锁的MPSC队列，编码和发送都在session的io线程中执行
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class PacketBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PacketBatcher.class);
+
+    private static final AttributeKey<Batch> BATCH_KEY = AttributeKey.valueOf("packetBatch");
+
+    private static final long DEFAULT_WINDOW_MICROS = 200;
+    private static final int DEFAULT_MAX_PACKETS = 32;
+
+    private static final boolean ENABLE;
+    private static final long WINDOW_MICROS;
+    private static final int MAX_PACKETS;
+
+    static {
+        var consumerConfig = NetContext.getConfigManager().getLocalConfig().getConsumer();
+        if (consumerConfig == null) {
+            ENABLE = false;
+            WINDOW_MICROS = DEFAULT_WINDOW_MICROS;
+            MAX_PACKETS = DEFAULT_MAX_PACKETS;
+        } else {
+            ENABLE = Boolean.parseBoolean(consumerConfig.getAskBatch());
+            WINDOW_MICROS = StringUtils.isBlank(consumerConfig.getAskBatchWindow()) ? DEFAULT_WINDOW_MICROS : Long.parseLong(consumerConfig.getAskBatchWindow());
+            MAX_PACKETS = StringUtils.isBlank(consumerConfig.getAskBatchPackets()) ? DEFAULT_MAX_PACKETS : Integer.parseInt(consumerConfig.getAskBatchPackets());
+        }
+    }
+
+    private static class Batch implements Runnable {
+        private final Session session;
+
+        /**
+         * 只有TcpCodecHandler允许多包的帧的session（consumer和provider之间的连接）才能发送多包的帧
+         */
+        private final boolean tcp;
+
+        /**
+         * 对端发送过多包的帧，说明对端支持多包的帧，应答也合并发送
+         */
+        private volatile boolean peer;
+
+        /**
+         * EncodedPacketInfo或者已经编码好的消息
+         */
+        private final Queue<Object> queue = PlatformDependent.newMpscQueue();
+
+        /**
+         * 队列中的消息的数量，从0变为1的生产者负责启动定时发送
+         */
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        /**
+         * 达到MAX_PACKETS以后是否已经提交了立即发送，run开始的时候重置，防止run并发减少size的时候错过触发
+         */
+        private final AtomicBoolean triggered = new AtomicBoolean(false);
+
+        private Batch(Session session) {
+            this.session = session;
+            var codec = session.getChannel().pipeline().get(TcpCodecHandler.class);
+            this.tcp = codec != null && codec.isBatch();
+        }
+
+        private void offer(Object message) {
+            queue.offer(message);
+            var currentSize = size.incrementAndGet();
+            var eventLoop = session.getChannel().eventLoop();
+            if (currentSize == 1) {
+                eventLoop.schedule(this, WINDOW_MICROS, TimeUnit.MICROSECONDS);
+            } else if (currentSize >= MAX_PACKETS && triggered.compareAndSet(false, true)) {
+                eventLoop.execute(this);
+            }
+        }
+
+        /**
+         * 在session的io线程中执行
+         */
+        @Override
+        public void run() {
+            triggered.set(false);
+            List<Object> messages = null;
+            Object message;
+            while ((message = queue.poll()) != null) {
+                if (messages == null) {
+                    messages = new ArrayList<>();
+                }
+                messages.add(message);
+            }
+            if (messages == null) {
+                return;
+            }
+
+            // 在poll之后放入队列的消息会在下一次发送
+            if (size.addAndGet(-messages.size()) > 0) {
+                session.getChannel().eventLoop().schedule(this, WINDOW_MICROS, TimeUnit.MICROSECONDS);
+            }
+
+            // 连续的包合并成多包的帧，已经编码好的消息按照原来的顺序单独写入
+            var channel = session.getChannel();
+            var packetInfos = new ArrayList<EncodedPacketInfo>();
+            for (var element : messages) {
+                if (element instanceof EncodedPacketInfo) {
+                    packetInfos.add((EncodedPacketInfo) element);
+                    if (packetInfos.size() >= MAX_PACKETS) {
+                        writePackets(channel, packetInfos);
+                    }
+                    continue;
+                }
+                writePackets(channel, packetInfos);
+                channel.write(element);
+            }
+            writePackets(channel, packetInfos);
+            channel.flush();
+            session.increaseFlushCount();
+        }
+
+        private void writePackets(Channel channel, List<EncodedPacketInfo> packetInfos) {
+            if (packetInfos.isEmpty()) {
+                return;
+            }
+            // 只有一个包的时候直接使用普通的帧
+            if (packetInfos.size() == 1) {
+                channel.write(packetInfos.get(0));
+                packetInfos.clear();
+                return;
+            }
+            var buffer = ByteBufAllocator.DEFAULT.ioBuffer();
+            try {
+                NetContext.getPacketService().writeBatch(buffer, packetInfos);
+            } catch (Throwable t) {
+                buffer.release();
+                logger.error("batch encode exception {}", SessionUtils.sessionSimpleInfo(session), t);
+                return;
+            } finally {
+                packetInfos.clear();
+            }
+            session.increaseWriteBytes(buffer.readableBytes());
+            channel.write(buffer);
+        }
+    }
+
+    public static boolean isEnable() {
+        return ENABLE;
+    }
+
+    /**
+     * 收到对端的多包的帧以后调用，之后发给对端的应答也会合并成多包的帧
+     */
+    public static void markPeer(Channel channel) {
+        var batch = channel.attr(BATCH_KEY).get();
+        if (batch != null && batch.peer) {
+            return;
+        }
+        var session = channel.attr(BaseRouteHandler.SESSION_KEY).get();
+        if (session == null) {
+            return;
+        }
+        batch(session).peer = true;
+    }
+
+    /**
+     * @return true表示已经放入批量队列；false表示不需要合并，调用者按照原来的方式发送
+     */
+    public static boolean write(Session session, EncodedPacketInfo packetInfo) {
+        var attachment = packetInfo.getAttachment();
+        if (!(attachment instanceof SignalAttachment)) {
+            return follow(session, packetInfo);
+        }
+
+        Batch batch;
+        if (((SignalAttachment) attachment).isClient()) {
+            // 客户端的请求
+            if (!ENABLE) {
+                return false;
+            }
+            batch = batch(session);
+        } else {
+            // 服务器的应答，只有对端发送过多包的帧才合并
+            batch = session.getChannel().attr(BATCH_KEY).get();
+            if (batch == null || !batch.peer) {
+                return follow(session, packetInfo);
+            }
+        }
+
+        if (!batch.tcp) {
+            return false;
+        }
+
+        batch.offer(packetInfo);
+        return true;
+    }
+
+    /**
+     * 不需要合并的消息，批量队列不为空的时候同样放入批量队列，否则会超过之前还在队列中等待的包
+     *
+     * @param message EncodedPacketInfo，或者已经编码好的ByteBuf（如网关透传的帧，广播）
+     * @return true表示已经放入批量队列；false表示批量队列为空，调用者按照原来的方式发送
+     */
+    public static boolean follow(Session session, Object message) {
+        var batch = session.getChannel().attr(BATCH_KEY).get();
+        if (batch == null || batch.size.get() <= 0) {
+            return false;
+        }
+        batch.offer(message);
+        return true;
+    }
+
+    private static Batch batch(Session session) {
+        var batchAttr = session.getChannel().attr(BATCH_KEY);
+        var batch = batchAttr.get();
+        if (batch == null) {
+            batchAttr.setIfAbsent(new Batch(session));
+            batch = batchAttr.get();
+        }
+        return batch;
+    }
+
+}
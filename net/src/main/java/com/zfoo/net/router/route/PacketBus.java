@@ -46,6 +46,11 @@ public abstract class PacketBus {
 
     private static final Logger logger = LoggerFactory.getLogger(PacketBus.class);
 
+    /**
+     * @PacketReceiver上指定的executorGroup，index为协议号
+     */
+    private static final String[] executorGroups = new String[ProtocolManager.MAX_PROTOCOL_NUM];
+
     /**
      * 正常消息的接收
      * <p>
@@ -132,10 +137,22 @@ public abstract class PacketBus {
                 var receiverField = ReflectionUtils.getFieldByNameInPOJOClass(protocolRegistration.getClass(), "receiver");
                 ReflectionUtils.makeAccessible(receiverField);
                 ReflectionUtils.setField(receiverField, protocolRegistration, enhanceReceiverDefinition);
+
+                var executorGroup = method.getAnnotation(PacketReceiver.class).executorGroup();
+                if (StringUtils.isNotBlank(executorGroup)) {
+                    executorGroups[protocolId] = executorGroup;
+                }
             } catch (Throwable t) {
                 throw new RunException(t, "解析协议类[class:{}]未知异常", packetClazz.getSimpleName());
             }
         }
     }
 
+    /**
+     * @return @PacketReceiver上没有指定则返回null
+     */
+    public static String executorGroup(short protocolId) {
+        return executorGroups[protocolId];
+    }
+
 }
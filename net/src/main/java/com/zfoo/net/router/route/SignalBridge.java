@@ -12,17 +12,33 @@
 
 package com.zfoo.net.router.route;
 
+import com.zfoo.net.router.Router;
 import com.zfoo.net.router.attachment.SignalAttachment;
+import com.zfoo.protocol.ProtocolManager;
 import com.zfoo.protocol.util.JsonUtils;
+import com.zfoo.scheduler.util.TimeUtils;
+import io.netty.util.internal.PlatformDependent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 同步或异步的调用控制器，同步和异步调用的信号沟通桥梁
+ * <p>
+ * 异步请求的超时通过一个时间轮统一处理，时间轮只在signal-timer线程中访问，每一格的请求批量的检查超时，
+ * 超时或者收到回复的时候直接把回调丢到请求者的执行器，不再使用CompletableFuture的completeOnTimeout和中间的stage
+ * <p>
+ * 时间轮中保存的是可以取消的节点，收到回复的时候清空节点，已经回复的请求不用等到所在的格才被释放
+ * <p>
+ * 收到回复和超时同时发生的时候，只有从这里成功移除SignalAttachment的一方会回调
  *
  * @author jaysunxiao
  * @version 3.0
@@ -44,6 +60,45 @@ public class SignalBridge {
      */
     private static final Map<Integer, SignalAttachment> signalAttachmentMap = new ConcurrentHashMap<>(1000);
 
+    /**
+     * 时间轮每一格的时间（毫秒）和格数，转一圈大约5秒，超过一圈的请求会在下一圈再检查
+     */
+    private static final long TICK_MILLIS = 10;
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * 新加入的需要超时检查的请求，由signal-timer线程批量的放入时间轮
+     */
+    private static final Queue<AtomicReference<SignalAttachment>> timeoutQueue = PlatformDependent.newMpscQueue();
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicReference<SignalAttachment>[][] wheel = new AtomicReference[WHEEL_SIZE][];
+    private static final int[] wheelSizes = new int[WHEEL_SIZE];
+
+    /**
+     * 下面两个变量只在signal-timer线程中访问
+     */
+    private static long startTime;
+    private static long tick;
+
+    /**
+     * 每个请求协议的超时时间，为0则使用defaultTimeout，index：请求的protocolId
+     */
+    private static final int[] protocolTimeouts = new int[ProtocolManager.MAX_PROTOCOL_NUM];
+
+    private static volatile long defaultTimeout = Router.DEFAULT_TIMEOUT;
+
+    static {
+        var thread = new Thread(SignalBridge::tickLoop, "signal-timer");
+        thread.setDaemon(true);
+        thread.setUncaughtExceptionHandler((t, e) -> logger.error(t.toString(), e));
+        thread.start();
+    }
+
+    /**
+     * 同步请求，请求线程自己等待超时，不需要放入时间轮
+     */
     public static void addSignalAttachment(SignalAttachment signalAttachment) {
         var signalId = signalAttachment.getSignalId();
         var hash = signalId & SIGNAL_MASK;
@@ -56,6 +111,19 @@ public class SignalBridge {
         signalAttachmentMap.put(signalId, signalAttachment);
     }
 
+    /**
+     * 异步请求，超时后会以null作为回复调用SignalAttachment的complete方法
+     *
+     * @param timeout 超时时间（毫秒）
+     */
+    public static void addSignalAttachment(SignalAttachment signalAttachment, long timeout) {
+        signalAttachment.setTimeoutTime(TimeUtils.currentTimeMillis() + timeout);
+        var timeoutNode = new AtomicReference<>(signalAttachment);
+        signalAttachment.setTimeoutNode(timeoutNode);
+        addSignalAttachment(signalAttachment);
+        timeoutQueue.offer(timeoutNode);
+    }
+
     public static SignalAttachment removeSignalAttachment(SignalAttachment signalAttachment) {
         return removeSignalAttachment(signalAttachment.getSignalId());
     }
@@ -64,12 +132,132 @@ public class SignalBridge {
         var hash = signalId & SIGNAL_MASK;
 
         var attachment = signalAttachmentArray.get(hash);
-        if (attachment != null && attachment.getSignalId() == signalId) {
-            // 使用性能更高的lazySet()，当我们想对一个原子变量进行修改，而且我们知道这个修改不需要立即对其他线程可见。
-            signalAttachmentArray.lazySet(hash, null);
-            return attachment;
+        if (attachment != null && attachment.getSignalId() == signalId && signalAttachmentArray.compareAndSet(hash, attachment, null)) {
+            return cancelTimeout(attachment);
+        }
+        return cancelTimeout(signalAttachmentMap.remove(signalId));
+    }
+
+    /**
+     * 只移除同一个对象，防止signalId循环使用以后移除了别的请求
+     */
+    private static boolean removeSameSignalAttachment(SignalAttachment signalAttachment) {
+        var signalId = signalAttachment.getSignalId();
+        var hash = signalId & SIGNAL_MASK;
+        if (signalAttachmentArray.compareAndSet(hash, signalAttachment, null) || signalAttachmentMap.remove(signalId, signalAttachment)) {
+            cancelTimeout(signalAttachment);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 清空时间轮中的节点，时间轮只会留下一个空的节点，不再持有附加包和它的回调
+     */
+    private static SignalAttachment cancelTimeout(SignalAttachment signalAttachment) {
+        if (signalAttachment != null) {
+            signalAttachment.cancelTimeoutNode();
+        }
+        return signalAttachment;
+    }
+
+    // -------------------------------------------------timeout-------------------------------------------------
+
+    /**
+     * 请求协议的超时时间（毫秒）
+     */
+    public static long timeout(short protocolId) {
+        var timeout = protocolTimeouts[protocolId];
+        return timeout > 0 ? timeout : defaultTimeout;
+    }
+
+    public static void setTimeout(short protocolId, long timeout) {
+        protocolTimeouts[protocolId] = (int) timeout;
+    }
+
+    public static void setDefaultTimeout(long timeout) {
+        defaultTimeout = timeout;
+    }
+
+    private static void tickLoop() {
+        startTime = TimeUtils.currentTimeMillis();
+        while (true) {
+            try {
+                // 等待到当前格结束
+                var deadline = startTime + (tick + 1) * TICK_MILLIS;
+                var sleepTime = deadline - TimeUtils.currentTimeMillis();
+                if (sleepTime > 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(sleepTime));
+                    continue;
+                }
+
+                transferTimeouts();
+                expireTimeouts();
+                tick++;
+            } catch (Throwable t) {
+                logger.error("signal timer unknown exception", t);
+            }
+        }
+    }
+
+    private static long expireTick(SignalAttachment signalAttachment) {
+        return (signalAttachment.getTimeoutTime() - startTime) / TICK_MILLIS;
+    }
+
+    private static void transferTimeouts() {
+        AtomicReference<SignalAttachment> timeoutNode;
+        while ((timeoutNode = timeoutQueue.poll()) != null) {
+            // 已经收到了回复
+            var signalAttachment = timeoutNode.get();
+            if (signalAttachment == null) {
+                continue;
+            }
+
+            var index = (int) (Math.max(expireTick(signalAttachment), tick) & WHEEL_MASK);
+            var bucket = wheel[index];
+            var size = wheelSizes[index];
+            if (bucket == null) {
+                bucket = new AtomicReference[16];
+                wheel[index] = bucket;
+            } else if (size == bucket.length) {
+                bucket = Arrays.copyOf(bucket, size << 1);
+                wheel[index] = bucket;
+            }
+            bucket[size] = timeoutNode;
+            wheelSizes[index] = size + 1;
+        }
+    }
+
+    private static void expireTimeouts() {
+        var index = (int) (tick & WHEEL_MASK);
+        var bucket = wheel[index];
+        var size = wheelSizes[index];
+        var remain = 0;
+        for (var i = 0; i < size; i++) {
+            var timeoutNode = bucket[i];
+            bucket[i] = null;
+
+            // 已经收到了回复
+            var signalAttachment = timeoutNode.get();
+            if (signalAttachment == null) {
+                continue;
+            }
+
+            // 还没有到超时的时间，等下一圈
+            if (expireTick(signalAttachment) > tick) {
+                bucket[remain++] = timeoutNode;
+                continue;
+            }
+
+            if (removeSameSignalAttachment(signalAttachment)) {
+                try {
+                    signalAttachment.complete(null);
+                } catch (Throwable t) {
+                    logger.error("signal attachment timeout callback unknown exception", t);
+                }
+            }
         }
-        return signalAttachmentMap.remove(signalId);
+        wheelSizes[index] = remain;
     }
 
     public static void status() {
@@ -119,6 +119,9 @@ public class NetDefinitionParser implements BeanDefinitionParser {
 
         resolvePlaceholder("protocol-param", "protocolParam", builder, element, parserContext);
 
+        // 包体压缩的阈值
+        resolvePlaceholder("compress-threshold", "compressThreshold", builder, element, parserContext);
+
         // -----注册中心解析-----
         // 上面解析的都是config标签的属性，这里开始解析registry元素
         var registryElement = DomUtils.getFirstChildElementByTagName(element, "registry");
@@ -180,12 +183,31 @@ public class NetDefinitionParser implements BeanDefinitionParser {
         var builder = BeanDefinitionBuilder.rootBeanDefinition(clazz);
 
         resolvePlaceholder("task-dispatch", "taskDispatch", builder, element, parserContext);
+        resolvePlaceholder("task-rebalance", "taskRebalance", builder, element, parserContext);
         resolvePlaceholder("thread", "thread", builder, element, parserContext);
+        resolvePlaceholder("task-mode", "taskMode", builder, element, parserContext);
+        resolvePlaceholder("sync-ask-mode", "syncAskMode", builder, element, parserContext);
+        resolvePlaceholder("queue-capacity", "queueCapacity", builder, element, parserContext);
+        resolvePlaceholder("shed-lane-depth", "shedLaneDepth", builder, element, parserContext);
+        resolvePlaceholder("shed-global-depth", "shedGlobalDepth", builder, element, parserContext);
+        resolvePlaceholder("shed-queue-age", "shedQueueAge", builder, element, parserContext);
+        resolvePlaceholder("shed-critical", "shedCritical", builder, element, parserContext);
+        resolvePlaceholder("shed-low", "shedLow", builder, element, parserContext);
+        resolvePlaceholder("flush-mode", "flushMode", builder, element, parserContext);
+        resolvePlaceholder("flush-max-packets", "flushMaxPackets", builder, element, parserContext);
+        resolvePlaceholder("flush-max-bytes", "flushMaxBytes", builder, element, parserContext);
+        resolvePlaceholder("flush-max-delay", "flushMaxDelay", builder, element, parserContext);
+        resolvePlaceholder("outbound-capacity", "outboundCapacity", builder, element, parserContext);
+        resolvePlaceholder("outbound-coalesce", "outboundCoalesce", builder, element, parserContext);
+        resolvePlaceholder("reuse-port", "reusePort", builder, element, parserContext);
         resolvePlaceholder("address", "address", builder, element, parserContext);
 
         var providerModules = parseProviderModules("providers", element, parserContext);
         builder.addPropertyValue("providers", providerModules);
 
+        var executorGroups = parseExecutorGroups("executorGroups", element, parserContext);
+        builder.addPropertyValue("executorGroups", executorGroups);
+
         // 注册Consumer到Spring容器中
         parserContext.getRegistry().registerBeanDefinition(clazz.getCanonicalName(), builder.getBeanDefinition());
     }
@@ -196,6 +218,14 @@ public class NetDefinitionParser implements BeanDefinitionParser {
 
         var consumerModules = parseConsumerModules("consumers", element, parserContext);
         builder.addPropertyValue("consumers", consumerModules);
+
+        resolvePlaceholder("timeout", "timeout", builder, element, parserContext);
+        resolvePlaceholder("ask-batch", "askBatch", builder, element, parserContext);
+        resolvePlaceholder("ask-batch-window", "askBatchWindow", builder, element, parserContext);
+        resolvePlaceholder("ask-batch-packets", "askBatchPackets", builder, element, parserContext);
+        resolvePlaceholder("local-mode", "localMode", builder, element, parserContext);
+        var timeoutMap = parseTimeout(element, parserContext);
+        builder.addPropertyValue("timeouts", timeoutMap);
         parserContext.getRegistry().registerBeanDefinition(clazz.getCanonicalName(), builder.getBeanDefinition());
     }
 
@@ -217,6 +247,26 @@ public class NetDefinitionParser implements BeanDefinitionParser {
         return providers;
     }
 
+    private ManagedList<BeanDefinitionHolder> parseExecutorGroups(String param, Element element, ParserContext parserContext) {
+        var groupElementList = DomUtils.getChildElementsByTagName(element, "executor-group");
+        var groups = new ManagedList<BeanDefinitionHolder>();
+        for (var i = 0; i < groupElementList.size(); i++) {
+            var groupElement = groupElementList.get(i);
+            var clazz = ExecutorGroupConfig.class;
+            var builder = BeanDefinitionBuilder.rootBeanDefinition(clazz);
+
+            resolvePlaceholder("name", "name", builder, groupElement, parserContext);
+            resolvePlaceholder("thread", "thread", builder, groupElement, parserContext);
+            resolvePlaceholder("queue-capacity", "queueCapacity", builder, groupElement, parserContext);
+            resolvePlaceholder("task-dispatch", "taskDispatch", builder, groupElement, parserContext);
+            resolvePlaceholder("modules", "modules", builder, groupElement, parserContext);
+            resolvePlaceholder("protocols", "protocols", builder, groupElement, parserContext);
+
+            groups.add(new BeanDefinitionHolder(builder.getBeanDefinition(), StringUtils.format("{}.{}{}", clazz.getCanonicalName(), param, i)));
+        }
+        return groups;
+    }
+
     private ManagedList<BeanDefinitionHolder> parseConsumerModules(String param, Element element, ParserContext parserContext) {
         var moduleElementList = DomUtils.getChildElementsByTagName(element, "consumer");
         var modules = new ManagedList<BeanDefinitionHolder>();
@@ -229,6 +279,7 @@ public class NetDefinitionParser implements BeanDefinitionParser {
             builder.addConstructorArgValue(environment.resolvePlaceholders(addressElement.getAttribute("protocol-module")));
             builder.addConstructorArgValue(environment.resolvePlaceholders(addressElement.getAttribute("load-balancer")));
             builder.addConstructorArgValue(environment.resolvePlaceholders(addressElement.getAttribute("consumer")));
+            builder.addPropertyValue("connection", environment.resolvePlaceholders(addressElement.getAttribute("connection")));
 
             modules.add(new BeanDefinitionHolder(builder.getBeanDefinition(), StringUtils.format("{}.{}{}", clazz.getCanonicalName(), param, i)));
         }
@@ -248,6 +299,19 @@ public class NetDefinitionParser implements BeanDefinitionParser {
         return addressMap;
     }
 
+    private ManagedMap<String, String> parseTimeout(Element element, ParserContext parserContext) {
+        var timeoutElementList = DomUtils.getChildElementsByTagName(element, "timeout");
+        var timeoutMap = new ManagedMap<String, String>();
+
+        var environment = parserContext.getReaderContext().getEnvironment();
+        for (var timeoutElement : timeoutElementList) {
+            var protocol = environment.resolvePlaceholders(timeoutElement.getAttribute("protocol"));
+            var millis = environment.resolvePlaceholders(timeoutElement.getAttribute("millis"));
+            timeoutMap.put(protocol, millis);
+        }
+        return timeoutMap;
+    }
+
     private void resolvePlaceholder(String attributeName, String fieldName, BeanDefinitionBuilder builder, Element element, ParserContext parserContext) {
         var attributeValue = element.getAttribute(attributeName);
         var environment = parserContext.getReaderContext().getEnvironment();
@@ -14,6 +14,7 @@
 package com.zfoo.net.session.manager;
 
 import com.zfoo.net.session.model.Session;
+import com.zfoo.net.session.model.SessionGroup;
 
 import java.util.Map;
 
@@ -27,7 +28,22 @@ public interface ISessionManager {
 
     void removeServerSession(Session session);
 
-    Session getServerSession(Long id);
+    Session getServerSession(long sid);
+
+    /**
+     * 设置session的uid，同时更新uid到session的索引；同一个uid重复登录的时候，索引指向最新的session
+     */
+    void bindUid(Session session, long uid);
+
+    /**
+     * 删除session的uid，同时删除uid的索引
+     */
+    void unbindUid(Session session);
+
+    /**
+     * @return uid对应的serverSession，不存在或者session的uid已经不是这个uid的时候返回null
+     */
+    Session getServerSessionByUid(long uid);
 
     Map<Long, Session> getServerSessionMap();
 
@@ -36,10 +52,25 @@ public interface ISessionManager {
 
     void removeClientSession(Session session);
 
-    Session getClientSession(Long id);
+    Session getClientSession(long sid);
 
     Map<Long, Session> getClientSessionMap();
 
     int getClientSessionChangeId();
 
+    /**
+     * clientSession的属性（如AttributeType.CONSUMER）变化以后调用，让负载均衡器重新生成路由表
+     */
+    void updateClientSessionChangeId();
+
+
+    /**
+     * 广播组（房间），不存在则创建
+     */
+    SessionGroup getOrCreateGroup(long groupId);
+
+    SessionGroup getGroup(long groupId);
+
+    SessionGroup removeGroup(long groupId);
+
 }
@@ -13,8 +13,12 @@
 
 package com.zfoo.net.session.manager;
 
+import com.zfoo.net.router.route.LocalBridge;
+import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.session.model.Session;
+import com.zfoo.net.session.model.SessionGroup;
 import com.zfoo.net.util.SessionUtils;
+import com.zfoo.protocol.collection.concurrent.ConcurrentHashMapLongObject;
 import com.zfoo.util.security.IdUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,45 +35,100 @@ public class SessionManager implements ISessionManager {
 
     private static final Logger logger = LoggerFactory.getLogger(SessionManager.class);
 
+    /**
+     * 网关可能有几万个连接，分段越多，连接和断开的时候复制的数据越少
+     */
+    private static final int SERVER_SESSION_SEGMENTS = 256;
+
     /**
      * 作为服务器，被别的客户端连接的Session
      * 如：自己作为网关，那肯定有一大堆客户端连接，他们连接上来后，就会保存下来这些信息。
      * 因此：要全局消息广播，其实要用这个Map
      */
-    private final Map<Long, Session> serverSessionMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMapLongObject<Session> serverSessionMap = new ConcurrentHashMapLongObject<>(SERVER_SESSION_SEGMENTS);
+
+    /**
+     * serverSession的uid索引，key：uid
+     */
+    private final ConcurrentHashMapLongObject<Session> uidSessionMap = new ConcurrentHashMapLongObject<>(SERVER_SESSION_SEGMENTS);
 
 
     /**
      * 作为客户端，连接别的服务器上后，保存下来的Session
      * 如：自己配置了Consumer，说明自己作为消费者将要消费远程接口，就会创建一个TcpClient去连接Provider，那么连接上后，就会保存下来到这个Map中
      */
-    private final Map<Long, Session> clientSessionMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMapLongObject<Session> clientSessionMap = new ConcurrentHashMapLongObject<>();
 
     private volatile int clientSessionChangeId = IdUtils.getLocalIntId();
 
+    /**
+     * 广播组（房间），key：groupId
+     */
+    private final Map<Long, SessionGroup> groupMap = new ConcurrentHashMap<>();
+
 
     @Override
     public void addServerSession(Session session) {
-        if (serverSessionMap.containsKey(session.getSid())) {
+        if (serverSessionMap.putIfAbsentPrimitive(session.getSid(), session) != null) {
             logger.error("server收到重复的[session:{}]", SessionUtils.sessionInfo(session));
             return;
         }
-        serverSessionMap.put(session.getSid(), session);
+        LocalBridge.addServerSession(session);
     }
 
     @Override
     public void removeServerSession(Session session) {
-        if (!serverSessionMap.containsKey(session.getSid())) {
+        if (serverSessionMap.removePrimitive(session.getSid()) == null) {
             logger.error("SessionManager中的serverSession没有包含[session:{}]，所以无法移除", SessionUtils.sessionInfo(session));
             return;
         }
-        serverSessionMap.remove(session.getSid());
+        Long uid = session.getAttribute(AttributeType.UID);
+        if (uid != null) {
+            uidSessionMap.removePrimitive(uid, session);
+        }
+        LocalBridge.removeSession(session);
         session.close();
     }
 
     @Override
-    public Session getServerSession(Long id) {
-        return serverSessionMap.get(id);
+    public Session getServerSession(long sid) {
+        return serverSessionMap.getPrimitive(sid);
+    }
+
+    @Override
+    public void bindUid(Session session, long uid) {
+        var oldUid = session.swapUid(uid);
+        if (oldUid != null && oldUid != uid) {
+            uidSessionMap.removePrimitive(oldUid, session);
+        }
+        uidSessionMap.putPrimitive(uid, session);
+        // session在设置uid的时候断开了连接
+        if (!serverSessionMap.containsKeyPrimitive(session.getSid())) {
+            uidSessionMap.removePrimitive(uid, session);
+        }
+    }
+
+    @Override
+    public void unbindUid(Session session) {
+        var oldUid = session.swapUid(null);
+        if (oldUid != null) {
+            uidSessionMap.removePrimitive(oldUid, session);
+        }
+    }
+
+    @Override
+    public Session getServerSessionByUid(long uid) {
+        var session = uidSessionMap.getPrimitive(uid);
+        if (session == null) {
+            return null;
+        }
+        // 直接通过Session.putAttribute修改了uid，索引已经过期
+        Long sessionUid = session.getAttribute(AttributeType.UID);
+        if (sessionUid == null || sessionUid != uid) {
+            uidSessionMap.removePrimitive(uid, session);
+            return null;
+        }
+        return session;
     }
 
     @Override
@@ -79,28 +138,28 @@ public class SessionManager implements ISessionManager {
 
     @Override
     public void addClientSession(Session session) {
-        if (clientSessionMap.containsKey(session.getSid())) {
+        if (clientSessionMap.putIfAbsentPrimitive(session.getSid(), session) != null) {
             logger.error("client收到重复的[session:{}]", SessionUtils.sessionInfo(session));
             return;
         }
-        clientSessionMap.put(session.getSid(), session);
+        LocalBridge.addClientSession(session);
         clientSessionChangeId = IdUtils.getLocalIntId();
     }
 
     @Override
     public void removeClientSession(Session session) {
-        if (!clientSessionMap.containsKey(session.getSid())) {
+        if (clientSessionMap.removePrimitive(session.getSid()) == null) {
             logger.error("SessionManager中的clientSession没有包含[session:{}]，所以无法移除", SessionUtils.sessionInfo(session));
             return;
         }
-        clientSessionMap.remove(session.getSid());
+        LocalBridge.removeSession(session);
         session.close();
         clientSessionChangeId = IdUtils.getLocalIntId();
     }
 
     @Override
-    public Session getClientSession(Long id) {
-        return clientSessionMap.get(id);
+    public Session getClientSession(long sid) {
+        return clientSessionMap.getPrimitive(sid);
     }
 
     @Override
@@ -113,4 +172,24 @@ public class SessionManager implements ISessionManager {
         return clientSessionChangeId;
     }
 
+    @Override
+    public void updateClientSessionChangeId() {
+        clientSessionChangeId = IdUtils.getLocalIntId();
+    }
+
+    @Override
+    public SessionGroup getOrCreateGroup(long groupId) {
+        return groupMap.computeIfAbsent(groupId, it -> new SessionGroup(it));
+    }
+
+    @Override
+    public SessionGroup getGroup(long groupId) {
+        return groupMap.get(groupId);
+    }
+
+    @Override
+    public SessionGroup removeGroup(long groupId) {
+        return groupMap.remove(groupId);
+    }
+
 }
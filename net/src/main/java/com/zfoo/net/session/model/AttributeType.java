@@ -25,8 +25,23 @@ public enum AttributeType {
      */
     CONSUMER,
 
+    /**
+     * 和同一个服务提供者建立了多个连接的时候，这个连接的序号，没有则为0
+     */
+    CONSUMER_STRIPE,
+
+    /**
+     * 同一个进程中配对的consumer和provider的session，参考LocalBridge
+     */
+    LOCAL_PEER,
+
     RESPONSE_TIME,
 
+    /**
+     * EwmaConsumerLoadBalancer中服务提供者的响应时间和正在处理的请求数量
+     */
+    LATENCY_STATS,
+
     /**
      * session的uid
      */
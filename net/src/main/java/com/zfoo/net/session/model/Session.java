@@ -15,12 +15,13 @@ package com.zfoo.net.session.model;
 
 import com.zfoo.protocol.util.StringUtils;
 import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
-import java.util.EnumMap;
-import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author jaysunxiao
@@ -28,6 +29,8 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class Session implements Closeable {
 
+    private static final Logger logger = LoggerFactory.getLogger(Session.class);
+
     private static final AtomicLong ATOMIC_LONG = new AtomicLong(0);
 
     /**
@@ -37,11 +40,19 @@ public class Session implements Closeable {
 
     private Channel channel;
 
+    private static final AttributeType[] ATTRIBUTE_TYPES = AttributeType.values();
+
     /**
-     * Session附带的属性参数
+     * Session附带的属性参数，index为AttributeType的ordinal，读写都不需要加锁
      */
-    private Map<AttributeType, Object> attributes = new EnumMap<>(AttributeType.class);
+    private final AtomicReferenceArray<Object> attributes = new AtomicReferenceArray<>(ATTRIBUTE_TYPES.length);
 
+    /**
+     * 发送统计：写入的包数量，flush的次数，编码后的字节数。可以通过flushCount和writeCount的比值观察flush合并的效果
+     */
+    private final AtomicLong writeCount = new AtomicLong(0);
+    private final AtomicLong flushCount = new AtomicLong(0);
+    private final AtomicLong writeBytes = new AtomicLong(0);
 
     public Session(Channel channel) {
         if (channel == null) {
@@ -54,7 +65,14 @@ public class Session implements Closeable {
 
     @Override
     public String toString() {
-        return StringUtils.format("[sid:{}] [channel:{}] [attributes:{}]", sid, channel, attributes);
+        var builder = new StringBuilder();
+        for (var i = 0; i < ATTRIBUTE_TYPES.length; i++) {
+            var value = attributes.get(i);
+            if (value != null) {
+                builder.append(ATTRIBUTE_TYPES[i]).append(StringUtils.COLON).append(value).append(StringUtils.SPACE);
+            }
+        }
+        return StringUtils.format("[sid:{}] [channel:{}] [attributes:{}]", sid, channel, StringUtils.trim(builder.toString()));
     }
 
     @Override
@@ -87,21 +105,80 @@ public class Session implements Closeable {
         this.sid = sid;
     }
 
-    public synchronized void putAttribute(AttributeType key, Object value) {
-        attributes.put(key, value);
+    /**
+     * 设置AttributeType.UID不会更新uid的索引，uid需要通过ISessionManager.bindUid设置
+     */
+    public void putAttribute(AttributeType key, Object value) {
+        warnUid(key);
+        attributes.set(key.ordinal(), value);
+    }
+
+    /**
+     * @return 已经存在的属性，不存在则设置为value并返回null
+     */
+    public <T> T putAttributeIfAbsent(AttributeType key, Object value) {
+        warnUid(key);
+        var index = key.ordinal();
+        if (attributes.compareAndSet(index, null, value)) {
+            return null;
+        }
+        return (T) attributes.get(index);
+    }
+
+    /**
+     * 删除AttributeType.UID不会更新uid的索引，uid需要通过ISessionManager.unbindUid删除
+     */
+    public void removeAttribute(AttributeType key) {
+        warnUid(key);
+        attributes.set(key.ordinal(), null);
     }
 
-    public synchronized void removeAttribute(AttributeType key) {
-        attributes.remove(key);
+    private void warnUid(AttributeType key) {
+        if (key == AttributeType.UID) {
+            logger.warn("[sid:{}]直接修改了uid属性，uid的索引不会更新，请使用ISessionManager.bindUid和unbindUid", sid);
+        }
     }
 
+    /**
+     * 只给ISessionManager.bindUid和unbindUid使用，不会更新uid的索引
+     *
+     * @param uid 新的uid，null表示删除uid
+     * @return 之前的uid，没有则返回null
+     */
+    public Long swapUid(Long uid) {
+        return (Long) attributes.getAndSet(AttributeType.UID.ordinal(), uid);
+    }
 
     public <T> T getAttribute(AttributeType key) {
-        return (T) attributes.get(key);
+        return (T) attributes.get(key.ordinal());
     }
 
     public Channel getChannel() {
         return channel;
     }
 
+    public void increaseWriteCount() {
+        writeCount.incrementAndGet();
+    }
+
+    public void increaseFlushCount() {
+        flushCount.incrementAndGet();
+    }
+
+    public void increaseWriteBytes(long bytes) {
+        writeBytes.addAndGet(bytes);
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getWriteBytes() {
+        return writeBytes.get();
+    }
+
 }
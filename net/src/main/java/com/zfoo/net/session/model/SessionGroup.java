@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.session.model;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.handler.BaseRouteHandler;
+import com.zfoo.net.handler.codec.tcp.TcpCodecHandler;
+import com.zfoo.net.handler.codec.websocket.WebSocketCodecHandler;
+import com.zfoo.net.router.route.OutboundQueue;
+import com.zfoo.net.util.SessionUtils;
+import com.zfoo.protocol.IPacket;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 广播组（房间），一个广播包只会编码一次，然后把同一个ByteBuf的retainedDuplicate()发给组内的所有session
+ * <p>
+ * 只支持使用TcpCodecHandler和WebSocketCodecHandler二进制协议的session，session断开连接后会自动离开广播组
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class SessionGroup {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionGroup.class);
+
+    private static final Member[] EMPTY_MEMBERS = new Member[0];
+
+    private static class Member {
+        private final Session session;
+        /**
+         * websocket需要包装成BinaryWebSocketFrame，tcp直接写ByteBuf
+         */
+        private final boolean websocket;
+
+        private Member(Session session, boolean websocket) {
+            this.session = session;
+            this.websocket = websocket;
+        }
+    }
+
+    private final long id;
+
+    /**
+     * key：sid，修改的时候加锁
+     */
+    private final Map<Long, Member> memberMap = new HashMap<>();
+
+    /**
+     * 广播使用的数组快照，成员变化后置为null，下一次广播的时候重新生成
+     */
+    private volatile Member[] members = EMPTY_MEMBERS;
+
+    /**
+     * session断开连接后自动离开广播组
+     */
+    private final ChannelFutureListener closeListener = this::onClose;
+
+    public SessionGroup(long id) {
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean join(Session session) {
+        var pipeline = session.getChannel().pipeline();
+        var websocket = pipeline.get(WebSocketCodecHandler.class) != null;
+        if (!websocket && pipeline.get(TcpCodecHandler.class) == null) {
+            logger.error("group:[{}] only supports tcp or websocket binary session:[{}]", id, SessionUtils.sessionSimpleInfo(session));
+            return false;
+        }
+
+        synchronized (this) {
+            if (memberMap.containsKey(session.getSid())) {
+                return false;
+            }
+            memberMap.put(session.getSid(), new Member(session, websocket));
+            members = null;
+        }
+        session.getChannel().closeFuture().addListener(closeListener);
+        return true;
+    }
+
+    public boolean leave(Session session) {
+        synchronized (this) {
+            if (memberMap.remove(session.getSid()) == null) {
+                return false;
+            }
+            members = null;
+        }
+        session.getChannel().closeFuture().removeListener(closeListener);
+        return true;
+    }
+
+    public synchronized boolean contains(Session session) {
+        return memberMap.containsKey(session.getSid());
+    }
+
+    public synchronized int size() {
+        return memberMap.size();
+    }
+
+    public Session[] sessions() {
+        var snapshot = snapshot();
+        var sessions = new Session[snapshot.length];
+        for (var i = 0; i < snapshot.length; i++) {
+            sessions[i] = snapshot[i].session;
+        }
+        return sessions;
+    }
+
+    /**
+     * 广播一个包，只编码一次；开启了发送队列（outbound-capacity）的时候不可写的session的广播放入发送队列，否则被跳过
+     *
+     * @param packet 广播包，一般以Notice结尾
+     * @return 实际发送的session数量
+     */
+    public int broadcast(IPacket packet) {
+        var snapshot = snapshot();
+        if (snapshot.length == 0) {
+            return 0;
+        }
+
+        var buffer = ByteBufAllocator.DEFAULT.ioBuffer();
+        var count = 0;
+        try {
+            NetContext.getPacketService().write(buffer, packet, null);
+            var length = buffer.readableBytes();
+
+            for (var member : snapshot) {
+                var session = member.session;
+                var channel = session.getChannel();
+                if (!channel.isActive() || (!channel.isWritable() && !OutboundQueue.isEnable())) {
+                    continue;
+                }
+
+                var slice = buffer.retainedDuplicate();
+                var message = member.websocket ? new BinaryWebSocketFrame(slice) : slice;
+
+                // 和Router.send经过相同的发送队列，批量队列和flush合并，不会超过之前还在队列中的包
+                session.increaseWriteBytes(length);
+                NetContext.getRouter().sendEncoded(session, message);
+                count++;
+            }
+        } finally {
+            buffer.release();
+        }
+        return count;
+    }
+
+    private Member[] snapshot() {
+        var snapshot = members;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (this) {
+            snapshot = members;
+            if (snapshot == null) {
+                snapshot = memberMap.isEmpty() ? EMPTY_MEMBERS : memberMap.values().toArray(EMPTY_MEMBERS);
+                members = snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    private void onClose(ChannelFuture future) {
+        var session = future.channel().attr(BaseRouteHandler.SESSION_KEY).get();
+        if (session != null) {
+            leave(session);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.task;
+
+import com.zfoo.protocol.util.StringUtils;
+import com.zfoo.util.ThreadUtils;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TaskBus的actor模式，每一个executorConsistentHash都有一个自己的邮箱，邮箱中的任务严格串行执行
+ * <p>
+ * 邮箱有任务的时候才会分配一个线程去执行，JDK21以上使用虚拟线程，一个actor中的阻塞调用（如syncAsk，数据库查询）只会阻塞这个actor自己，不会阻塞其它的actor。
+ * <p>
+ * 不支持虚拟线程的JDK使用有界的平台线程池，线程数量为provider配置的thread，等待执行的actor在线程池的队列中排队；
+ * 每个actor同一时刻最多只在队列中出现一次，所以队列的长度不会超过有任务的actor的数量。
+ * 这个时候阻塞的actor会占用一个平台线程，所有线程都被阻塞以后其它的actor需要排队等待，和lane模式一样需要避免在actor中长时间阻塞。
+ * <p>
+ * 邮箱为空的时候actor会被回收，下一次有任务的时候再重新创建，所以空闲的actor不占用内存
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public final class ActorBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActorBus.class);
+
+    /**
+     * 一个actor连续执行的最大任务数量，超过后让出线程，重新排队，防止一个繁忙的actor长时间占用平台线程
+     */
+    private static final int MAX_BATCH = 1024;
+
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    /**
+     * 运行actor的线程池
+     */
+    private static final ExecutorService carrier;
+
+    private static final boolean virtual;
+
+    /**
+     * key：executorConsistentHash
+     */
+    private static final Map<Integer, Actor> actorMap = new ConcurrentHashMap<>();
+
+    private static final FastThreadLocal<Actor> currentActor = new FastThreadLocal<>();
+
+    static {
+        ExecutorService virtualExecutor = null;
+        try {
+            // 项目使用JDK11编译，通过反射创建虚拟线程：Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("actor-v", 1).factory())
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "actor-v", 1L);
+            var factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            virtualExecutor = (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (Throwable t) {
+            logger.warn("virtual thread is not supported in current jdk:[{}], actor mode will use [{}] platform threads, blocking calls in an actor will occupy a thread"
+                    , Runtime.version(), TaskBus.EXECUTOR_SIZE);
+        }
+
+        virtual = virtualExecutor != null;
+        carrier = virtual ? virtualExecutor : platformCarrier(TaskBus.EXECUTOR_SIZE);
+    }
+
+    /**
+     * 有界的平台线程池，最多threads个线程，空闲的线程会被回收
+     */
+    static ThreadPoolExecutor platformCarrier(int threads) {
+        var executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ActorThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class ActorThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final ThreadGroup group = ThreadUtils.currentThreadGroup();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            var threadName = StringUtils.format("actor-t{}", threadNumber.getAndIncrement());
+            var thread = new FastThreadLocalThread(group, runnable, threadName, 0);
+            thread.setDaemon(false);
+            thread.setPriority(Thread.NORM_PRIORITY);
+            thread.setUncaughtExceptionHandler((t, e) -> logger.error(t.toString(), e));
+            return thread;
+        }
+    }
+
+    private static class Actor implements Runnable, Executor {
+        private final int executorConsistentHash;
+
+        private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 邮箱中的任务数量，大于0表示有一个线程正在执行这个actor，RETIRED表示actor已经被回收
+         */
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        private Actor(int executorConsistentHash) {
+            this.executorConsistentHash = executorConsistentHash;
+        }
+
+        private boolean offer(Runnable task) {
+            while (true) {
+                var current = count.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    mailbox.offer(task);
+                    // 从0变为1的生产者负责调度这个actor，保证同一时刻只有一个线程在执行这个actor
+                    if (current == 0) {
+                        carrier.execute(this);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            currentActor.set(this);
+            try {
+                for (var i = 0; i < MAX_BATCH; i++) {
+                    var task = mailbox.poll();
+                    while (task == null) {
+                        // 生产者已经增加了count，但是还没有放入邮箱
+                        Thread.onSpinWait();
+                        task = mailbox.poll();
+                    }
+
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        logger.error("actor:[{}] unknown exception", executorConsistentHash, t);
+                    }
+
+                    if (count.decrementAndGet() == 0) {
+                        // 回收失败说明有新的任务，新任务的生产者会重新调度这个actor
+                        if (count.compareAndSet(0, RETIRED)) {
+                            actorMap.remove(executorConsistentHash, this);
+                        }
+                        return;
+                    }
+                }
+                // 还有任务没有执行，重新排队，让出线程
+                carrier.execute(this);
+            } finally {
+                currentActor.remove();
+            }
+        }
+
+        /**
+         * 异步回调通过这个方法回到actor，actor可能已经被回收，所以通过executorConsistentHash重新查找
+         */
+        @Override
+        public void execute(Runnable task) {
+            ActorBus.execute(executorConsistentHash, task);
+        }
+    }
+
+    public static void execute(int executorConsistentHash, Runnable task) {
+        while (true) {
+            var actor = actorMap.computeIfAbsent(executorConsistentHash, Actor::new);
+            if (actor.offer(task)) {
+                return;
+            }
+            // actor刚刚被回收，帮助移除后重新创建
+            actorMap.remove(executorConsistentHash, actor);
+        }
+    }
+
+    /**
+     * 当前线程正在执行的actor，不在actor中执行则返回null
+     */
+    public static Executor currentExecutor() {
+        return currentActor.get();
+    }
+
+    public static Executor executor(int executorConsistentHash) {
+        return task -> execute(executorConsistentHash, task);
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 当前有任务的actor数量
+     */
+    public static int actorSize() {
+        return actorMap.size();
+    }
+
+    public static void shutdown() {
+        ThreadUtils.shutdown(carrier);
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package com.zfoo.net.task;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.core.gateway.model.AuthUidToGatewayCheck;
+import com.zfoo.net.core.gateway.model.AuthUidToGatewayConfirm;
+import com.zfoo.net.packet.common.Error;
+import com.zfoo.net.packet.common.Heartbeat;
+import com.zfoo.net.packet.common.Ping;
+import com.zfoo.net.packet.common.Pong;
+import com.zfoo.net.router.attachment.AttachmentType;
+import com.zfoo.net.task.model.PacketReceiverTask;
+import com.zfoo.protocol.ProtocolManager;
+import com.zfoo.protocol.util.StringUtils;
+import com.zfoo.util.concurrent.MailboxExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TaskBus的准入控制，队列过长的时候直接拒绝新的请求并且立刻返回Error，而不是让所有人的延迟一起上升
+ * <p>
+ * 1. shed-lane-depth：单个task线程邮箱中排队的任务数量
+ * 2. shed-global-depth：所有task线程中排队的任务数量
+ * 3. shed-queue-age：task线程最近执行的任务在邮箱中等待的时间（毫秒），邮箱为空的时候不会拒绝
+ * <p>
+ * 协议分为三个优先级：critical永远不会被拒绝（心跳，登录认证等），normal达到阈值拒绝，low达到阈值的一半就拒绝
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class TaskAdmission {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskAdmission.class);
+
+    public static final byte PRIORITY_CRITICAL = 1;
+    public static final byte PRIORITY_NORMAL = 2;
+    public static final byte PRIORITY_LOW = 3;
+
+    /**
+     * 拒绝请求的时候返回的Error的错误码
+     */
+    public static final int ERROR_CODE_BUSY = 503;
+
+    public static final String REASON_LANE_DEPTH = "lane-depth";
+    public static final String REASON_GLOBAL_DEPTH = "global-depth";
+    public static final String REASON_QUEUE_AGE = "queue-age";
+
+    private static final boolean ENABLE;
+    private static final int LANE_DEPTH;
+    private static final int GLOBAL_DEPTH;
+    private static final long QUEUE_AGE_NANOS;
+    private static final String CRITICAL_PROTOCOLS;
+    private static final String LOW_PROTOCOLS;
+
+    /**
+     * index：协议号，value：优先级，第一次使用的时候才初始化，这时候所有的协议已经注册完成
+     */
+    private static volatile byte[] priorities;
+
+    /**
+     * 已经进入邮箱但是还没有开始执行的任务数量
+     */
+    private static final AtomicInteger queuedTasks = new AtomicInteger(0);
+
+    /**
+     * 每个task线程最近执行的任务的排队时间（纳秒），actor模式下按照executorConsistentHash分组
+     */
+    private static final AtomicLongArray laneQueueDelays = new AtomicLongArray(TaskBus.LANE_SIZE);
+
+    private static final LongAdder shedLaneDepth = new LongAdder();
+    private static final LongAdder shedGlobalDepth = new LongAdder();
+    private static final LongAdder shedQueueAge = new LongAdder();
+    private static final Map<Short, LongAdder> shedMap = new ConcurrentHashMap<>();
+
+    static {
+        var providerConfig = NetContext.getConfigManager().getLocalConfig().getProvider();
+        if (providerConfig == null) {
+            LANE_DEPTH = 0;
+            GLOBAL_DEPTH = 0;
+            QUEUE_AGE_NANOS = 0;
+            CRITICAL_PROTOCOLS = null;
+            LOW_PROTOCOLS = null;
+        } else {
+            LANE_DEPTH = StringUtils.isBlank(providerConfig.getShedLaneDepth()) ? 0 : Integer.parseInt(providerConfig.getShedLaneDepth());
+            GLOBAL_DEPTH = StringUtils.isBlank(providerConfig.getShedGlobalDepth()) ? 0 : Integer.parseInt(providerConfig.getShedGlobalDepth());
+            QUEUE_AGE_NANOS = StringUtils.isBlank(providerConfig.getShedQueueAge()) ? 0 : TimeUnit.MILLISECONDS.toNanos(Long.parseLong(providerConfig.getShedQueueAge()));
+            CRITICAL_PROTOCOLS = providerConfig.getShedCritical();
+            LOW_PROTOCOLS = providerConfig.getShedLow();
+        }
+        ENABLE = LANE_DEPTH > 0 || GLOBAL_DEPTH > 0 || QUEUE_AGE_NANOS > 0;
+    }
+
+    public static boolean isEnable() {
+        return ENABLE;
+    }
+
+    /**
+     * 在放入邮箱之前调用，返回false表示请求被拒绝，已经返回了Error
+     *
+     * @param executor 这个任务将要放入的执行器，actor模式下为null
+     */
+    public static boolean admit(PacketReceiverTask task, Executor executor) {
+        if (!ENABLE) {
+            return true;
+        }
+
+        var protocolId = task.getPacket().protocolId();
+        var priority = priority(protocolId);
+        if (priority != PRIORITY_CRITICAL) {
+            var low = priority == PRIORITY_LOW;
+            var lane = TaskBus.laneIndex(task);
+            var globalDepth = queuedTasks.get();
+            var laneDepth = laneDepth(executor, lane);
+
+            String reason = null;
+            if (GLOBAL_DEPTH > 0 && globalDepth >= threshold(GLOBAL_DEPTH, low)) {
+                reason = REASON_GLOBAL_DEPTH;
+                shedGlobalDepth.increment();
+            } else if (LANE_DEPTH > 0 && laneDepth >= threshold(LANE_DEPTH, low)) {
+                reason = REASON_LANE_DEPTH;
+                shedLaneDepth.increment();
+            } else if (QUEUE_AGE_NANOS > 0 && (laneDepth < 0 ? globalDepth : laneDepth) > 0
+                    && laneQueueDelays.get(lane) >= threshold(QUEUE_AGE_NANOS, low)) {
+                // 邮箱为空的时候，之前记录的排队时间已经过时了
+                reason = REASON_QUEUE_AGE;
+                shedQueueAge.increment();
+            }
+
+            if (reason != null) {
+                shedMap.computeIfAbsent(protocolId, it -> new LongAdder()).increment();
+                reply(task, reason);
+                return false;
+            }
+        }
+
+        task.setSubmitTime(System.nanoTime());
+        queuedTasks.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 放入邮箱失败的时候调用
+     */
+    public static void cancel(PacketReceiverTask task) {
+        if (task.getSubmitTime() == 0) {
+            return;
+        }
+        task.setSubmitTime(0);
+        queuedTasks.decrementAndGet();
+    }
+
+    /**
+     * 任务开始执行的时候调用，记录排队时间
+     */
+    public static void dequeue(PacketReceiverTask task) {
+        var submitTime = task.getSubmitTime();
+        if (submitTime == 0) {
+            return;
+        }
+        task.setSubmitTime(0);
+        queuedTasks.decrementAndGet();
+        laneQueueDelays.lazySet(TaskBus.laneIndex(task), System.nanoTime() - submitTime);
+    }
+
+    private static long threshold(long threshold, boolean low) {
+        return low ? Math.max(threshold >> 1, 1) : threshold;
+    }
+
+    /**
+     * 开启了LaneBalancer的时候不能直接拿到actor所在的线程，使用actor原本所在的线程近似
+     *
+     * @return actor模式下返回-1
+     */
+    private static int laneDepth(Executor executor, int lane) {
+        if (executor == null) {
+            return -1;
+        }
+        if (executor instanceof MailboxExecutor) {
+            return ((MailboxExecutor) executor).pendingTasks();
+        }
+        return TaskBus.laneDepth(lane);
+    }
+
+    /**
+     * 同步和异步请求返回Error，发起者会收到ErrorResponseException；没有附加包的请求（客户端直连）也返回Error；其它的附加包不需要回复
+     */
+    private static void reply(PacketReceiverTask task, String reason) {
+        var attachment = task.getAttachment();
+        if (attachment != null && attachment.packetType() != AttachmentType.SIGNAL_PACKET && attachment.packetType() != AttachmentType.GATEWAY_PACKET) {
+            return;
+        }
+        try {
+            var error = Error.valueOf(task.getPacket(), ERROR_CODE_BUSY, StringUtils.format("server busy [{}]", reason));
+            NetContext.getRouter().send(task.getSession(), error, attachment);
+        } catch (Throwable t) {
+            logger.error("task admission reply error exception", t);
+        }
+    }
+
+    private static byte priority(short protocolId) {
+        var array = priorities;
+        if (array == null) {
+            array = initPriorities();
+        }
+        return array[protocolId];
+    }
+
+    private static synchronized byte[] initPriorities() {
+        if (priorities != null) {
+            return priorities;
+        }
+        var array = new byte[ProtocolManager.MAX_PROTOCOL_NUM];
+        Arrays.fill(array, PRIORITY_NORMAL);
+        // 框架自己的心跳和网关认证永远不会被拒绝
+        for (var protocolId : new short[]{Heartbeat.PROTOCOL_ID, Ping.PROTOCOL_ID, Pong.PROTOCOL_ID, AuthUidToGatewayCheck.PROTOCOL_ID, AuthUidToGatewayConfirm.PROTOCOL_ID, Error.PROTOCOL_ID}) {
+            array[protocolId] = PRIORITY_CRITICAL;
+        }
+        setPriorities(array, LOW_PROTOCOLS, PRIORITY_LOW);
+        setPriorities(array, CRITICAL_PROTOCOLS, PRIORITY_CRITICAL);
+        priorities = array;
+        return array;
+    }
+
+    /**
+     * @param protocols 逗号分隔的协议号或者协议类的简单名称
+     */
+    private static void setPriorities(byte[] array, String protocols, byte priority) {
+        for (var protocolId : TaskBus.protocolIds(protocols)) {
+            array[protocolId] = priority;
+        }
+    }
+
+    public static int queuedTasks() {
+        return queuedTasks.get();
+    }
+
+    public static long laneQueueDelayMillis(int lane) {
+        return TimeUnit.NANOSECONDS.toMillis(laneQueueDelays.get(lane));
+    }
+
+    public static long shedCount(short protocolId) {
+        var adder = shedMap.get(protocolId);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public static long shedTotal() {
+        return shedLaneDepth.sum() + shedGlobalDepth.sum() + shedQueueAge.sum();
+    }
+
+    public static String shedInfo() {
+        var list = new ArrayList<String>();
+        for (var entry : shedMap.entrySet()) {
+            var protocol = ProtocolManager.getProtocol(entry.getKey());
+            var name = protocol == null ? String.valueOf(entry.getKey()) : protocol.protocolConstructor().getDeclaringClass().getSimpleName();
+            list.add(StringUtils.format("{}:{}", name, entry.getValue().sum()));
+        }
+        return StringUtils.format("[task admission queued:{} shed lane-depth:{} global-depth:{} queue-age:{}] {}"
+                , queuedTasks.get(), shedLaneDepth.sum(), shedGlobalDepth.sum(), shedQueueAge.sum(), list);
+    }
+
+}
@@ -15,21 +15,35 @@ package com.zfoo.net.task;
 
 import com.zfoo.event.manager.EventBus;
 import com.zfoo.net.NetContext;
+import com.zfoo.net.config.model.ExecutorGroupConfig;
+import com.zfoo.net.router.route.Deadline;
+import com.zfoo.net.router.route.FlushBatcher;
+import com.zfoo.net.router.route.PacketBus;
 import com.zfoo.net.task.dispatcher.AbstractTaskDispatch;
 import com.zfoo.net.task.dispatcher.ITaskDispatch;
 import com.zfoo.net.task.model.PacketReceiverTask;
+import com.zfoo.protocol.ProtocolManager;
 import com.zfoo.protocol.collection.concurrent.CopyOnWriteHashMapLongObject;
 import com.zfoo.protocol.util.AssertionUtils;
 import com.zfoo.protocol.util.StringUtils;
 import com.zfoo.scheduler.manager.SchedulerBus;
 import com.zfoo.util.SafeRunnable;
 import com.zfoo.util.ThreadUtils;
+import com.zfoo.util.concurrent.ActorRunnable;
+import com.zfoo.util.concurrent.MailboxExecutor;
+import com.zfoo.util.math.NumberUtils;
 import com.zfoo.util.math.RandomUtils;
 import io.netty.util.concurrent.FastThreadLocalThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -48,45 +62,162 @@ public final class TaskBus {
 
     private static final ITaskDispatch taskDispatch;
 
+    /**
+     * lane模式：所有的actor通过executorConsistentHash映射到固定数量的线程上
+     * actor模式：每个executorConsistentHash都有自己的邮箱，参考ActorBus
+     */
+    public static final String TASK_MODE_LANE = "lane";
+    public static final String TASK_MODE_ACTOR = "actor";
+
+    private static final boolean ACTOR_MODE;
+
+    /**
+     * lane模式下syncAsk的等待方式
+     * block：阻塞当前线程，同一个线程上的其它actor也要一起等待
+     * continuation：只暂停当前actor，等待期间当前线程继续执行其它actor的任务，结果返回后在原来的线程上继续执行，参考MailboxExecutor.helpUntilDone
+     * <p>
+     * actor模式下每个actor有自己的线程（虚拟线程），阻塞等待本来就只会暂停当前actor
+     */
+    public static final String SYNC_ASK_MODE_BLOCK = "block";
+    public static final String SYNC_ASK_MODE_CONTINUATION = "continuation";
+
+    private static final boolean CONTINUATION;
+
 
     /**
      * 使用不同的线程池，让线程池之间实现隔离，互不影响
+     * <p>
+     * 前EXECUTOR_SIZE个为默认的线程池，后面依次为每个executor-group的线程池
      */
     private static final ExecutorService[] executors;
 
+    /**
+     * 所有线程池的线程数量之和
+     */
+    public static final int LANE_SIZE;
+
+    public static final String DEFAULT_EXECUTOR_GROUP = "default";
+
+    /**
+     * groups[0]为默认的线程池，慢的模块（如邮件，排行榜查询）可以放在自己的线程池中，不会和其它模块争抢同一个线程
+     * <p>
+     * 一个协议只会在一个线程池中执行，同一个actor在同一个线程池中的请求依然是串行执行的，在不同线程池中的请求可能并发执行。
+     * actor模式下每个actor都有自己的邮箱，不会被其它actor的慢请求阻塞，所以不区分线程池。
+     * <p>
+     * 注意：这打破了“同一个executorConsistentHash只在一个线程中执行”的约定。如果一个玩家的协议分散在不同的线程池中，
+     * 这些协议的处理方法会在两个线程中同时修改这个玩家的数据，原来不加锁的写法不再安全。
+     * 所以应该按照整个模块划分线程池，并且这个模块不修改其它线程池中的模块的数据；同一个模块的协议被分到不同的线程池的时候，启动时会打印警告。
+     */
+    private static final ExecutorGroup[] groups;
+
+    /**
+     * 每个协议所在的线程池在groups中的位置，index为协议号，第一次派发任务的时候初始化
+     */
+    private static volatile byte[] protocolGroups;
+
+    private static class ExecutorGroup {
+        private final String name;
+        private final ITaskDispatch taskDispatch;
+        private final ExecutorService[] executors;
+        // 第一个线程在TaskBus.executors中的位置
+        private final int offset;
+        private final String modules;
+        private final String protocols;
+
+        private ExecutorGroup(String name, ITaskDispatch taskDispatch, int offset, int size, int queueCapacity, String modules, String protocols) {
+            this.name = name;
+            this.taskDispatch = taskDispatch;
+            this.offset = offset;
+            this.modules = modules;
+            this.protocols = protocols;
+            for (var i = 0; i < size; i++) {
+                var threadPrefix = DEFAULT_EXECUTOR_GROUP.equals(name)
+                        ? StringUtils.format("task-p{}", i + 1)
+                        : StringUtils.format("task-{}-p{}", name, i + 1);
+                var namedThreadFactory = new TaskThreadFactory(threadPrefix, offset + i);
+                TaskBus.executors[offset + i] = new MailboxExecutor(namedThreadFactory, queueCapacity, MailboxExecutor.DEFAULT_BATCH_SIZE);
+            }
+            this.executors = Arrays.copyOfRange(TaskBus.executors, offset, offset + size);
+        }
+    }
+
     static {
         var localConfig = NetContext.getConfigManager().getLocalConfig();
         var providerConfig = localConfig.getProvider();
 
-        taskDispatch = AbstractTaskDispatch.valueOf(providerConfig == null ? "consistent-hash" : providerConfig.getTaskDispatch());
+        var taskDispatchName = providerConfig == null ? "consistent-hash" : providerConfig.getTaskDispatch();
+        taskDispatch = AbstractTaskDispatch.valueOf(taskDispatchName);
+
+        ACTOR_MODE = providerConfig != null && TASK_MODE_ACTOR.equals(providerConfig.getTaskMode());
+
+        CONTINUATION = !ACTOR_MODE && providerConfig != null && SYNC_ASK_MODE_CONTINUATION.equals(providerConfig.getSyncAskMode());
 
         EXECUTOR_SIZE = (providerConfig == null || StringUtils.isBlank(providerConfig.getThread()))
                 ? (Runtime.getRuntime().availableProcessors() + 1)
                 : Integer.parseInt(providerConfig.getThread());
 
-        executors = new ExecutorService[EXECUTOR_SIZE];
-        for (int i = 0; i < executors.length; i++) {
-            var namedThreadFactory = new TaskThreadFactory(i);
-            var executor = Executors.newSingleThreadExecutor(namedThreadFactory);
-            executors[i] = executor;
+        // 邮箱的容量，小于等于0为无界队列
+        var queueCapacity = (providerConfig == null || StringUtils.isBlank(providerConfig.getQueueCapacity()))
+                ? 0
+                : Integer.parseInt(providerConfig.getQueueCapacity());
+
+        List<ExecutorGroupConfig> groupConfigs = (providerConfig == null || providerConfig.getExecutorGroups() == null)
+                ? Collections.emptyList()
+                : providerConfig.getExecutorGroups();
+        AssertionUtils.isTrue(groupConfigs.size() < Byte.MAX_VALUE, "executor group size:[{}] is too large", groupConfigs.size());
+
+        // 没有配置的属性使用provider上的配置
+        var groupSizes = new int[groupConfigs.size()];
+        var laneSize = EXECUTOR_SIZE;
+        for (var i = 0; i < groupConfigs.size(); i++) {
+            var groupConfig = groupConfigs.get(i);
+            AssertionUtils.isTrue(StringUtils.isNotBlank(groupConfig.getName()) && !DEFAULT_EXECUTOR_GROUP.equals(groupConfig.getName())
+                    , "executor group name:[{}] is illegal", groupConfig.getName());
+            for (var j = 0; j < i; j++) {
+                AssertionUtils.isTrue(!groupConfig.getName().equals(groupConfigs.get(j).getName()), "executor group name:[{}] is duplicate", groupConfig.getName());
+            }
+            groupSizes[i] = StringUtils.isBlank(groupConfig.getThread()) ? EXECUTOR_SIZE : Integer.parseInt(groupConfig.getThread());
+            laneSize += groupSizes[i];
+        }
+        LANE_SIZE = laneSize;
+
+        executors = new ExecutorService[LANE_SIZE];
+        groups = new ExecutorGroup[groupConfigs.size() + 1];
+        groups[0] = new ExecutorGroup(DEFAULT_EXECUTOR_GROUP, taskDispatch, 0, EXECUTOR_SIZE, queueCapacity, null, null);
+        var offset = EXECUTOR_SIZE;
+        for (var i = 0; i < groupConfigs.size(); i++) {
+            var groupConfig = groupConfigs.get(i);
+            var groupDispatch = AbstractTaskDispatch.valueOf(StringUtils.isBlank(groupConfig.getTaskDispatch()) ? taskDispatchName : groupConfig.getTaskDispatch());
+            var groupCapacity = StringUtils.isBlank(groupConfig.getQueueCapacity()) ? queueCapacity : Integer.parseInt(groupConfig.getQueueCapacity());
+            groups[i + 1] = new ExecutorGroup(groupConfig.getName(), groupDispatch, offset, groupSizes[i], groupCapacity, groupConfig.getModules(), groupConfig.getProtocols());
+            offset += groupSizes[i];
         }
     }
 
-    private static final CopyOnWriteHashMapLongObject<ExecutorService> threadMap = new CopyOnWriteHashMapLongObject<>(EXECUTOR_SIZE);
+    private static final CopyOnWriteHashMapLongObject<ExecutorService> threadMap = new CopyOnWriteHashMapLongObject<>(LANE_SIZE);
 
     public static class TaskThreadFactory implements ThreadFactory {
+        private final String threadPrefix;
         private final int poolNumber;
         private final AtomicInteger threadNumber = new AtomicInteger(1);
         private final ThreadGroup group;
 
         public TaskThreadFactory(int poolNumber) {
+            this(StringUtils.format("task-p{}", poolNumber + 1), poolNumber);
+        }
+
+        /**
+         * @param poolNumber 在TaskBus.executors中的位置
+         */
+        public TaskThreadFactory(String threadPrefix, int poolNumber) {
             this.group = ThreadUtils.currentThreadGroup();
+            this.threadPrefix = threadPrefix;
             this.poolNumber = poolNumber;
         }
 
         @Override
         public Thread newThread(Runnable runnable) {
-            var threadName = StringUtils.format("task-p{}-t{}", poolNumber + 1, threadNumber.getAndIncrement());
+            var threadName = StringUtils.format("{}-t{}", threadPrefix, threadNumber.getAndIncrement());
             var thread = new FastThreadLocalThread(group, runnable, threadName, 0);
             thread.setDaemon(false);
             thread.setPriority(Thread.NORM_PRIORITY);
@@ -117,23 +248,252 @@ public final class TaskBus {
      * SignalAttachment：executorConsistentHash通过IRouter和IConsumer的argument参数指定
      */
     public static void submit(PacketReceiverTask task) {
+        // 到达的时候已经过了截止时间，不需要再进入邮箱排队，排队期间过期的请求在Router的atReceiver中丢弃
+        if (Deadline.isExpired(task.getAttachment())) {
+            Deadline.shed(task.getPacket().protocolId());
+            return;
+        }
+
         // 里面会看到是：其中一致性hash是根据附加包记录的hashId进行选择哪个线程进行业务处理
-        taskDispatch.getExecutor(executors, task).execute(task);
+        try {
+            var group = ACTOR_MODE ? groups[0] : group(task.getPacket().protocolId());
+            var executorConsistentHash = group.taskDispatch.executorConsistentHash(task);
+            task.setExecutorConsistentHash(executorConsistentHash);
+            // 队列过长的时候直接拒绝并且返回Error，参考TaskAdmission
+            if (ACTOR_MODE) {
+                if (!TaskAdmission.admit(task, null)) {
+                    return;
+                }
+                ActorBus.execute(executorConsistentHash, task);
+            } else {
+                var executor = group.taskDispatch.getExecutor(group.executors, task);
+                if (!TaskAdmission.admit(task, executor)) {
+                    return;
+                }
+                executor.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            TaskAdmission.cancel(task);
+            // 邮箱满了直接丢弃，不能让异常抛到netty的io线程导致连接被关闭
+            logger.error("task executor mailbox is full, discard packet:[{}]", task.getPacket().getClass().getSimpleName(), e);
+        }
     }
 
+    /**
+     * 在默认的线程池中的位置
+     */
     public static int executorIndex(int executorConsistentHash) {
-        return Math.abs(executorConsistentHash % EXECUTOR_SIZE);
+        return executorIndex(executorConsistentHash, EXECUTOR_SIZE);
+    }
+
+    public static int executorIndex(int executorConsistentHash, int executorSize) {
+        return Math.abs(executorConsistentHash % executorSize);
+    }
+
+    /**
+     * 任务所在的线程在所有线程中的位置，开启了LaneBalancer的时候为actor原本所在的线程
+     */
+    public static int laneIndex(PacketReceiverTask task) {
+        var group = ACTOR_MODE ? groups[0] : group(task.getPacket().protocolId());
+        return group.offset + executorIndex(task.getExecutorConsistentHash(), group.executors.length);
+    }
+
+    /**
+     * 第lane个task线程的邮箱中排队的任务数量，lane为在所有线程中的位置
+     */
+    public static int laneDepth(int lane) {
+        return ((MailboxExecutor) executors[lane]).pendingTasks();
     }
 
     public static void execute(int executorConsistentHash, Runnable runnable) {
-        executors[executorIndex(executorConsistentHash)].execute(SafeRunnable.valueOf(runnable));
+        if (ACTOR_MODE) {
+            ActorBus.execute(executorConsistentHash, SafeRunnable.valueOf(runnable));
+            return;
+        }
+        executors[executorIndex(executorConsistentHash)].execute(ActorRunnable.valueOf(executorConsistentHash, SafeRunnable.valueOf(runnable)));
+    }
+
+    /**
+     * syncAsk等待结果，continuation模式下在task线程中等待的时候当前线程会继续执行其它actor的任务
+     * <p>
+     * 等待之前会先把当前线程合并的消息flush出去，否则请求可能一直留在缓存中
+     */
+    public static <T> T await(CompletableFuture<T> future, long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
+        FlushBatcher.flush();
+
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (CONTINUATION && !future.isDone()) {
+            var executor = threadMap.getPrimitive(Thread.currentThread().getId());
+            if (executor instanceof MailboxExecutor) {
+                ((MailboxExecutor) executor).helpUntilDone(future, deadline);
+            }
+        }
+        return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 协议所在的线程池的名称
+     */
+    public static String executorGroup(short protocolId) {
+        return group(protocolId).name;
+    }
+
+    /**
+     * 启动的时候初始化每个协议所在的线程池，并且检查同一个模块的协议是否分散在了不同的线程池中
+     */
+    public static void initExecutorGroups() {
+        if (ACTOR_MODE || groups.length == 1) {
+            return;
+        }
+        initProtocolGroups();
+    }
+
+    private static ExecutorGroup group(short protocolId) {
+        if (groups.length == 1) {
+            return groups[0];
+        }
+        var array = protocolGroups;
+        if (array == null) {
+            array = initProtocolGroups();
+        }
+        return groups[array[protocolId]];
+    }
+
+    /**
+     * 优先级：executor-group的protocols > @PacketReceiver的executorGroup > executor-group的modules
+     */
+    private static synchronized byte[] initProtocolGroups() {
+        if (protocolGroups != null) {
+            return protocolGroups;
+        }
+        var array = new byte[ProtocolManager.MAX_PROTOCOL_NUM];
+        for (var i = 1; i < groups.length; i++) {
+            if (StringUtils.isBlank(groups[i].modules)) {
+                continue;
+            }
+            for (var moduleName : groups[i].modules.split(StringUtils.COMMA)) {
+                var module = ProtocolManager.moduleByModuleName(moduleName.trim());
+                if (module == null) {
+                    logger.warn("executor group:[{}] can not find protocol module:[{}]", groups[i].name, moduleName);
+                    continue;
+                }
+                for (var protocolRegistration : ProtocolManager.protocols) {
+                    if (protocolRegistration != null && protocolRegistration.module() == module.getId()) {
+                        array[protocolRegistration.protocolId()] = (byte) i;
+                    }
+                }
+            }
+        }
+
+        for (var protocolRegistration : ProtocolManager.protocols) {
+            if (protocolRegistration == null) {
+                continue;
+            }
+            var groupName = PacketBus.executorGroup(protocolRegistration.protocolId());
+            if (groupName == null) {
+                continue;
+            }
+            var index = groupIndex(groupName);
+            if (index < 0) {
+                logger.error("@PacketReceiver executor group:[{}] of protocol:[{}] is not configured, use default executor group"
+                        , groupName, protocolRegistration.protocolConstructor().getDeclaringClass().getSimpleName());
+                continue;
+            }
+            array[protocolRegistration.protocolId()] = (byte) index;
+        }
+
+        for (var i = 1; i < groups.length; i++) {
+            for (var protocolId : protocolIds(groups[i].protocols)) {
+                array[protocolId] = (byte) i;
+            }
+        }
+        protocolGroups = array;
+        warnSplitModules(array);
+        return array;
+    }
+
+    /**
+     * 同一个模块的有接收者的协议在不同的线程池中执行，同一个actor的请求会在多个线程中并发执行
+     */
+    private static void warnSplitModules(byte[] array) {
+        var moduleGroups = new HashMap<Byte, Map<String, List<String>>>();
+        for (var protocolRegistration : ProtocolManager.protocols) {
+            if (protocolRegistration == null || protocolRegistration.receiver() == null) {
+                continue;
+            }
+            moduleGroups.computeIfAbsent(protocolRegistration.module(), it -> new TreeMap<>())
+                    .computeIfAbsent(groups[array[protocolRegistration.protocolId()]].name, it -> new ArrayList<>())
+                    .add(protocolRegistration.protocolConstructor().getDeclaringClass().getSimpleName());
+        }
+        for (var entry : moduleGroups.entrySet()) {
+            if (entry.getValue().size() <= 1) {
+                continue;
+            }
+            logger.warn("protocols of module:[{}] are split across executor groups:{}, requests of the same executorConsistentHash may run concurrently in different threads"
+                    , ProtocolManager.moduleByModuleId(entry.getKey()).getName(), entry.getValue());
+        }
+    }
+
+    private static int groupIndex(String name) {
+        for (var i = 0; i < groups.length; i++) {
+            if (groups[i].name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param protocols 逗号分隔的协议号或者协议类的简单名称
+     */
+    static List<Short> protocolIds(String protocols) {
+        if (StringUtils.isBlank(protocols)) {
+            return Collections.emptyList();
+        }
+        var protocolIds = new ArrayList<Short>();
+        for (var protocol : protocols.split(StringUtils.COMMA)) {
+            protocol = protocol.trim();
+            if (StringUtils.isBlank(protocol)) {
+                continue;
+            }
+            if (NumberUtils.isInteger(protocol)) {
+                protocolIds.add(Short.parseShort(protocol));
+                continue;
+            }
+            var found = false;
+            for (var protocolRegistration : ProtocolManager.protocols) {
+                if (protocolRegistration != null && protocolRegistration.protocolConstructor().getDeclaringClass().getSimpleName().equals(protocol)) {
+                    protocolIds.add(protocolRegistration.protocolId());
+                    found = true;
+                }
+            }
+            if (!found) {
+                logger.warn("task bus can not find protocol:[{}]", protocol);
+            }
+        }
+        return protocolIds;
     }
 
     // 在task，event，scheduler线程执行的异步请求，请求成功过后依然在相同的线程执行回调任务
     public static Executor currentThreadExecutor() {
+        if (ACTOR_MODE) {
+            var actorExecutor = ActorBus.currentExecutor();
+            if (actorExecutor != null) {
+                return actorExecutor;
+            }
+        }
+
         var threadId = Thread.currentThread().getId();
         var taskExecutor = threadMap.getPrimitive(threadId);
         if (taskExecutor != null) {
+            // continuation模式下回调带上发起者的actorKey，其它actor在helpUntilDone中等待的时候，回调和发起者之后的任务依然保持顺序
+            if (CONTINUATION && taskExecutor instanceof MailboxExecutor) {
+                var mailboxExecutor = (MailboxExecutor) taskExecutor;
+                if (mailboxExecutor.isRunningActorTask()) {
+                    var actorKey = mailboxExecutor.runningActorKey();
+                    return runnable -> mailboxExecutor.execute(ActorRunnable.valueOf(actorKey, runnable));
+                }
+            }
             return taskExecutor;
         }
 
@@ -147,7 +507,11 @@ public final class TaskBus {
             return schedulerExecutor;
         }
 
-        return executors[executorIndex(RandomUtils.randomInt())];
+        return ACTOR_MODE ? ActorBus.executor(RandomUtils.randomInt()) : executors[executorIndex(RandomUtils.randomInt())];
+    }
+
+    public static boolean isActorMode() {
+        return ACTOR_MODE;
     }
 
 }
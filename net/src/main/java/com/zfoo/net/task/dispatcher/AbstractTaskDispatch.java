@@ -13,8 +13,13 @@
 
 package com.zfoo.net.task.dispatcher;
 
+import com.zfoo.net.task.TaskBus;
+import com.zfoo.net.task.model.PacketReceiverTask;
 import com.zfoo.protocol.util.StringUtils;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
 /**
  * @author jaysunxiao
  * @version 3.0
@@ -34,4 +39,9 @@ public abstract class AbstractTaskDispatch implements ITaskDispatch {
         }
     }
 
+    @Override
+    public Executor getExecutor(ExecutorService[] executors, PacketReceiverTask packetReceiverTask) {
+        return executors[TaskBus.executorIndex(executorConsistentHash(packetReceiverTask), executors.length)];
+    }
+
 }
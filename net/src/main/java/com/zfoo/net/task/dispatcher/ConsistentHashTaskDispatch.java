@@ -13,6 +13,7 @@
 
 package com.zfoo.net.task.dispatcher;
 
+import com.zfoo.net.NetContext;
 import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.task.TaskBus;
 import com.zfoo.net.task.model.PacketReceiverTask;
@@ -27,14 +28,35 @@ import java.util.concurrent.ExecutorService;
  */
 public class ConsistentHashTaskDispatch extends AbstractTaskDispatch {
 
+    /**
+     * 是否开启热点线程的再平衡，参考LaneBalancer
+     */
+    private static final boolean REBALANCE;
+
+    static {
+        var providerConfig = NetContext.getConfigManager().getLocalConfig().getProvider();
+        REBALANCE = providerConfig != null && Boolean.parseBoolean(providerConfig.getTaskRebalance());
+    }
+
     private static final ConsistentHashTaskDispatch INSTANCE = new ConsistentHashTaskDispatch();
 
+    private final LaneBalancer laneBalancer = REBALANCE ? new LaneBalancer() : null;
+
     public static ConsistentHashTaskDispatch getINSTANCE() {
         return INSTANCE;
     }
 
     @Override
     public Executor getExecutor(ExecutorService[] executors, PacketReceiverTask packetReceiverTask) {
+        var executorConsistentHash = executorConsistentHash(packetReceiverTask);
+        if (laneBalancer == null) {
+            return executors[TaskBus.executorIndex(executorConsistentHash, executors.length)];
+        }
+        return laneBalancer.executor(executors, executorConsistentHash);
+    }
+
+    @Override
+    public int executorConsistentHash(PacketReceiverTask packetReceiverTask) {
         var attachment = packetReceiverTask.getAttachment();
 
         if (attachment == null) {
@@ -42,14 +64,21 @@ public class ConsistentHashTaskDispatch extends AbstractTaskDispatch {
             var uid = session.getAttribute(AttributeType.UID);
 
             if (uid == null) {
-                return SessionIdTaskDispatch.getInstance().getExecutor(executors, packetReceiverTask);
+                return SessionIdTaskDispatch.getInstance().executorConsistentHash(packetReceiverTask);
             } else {
-                return executors[TaskBus.executorIndex(HashUtils.fnvHash(uid))];
+                return HashUtils.fnvHash(uid);
             }
         }
 
         // 可见最终是根据附加包的信息选择服务端由哪个线程执行这个业务
-        return executors[TaskBus.executorIndex(attachment.executorConsistentHash())];
+        return attachment.executorConsistentHash();
+    }
+
+    /**
+     * 没有开启再平衡的时候返回null
+     */
+    public LaneBalancer getLaneBalancer() {
+        return laneBalancer;
     }
 
 }
@@ -24,6 +24,11 @@ import java.util.concurrent.ExecutorService;
  */
 public interface ITaskDispatch {
 
+    /**
+     * 计算任务所属的actor，相同的返回值的任务总是串行执行
+     */
+    int executorConsistentHash(PacketReceiverTask packetReceiverTask);
+
     Executor getExecutor(ExecutorService[] executors, PacketReceiverTask packetReceiverTask);
 
 }
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.task.dispatcher;
+
+import com.zfoo.net.task.TaskBus;
+import com.zfoo.protocol.util.StringUtils;
+import com.zfoo.scheduler.manager.SchedulerBus;
+import com.zfoo.scheduler.util.TimeUtils;
+import com.zfoo.util.concurrent.ActorRunnable;
+import com.zfoo.util.concurrent.IActorTask;
+import com.zfoo.util.concurrent.MailboxExecutor;
+import io.netty.util.collection.IntObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点线程的检测和再平衡
+ * <p>
+ * 一致性hash会让几个繁忙的actor（如大公会，大R玩家）落在同一个task线程上，这个线程一直满负荷，其它线程却很空闲。
+ * 每个周期统计每个task线程的繁忙程度（执行任务的时间占比）和队列长度，通过MailboxExecutor的采样找出过热线程上最繁忙的actor，迁移到最空闲的线程。
+ * <p>
+ * 提交任务的时候不加锁，不装箱，也不会为每个actor创建对象：覆盖表只包含迁移过的actor，覆盖表为空或者没有这个actor的时候直接提交到一致性hash计算出来的线程。
+ * <p>
+ * 迁移的过程，保证同一个actor的任务依然是串行并且有序的：
+ * 1. 覆盖表中把actor标记为迁移中，之后这个actor的任务放入暂存队列，等待正在查询覆盖表的生产者提交完成
+ * 2. 在旧线程中放入一个这个actor的栅栏任务，栅栏执行的时候旧线程中这个actor之前的任务都已经执行完成（等待中的actor的任务在MailboxExecutor中会被推迟，也排在栅栏之前）
+ * 3. 栅栏在新线程中放入一个这个actor的任务，依次执行暂存队列中的任务，暂存队列为空的时候这个actor的任务开始直接提交到新线程
+ * 所以一直繁忙的actor也可以迁移，不需要等待它空闲。
+ * <p>
+ * 迁移以后空闲一个周期的actor会用同样的方式迁移回原来的线程，然后从覆盖表中移除。
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class LaneBalancer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LaneBalancer.class);
+
+    private static final long PERIOD_MILLIS = TimeUtils.MILLIS_PER_SECOND;
+
+    /**
+     * 繁忙程度超过HOT_BUSY_RATIO并且队列长度超过HOT_QUEUE_DEPTH为过热线程，繁忙程度低于COOL_BUSY_RATIO的线程才能接收迁移的actor
+     */
+    private static final double HOT_BUSY_RATIO = 0.8;
+    private static final int HOT_QUEUE_DEPTH = 64;
+    private static final double COOL_BUSY_RATIO = 0.5;
+
+    /**
+     * 一个actor迁移以后，至少要经过COOLDOWN_PERIODS个周期才能再次迁移，防止来回迁移
+     */
+    private static final int COOLDOWN_PERIODS = 10;
+
+    /**
+     * 暂存队列的任务每次最多连续执行的数量，超过以后让出线程，重新排队
+     */
+    private static final int MAX_DRAIN_BATCH = 1024;
+
+    /**
+     * 正在查询覆盖表并且提交任务的生产者的数量，按照executorConsistentHash分段，每段之间间隔一个缓存行
+     */
+    private static final int IN_FLIGHT_STRIPES = 64;
+    private static final int IN_FLIGHT_PADDING = 16;
+
+    /**
+     * ROUTED：直接提交到lane；MOVING：等待旧线程的栅栏；DRAINING：在新线程中执行暂存队列中的任务
+     */
+    private static final int ROUTED = 0;
+    private static final int MOVING = 1;
+    private static final int DRAINING = 2;
+
+    /**
+     * 覆盖表，key：executorConsistentHash，只包含迁移过的actor；写时复制，只在scheduler线程中修改
+     */
+    private volatile IntObjectHashMap<ActorRoute> overrides = new IntObjectHashMap<>();
+
+    private final AtomicIntegerArray inFlight = new AtomicIntegerArray(IN_FLIGHT_STRIPES * IN_FLIGHT_PADDING);
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private volatile ExecutorService[] lanes;
+
+    /**
+     * 每个线程对应一个执行器，提交的时候再查询覆盖表
+     */
+    private volatile LaneExecutor[] laneExecutors;
+
+    private final AtomicLong migrationCount = new AtomicLong(0);
+
+    /**
+     * 下面的变量只在scheduler线程中修改
+     */
+    private volatile long period;
+    private long lastRebalanceNanos;
+    private long[] lastBusyNanos;
+    private volatile double[] laneBusyRatios;
+    private volatile int[] laneQueueDepths;
+
+    /**
+     * 迁移过的actor
+     */
+    private class ActorRoute implements Executor {
+        private final int executorConsistentHash;
+        private final int home;
+
+        /**
+         * state为ROUTED的时候任务直接提交到lane，lane在state之前写入
+         */
+        private volatile int state;
+        private volatile int lane;
+        private int targetLane;
+        private long migratePeriod;
+        private boolean fenced;
+
+        /**
+         * 迁移期间的任务，以及正在放入暂存队列的生产者数量
+         */
+        private final Queue<Runnable> holding = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger offering = new AtomicInteger(0);
+
+        /**
+         * 一个周期内提交的任务数量，为0说明actor已经空闲
+         */
+        private final LongAdder count = new LongAdder();
+
+        private ActorRoute(int executorConsistentHash, int home) {
+            this.executorConsistentHash = executorConsistentHash;
+            this.home = home;
+            this.lane = home;
+            this.state = ROUTED;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            count.increment();
+            while (true) {
+                if (state == ROUTED) {
+                    lanes[lane].execute(task);
+                    return;
+                }
+                offering.incrementAndGet();
+                try {
+                    // 暂存队列已经执行完成，之后的任务直接提交到新线程
+                    if (state == ROUTED) {
+                        continue;
+                    }
+                    holding.offer(task);
+                    return;
+                } finally {
+                    offering.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * 在旧线程中执行，这个actor之前提交到旧线程的任务都已经执行完成
+         */
+        private void fence() {
+            var fromLane = lane;
+            var toLane = targetLane;
+            state = DRAINING;
+            try {
+                lanes[toLane].execute(ActorRunnable.valueOf(executorConsistentHash, () -> drain(toLane)));
+                logger.info("migrate actor:[{}] from task lane:[{}] to task lane:[{}]", executorConsistentHash, fromLane, toLane);
+            } catch (RejectedExecutionException e) {
+                // 新线程的邮箱满了，放弃这次迁移，在旧线程中执行暂存队列中的任务
+                logger.warn("task lane:[{}] is full, actor:[{}] stays in task lane:[{}]", toLane, executorConsistentHash, fromLane);
+                drain(fromLane);
+            }
+        }
+
+        /**
+         * 在runLane线程中执行暂存队列中的任务，执行完成以后这个actor的任务直接提交到runLane
+         */
+        private void drain(int runLane) {
+            for (var i = 0; i < MAX_DRAIN_BATCH; i++) {
+                var task = holding.poll();
+                if (task == null) {
+                    break;
+                }
+                run(task);
+            }
+
+            if (!holding.isEmpty()) {
+                try {
+                    lanes[runLane].execute(ActorRunnable.valueOf(executorConsistentHash, () -> drain(runLane)));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // 邮箱满了，继续在当前线程中执行
+                }
+            }
+
+            lane = runLane;
+            state = ROUTED;
+            // 看到了旧的状态的生产者还在放入暂存队列，等待它们完成；之后的任务排在当前任务的后面，所以剩下的任务先执行
+            while (offering.get() != 0) {
+                Thread.onSpinWait();
+            }
+            Runnable task;
+            while ((task = holding.poll()) != null) {
+                run(task);
+            }
+        }
+
+        private void run(Runnable task) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("actor:[{}] unknown exception", executorConsistentHash, t);
+            }
+        }
+    }
+
+    /**
+     * 一致性hash计算出来的线程对应的执行器
+     */
+    private class LaneExecutor implements Executor {
+        private final int home;
+
+        private LaneExecutor(int home) {
+            this.home = home;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!(task instanceof IActorTask)) {
+                lanes[home].execute(task);
+                return;
+            }
+            submit(home, ((IActorTask) task).actorKey(), task);
+        }
+    }
+
+    public Executor executor(ExecutorService[] executors, int executorConsistentHash) {
+        if (lanes == null) {
+            start(executors);
+        }
+        return laneExecutors[TaskBus.executorIndex(executorConsistentHash, executors.length)];
+    }
+
+    private void submit(int home, int executorConsistentHash, Runnable task) {
+        var stripe = inFlightIndex(executorConsistentHash);
+        // 迁移的时候先修改覆盖表再等待inFlight为0，所以看到了旧的覆盖表的生产者一定会在迁移继续之前提交完成
+        inFlight.incrementAndGet(stripe);
+        try {
+            var table = overrides;
+            var route = table.isEmpty() ? null : table.get(executorConsistentHash);
+            if (route == null) {
+                lanes[home].execute(task);
+            } else {
+                route.execute(task);
+            }
+        } finally {
+            inFlight.decrementAndGet(stripe);
+        }
+    }
+
+    private static int inFlightIndex(int executorConsistentHash) {
+        return (executorConsistentHash & (IN_FLIGHT_STRIPES - 1)) * IN_FLIGHT_PADDING;
+    }
+
+    private void start(ExecutorService[] executors) {
+        if (!started.compareAndSet(false, true)) {
+            // 等待其它线程初始化完成
+            while (lanes == null) {
+                Thread.onSpinWait();
+            }
+            return;
+        }
+        init(executors);
+        SchedulerBus.scheduleAtFixedRate(this::rebalance, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void init(ExecutorService[] executors) {
+        lastRebalanceNanos = System.nanoTime();
+        lastBusyNanos = new long[executors.length];
+        laneBusyRatios = new double[executors.length];
+        laneQueueDepths = new int[executors.length];
+        var newLaneExecutors = new LaneExecutor[executors.length];
+        for (var i = 0; i < executors.length; i++) {
+            newLaneExecutors[i] = new LaneExecutor(i);
+        }
+        laneExecutors = newLaneExecutors;
+        lanes = executors;
+    }
+
+    private void rebalance() {
+        try {
+            doRebalance();
+        } catch (Throwable t) {
+            logger.error("task lane rebalance unknown exception", t);
+        }
+    }
+
+    void doRebalance() {
+        period++;
+        var executors = lanes;
+        var size = executors.length;
+
+        // 统计每个线程的繁忙程度和队列长度
+        var now = System.nanoTime();
+        var periodNanos = (double) Math.max(now - lastRebalanceNanos, 1);
+        lastRebalanceNanos = now;
+        var busyRatios = new double[size];
+        var queueDepths = new int[size];
+        for (var i = 0; i < size; i++) {
+            if (!(executors[i] instanceof MailboxExecutor)) {
+                continue;
+            }
+            var executor = (MailboxExecutor) executors[i];
+            var busyNanos = executor.busyNanos();
+            busyRatios[i] = (busyNanos - lastBusyNanos[i]) / periodNanos;
+            queueDepths[i] = executor.pendingTasks();
+            lastBusyNanos[i] = busyNanos;
+        }
+        // 下面预估迁移后的负载的时候会修改busyRatios，统计信息使用一份拷贝
+        laneBusyRatios = busyRatios.clone();
+        laneQueueDepths = queueDepths;
+
+        // 迁移过的actor空闲以后回到原来的线程，回到原来的线程以后从覆盖表中移除
+        for (var route : overrides.values()) {
+            if (route.state == MOVING && !route.fenced) {
+                fence(route);
+                continue;
+            }
+            if (route.state != ROUTED) {
+                continue;
+            }
+            if (route.lane == route.home) {
+                removeRoute(route);
+            } else if (route.count.sumThenReset() == 0) {
+                migrate(route, route.home);
+            }
+        }
+
+        var samples = new int[MailboxExecutor.SAMPLE_SIZE];
+        for (var hot = 0; hot < size; hot++) {
+            if (busyRatios[hot] < HOT_BUSY_RATIO || queueDepths[hot] < HOT_QUEUE_DEPTH) {
+                continue;
+            }
+
+            // 采样中出现次数最多的actor为最繁忙的actor
+            var sampleSize = ((MailboxExecutor) executors[hot]).sampleActorKeys(samples);
+            var counts = new HashMap<Integer, Integer>();
+            var topKey = 0;
+            var topCount = 0;
+            for (var i = 0; i < sampleSize; i++) {
+                var count = counts.merge(samples[i], 1, Integer::sum);
+                if (count > topCount) {
+                    topKey = samples[i];
+                    topCount = count;
+                }
+            }
+            // 线程上只有这一个actor，迁移没有意义
+            if (topCount == 0 || topCount >= sampleSize) {
+                continue;
+            }
+
+            var cool = -1;
+            for (var i = 0; i < size; i++) {
+                if (i != hot && busyRatios[i] < COOL_BUSY_RATIO && (cool < 0 || busyRatios[i] < busyRatios[cool])) {
+                    cool = i;
+                }
+            }
+            if (cool < 0) {
+                break;
+            }
+
+            if (!migrate(topKey, hot, cool)) {
+                continue;
+            }
+
+            // 预估迁移后的负载，防止所有的actor都迁移到同一个线程
+            var moved = busyRatios[hot] * topCount / sampleSize;
+            busyRatios[cool] += moved;
+            busyRatios[hot] -= moved;
+        }
+    }
+
+    /**
+     * 在scheduler线程中调用，把当前在fromLane线程上的actor迁移到targetLane线程
+     *
+     * @return false表示actor不在fromLane上，或者还在迁移的冷却时间内
+     */
+    boolean migrate(int executorConsistentHash, int fromLane, int targetLane) {
+        var route = overrides.get(executorConsistentHash);
+        if (route == null) {
+            var home = TaskBus.executorIndex(executorConsistentHash, lanes.length);
+            if (home != fromLane) {
+                return false;
+            }
+            route = new ActorRoute(executorConsistentHash, home);
+            route.migratePeriod = -COOLDOWN_PERIODS;
+            var newOverrides = new IntObjectHashMap<ActorRoute>(overrides.size() + 1);
+            newOverrides.putAll(overrides);
+            newOverrides.put(executorConsistentHash, route);
+            overrides = newOverrides;
+        }
+        if (route.state != ROUTED || route.lane != fromLane || period - route.migratePeriod < COOLDOWN_PERIODS) {
+            return false;
+        }
+        migrate(route, targetLane);
+        return true;
+    }
+
+    private void migrate(ActorRoute route, int targetLane) {
+        route.targetLane = targetLane;
+        route.migratePeriod = period;
+        route.state = MOVING;
+
+        route.fenced = false;
+
+        // 等待看到了旧的状态的生产者提交完成，之后这个actor的任务都会放入暂存队列
+        var stripe = inFlightIndex(route.executorConsistentHash);
+        while (inFlight.get(stripe) != 0) {
+            Thread.onSpinWait();
+        }
+
+        fence(route);
+    }
+
+    private void fence(ActorRoute route) {
+        try {
+            lanes[route.lane].execute(ActorRunnable.valueOf(route.executorConsistentHash, route::fence));
+            route.fenced = true;
+            migrationCount.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            // 旧线程的邮箱满了，暂存队列中的任务必须排在旧线程中的任务之后，下一个周期再放入栅栏
+            logger.warn("task lane:[{}] is full, the fence of actor:[{}] will be retried", route.lane, route.executorConsistentHash);
+        }
+    }
+
+    private void removeRoute(ActorRoute route) {
+        var newOverrides = new IntObjectHashMap<ActorRoute>(overrides.size());
+        newOverrides.putAll(overrides);
+        newOverrides.remove(route.executorConsistentHash);
+        overrides = newOverrides;
+    }
+
+    // -------------------------------------------------metrics-------------------------------------------------
+    public long getMigrationCount() {
+        return migrationCount.get();
+    }
+
+    /**
+     * 覆盖表中迁移过的actor数量
+     */
+    public int getActorSize() {
+        return overrides.size();
+    }
+
+    /**
+     * actor当前所在的线程，迁移中的actor返回-1
+     */
+    public int laneOf(int executorConsistentHash) {
+        var route = overrides.get(executorConsistentHash);
+        if (route == null) {
+            return TaskBus.executorIndex(executorConsistentHash, lanes.length);
+        }
+        return route.state == ROUTED ? route.lane : -1;
+    }
+
+    /**
+     * 上一个周期线程执行任务的时间占比，0到1之间
+     */
+    public double getLaneBusyRatio(int lane) {
+        var busyRatios = laneBusyRatios;
+        return busyRatios == null ? 0 : busyRatios[lane];
+    }
+
+    public int getLaneQueueDepth(int lane) {
+        var queueDepths = laneQueueDepths;
+        return queueDepths == null ? 0 : queueDepths[lane];
+    }
+
+    public String laneLoadInfo() {
+        var busyRatios = laneBusyRatios;
+        var queueDepths = laneQueueDepths;
+        if (busyRatios == null) {
+            return StringUtils.EMPTY;
+        }
+        var builder = new StringBuilder();
+        for (var i = 0; i < busyRatios.length; i++) {
+            builder.append(StringUtils.format("[lane:{} busy:{}% queue:{}]", i, (int) (busyRatios[i] * 100), queueDepths[i]));
+        }
+        builder.append(StringUtils.format("[actor:{} migration:{}]", overrides.size(), migrationCount.get()));
+        return builder.toString();
+    }
+
+}
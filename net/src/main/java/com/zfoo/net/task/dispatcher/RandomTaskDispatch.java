@@ -13,13 +13,9 @@
 
 package com.zfoo.net.task.dispatcher;
 
-import com.zfoo.net.task.TaskBus;
 import com.zfoo.net.task.model.PacketReceiverTask;
 import com.zfoo.util.math.RandomUtils;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-
 /**
  * @author godotg
  * @version 3.0
@@ -33,8 +29,8 @@ public class RandomTaskDispatch extends AbstractTaskDispatch {
     }
 
     @Override
-    public Executor getExecutor(ExecutorService[] executors, PacketReceiverTask packetReceiverTask) {
-        return executors[TaskBus.executorIndex(RandomUtils.randomInt())];
+    public int executorConsistentHash(PacketReceiverTask packetReceiverTask) {
+        return RandomUtils.randomInt();
     }
 
 }
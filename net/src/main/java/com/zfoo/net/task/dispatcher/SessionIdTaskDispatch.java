@@ -13,13 +13,9 @@
 
 package com.zfoo.net.task.dispatcher;
 
-import com.zfoo.net.task.TaskBus;
 import com.zfoo.net.task.model.PacketReceiverTask;
 import com.zfoo.util.math.HashUtils;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-
 /**
  * 同一个session总是分配到同一个线程池执行
  *
@@ -35,9 +31,9 @@ public class SessionIdTaskDispatch extends AbstractTaskDispatch {
     }
 
     @Override
-    public Executor getExecutor(ExecutorService[] executors, PacketReceiverTask packetReceiverTask) {
+    public int executorConsistentHash(PacketReceiverTask packetReceiverTask) {
         var session = packetReceiverTask.getSession();
-        return executors[TaskBus.executorIndex(HashUtils.fnvHash(session.getSid()))];
+        return HashUtils.fnvHash(session.getSid());
     }
 
 }
@@ -16,18 +16,30 @@ package com.zfoo.net.task.model;
 import com.zfoo.net.NetContext;
 import com.zfoo.net.router.attachment.IAttachment;
 import com.zfoo.net.session.model.Session;
+import com.zfoo.net.task.TaskAdmission;
 import com.zfoo.protocol.IPacket;
+import com.zfoo.util.concurrent.IActorTask;
 
 /**
  * @author jaysunxiao
  * @version 3.0
  */
-public final class PacketReceiverTask implements Runnable {
+public final class PacketReceiverTask implements IActorTask {
 
     private Session session;
     private IPacket packet;
     private IAttachment attachment;
 
+    /**
+     * 在TaskBus中派发的时候设置
+     */
+    private int executorConsistentHash;
+
+    /**
+     * 放入邮箱的时间（纳秒），开启了TaskAdmission才会设置
+     */
+    private long submitTime;
+
     public PacketReceiverTask(Session session, IPacket packet, IAttachment attachment) {
         this.session = session;
         this.packet = packet;
@@ -36,9 +48,15 @@ public final class PacketReceiverTask implements Runnable {
 
     @Override
     public void run() {
+        TaskAdmission.dequeue(this);
         NetContext.getRouter().atReceiver(session, packet, attachment);
     }
 
+    @Override
+    public int actorKey() {
+        return executorConsistentHash;
+    }
+
     public Session getSession() {
         return session;
     }
@@ -62,4 +80,20 @@ public final class PacketReceiverTask implements Runnable {
     public void setAttachment(IAttachment attachment) {
         this.attachment = attachment;
     }
+
+    public int getExecutorConsistentHash() {
+        return executorConsistentHash;
+    }
+
+    public void setExecutorConsistentHash(int executorConsistentHash) {
+        this.executorConsistentHash = executorConsistentHash;
+    }
+
+    public long getSubmitTime() {
+        return submitTime;
+    }
+
+    public void setSubmitTime(long submitTime) {
+        this.submitTime = submitTime;
+    }
 }
@@ -13,6 +13,7 @@
 
 package com.zfoo.net.util;
 
+import com.zfoo.net.core.kcp.KcpSession;
 import com.zfoo.net.session.model.AttributeType;
 import com.zfoo.net.session.model.Session;
 import com.zfoo.protocol.util.StringUtils;
@@ -33,6 +34,9 @@ public abstract class SessionUtils {
 
 
     public static boolean isActive(Session session) {
+        if (session instanceof KcpSession) {
+            return !((KcpSession) session).isClosed();
+        }
         return session != null && session.getChannel().isActive();
     }
 
@@ -45,6 +49,16 @@ public abstract class SessionUtils {
         return sessionAttr.get();
     }
 
+    /**
+     * 统计session编码后发送的字节数，在io线程的编码器中调用
+     */
+    public static void recordWriteBytes(ChannelHandlerContext ctx, int bytes) {
+        var session = getSession(ctx);
+        if (session != null) {
+            session.increaseWriteBytes(bytes);
+        }
+    }
+
     public static String sessionInfo(ChannelHandlerContext ctx) {
         var session = SessionUtils.getSession(ctx);
         if (session == null) {
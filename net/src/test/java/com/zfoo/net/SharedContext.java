@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * 自动运行的单元测试共享同一个config.xml的Spring容器
+ * <p>
+ * surefire的forkMode为once，所有的测试类在同一个jvm中运行，ProtocolManager等全局的状态只能初始化一次，
+ * 重复创建容器会导致协议重复注册，所以需要容器的测试类都通过SharedContext.init()获取
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public abstract class SharedContext {
+
+    private static ClassPathXmlApplicationContext context;
+
+    public static synchronized ClassPathXmlApplicationContext init() {
+        if (context == null) {
+            context = new ClassPathXmlApplicationContext("config.xml");
+        }
+        return context;
+    }
+
+}
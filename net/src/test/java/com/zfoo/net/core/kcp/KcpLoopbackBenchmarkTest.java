@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在本机回环地址上对比KCP和TCP在丢包时的延迟，真实的udp和tcp socket经过同一个进程中有丢包和延迟的中转
+ * <p>
+ * udp的中转按照丢包率直接丢弃数据报（两个方向都会丢包），没有丢弃的数据报延迟DELAY到DELAY+JITTER毫秒以后转发。
+ * 用户态无法丢弃TCP的段，tcp的中转按照Linux TCP的重传规则延迟丢失的段：之后的第3个段到达以后快速重传（3个重复ACK，额外3个单向延迟），
+ * 否则在最小RTO（200ms）以后超时重传，重传再次丢失的时候RTO翻倍；之后的数据按顺序等待这个段（队头阻塞），不模拟ACK的丢失。
+ * <p>
+ * 每10毫秒发送一个64字节的消息，统计从发送到接收者收到的延迟，KCP只在kcp.check的时间调用update，和KcpSession一致。
+ * 普通模式有拥塞窗口并且每40毫秒才flush一次，这个发送频率下丢包会让发送队列不断堆积，延迟按秒增长
+ *
+ * @author godotg
+ * @version 3.0
+ */
+@Ignore
+public class KcpLoopbackBenchmarkTest {
+
+    private static final int DELAY = 20;
+    private static final int JITTER = 5;
+    private static final int TCP_RTO_MIN = 200;
+    private static final int TCP_DUP_ACK = 3;
+
+    private static final int COUNT = 1000;
+    private static final int SEND_INTERVAL = 10;
+    private static final int MESSAGE_LENGTH = 64;
+
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    @Test
+    public void latencyBenchmarkTest() throws Exception {
+        for (var loss : new int[]{0, 5, 10, 20}) {
+            System.out.println("loss:" + loss + "% tcp " + tcpLatency(loss));
+            System.out.println("loss:" + loss + "% kcp fast " + kcpLatency(KcpConfig.fastMode(), loss));
+            System.out.println("loss:" + loss + "% kcp normal " + kcpLatency(KcpConfig.normalMode(), loss));
+        }
+    }
+
+    private static int currentMillis() {
+        return (int) (System.nanoTime() / 1_000_000);
+    }
+
+    private static byte[] message(int index) {
+        var bytes = new byte[MESSAGE_LENGTH];
+        ByteBuffer.wrap(bytes).putInt(index).putLong(System.nanoTime());
+        return bytes;
+    }
+
+    private static String result(long[] latencies, int received) {
+        Arrays.sort(latencies, 0, received);
+        return "received:" + received + " p50:" + latencies[received / 2] / 1000 + "ms p99:" + latencies[received * 99 / 100] / 1000
+                + "ms max:" + latencies[received - 1] / 1000 + "ms";
+    }
+
+    /**
+     * 按照固定的频率发送消息，recordLatency在接收者的线程中调用
+     */
+    private static void sendPeriodically(SendFunction send) throws Exception {
+        var start = System.nanoTime();
+        for (var i = 0; i < COUNT; i++) {
+            var sleep = start + TimeUnit.MILLISECONDS.toNanos((long) i * SEND_INTERVAL) - System.nanoTime();
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+            send.send(message(i));
+        }
+    }
+
+    private interface SendFunction {
+        void send(byte[] message) throws Exception;
+    }
+
+    private static class Recorder {
+        private final long[] latencies = new long[COUNT];
+        private final CountDownLatch latch = new CountDownLatch(COUNT);
+        private int received;
+
+        private synchronized void record(byte[] message) {
+            var buffer = ByteBuffer.wrap(message);
+            buffer.getInt();
+            latencies[received++] = (System.nanoTime() - buffer.getLong()) / 1000;
+            latch.countDown();
+        }
+
+        private synchronized String result() {
+            return KcpLoopbackBenchmarkTest.result(latencies, received);
+        }
+    }
+
+    // --------------------------------------------------------kcp--------------------------------------------------------
+
+    /**
+     * 转发两个端点之间的udp数据报，按照丢包率丢弃，没有丢弃的延迟以后转发
+     */
+    private static class UdpRelay implements Runnable {
+        private final DatagramSocket socket = new DatagramSocket(0, LOOPBACK);
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        private final Random random = new Random(1);
+        private final int lossPercent;
+        private volatile SocketAddress a;
+        private volatile SocketAddress b;
+
+        private UdpRelay(int lossPercent) throws IOException {
+            this.lossPercent = lossPercent;
+        }
+
+        @Override
+        public void run() {
+            var buffer = new byte[2048];
+            while (!socket.isClosed()) {
+                var packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (IOException e) {
+                    return;
+                }
+                if (random.nextInt(100) < lossPercent) {
+                    continue;
+                }
+                var target = packet.getSocketAddress().equals(a) ? b : a;
+                var data = Arrays.copyOf(packet.getData(), packet.getLength());
+                try {
+                    scheduler.schedule(() -> {
+                        try {
+                            socket.send(new DatagramPacket(data, data.length, target));
+                        } catch (IOException e) {
+                            // 中转已经关闭
+                        }
+                    }, DELAY + random.nextInt(JITTER + 1), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+            socket.close();
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 一个KCP端点，所有的KCP操作都在自己的线程中执行，其它线程通过outbox发送
+     */
+    private static class KcpEndpoint implements Runnable {
+        private final DatagramSocket socket = new DatagramSocket(0, LOOPBACK);
+        private final ConcurrentLinkedQueue<byte[]> outbox = new ConcurrentLinkedQueue<>();
+        private final Kcp kcp;
+        private final KcpConfig config;
+        private final Recorder recorder;
+        private volatile boolean running = true;
+        private int updates;
+
+        private KcpEndpoint(KcpConfig config, SocketAddress relay, Recorder recorder) throws IOException {
+            this.config = config;
+            this.recorder = recorder;
+            this.kcp = new Kcp(0x11223344, (data, length) -> {
+                try {
+                    socket.send(new DatagramPacket(Arrays.copyOf(data, length), length, relay));
+                } catch (IOException e) {
+                    // 端点已经关闭
+                }
+            });
+            kcp.setNodelay(config.getNodelay(), config.getInterval(), config.getResend(), config.isNocwnd());
+            kcp.setWindow(config.getSndWnd(), config.getRcvWnd());
+            kcp.setMtu(config.getMtu());
+        }
+
+        @Override
+        public void run() {
+            var buffer = new byte[2048];
+            var now = currentMillis();
+            kcp.update(now);
+            var next = kcp.check(now);
+            while (running) {
+                byte[] message;
+                while ((message = outbox.poll()) != null) {
+                    kcp.send(message, 0, message.length);
+                    if (config.getNodelay() > 0) {
+                        kcp.flush();
+                    }
+                }
+
+                now = currentMillis();
+                if (now - next >= 0) {
+                    kcp.update(now);
+                    updates++;
+                }
+                next = kcp.check(now);
+
+                // 最多等待1毫秒，及时发送outbox中的消息
+                var packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.setSoTimeout(Math.max(Math.min(next - now, 1), 1));
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                } catch (IOException e) {
+                    return;
+                }
+                kcp.input(packet.getData(), 0, packet.getLength());
+                while ((message = kcp.recv()) != null) {
+                    recorder.record(message);
+                }
+                if (config.getNodelay() > 0) {
+                    kcp.flush();
+                }
+                next = kcp.check(currentMillis());
+            }
+        }
+
+        private void close() {
+            running = false;
+            socket.close();
+        }
+    }
+
+    private String kcpLatency(KcpConfig config, int loss) throws Exception {
+        var relay = new UdpRelay(loss);
+        var recorder = new Recorder();
+        var sender = new KcpEndpoint(config, relay.socket.getLocalSocketAddress(), null);
+        var receiver = new KcpEndpoint(config, relay.socket.getLocalSocketAddress(), recorder);
+        relay.a = sender.socket.getLocalSocketAddress();
+        relay.b = receiver.socket.getLocalSocketAddress();
+
+        var threads = List.of(new Thread(relay), new Thread(sender), new Thread(receiver));
+        threads.forEach(Thread::start);
+        try {
+            sendPeriodically(sender.outbox::offer);
+            recorder.latch.await(60, TimeUnit.SECONDS);
+        } finally {
+            sender.close();
+            receiver.close();
+            relay.close();
+            for (var thread : threads) {
+                thread.join();
+            }
+        }
+        return recorder.result() + " updates:" + (sender.updates + receiver.updates);
+    }
+
+    // --------------------------------------------------------tcp--------------------------------------------------------
+
+    /**
+     * 中转中的一个tcp段，deliverTime为到达接收者的时间（毫秒），丢失的段在快速重传或者超时重传以后到达
+     */
+    private static class TcpSegment {
+        private final byte[] data;
+        private final int sendTime;
+        private int deliverTime;
+        private boolean lost;
+        private int dupAcks;
+
+        private TcpSegment(byte[] data, int sendTime) {
+            this.data = data;
+            this.sendTime = sendTime;
+        }
+    }
+
+    /**
+     * 单向的tcp中转，reader线程按照丢包规则计算每个段的到达时间，writer线程按顺序在到达时间转发
+     */
+    private static class TcpRelay {
+        private final Random random = new Random(1);
+        private final ArrayDeque<TcpSegment> segments = new ArrayDeque<>();
+        private final List<TcpSegment> lostSegments = new ArrayList<>();
+        private final int lossPercent;
+
+        private TcpRelay(int lossPercent) {
+            this.lossPercent = lossPercent;
+        }
+
+        private boolean lose() {
+            return random.nextInt(100) < lossPercent;
+        }
+
+        private int oneWayDelay() {
+            return DELAY + random.nextInt(JITTER + 1);
+        }
+
+        /**
+         * 超时重传的到达时间，每次重传都可能再次丢失，RTO翻倍
+         */
+        private int retransmitTime(int lostTime) {
+            var rto = TCP_RTO_MIN;
+            var sendTime = lostTime + rto;
+            while (lose()) {
+                rto <<= 1;
+                sendTime += rto;
+            }
+            return sendTime + oneWayDelay();
+        }
+
+        private void read(InputStream input) {
+            var buffer = new byte[4096];
+            try {
+                int length;
+                while ((length = input.read(buffer)) > 0) {
+                    var now = currentMillis();
+                    var segment = new TcpSegment(Arrays.copyOf(buffer, length), now);
+                    synchronized (this) {
+                        // 之前丢失的段收到重复的ACK，第3个重复的ACK回到发送者以后快速重传
+                        for (var iterator = lostSegments.iterator(); iterator.hasNext(); ) {
+                            var lost = iterator.next();
+                            if (++lost.dupAcks < TCP_DUP_ACK) {
+                                continue;
+                            }
+                            iterator.remove();
+                            if (!lose()) {
+                                lost.deliverTime = Math.min(lost.deliverTime, now + oneWayDelay() * 3);
+                            }
+                        }
+                        if (lose()) {
+                            segment.lost = true;
+                            segment.deliverTime = retransmitTime(now);
+                            lostSegments.add(segment);
+                        } else {
+                            segment.deliverTime = now + oneWayDelay();
+                        }
+                        segments.add(segment);
+                        notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                // 连接已经关闭
+            }
+        }
+
+        private void write(OutputStream output) {
+            try {
+                while (true) {
+                    TcpSegment segment;
+                    synchronized (this) {
+                        while ((segment = segments.peek()) == null || segment.deliverTime - currentMillis() > 0) {
+                            wait(segment == null ? 10 : Math.max(segment.deliverTime - currentMillis(), 1));
+                        }
+                        segments.poll();
+                    }
+                    output.write(segment.data);
+                    output.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // 连接已经关闭
+            }
+        }
+    }
+
+    private String tcpLatency(int loss) throws Exception {
+        var recorder = new Recorder();
+        var relay = new TcpRelay(loss);
+        try (var receiverServer = new ServerSocket(0, 1, LOOPBACK);
+             var relayServer = new ServerSocket(0, 1, LOOPBACK);
+             var sender = new Socket()) {
+            var threads = new ArrayList<Thread>();
+            threads.add(new Thread(() -> {
+                try (var receiver = receiverServer.accept(); var input = new DataInputStream(receiver.getInputStream())) {
+                    var message = new byte[MESSAGE_LENGTH];
+                    for (var i = 0; i < COUNT; i++) {
+                        input.readFully(message);
+                        recorder.record(message);
+                    }
+                } catch (IOException e) {
+                    // 连接已经关闭
+                }
+            }));
+            threads.add(new Thread(() -> {
+                try (var relayIn = relayServer.accept(); var relayOut = new Socket()) {
+                    relayIn.setTcpNoDelay(true);
+                    relayOut.setTcpNoDelay(true);
+                    relayOut.connect(new InetSocketAddress(LOOPBACK, receiverServer.getLocalPort()));
+                    var writer = new Thread(() -> {
+                        try {
+                            relay.write(relayOut.getOutputStream());
+                        } catch (IOException e) {
+                            // 连接已经关闭
+                        }
+                    });
+                    writer.start();
+                    relay.read(relayIn.getInputStream());
+                    recorder.latch.await(60, TimeUnit.SECONDS);
+                    writer.interrupt();
+                    writer.join();
+                } catch (IOException | InterruptedException e) {
+                    // 连接已经关闭
+                }
+            }));
+            threads.forEach(Thread::start);
+
+            sender.setTcpNoDelay(true);
+            sender.connect(new InetSocketAddress(LOOPBACK, relayServer.getLocalPort()));
+            var output = sender.getOutputStream();
+            sendPeriodically(message -> {
+                output.write(message);
+                output.flush();
+            });
+            recorder.latch.await(60, TimeUnit.SECONDS);
+            sender.close();
+            for (var thread : threads) {
+                thread.join();
+            }
+        }
+        return recorder.result();
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.kcp;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 在内存中模拟有丢包和延迟的网络，不需要真实的udp socket
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class KcpTest {
+
+    private static class Datagram {
+        private final int arriveTime;
+        private final byte[] data;
+
+        private Datagram(int arriveTime, byte[] data) {
+            this.arriveTime = arriveTime;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 单向延迟为delay到delay+jitter毫秒，丢包率为lossPercent%
+     */
+    private static class Link {
+        private final Random random = new Random(1);
+        private final List<Datagram> toB = new ArrayList<>();
+        private final List<Datagram> toA = new ArrayList<>();
+        private final int lossPercent;
+        private final int delay;
+        private final int jitter;
+        private int now;
+
+        private final Kcp a;
+        private final Kcp b;
+
+        private Link(KcpConfig config, int lossPercent, int delay, int jitter) {
+            this.lossPercent = lossPercent;
+            this.delay = delay;
+            this.jitter = jitter;
+            this.a = newKcp(config, toB);
+            this.b = newKcp(config, toA);
+        }
+
+        private Kcp newKcp(KcpConfig config, List<Datagram> target) {
+            var kcp = new Kcp(0x11223344, (data, length) -> {
+                if (random.nextInt(100) >= lossPercent) {
+                    target.add(new Datagram(now + delay + random.nextInt(jitter + 1), Arrays.copyOf(data, length)));
+                }
+            });
+            kcp.setNodelay(config.getNodelay(), config.getInterval(), config.getResend(), config.isNocwnd());
+            kcp.setWindow(config.getSndWnd(), config.getRcvWnd());
+            kcp.setMtu(config.getMtu());
+            return kcp;
+        }
+
+        private int nextA;
+        private int nextB;
+        private int updates;
+
+        private void tick() {
+            a.update(now);
+            b.update(now);
+            deliver(toB, b);
+            deliver(toA, a);
+            now++;
+        }
+
+        /**
+         * 和KcpSession一样只在kcp.check的时间调用update，send和input以后重新计算
+         */
+        private void tickByCheck() {
+            if (now - nextA >= 0) {
+                a.update(now);
+                updates++;
+            }
+            if (now - nextB >= 0) {
+                b.update(now);
+                updates++;
+            }
+            deliver(toB, b);
+            deliver(toA, a);
+            nextA = a.check(now);
+            nextB = b.check(now);
+            now++;
+        }
+
+        private void deliver(List<Datagram> list, Kcp kcp) {
+            for (Iterator<Datagram> iterator = list.iterator(); iterator.hasNext(); ) {
+                var datagram = iterator.next();
+                if (datagram.arriveTime <= now) {
+                    kcp.input(datagram.data, 0, datagram.data.length);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static byte[] message(int index) {
+        // 每7个消息有一个大消息，需要分片
+        var bytes = new byte[index % 7 == 0 ? 5000 : 100];
+        ByteBuffer.wrap(bytes).putInt(index);
+        return bytes;
+    }
+
+    @Test
+    public void reliableOrderedTest() {
+        var link = new Link(KcpConfig.fastMode(), 20, 20, 10);
+        var count = 2000;
+        var sent = 0;
+        var received = 0;
+        while (received < count && link.now < 600_000) {
+            if (sent < count && link.now % 5 == 0) {
+                var bytes = message(sent++);
+                Assert.assertEquals(0, link.a.send(bytes, 0, bytes.length));
+            }
+            link.tick();
+            byte[] bytes;
+            while ((bytes = link.b.recv()) != null) {
+                Assert.assertEquals(received, ByteBuffer.wrap(bytes).getInt());
+                Assert.assertEquals(message(received).length, bytes.length);
+                received++;
+            }
+        }
+        Assert.assertEquals(count, received);
+        Assert.assertFalse(link.a.isDeadLink());
+    }
+
+    /**
+     * 只在check返回的时间update，依然可靠有序，并且比每个interval都update少很多
+     */
+    @Test
+    public void checkDrivenTest() {
+        var link = new Link(KcpConfig.normalMode(), 10, 20, 10);
+        var count = 100;
+        var sent = 0;
+        var received = 0;
+        while (received < count && link.now < 600_000) {
+            // 发送得比较稀疏，中间有空闲的时间
+            if (sent < count && link.now % 1000 == 0) {
+                var bytes = message(sent++);
+                Assert.assertEquals(0, link.a.send(bytes, 0, bytes.length));
+            }
+            link.tickByCheck();
+            byte[] bytes;
+            while ((bytes = link.b.recv()) != null) {
+                Assert.assertEquals(received, ByteBuffer.wrap(bytes).getInt());
+                received++;
+            }
+        }
+        Assert.assertEquals(count, received);
+        Assert.assertFalse(link.a.isDeadLink());
+        // 每个interval都update需要的次数
+        var fixedRateUpdates = 2 * link.now / link.a.getInterval();
+        Assert.assertTrue(link.updates < fixedRateUpdates / 4);
+    }
+
+    @Test
+    public void checkTest() {
+        var config = KcpConfig.normalMode();
+        var link = new Link(config, 0, 10, 0);
+        var kcp = link.a;
+
+        // 还没有update的时候需要立刻update
+        Assert.assertEquals(5, kcp.check(5));
+
+        // 没有任何数据的时候不需要按照interval定时update
+        kcp.update(0);
+        Assert.assertEquals(Kcp.RTO_MAX, kcp.check(0));
+
+        // 有新数据等待flush的时候在下一次flush的时间update
+        var bytes = message(1);
+        kcp.send(bytes, 0, bytes.length);
+        Assert.assertEquals(config.getInterval(), kcp.check(0));
+
+        // 数据发送以后只需要在超时重传的时间update
+        kcp.update(config.getInterval());
+        Assert.assertEquals(1, link.toB.size());
+        var resendTime = kcp.check(config.getInterval());
+        Assert.assertTrue(resendTime - config.getInterval() > config.getInterval());
+        Assert.assertTrue(resendTime - config.getInterval() <= Kcp.RTO_DEF * 2);
+        Assert.assertEquals(resendTime, kcp.check(resendTime - 1));
+        Assert.assertEquals(resendTime, kcp.check(resendTime));
+
+        // 对方确认以后又没有任何数据
+        link.now = config.getInterval() + 10;
+        link.deliver(link.toB, link.b);
+        link.b.update(link.now);
+        link.now += 10;
+        link.deliver(link.toA, kcp);
+        Assert.assertEquals(link.now + Kcp.RTO_MAX, kcp.check(link.now));
+    }
+
+    @Test
+    public void tooLargeTest() {
+        var kcp = new Kcp(1, (data, length) -> {
+        });
+        var bytes = new byte[kcp.getMss() * (Kcp.WND_RCV + 1)];
+        Assert.assertTrue(kcp.send(bytes, 0, bytes.length) < 0);
+    }
+
+    @Test
+    public void convMismatchTest() {
+        var link = new Link(KcpConfig.fastMode(), 0, 1, 0);
+        var other = new Kcp(1, (data, length) -> {
+        });
+        var bytes = message(1);
+        link.a.send(bytes, 0, bytes.length);
+        link.a.update(0);
+        link.a.flush();
+        var datagram = link.toB.get(0);
+        Assert.assertTrue(other.input(datagram.data, 0, datagram.data.length) < 0);
+    }
+
+    /**
+     * 每20毫秒发送一个小包，统计丢包时从发送到收到的延迟，nodelay和普通模式（类似TCP的RTO翻倍和拥塞控制，但是没有快速重传）对比
+     * <p>
+     * 和TCP的对比在KcpLoopbackBenchmarkTest中，经过本机回环地址和进程内有丢包的中转
+     */
+    @Ignore
+    @Test
+    public void latencyBenchmarkTest() {
+        for (var loss : new int[]{0, 5, 10, 20}) {
+            System.out.println("loss:" + loss + "% fast " + latency(KcpConfig.fastMode(), loss));
+            System.out.println("loss:" + loss + "% normal " + latency(KcpConfig.normalMode(), loss));
+        }
+    }
+
+    private String latency(KcpConfig config, int loss) {
+        var link = new Link(config, loss, 30, 10);
+        var count = 5000;
+        var sendTimes = new int[count];
+        var latencies = new int[count];
+        var sent = 0;
+        var received = 0;
+        while (received < count && link.now < 10_000_000) {
+            if (sent < count && link.now % 20 == 0) {
+                var bytes = new byte[64];
+                ByteBuffer.wrap(bytes).putInt(sent);
+                sendTimes[sent] = link.now;
+                link.a.send(bytes, 0, bytes.length);
+                if (config.getNodelay() > 0) {
+                    link.a.flush();
+                }
+                sent++;
+            }
+            link.tick();
+            byte[] bytes;
+            while ((bytes = link.b.recv()) != null) {
+                var index = ByteBuffer.wrap(bytes).getInt();
+                latencies[received++] = link.now - sendTimes[index];
+            }
+        }
+        Arrays.sort(latencies, 0, received);
+        return "p50:" + latencies[received / 2] + "ms p99:" + latencies[received * 99 / 100] + "ms max:" + latencies[received - 1] + "ms";
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.shm;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 环形缓冲区的读写，两个线程模拟两个进程，映射同一个文件
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ShmRingTest {
+
+    private static MappedByteBuffer map(Path path, long size) throws Exception {
+        try (var fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    @Test
+    public void wrapTest() throws Exception {
+        var path = Files.createTempFile("zfoo-shm", ".ring");
+        try {
+            var capacity = 64;
+            var producer = new ShmRing(map(path, ShmRing.size(capacity)), 0, capacity);
+            var consumer = new ShmRing(map(path, ShmRing.size(capacity)), 0, capacity);
+
+            var value = (byte) 0;
+            var expect = (byte) 0;
+            for (var i = 0; i < 100; i++) {
+                // 每次写入的长度和容量互质，读写指针会在不同的位置回绕
+                var bytes = new byte[23];
+                for (var j = 0; j < bytes.length; j++) {
+                    bytes[j] = value++;
+                }
+                Assert.assertEquals(bytes.length, producer.write(ByteBuffer.wrap(bytes)));
+                Assert.assertEquals(bytes.length, consumer.readableBytes());
+
+                var dst = ByteBuffer.allocate(bytes.length);
+                Assert.assertEquals(bytes.length, consumer.read(dst));
+                for (var b : dst.array()) {
+                    Assert.assertEquals(expect++, b);
+                }
+            }
+
+            // 缓冲区满了只写入一部分
+            Assert.assertEquals(capacity, producer.write(ByteBuffer.allocate(capacity + 10)));
+            Assert.assertEquals(0, producer.write(ByteBuffer.allocate(1)));
+            Assert.assertEquals(capacity, consumer.read(ByteBuffer.allocate(capacity * 2)));
+            Assert.assertEquals(0, consumer.read(ByteBuffer.allocate(1)));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void spscTest() throws Exception {
+        var path = Files.createTempFile("zfoo-shm", ".ring");
+        try {
+            var capacity = 4096;
+            var producer = new ShmRing(map(path, ShmRing.size(capacity)), 0, capacity);
+            var consumer = new ShmRing(map(path, ShmRing.size(capacity)), 0, capacity);
+            var count = 200_000;
+
+            var thread = new Thread(() -> {
+                var random = new Random(1);
+                var buffer = ByteBuffer.allocate(4 * 1000);
+                var next = 0;
+                while (next < count) {
+                    buffer.clear();
+                    var num = Math.min(1 + random.nextInt(1000), count - next);
+                    for (var i = 0; i < num; i++) {
+                        buffer.putInt(next++);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        if (producer.write(buffer) == 0) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                }
+            });
+            thread.start();
+
+            var random = new Random(2);
+            var buffer = ByteBuffer.allocate(4 * 1000);
+            var expect = 0;
+            while (expect < count) {
+                // 读取的长度和写入的长度无关，整数可能被拆成两次读取
+                buffer.limit(Math.min(buffer.position() + 1 + random.nextInt(3000), buffer.capacity()));
+                if (consumer.read(buffer) == 0) {
+                    Thread.onSpinWait();
+                }
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    Assert.assertEquals(expect++, buffer.getInt());
+                }
+                buffer.compact();
+            }
+            thread.join();
+            Assert.assertEquals(0, consumer.readableBytes());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * 两个线程通过两个环形缓冲区来回发送64字节的消息，统计往返的延迟
+     */
+    @Ignore
+    @Test
+    public void pingPongBenchmarkTest() throws Exception {
+        var path = Files.createTempFile("zfoo-shm", ".ring");
+        try {
+            var capacity = 1024 * 1024;
+            var ringSize = ShmRing.size(capacity);
+            var ping = new ShmRing(map(path, 2L * ringSize), 0, capacity);
+            var pingReader = new ShmRing(map(path, 2L * ringSize), 0, capacity);
+            var pong = new ShmRing(map(path, 2L * ringSize), ringSize, capacity);
+            var pongReader = new ShmRing(map(path, 2L * ringSize), ringSize, capacity);
+            var count = 1_000_000;
+
+            var thread = new Thread(() -> {
+                var buffer = ByteBuffer.allocate(64);
+                for (var i = 0; i < count; i++) {
+                    buffer.clear();
+                    while (buffer.hasRemaining()) {
+                        pingReader.read(buffer);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        pong.write(buffer);
+                    }
+                }
+            });
+            thread.start();
+
+            var latencies = new long[count];
+            var buffer = ByteBuffer.allocate(64);
+            for (var i = 0; i < count; i++) {
+                var startTime = System.nanoTime();
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    ping.write(buffer);
+                }
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    pongReader.read(buffer);
+                }
+                latencies[i] = System.nanoTime() - startTime;
+            }
+            thread.join();
+            Arrays.sort(latencies);
+            System.out.println("round trip p50:" + latencies[count / 2] + "ns p99:" + latencies[count * 99 / 100] + "ns p999:" + latencies[count * 999 / 1000] + "ns");
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+}
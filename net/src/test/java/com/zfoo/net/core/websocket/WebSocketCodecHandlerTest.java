@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.websocket;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.SharedContext;
+import com.zfoo.net.handler.codec.websocket.WebSocketCodecHandler;
+import com.zfoo.net.packet.common.Pong;
+import com.zfoo.net.packet.model.DecodedPacketInfo;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class WebSocketCodecHandlerTest {
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+    }
+
+    /**
+     * PacketService.write只能写入空的ByteBuf，每个包单独编码以后再拼接成一个帧
+     */
+    private ByteBuf encode(long... times) {
+        var buffer = Unpooled.buffer();
+        for (var time : times) {
+            var packetBuffer = Unpooled.buffer();
+            NetContext.getPacketService().write(packetBuffer, Pong.valueOf(time), null);
+            buffer.writeBytes(packetBuffer);
+            packetBuffer.release();
+        }
+        return buffer;
+    }
+
+    private void assertPong(EmbeddedChannel channel, long time) {
+        DecodedPacketInfo packetInfo = channel.readInbound();
+        Assert.assertEquals(time, ((Pong) packetInfo.getPacket()).getTime());
+    }
+
+    /**
+     * 一个帧中的多个包依次解码
+     */
+    @Test
+    public void decodeMultiplePacketsTest() {
+        var channel = new EmbeddedChannel(new WebSocketCodecHandler());
+        var frame = new BinaryWebSocketFrame(encode(1, 2, 3));
+        channel.writeInbound(frame);
+        Assert.assertEquals(0, frame.refCnt());
+
+        assertPong(channel, 1);
+        assertPong(channel, 2);
+        assertPong(channel, 3);
+        Assert.assertNull(channel.readInbound());
+        Assert.assertFalse(channel.finish());
+    }
+
+    /**
+     * 帧中最后一个包不完整，websocket的消息是完整的，帧格式错误抛出异常
+     */
+    @Test
+    public void decodeTruncatedPacketTest() {
+        var buffer = encode(1, 2);
+        buffer.writerIndex(buffer.writerIndex() - 1);
+        assertDecodeIllegal(buffer);
+
+        // 最后只剩下不完整的包头
+        buffer = encode(1);
+        buffer.writeShort(0);
+        assertDecodeIllegal(buffer);
+    }
+
+    private void assertDecodeIllegal(ByteBuf buffer) {
+        var channel = new EmbeddedChannel(new WebSocketCodecHandler());
+        var frame = new BinaryWebSocketFrame(buffer);
+        try {
+            channel.writeInbound(frame);
+            Assert.fail();
+        } catch (DecoderException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        Assert.assertEquals(0, frame.refCnt());
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * mergeFrame模式下flush之前写入的包合并到一个帧中，flush以后才发送，写入的promise在帧发送以后完成
+     */
+    @Test
+    public void mergeFlushTest() {
+        var channel = new EmbeddedChannel(new WebSocketCodecHandler(true));
+        var future1 = channel.write(EncodedPacketInfo.valueOf(Pong.valueOf(1), null));
+        var future2 = channel.write(EncodedPacketInfo.valueOf(Pong.valueOf(2), null));
+        // 已经编码好的包同样可以合并
+        channel.write(new BinaryWebSocketFrame(encode(3)));
+        Assert.assertFalse(future1.isDone());
+        Assert.assertFalse(future2.isDone());
+
+        channel.flush();
+        Assert.assertTrue(future1.isSuccess());
+        Assert.assertTrue(future2.isSuccess());
+        BinaryWebSocketFrame frame = channel.readOutbound();
+        Assert.assertNull(channel.readOutbound());
+
+        // 合并的帧可以按照同样的格式依次解码
+        var decoder = new EmbeddedChannel(new WebSocketCodecHandler());
+        decoder.writeInbound(frame);
+        assertPong(decoder, 1);
+        assertPong(decoder, 2);
+        assertPong(decoder, 3);
+        Assert.assertNull(decoder.readInbound());
+
+        // 没有写入的包，flush不会发送空帧
+        channel.flush();
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertFalse(channel.finish());
+        Assert.assertFalse(decoder.finish());
+    }
+
+}
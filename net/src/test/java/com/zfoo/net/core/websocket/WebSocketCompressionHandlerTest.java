@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.core.websocket;
+
+import com.zfoo.net.handler.codec.websocket.WebSocketCompressionHandler;
+import com.zfoo.protocol.util.IOUtils;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CorruptedWebSocketFrameException;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class WebSocketCompressionHandlerTest {
+
+    /**
+     * 和permessage-deflate一样压缩，并且去掉结尾的0x00 0x00 0xff 0xff
+     */
+    private byte[] deflate(Deflater deflater, byte[] bytes) {
+        deflater.setInput(bytes);
+        var buffer = new byte[bytes.length + 1024];
+        var length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        return Arrays.copyOf(buffer, length - 4);
+    }
+
+    private EmbeddedChannel newChannel(int maxInflatedBytes) {
+        return new EmbeddedChannel(new WebSocketCompressionHandler.InflateDecoder(maxInflatedBytes, false));
+    }
+
+    @Test
+    public void inflateTest() {
+        var channel = newChannel(WebSocketCompressionHandler.DEFAULT_MAX_INFLATED_BYTES);
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        // 同一个连接的多个消息共享压缩的上下文
+        for (var i = 0; i < 3; i++) {
+            var bytes = ("hello zfoo websocket " + i).repeat(100).getBytes();
+            channel.writeInbound(new BinaryWebSocketFrame(true, WebSocketExtension.RSV1, Unpooled.wrappedBuffer(deflate(deflater, bytes))));
+            BinaryWebSocketFrame frame = channel.readInbound();
+            Assert.assertEquals(0, frame.rsv());
+            Assert.assertArrayEquals(bytes, ByteBufUtil.getBytes(frame.content()));
+            frame.release();
+        }
+
+        // 没有RSV1标记的消息没有压缩，直接传递
+        var plain = Unpooled.wrappedBuffer(new byte[]{1, 2, 3});
+        channel.writeInbound(new BinaryWebSocketFrame(plain));
+        WebSocketFrame frame = channel.readInbound();
+        Assert.assertSame(plain, frame.content());
+        frame.release();
+
+        deflater.end();
+        Assert.assertFalse(channel.finish());
+    }
+
+    @Test
+    public void fragmentTest() {
+        var channel = newChannel(WebSocketCompressionHandler.DEFAULT_MAX_INFLATED_BYTES);
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        var bytes = "fragmented message".repeat(100).getBytes();
+        var deflated = deflate(deflater, bytes);
+        var half = deflated.length / 2;
+
+        // 只有第一个帧有RSV1的标记
+        channel.writeInbound(new BinaryWebSocketFrame(false, WebSocketExtension.RSV1, Unpooled.wrappedBuffer(deflated, 0, half)));
+        channel.writeInbound(new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(deflated, half, deflated.length - half)));
+
+        WebSocketFrame first = channel.readInbound();
+        WebSocketFrame last = channel.readInbound();
+        Assert.assertTrue(last instanceof ContinuationWebSocketFrame);
+        Assert.assertTrue(last.isFinalFragment());
+        var inflated = Unpooled.wrappedBuffer(first.content(), last.content());
+        Assert.assertArrayEquals(bytes, ByteBufUtil.getBytes(inflated));
+        inflated.release();
+
+        deflater.end();
+        Assert.assertFalse(channel.finish());
+    }
+
+    /**
+     * 几KB的压缩帧解压出4MB的数据，超过限制以后断开连接，不会把所有的数据都解压出来
+     */
+    @Test
+    public void decompressionBombTest() {
+        var channel = newChannel(IOUtils.BYTES_PER_MB);
+        var deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        var deflated = deflate(deflater, new byte[4 * IOUtils.BYTES_PER_MB]);
+        Assert.assertTrue(deflated.length < 64 * IOUtils.BYTES_PER_KB);
+
+        var frame = new BinaryWebSocketFrame(true, WebSocketExtension.RSV1, Unpooled.wrappedBuffer(deflated));
+        try {
+            channel.writeInbound(frame);
+            Assert.fail();
+        } catch (CorruptedWebSocketFrameException e) {
+            Assert.assertEquals(0, frame.refCnt());
+        }
+        Assert.assertNull(channel.readInbound());
+
+        deflater.end();
+        channel.finishAndReleaseAll();
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.packet.gateway;
+
+import com.zfoo.net.core.gateway.IGatewayLoadBalancer;
+import com.zfoo.protocol.IPacket;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class GatewayLoadBalancerRequest implements IPacket, IGatewayLoadBalancer {
+
+    public static final transient short PROTOCOL_ID = 5002;
+
+    private long groupId;
+
+    private String message;
+
+    @Override
+    public short protocolId() {
+        return PROTOCOL_ID;
+    }
+
+    @Override
+    public Object loadBalancerConsistentHashObject() {
+        return groupId;
+    }
+
+    public long getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(long groupId) {
+        this.groupId = groupId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+}
@@ -14,13 +14,27 @@
 package com.zfoo.net.protocol;
 
 import com.zfoo.net.NetContext;
+import com.zfoo.net.SharedContext;
+import com.zfoo.net.core.gateway.IGatewayLoadBalancer;
+import com.zfoo.net.handler.codec.tcp.TcpCodecHandler;
 import com.zfoo.net.packet.*;
+import com.zfoo.net.packet.common.Heartbeat;
+import com.zfoo.net.packet.gateway.GatewayLoadBalancerRequest;
 import com.zfoo.net.packet.model.DecodedPacketInfo;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
 import com.zfoo.net.packet.service.IPacketService;
+import com.zfoo.net.packet.service.PacketCompressor;
 import com.zfoo.net.packet.service.PacketService;
+import com.zfoo.net.router.attachment.GatewayAttachment;
 import com.zfoo.net.router.attachment.SignalAttachment;
+import com.zfoo.protocol.IPacket;
+import com.zfoo.protocol.buffer.ByteBufUtils;
+import com.zfoo.util.math.HashUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
 import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
@@ -36,7 +50,7 @@ import java.util.Set;
  */
 public class ProtocolTest {
 
-    private static final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("config.xml");
+    private static final ClassPathXmlApplicationContext context = SharedContext.init();
     private static final IPacketService packetService = NetContext.getPacketService();
 
     private static final SignalAttachment attachment = new SignalAttachment();
@@ -248,4 +262,309 @@ public class ProtocolTest {
         Assert.assertNull(packetInfo.getAttachment());
     }
 
+    @Test
+    public void testBatch() {
+        CM_Int cm = new CM_Int();
+        cm.setA(Byte.MIN_VALUE);
+        cm.setF("batch");
+        CM_Object cmObject = new CM_Object();
+        cmObject.setA(Integer.MAX_VALUE);
+        cmObject.setB(objectA0);
+
+        var packetInfos = List.of(EncodedPacketInfo.valueOf(cm, attachment), EncodedPacketInfo.valueOf(cmObject, null), EncodedPacketInfo.valueOf(cm, null));
+
+        ByteBuf writeBuff = Unpooled.buffer();
+        packetService.writeBatch(writeBuff, packetInfos);
+
+        // 帧的长度是除了长度本身以外的所有字节
+        Assert.assertEquals(writeBuff.readableBytes() - PacketService.PACKET_HEAD_LENGTH, writeBuff.getInt(0));
+        writeBuff.readerIndex(PacketService.PACKET_HEAD_LENGTH);// 信息头的长度
+        Assert.assertTrue(packetService.isBatch(writeBuff));
+
+        var out = new ArrayList<Object>();
+        packetService.readBatch(writeBuff, out);
+
+        Assert.assertEquals(packetInfos.size(), out.size());
+        for (var i = 0; i < packetInfos.size(); i++) {
+            var packetInfo = (DecodedPacketInfo) out.get(i);
+            Assert.assertEquals(packetInfos.get(i).getPacket(), packetInfo.getPacket());
+            Assert.assertEquals(packetInfos.get(i).getAttachment(), packetInfo.getAttachment());
+        }
+        Assert.assertFalse(writeBuff.isReadable());
+    }
+
+    @Test
+    public void testNotBatch() {
+        CM_Int cm = new CM_Int();
+        cm.setF("single");
+
+        ByteBuf writeBuff = Unpooled.buffer();
+        packetService.write(writeBuff, cm, null);
+        writeBuff.readerIndex(PacketService.PACKET_HEAD_LENGTH);// 信息头的长度
+
+        Assert.assertFalse(packetService.isBatch(writeBuff));
+    }
+
+    @Test
+    public void testReadBatchIllegalCount() {
+        // 一个只有6个字节的帧声称有Integer.MAX_VALUE个包
+        ByteBuf writeBuff = Unpooled.buffer();
+        ByteBufUtils.writeShort(writeBuff, PacketService.BATCH_PROTOCOL_ID);
+        ByteBufUtils.writeInt(writeBuff, Integer.MAX_VALUE);
+        var out = new ArrayList<Object>();
+        try {
+            packetService.readBatch(writeBuff, out);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(out.isEmpty());
+        }
+    }
+
+    @Test
+    public void testBatchFrameNotAllowed() {
+        CM_Int cm = new CM_Int();
+        cm.setF("batch");
+        var packetInfos = List.of(EncodedPacketInfo.valueOf(cm, null), EncodedPacketInfo.valueOf(cm, null));
+
+        // 面向客户端的连接不允许多包的帧
+        ByteBuf writeBuff = Unpooled.buffer();
+        packetService.writeBatch(writeBuff, packetInfos);
+        var channel = new EmbeddedChannel(new TcpCodecHandler());
+        try {
+            channel.writeInbound(writeBuff);
+            Assert.fail();
+        } catch (DecoderException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        channel.finishAndReleaseAll();
+
+        // consumer和provider之间的连接拆成多个包
+        writeBuff = Unpooled.buffer();
+        packetService.writeBatch(writeBuff, packetInfos);
+        channel = new EmbeddedChannel(new TcpCodecHandler(true, true));
+        channel.writeInbound(writeBuff);
+        for (var i = 0; i < packetInfos.size(); i++) {
+            DecodedPacketInfo packetInfo = channel.readInbound();
+            Assert.assertEquals(cm, packetInfo.getPacket());
+        }
+        Assert.assertFalse(channel.finish());
+    }
+
+    @Test
+    public void testCompress() {
+        CM_Int cm = new CM_Int();
+        cm.setF("compress".repeat(1000));
+
+        ByteBuf writeBuff = Unpooled.buffer();
+        packetService.write(writeBuff, cm, attachment);
+        var rawBody = ByteBufUtil.getBytes(writeBuff, PacketService.PACKET_HEAD_LENGTH, writeBuff.readableBytes() - PacketService.PACKET_HEAD_LENGTH);
+
+        Assert.assertTrue(PacketCompressor.compress(writeBuff, PacketService.PACKET_HEAD_LENGTH, cm.protocolId()));
+        Assert.assertTrue(writeBuff.readableBytes() - PacketService.PACKET_HEAD_LENGTH < rawBody.length);
+        writeBuff.readerIndex(PacketService.PACKET_HEAD_LENGTH);// 信息头的长度
+        Assert.assertTrue(PacketCompressor.isCompress(writeBuff));
+
+        // 没有开启压缩的channel不接受压缩的帧
+        try {
+            packetService.read(writeBuff.duplicate(), false);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // 压缩的帧被拒绝
+        }
+
+        var body = PacketCompressor.decompress(writeBuff);
+        try {
+            Assert.assertArrayEquals(rawBody, ByteBufUtil.getBytes(body));
+            Assert.assertFalse(writeBuff.isReadable());
+
+            DecodedPacketInfo packetInfo = packetService.read(body);
+            Assert.assertEquals(packetInfo.getPacket(), cm);
+            Assert.assertEquals(packetInfo.getAttachment(), attachment);
+        } finally {
+            body.release();
+        }
+    }
+
+    @Test
+    public void testCompressIncompressible() {
+        CM_Int cm = new CM_Int();
+        cm.setF("x");
+
+        ByteBuf writeBuff = Unpooled.buffer();
+        packetService.write(writeBuff, cm, null);
+        var length = writeBuff.readableBytes();
+
+        // 压缩后没有变小则不修改原来的包体
+        Assert.assertFalse(PacketCompressor.compress(writeBuff, PacketService.PACKET_HEAD_LENGTH, cm.protocolId()));
+        Assert.assertEquals(length, writeBuff.readableBytes());
+    }
+
+    @Test
+    public void testDecompressIllegalRawLength() {
+        for (var rawLength : new int[]{0, -1, PacketCompressor.MAX_DECOMPRESS_LENGTH + 1}) {
+            ByteBuf buffer = Unpooled.buffer();
+            ByteBufUtils.writeShort(buffer, PacketService.COMPRESS_PROTOCOL_ID);
+            ByteBufUtils.writeInt(buffer, rawLength);
+            buffer.writeBytes(new byte[16]);
+            try {
+                PacketCompressor.decompress(buffer);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // 非法的长度在解压缩之前被拒绝
+            }
+        }
+
+        // rawLength和实际解压缩以后的长度不一致
+        CM_Int cm = new CM_Int();
+        cm.setF("compress".repeat(1000));
+        ByteBuf writeBuff = Unpooled.buffer();
+        packetService.write(writeBuff, cm, null);
+        var rawLength = writeBuff.readableBytes() - PacketService.PACKET_HEAD_LENGTH;
+        Assert.assertTrue(PacketCompressor.compress(writeBuff, PacketService.PACKET_HEAD_LENGTH, cm.protocolId()));
+        writeBuff.readerIndex(PacketService.PACKET_HEAD_LENGTH);
+        ByteBufUtils.readShort(writeBuff);
+        ByteBufUtils.readInt(writeBuff);
+        var deflated = ByteBufUtil.getBytes(writeBuff);
+        for (var illegalLength : new int[]{rawLength - 1, rawLength + 1}) {
+            ByteBuf buffer = Unpooled.buffer();
+            ByteBufUtils.writeShort(buffer, PacketService.COMPRESS_PROTOCOL_ID);
+            ByteBufUtils.writeInt(buffer, illegalLength);
+            buffer.writeBytes(deflated);
+            try {
+                PacketCompressor.decompress(buffer);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // 解压缩的长度不一致
+            }
+        }
+    }
+
+    /**
+     * 客户端的原始帧经过网关透传，provider解码出来的附加包是网关的GatewayAttachment，里面带着客户端的附加包
+     */
+    @Test
+    public void testForwardWithAttachment() {
+        CM_Int cm = new CM_Int();
+        cm.setF("forward");
+
+        var clientAttachment = new SignalAttachment();
+        clientAttachment.setSignalId(99);
+        clientAttachment.setClient(true);
+
+        var packetInfo = forward(cm, clientAttachment, false);
+        Assert.assertEquals(cm, packetInfo.getPacket());
+
+        var gatewayAttachment = (GatewayAttachment) packetInfo.getAttachment();
+        Assert.assertEquals(1L, gatewayAttachment.getSid());
+        Assert.assertEquals(2L, gatewayAttachment.getUid());
+        Assert.assertEquals(3L, gatewayAttachment.deadline());
+        Assert.assertEquals(HashUtils.fnvHash(2L), gatewayAttachment.executorConsistentHash());
+        Assert.assertEquals(clientAttachment, gatewayAttachment.getSignalAttachment());
+    }
+
+    @Test
+    public void testForwardWithoutAttachment() {
+        CM_Object cm = new CM_Object();
+        cm.setA(Integer.MIN_VALUE);
+        cm.setB(objectA0);
+
+        var packetInfo = forward(cm, null, false);
+        Assert.assertEquals(cm, packetInfo.getPacket());
+
+        var gatewayAttachment = (GatewayAttachment) packetInfo.getAttachment();
+        Assert.assertEquals(2L, gatewayAttachment.getUid());
+        Assert.assertNull(gatewayAttachment.getSignalAttachment());
+    }
+
+    /**
+     * 实现了IGatewayLoadBalancer的包在网关就需要解码，用来计算一致性hash，其它的包只有在网关需要过滤包的时候才解码
+     */
+    @Test
+    public void testForwardGatewayLoadBalancer() {
+        var request = new GatewayLoadBalancerRequest();
+        request.setGroupId(Long.MAX_VALUE);
+        request.setMessage("group");
+
+        var packetInfo = forward(request, attachment, false);
+        Assert.assertEquals(GatewayLoadBalancerRequest.PROTOCOL_ID, packetInfo.getPacket().protocolId());
+        var gatewayAttachment = (GatewayAttachment) packetInfo.getAttachment();
+        Assert.assertTrue(gatewayAttachment.isUseExecutorConsistentHash());
+        Assert.assertEquals(HashUtils.fnvHash(Long.MAX_VALUE), gatewayAttachment.executorConsistentHash());
+        Assert.assertEquals(attachment, gatewayAttachment.getSignalAttachment());
+
+        CM_Int cm = new CM_Int();
+        cm.setF("filter");
+        Assert.assertEquals(cm, forward(cm, null, true).getPacket());
+    }
+
+    @Test
+    public void testReadForwardIllegal() {
+        // 网关自己处理的包不透传
+        ByteBuf writeBuff = Unpooled.buffer();
+        packetService.write(writeBuff, new Heartbeat(), null);
+        writeBuff.readerIndex(PacketService.PACKET_HEAD_LENGTH);
+        Assert.assertNull(packetService.readForward(writeBuff, false));
+
+        // 客户端不能发送多包，透传和压缩的帧
+        for (var protocolId : new short[]{PacketService.BATCH_PROTOCOL_ID, PacketService.GATEWAY_FORWARD_PROTOCOL_ID, PacketService.COMPRESS_PROTOCOL_ID}) {
+            ByteBuf buffer = Unpooled.buffer();
+            ByteBufUtils.writeShort(buffer, protocolId);
+            buffer.writeBytes(new byte[16]);
+            try {
+                packetService.readForward(buffer, false);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // 非法的协议号
+            }
+        }
+    }
+
+    /**
+     * 模拟网关的透传：客户端编码，网关readForward，writeForwardHead加上头部，provider使用read解码
+     */
+    private DecodedPacketInfo forward(IPacket packet, SignalAttachment clientAttachment, boolean decodePacket) {
+        ByteBuf clientBuff = Unpooled.buffer();
+        packetService.write(clientBuff, packet, clientAttachment);
+        clientBuff.readerIndex(PacketService.PACKET_HEAD_LENGTH);// 信息头的长度
+
+        var forwardPacketInfo = packetService.readForward(clientBuff, decodePacket);
+        Assert.assertEquals(packet.protocolId(), forwardPacketInfo.getProtocolId());
+        // 读取协议号和解码包体都不会改变读取的位置
+        Assert.assertEquals(PacketService.PACKET_HEAD_LENGTH, clientBuff.readerIndex());
+
+        var decoded = forwardPacketInfo.getPacket();
+        if (decodePacket || packet instanceof IGatewayLoadBalancer) {
+            Assert.assertEquals(packet.protocolId(), decoded.protocolId());
+        } else {
+            Assert.assertNull(decoded);
+        }
+
+        var gatewayAttachment = new GatewayAttachment(1, 2);
+        gatewayAttachment.setClient(true);
+        gatewayAttachment.setDeadline(3);
+        if (decoded instanceof IGatewayLoadBalancer) {
+            gatewayAttachment.useExecutorConsistentHash(((IGatewayLoadBalancer) decoded).loadBalancerConsistentHashObject());
+        }
+
+        var frame = forwardPacketInfo.getFrame();
+        ByteBuf head = Unpooled.buffer();
+        packetService.writeForwardHead(head, gatewayAttachment, frame.readableBytes());
+        var writeBuff = Unpooled.compositeBuffer(2).addComponents(true, head, frame.retain());
+        forwardPacketInfo.release();
+
+        // 帧的长度是除了长度本身以外的所有字节
+        Assert.assertEquals(writeBuff.readableBytes() - PacketService.PACKET_HEAD_LENGTH, writeBuff.getInt(0));
+        writeBuff.readerIndex(PacketService.PACKET_HEAD_LENGTH);// 信息头的长度
+        Assert.assertFalse(packetService.isBatch(writeBuff));
+
+        try {
+            var packetInfo = packetService.read(writeBuff);
+            Assert.assertFalse(writeBuff.isReadable());
+            return packetInfo;
+        } finally {
+            writeBuff.release();
+            clientBuff.release();
+        }
+    }
+
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router;
+
+import com.zfoo.net.router.attachment.GatewayAttachment;
+import com.zfoo.net.router.attachment.SignalAttachment;
+import com.zfoo.net.router.route.Deadline;
+import com.zfoo.net.router.route.SignalBridge;
+import com.zfoo.scheduler.util.TimeUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class DeadlineTest {
+
+    @Test
+    public void expiredTest() {
+        var attachment = new SignalAttachment();
+        Assert.assertFalse(Deadline.isExpired(attachment));
+
+        attachment.setDeadline(TimeUtils.currentTimeMillis() - 1);
+        Assert.assertTrue(Deadline.isExpired(attachment));
+
+        attachment.setDeadline(TimeUtils.currentTimeMillis() + 10_000);
+        Assert.assertFalse(Deadline.isExpired(attachment));
+
+    }
+
+    @Test
+    public void gatewayDeadlineTest() {
+        // 客户端附加包中的截止时间不可信任，网关的附加包只使用网关自己设置的截止时间
+        var clientAttachment = new SignalAttachment();
+        clientAttachment.setDeadline(TimeUtils.currentTimeMillis() - 1);
+        var gatewayAttachment = new GatewayAttachment(1, 1);
+        gatewayAttachment.setSignalAttachment(clientAttachment);
+        Assert.assertEquals(0, gatewayAttachment.deadline());
+        Assert.assertFalse(Deadline.isExpired(gatewayAttachment));
+
+        clientAttachment.setDeadline(TimeUtils.currentTimeMillis() + 100_000);
+        Assert.assertEquals(0, gatewayAttachment.deadline());
+
+        // 网关转发的时候按照自己的超时时间设置截止时间
+        var timeout = SignalBridge.timeout((short) 103);
+        gatewayAttachment.setDeadline(Deadline.askDeadline(timeout));
+        Assert.assertEquals(gatewayAttachment.getDeadline(), gatewayAttachment.deadline());
+        Assert.assertTrue(Deadline.remaining(gatewayAttachment.deadline()) <= timeout);
+        Assert.assertFalse(Deadline.isExpired(gatewayAttachment));
+
+        gatewayAttachment.setDeadline(TimeUtils.currentTimeMillis() - 1);
+        Assert.assertTrue(Deadline.isExpired(gatewayAttachment));
+    }
+
+    @Test
+    public void inheritTest() {
+        // 没有正在处理的请求，使用自己的超时时间
+        var deadline = Deadline.askDeadline(3000);
+        Assert.assertTrue(deadline - TimeUtils.currentTimeMillis() > 2000);
+
+        // 正在处理的请求只剩下100毫秒，嵌套的请求不能超过100毫秒
+        var attachment = new SignalAttachment();
+        attachment.setDeadline(TimeUtils.currentTimeMillis() + 100);
+        var previous = Deadline.enter(attachment);
+        try {
+            Assert.assertEquals(attachment.getDeadline(), Deadline.askDeadline(3000));
+            Assert.assertTrue(Deadline.remaining(Deadline.askDeadline(3000)) <= 100);
+        } finally {
+            Deadline.exit(previous);
+        }
+        Assert.assertEquals(0, Deadline.current());
+    }
+
+    @Test
+    public void shedTest() {
+        var protocolId = (short) 12345;
+        var before = Deadline.shedCount(protocolId);
+        Deadline.shed(protocolId);
+        Deadline.shed(protocolId);
+        Assert.assertEquals(before + 2, Deadline.shedCount(protocolId));
+        Assert.assertTrue(Deadline.shedTotal() >= 2);
+    }
+
+}
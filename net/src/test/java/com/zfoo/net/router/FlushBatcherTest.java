@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router;
+
+import com.zfoo.net.SharedContext;
+import com.zfoo.net.handler.BaseRouteHandler;
+import com.zfoo.net.router.route.FlushBatcher;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.net.util.SessionUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * config.xml中配置了flush-mode="task"，flush-max-packets="4"，flush-max-bytes="1024"，flush-max-delay="100"
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class FlushBatcherTest {
+
+    private static final int MAX_PACKETS = 4;
+    private static final int MAX_BYTES = 1024;
+    private static final int MAX_DELAY = 100;
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+    }
+
+    @After
+    public void checkEnd() {
+        // 每个测试都需要和begin()一一对应的调用end()，结束以后不再合并
+        Assert.assertFalse(FlushBatcher.write(newSession(), Unpooled.EMPTY_BUFFER));
+    }
+
+    /**
+     * 和编码器一样在io线程write的时候统计字节数，EmbeddedChannel的io线程就是当前线程
+     */
+    private Session newSession() {
+        return BaseRouteHandler.initChannel(new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                SessionUtils.recordWriteBytes(ctx, ((ByteBuf) msg).readableBytes());
+                ctx.write(msg, promise);
+            }
+        }));
+    }
+
+    private void write(Session session, int bytes) {
+        Assert.assertTrue(FlushBatcher.write(session, Unpooled.wrappedBuffer(new byte[bytes])));
+    }
+
+    /**
+     * 读出并且释放已经flush的消息
+     *
+     * @return flush出去的消息数量
+     */
+    private int flushed(Session session) {
+        var channel = (EmbeddedChannel) session.getChannel();
+        var count = 0;
+        ByteBuf buffer;
+        while ((buffer = channel.readOutbound()) != null) {
+            buffer.release();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void endTest() {
+        Assert.assertTrue(FlushBatcher.isEnable());
+        var session1 = newSession();
+        var session2 = newSession();
+
+        FlushBatcher.begin();
+        write(session1, 8);
+        write(session2, 8);
+        write(session1, 8);
+        Assert.assertEquals(0, flushed(session1));
+        Assert.assertEquals(0, flushed(session2));
+
+        // task执行完成，每个session只flush一次
+        FlushBatcher.end();
+        Assert.assertEquals(2, flushed(session1));
+        Assert.assertEquals(1, flushed(session2));
+        Assert.assertEquals(1, session1.getFlushCount());
+        Assert.assertEquals(1, session2.getFlushCount());
+    }
+
+    @Test
+    public void nestedTest() {
+        var session = newSession();
+
+        // continuation模式下嵌套执行的task结束的时候flush，但是外层的task继续合并
+        FlushBatcher.begin();
+        FlushBatcher.begin();
+        write(session, 8);
+        FlushBatcher.end();
+        Assert.assertEquals(1, flushed(session));
+
+        write(session, 8);
+        Assert.assertEquals(0, flushed(session));
+
+        // syncAsk阻塞等待之前flush，不结束合并
+        FlushBatcher.flush();
+        Assert.assertEquals(1, flushed(session));
+        write(session, 8);
+        Assert.assertEquals(0, flushed(session));
+
+        FlushBatcher.end();
+        Assert.assertEquals(1, flushed(session));
+        Assert.assertEquals(3, session.getFlushCount());
+    }
+
+    @Test
+    public void maxPacketsTest() {
+        var session = newSession();
+
+        FlushBatcher.begin();
+        for (var i = 1; i < MAX_PACKETS; i++) {
+            write(session, 8);
+        }
+        Assert.assertEquals(0, flushed(session));
+
+        write(session, 8);
+        Assert.assertEquals(MAX_PACKETS, flushed(session));
+        Assert.assertEquals(1, session.getFlushCount());
+
+        // flush以后重新计数
+        write(session, 8);
+        Assert.assertEquals(0, flushed(session));
+        FlushBatcher.end();
+        Assert.assertEquals(1, flushed(session));
+    }
+
+    @Test
+    public void maxBytesTest() {
+        var session = newSession();
+        var other = newSession();
+
+        FlushBatcher.begin();
+        write(other, 8);
+        write(session, MAX_BYTES / 2);
+        Assert.assertEquals(0, flushed(session));
+
+        // 只flush超过字节数的session
+        write(session, MAX_BYTES / 2);
+        Assert.assertEquals(2, flushed(session));
+        Assert.assertEquals(0, flushed(other));
+
+        FlushBatcher.end();
+        Assert.assertEquals(1, flushed(other));
+        Assert.assertEquals(0, flushed(session));
+        Assert.assertEquals(1, session.getFlushCount());
+    }
+
+    @Test
+    public void maxDelayTest() throws InterruptedException {
+        var session1 = newSession();
+        var session2 = newSession();
+
+        FlushBatcher.begin();
+        write(session1, 8);
+        Thread.sleep(MAX_DELAY + 20);
+        Assert.assertEquals(0, flushed(session1));
+
+        // 超过延迟以后在下一次发送时flush所有缓存的session
+        write(session2, 8);
+        Assert.assertEquals(1, flushed(session1));
+        Assert.assertEquals(1, flushed(session2));
+
+        // 重新开始计时
+        write(session1, 8);
+        Assert.assertEquals(0, flushed(session1));
+        FlushBatcher.end();
+        Assert.assertEquals(1, flushed(session1));
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.SharedContext;
+import com.zfoo.net.core.tcp.TcpClient;
+import com.zfoo.net.core.tcp.TcpServer;
+import com.zfoo.net.packet.common.Ping;
+import com.zfoo.net.packet.common.Pong;
+import com.zfoo.net.router.attachment.SignalAttachment;
+import com.zfoo.net.router.route.LocalBridge;
+import com.zfoo.net.router.route.SignalBridge;
+import com.zfoo.net.session.model.AttributeType;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.util.net.HostAndPort;
+import com.zfoo.util.net.NetUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * config.xml中配置了local-mode="reference"，在同一个进程中启动TcpServer和TcpClient
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class LocalBridgeTest {
+
+    private static TcpServer server;
+
+    private static Session clientSession;
+
+    private static Session serverSession;
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+
+        var hostAndPort = HostAndPort.valueOf("127.0.0.1", NetUtils.getAvailablePort());
+        server = new TcpServer(hostAndPort);
+        server.start();
+        clientSession = new TcpClient(hostAndPort).start();
+
+        // 和ZookeeperRegistry一样，先配对再设置CONSUMER
+        Assert.assertTrue(LocalBridge.isEnable());
+        Assert.assertTrue(LocalBridge.awaitPeer(clientSession, 3000));
+        serverSession = clientSession.getAttribute(AttributeType.LOCAL_PEER);
+        clientSession.putAttribute(AttributeType.CONSUMER, NetContext.getConfigManager().getLocalConfig().toLocalRegisterVO());
+    }
+
+    @AfterClass
+    public static void destroy() {
+        NetContext.getSessionManager().removeClientSession(clientSession);
+        server.shutdown();
+    }
+
+    @Test
+    public void linkTest() {
+        Assert.assertNotNull(serverSession);
+        Assert.assertSame(clientSession, serverSession.getAttribute(AttributeType.LOCAL_PEER));
+        Assert.assertEquals(clientSession.getChannel().localAddress(), serverSession.getChannel().remoteAddress());
+    }
+
+    /**
+     * 请求的附加包会被复制一份，provider收到的是自己的附加包，Router.receive在发送者的线程中执行
+     */
+    @Test
+    public void requestTest() {
+        var attachment = new SignalAttachment();
+        attachment.setClient(true);
+
+        var before = LocalBridge.localCount();
+        NetContext.getRouter().send(clientSession, new Ping(), attachment);
+        Assert.assertEquals(before + 1, LocalBridge.localCount());
+
+        // provider的receive把收到的附加包的client设置为false，发送者的附加包不受影响
+        Assert.assertTrue(attachment.isClient());
+    }
+
+    /**
+     * 回复在发送者的线程中直接完成consumer的请求，reference模式下consumer收到的就是provider发送的包
+     */
+    @Test
+    public void replyTest() {
+        var request = new SignalAttachment();
+        request.setResponseFuture(new CompletableFuture<>());
+        SignalBridge.addSignalAttachment(request);
+
+        var reply = new SignalAttachment();
+        reply.setSignalId(request.getSignalId());
+        reply.setClient(false);
+        var pong = Pong.valueOf(1);
+        NetContext.getRouter().send(serverSession, pong, reply);
+
+        Assert.assertTrue(request.getResponseFuture().isDone());
+        Assert.assertSame(pong, request.getResponseFuture().getNow(null));
+        Assert.assertNull(SignalBridge.removeSignalAttachment(request));
+    }
+
+    @Test
+    public void callbackTest() {
+        var request = new SignalAttachment();
+        var response = new AtomicReference<Object>();
+        request.setResponseCallback(Runnable::run, () -> response.set(request.getResponsePacket()));
+        SignalBridge.addSignalAttachment(request, 3000);
+
+        var reply = new SignalAttachment();
+        reply.setSignalId(request.getSignalId());
+        reply.setClient(false);
+        var pong = Pong.valueOf(2);
+        NetContext.getRouter().send(serverSession, pong, reply);
+
+        Assert.assertSame(pong, response.get());
+    }
+
+    /**
+     * copy模式下传递的是通过协议深拷贝的包
+     */
+    @Test
+    public void copyTest() {
+        var pong = Pong.valueOf(3);
+        var copy = (Pong) LocalBridge.copy(pong);
+        Assert.assertNotSame(pong, copy);
+        Assert.assertEquals(pong.getTime(), copy.getTime());
+
+        var attachment = new SignalAttachment();
+        attachment.setClient(true);
+        var copyAttachment = (SignalAttachment) LocalBridge.copy(attachment);
+        Assert.assertNotSame(attachment, copyAttachment);
+        Assert.assertEquals(attachment.getSignalId(), copyAttachment.getSignalId());
+        Assert.assertTrue(copyAttachment.isClient());
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.router;
+
+import com.zfoo.net.SharedContext;
+import com.zfoo.net.handler.BaseRouteHandler;
+import com.zfoo.net.packet.common.Ping;
+import com.zfoo.net.packet.common.Pong;
+import com.zfoo.net.packet.model.EncodedPacketInfo;
+import com.zfoo.net.router.route.OutboundQueue;
+import com.zfoo.net.session.model.Session;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * config.xml中配置了outbound-capacity="16"，outbound-coalesce="104"（Pong）
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class OutboundQueueTest {
+
+    private static final int CAPACITY = 16;
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+    }
+
+    /**
+     * 写入一个没有flush的大包，让channel超过高水位变为不可写
+     */
+    private Session unwritableSession() {
+        var channel = new EmbeddedChannel();
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1024, 2048));
+        var session = BaseRouteHandler.initChannel(channel);
+        channel.write(Unpooled.wrappedBuffer(new byte[4096]));
+        Assert.assertFalse(channel.isWritable());
+        return session;
+    }
+
+    @Test
+    public void writableTest() {
+        Assert.assertTrue(OutboundQueue.isEnable());
+        var channel = new EmbeddedChannel();
+        var session = BaseRouteHandler.initChannel(channel);
+        // channel可写并且队列为空的时候由调用者直接发送
+        Assert.assertFalse(OutboundQueue.write(session, EncodedPacketInfo.valueOf(new Ping(), null)));
+        Assert.assertEquals(0, OutboundQueue.pendingPackets(session));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void coalesceAndDrainOrderTest() {
+        var session = unwritableSession();
+        var channel = (EmbeddedChannel) session.getChannel();
+
+        var ping1 = EncodedPacketInfo.valueOf(new Ping(), null);
+        var pong1 = EncodedPacketInfo.valueOf(Pong.valueOf(1), null);
+        var ping2 = EncodedPacketInfo.valueOf(new Ping(), null);
+        var pong2 = EncodedPacketInfo.valueOf(Pong.valueOf(2), null);
+        var buffer = Unpooled.wrappedBuffer(new byte[]{1, 2, 3, 4});
+
+        Assert.assertTrue(OutboundQueue.write(session, ping1));
+        Assert.assertTrue(OutboundQueue.write(session, pong1));
+        Assert.assertTrue(OutboundQueue.write(session, ping2));
+        // 合并的协议只保留最新的一个，位置为第一次放入队列的位置
+        Assert.assertTrue(OutboundQueue.write(session, pong2));
+        // 已经编码好的消息同样排在队列中
+        Assert.assertTrue(OutboundQueue.write(session, buffer));
+        Assert.assertEquals(4, OutboundQueue.pendingPackets(session));
+
+        // 发送缓冲区中的大包写出去以后channel重新变为可写
+        channel.flush();
+        Assert.assertTrue(channel.isWritable());
+        OutboundQueue.drain(session);
+        Assert.assertEquals(0, OutboundQueue.pendingPackets(session));
+
+        ByteBuf first = channel.readOutbound();
+        Assert.assertEquals(4096, first.readableBytes());
+        first.release();
+        Assert.assertSame(ping1, channel.readOutbound());
+        Assert.assertSame(pong2, channel.readOutbound());
+        Assert.assertSame(ping2, channel.readOutbound());
+        Assert.assertSame(buffer, channel.readOutbound());
+        Assert.assertNull(channel.readOutbound());
+        buffer.release();
+
+        // 队列为空并且channel可写，不再经过队列
+        Assert.assertFalse(OutboundQueue.write(session, EncodedPacketInfo.valueOf(new Ping(), null)));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void overflowCloseTest() {
+        var session = unwritableSession();
+        var channel = (EmbeddedChannel) session.getChannel();
+
+        var buffer = Unpooled.wrappedBuffer(new byte[]{1, 2, 3, 4});
+        Assert.assertTrue(OutboundQueue.write(session, buffer));
+        for (var i = 2; i < CAPACITY; i++) {
+            Assert.assertTrue(OutboundQueue.write(session, EncodedPacketInfo.valueOf(new Ping(), null)));
+        }
+        // 合并的协议只占用队列中的一个位置
+        for (var i = 0; i < CAPACITY; i++) {
+            Assert.assertTrue(OutboundQueue.write(session, EncodedPacketInfo.valueOf(Pong.valueOf(i), null)));
+        }
+        Assert.assertEquals(CAPACITY, OutboundQueue.pendingPackets(session));
+        Assert.assertTrue(channel.isActive());
+        Assert.assertEquals(1, buffer.refCnt());
+
+        // 超过容量，丢弃队列中的消息并且断开连接
+        Assert.assertTrue(OutboundQueue.write(session, EncodedPacketInfo.valueOf(new Ping(), null)));
+        Assert.assertFalse(channel.isActive());
+        Assert.assertEquals(0, OutboundQueue.pendingPackets(session));
+        Assert.assertEquals(0, buffer.refCnt());
+
+        // 断开以后放入的消息直接释放
+        var late = Unpooled.wrappedBuffer(new byte[]{5});
+        Assert.assertTrue(OutboundQueue.write(session, late));
+        Assert.assertEquals(0, late.refCnt());
+        channel.finishAndReleaseAll();
+    }
+
+}
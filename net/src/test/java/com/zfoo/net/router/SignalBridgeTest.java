@@ -16,23 +16,27 @@ import com.zfoo.event.manager.EventBus;
 import com.zfoo.net.router.attachment.SignalAttachment;
 import com.zfoo.net.router.route.SignalBridge;
 import com.zfoo.scheduler.util.TimeUtils;
+import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author godotg
  * @version 3.0
  */
-@Ignore
 public class SignalBridgeTest {
 
     private final int executorSize = EventBus.EXECUTORS_SIZE;
     private final int count = 100_0000;
     private final int totalIndex = 10;
 
+    @Ignore
     @Test
     public void test() throws InterruptedException {
         for (int i = 0; i < 10; i++) {
@@ -42,6 +46,49 @@ public class SignalBridgeTest {
         System.out.println(SignalAttachment.ATOMIC_ID.get());
     }
 
+    @Ignore
+    @Test
+    public void timeoutTest() throws InterruptedException {
+        var count = 10_0000;
+        var countDownLatch = new CountDownLatch(count);
+        var startTime = TimeUtils.currentTimeMillis();
+        for (var i = 0; i < count; i++) {
+            var signalAttachment = new SignalAttachment();
+            signalAttachment.setResponseCallback(Runnable::run, () -> {
+                Assert.assertNull(signalAttachment.getResponsePacket());
+                countDownLatch.countDown();
+            });
+            SignalBridge.addSignalAttachment(signalAttachment, 100 + i % 1000);
+        }
+        Assert.assertTrue(countDownLatch.await(10, TimeUnit.SECONDS));
+        System.out.println(TimeUtils.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * 收到回复之后时间轮不再持有附加包，不用等到超时的时间就可以被回收
+     */
+    @Test
+    public void answeredReleaseTest() throws InterruptedException {
+        var signalAttachment = new SignalAttachment();
+        var callbackCount = new AtomicInteger(0);
+        signalAttachment.setResponseCallback(Runnable::run, callbackCount::incrementAndGet);
+        SignalBridge.addSignalAttachment(signalAttachment, TimeUnit.MINUTES.toMillis(1));
+        var signalId = signalAttachment.getSignalId();
+
+        // 等时间轮把请求放到格子里
+        Thread.sleep(100);
+        Assert.assertSame(signalAttachment, SignalBridge.removeSignalAttachment(signalId));
+
+        var reference = new WeakReference<>(signalAttachment);
+        signalAttachment = null;
+        for (var i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull(reference.get());
+        Assert.assertEquals(0, callbackCount.get());
+    }
+
     public void arrayTest() throws InterruptedException {
         var startTime = TimeUtils.currentTimeMillis();
 
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.session;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.SharedContext;
+import com.zfoo.net.handler.BaseRouteHandler;
+import com.zfoo.net.handler.codec.tcp.TcpCodecHandler;
+import com.zfoo.net.handler.codec.websocket.WebSocketCodecHandler;
+import com.zfoo.net.packet.common.Pong;
+import com.zfoo.net.router.route.OutboundQueue;
+import com.zfoo.net.session.model.Session;
+import com.zfoo.net.session.model.SessionGroup;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * config.xml中配置了outbound-capacity，不可写的session的广播放入发送队列
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class SessionGroupTest {
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+    }
+
+    private Session tcpSession() {
+        return BaseRouteHandler.initChannel(new EmbeddedChannel(new TcpCodecHandler()));
+    }
+
+    /**
+     * 广播的时候已经断开连接的session，还没有触发closeFuture离开广播组
+     */
+    private Session inactiveSession() {
+        return BaseRouteHandler.initChannel(new EmbeddedChannel(new TcpCodecHandler()) {
+            @Override
+            public boolean isActive() {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * 写入一个没有flush的大包，让channel超过高水位变为不可写
+     */
+    private Session unwritableSession() {
+        var channel = new EmbeddedChannel(new TcpCodecHandler());
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1024, 2048));
+        var session = BaseRouteHandler.initChannel(channel);
+        channel.write(Unpooled.wrappedBuffer(new byte[4096]));
+        Assert.assertFalse(channel.isWritable());
+        return session;
+    }
+
+    private byte[] encode(Pong pong) {
+        var buffer = Unpooled.buffer();
+        NetContext.getPacketService().write(buffer, pong, null);
+        var bytes = ByteBufUtil.getBytes(buffer);
+        buffer.release();
+        return bytes;
+    }
+
+    /**
+     * 广播包只编码一次，每个发送的成员收到自己的retainedDuplicate，引用计数为1，释放一次以后就被回收；被跳过的成员不会收到
+     * <p>
+     * 池化的ByteBuf的retainedDuplicate有自己的引用计数，所以只检查每个成员收到的ByteBuf，不检查原始的ByteBuf
+     */
+    @Test
+    public void refCountTest() {
+        var tcp1 = tcpSession();
+        var tcp2 = tcpSession();
+        var websocket = BaseRouteHandler.initChannel(new EmbeddedChannel(new WebSocketCodecHandler()));
+        var inactive = inactiveSession();
+        var unwritable = unwritableSession();
+
+        var group = new SessionGroup(1);
+        for (var session : new Session[]{tcp1, tcp2, websocket, inactive, unwritable}) {
+            Assert.assertTrue(group.join(session));
+        }
+        Assert.assertEquals(5, group.size());
+
+        var pong = Pong.valueOf(1);
+        var bytes = encode(pong);
+        Assert.assertEquals(4, group.broadcast(pong));
+        Assert.assertEquals(1, OutboundQueue.pendingPackets(unwritable));
+        Assert.assertNull(((EmbeddedChannel) inactive.getChannel()).readOutbound());
+
+        ByteBuf buffer1 = ((EmbeddedChannel) tcp1.getChannel()).readOutbound();
+        ByteBuf buffer2 = ((EmbeddedChannel) tcp2.getChannel()).readOutbound();
+        Assert.assertNotSame(buffer1, buffer2);
+        Assert.assertEquals(bytes.length, tcp1.getWriteBytes());
+        assertReleasedOnce(bytes, buffer1);
+        assertReleasedOnce(bytes, buffer2);
+
+        // websocket的成员包装成BinaryWebSocketFrame
+        BinaryWebSocketFrame frame = ((EmbeddedChannel) websocket.getChannel()).readOutbound();
+        assertReleasedOnce(bytes, frame.content());
+
+        // 发送队列中的广播在channel重新可写以后发送
+        var unwritableChannel = (EmbeddedChannel) unwritable.getChannel();
+        unwritableChannel.flush();
+        OutboundQueue.drain(unwritable);
+        ByteBuf first = unwritableChannel.readOutbound();
+        Assert.assertEquals(4096, first.readableBytes());
+        first.release();
+        assertReleasedOnce(bytes, unwritableChannel.readOutbound());
+
+        for (var session : new Session[]{tcp1, tcp2, websocket, inactive, unwritable}) {
+            Assert.assertFalse(((EmbeddedChannel) session.getChannel()).finishAndReleaseAll());
+        }
+        Assert.assertEquals(0, group.size());
+    }
+
+    private void assertReleasedOnce(byte[] bytes, ByteBuf buffer) {
+        Assert.assertArrayEquals(bytes, ByteBufUtil.getBytes(buffer));
+        Assert.assertEquals(1, buffer.refCnt());
+        Assert.assertTrue(buffer.release());
+    }
+
+    @Test
+    public void joinAndLeaveTest() {
+        var session1 = tcpSession();
+        var session2 = tcpSession();
+        var group = new SessionGroup(2);
+
+        Assert.assertTrue(group.join(session1));
+        Assert.assertFalse(group.join(session1));
+        Assert.assertTrue(group.join(session2));
+        // 只支持tcp和websocket的二进制协议
+        Assert.assertFalse(group.join(BaseRouteHandler.initChannel(new EmbeddedChannel())));
+        Assert.assertEquals(2, group.size());
+
+        // 断开连接以后自动离开广播组
+        session2.getChannel().close();
+        Assert.assertFalse(group.contains(session2));
+        Assert.assertEquals(1, group.broadcast(Pong.valueOf(2)));
+        ByteBuf buffer = ((EmbeddedChannel) session1.getChannel()).readOutbound();
+        Assert.assertEquals(1, buffer.refCnt());
+        buffer.release();
+
+        Assert.assertTrue(group.leave(session1));
+        Assert.assertFalse(group.leave(session1));
+        Assert.assertEquals(0, group.broadcast(Pong.valueOf(3)));
+        Assert.assertNull(((EmbeddedChannel) session1.getChannel()).readOutbound());
+        ((EmbeddedChannel) session1.getChannel()).finishAndReleaseAll();
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.session;
+
+import com.zfoo.net.NetContext;
+import com.zfoo.net.SharedContext;
+import com.zfoo.net.session.model.AttributeType;
+import com.zfoo.net.session.model.Session;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class SessionManagerTest {
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+    }
+
+    /**
+     * 通过bindUid和unbindUid设置uid，uid的索引不会过期
+     */
+    @Test
+    public void uidIndexTest() {
+        var sessionManager = NetContext.getSessionManager();
+        var session = new Session(new EmbeddedChannel());
+        sessionManager.addServerSession(session);
+
+        sessionManager.bindUid(session, 1);
+        Assert.assertEquals(1L, (long) session.getAttribute(AttributeType.UID));
+        Assert.assertSame(session, sessionManager.getServerSessionByUid(1));
+
+        // 重新设置uid，旧的uid从索引中删除
+        sessionManager.bindUid(session, 2);
+        Assert.assertNull(sessionManager.getServerSessionByUid(1));
+        Assert.assertSame(session, sessionManager.getServerSessionByUid(2));
+
+        // 同一个uid重复登录，索引指向最新的session；旧的session断开连接不会删除新的session的索引
+        var newSession = new Session(new EmbeddedChannel());
+        sessionManager.addServerSession(newSession);
+        sessionManager.bindUid(newSession, 2);
+        Assert.assertSame(newSession, sessionManager.getServerSessionByUid(2));
+        sessionManager.removeServerSession(session);
+        Assert.assertSame(newSession, sessionManager.getServerSessionByUid(2));
+
+        sessionManager.unbindUid(newSession);
+        Assert.assertNull(newSession.getAttribute(AttributeType.UID));
+        Assert.assertNull(sessionManager.getServerSessionByUid(2));
+
+        sessionManager.removeServerSession(newSession);
+        Assert.assertFalse(sessionManager.getServerSessionMap().containsKey(newSession.getSid()));
+    }
+
+    /**
+     * 直接通过Session的属性方法修改uid只会打印警告，行为和以前一样，过期的索引不会被查到
+     */
+    @Test
+    public void uidAttributeTest() {
+        var sessionManager = NetContext.getSessionManager();
+        var session = new Session(new EmbeddedChannel());
+        sessionManager.addServerSession(session);
+
+        session.putAttribute(AttributeType.UID, 3L);
+        Assert.assertEquals(3L, (long) session.getAttribute(AttributeType.UID));
+        Assert.assertNull(sessionManager.getServerSessionByUid(3));
+
+        Assert.assertEquals(3L, (long) session.putAttributeIfAbsent(AttributeType.UID, 4L));
+        session.removeAttribute(AttributeType.UID);
+        Assert.assertNull(session.getAttribute(AttributeType.UID));
+        Assert.assertNull(session.putAttributeIfAbsent(AttributeType.UID, 4L));
+        Assert.assertEquals(4L, (long) session.getAttribute(AttributeType.UID));
+
+        sessionManager.bindUid(session, 5);
+        Assert.assertSame(session, sessionManager.getServerSessionByUid(5));
+        session.removeAttribute(AttributeType.UID);
+        Assert.assertNull(sessionManager.getServerSessionByUid(5));
+
+        sessionManager.removeServerSession(session);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.task;
+
+import com.zfoo.net.SharedContext;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class ActorBusTest {
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+    }
+
+    @Test
+    public void orderTest() throws InterruptedException {
+        var count = 10_000;
+        var result = Collections.synchronizedList(new ArrayList<Integer>());
+        var latch = new CountDownLatch(count);
+        for (var i = 0; i < count; i++) {
+            var value = i;
+            ActorBus.execute(1, () -> {
+                Assert.assertNotNull(ActorBus.currentExecutor());
+                result.add(value);
+                latch.countDown();
+            });
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // 同一个actor的任务严格按照放入的顺序执行，超过MAX_BATCH让出线程以后也不会乱序
+        Assert.assertEquals(IntStream.range(0, count).boxed().collect(Collectors.toList()), result);
+    }
+
+    @Test
+    public void isolationTest() throws InterruptedException {
+        // 一个阻塞的actor不影响其它的actor
+        var blocked = new CountDownLatch(1);
+        var done = new CountDownLatch(1);
+        ActorBus.execute(2, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ActorBus.execute(3, done::countDown);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        blocked.countDown();
+    }
+
+    /**
+     * 不支持虚拟线程的时候使用的平台线程池，线程数量不会超过配置的数量，多出来的actor排队等待
+     */
+    @Test
+    public void platformCarrierTest() throws InterruptedException {
+        var threads = 2;
+        var carrier = ActorBus.platformCarrier(threads);
+        var release = new CountDownLatch(1);
+        var running = new AtomicInteger();
+        var finished = new CountDownLatch(10);
+        List<Runnable> tasks = new ArrayList<>();
+        for (var i = 0; i < 10; i++) {
+            tasks.add(() -> {
+                running.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finished.countDown();
+            });
+        }
+        tasks.forEach(carrier::execute);
+
+        Thread.sleep(200);
+        Assert.assertEquals(threads, running.get());
+        Assert.assertEquals(threads, carrier.getPoolSize());
+        Assert.assertEquals(10 - threads, carrier.getQueue().size());
+
+        release.countDown();
+        Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(threads, carrier.getLargestPoolSize());
+        carrier.shutdown();
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.net.task.dispatcher;
+
+import com.zfoo.net.SharedContext;
+import com.zfoo.util.concurrent.ActorRunnable;
+import com.zfoo.util.concurrent.MailboxExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 两个task线程，actor 2和actor 4的一致性hash都在线程0上
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class LaneBalancerTest {
+
+    private static final int KEY = 2;
+    private static final int OTHER_KEY = 4;
+
+    private ExecutorService[] lanes;
+
+    @BeforeClass
+    public static void init() {
+        SharedContext.init();
+    }
+
+    @After
+    public void destroy() {
+        for (var lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    /**
+     * 每次只执行一个任务，busyNanos在每个任务执行完成以后更新
+     */
+    private LaneBalancer newBalancer() {
+        lanes = new ExecutorService[2];
+        for (var i = 0; i < lanes.length; i++) {
+            var name = "lane-" + i;
+            lanes[i] = new MailboxExecutor(runnable -> new Thread(runnable, name), 0, 1);
+        }
+        var balancer = new LaneBalancer();
+        // 不启动定时的再平衡，测试中手动调用
+        balancer.init(lanes);
+        return balancer;
+    }
+
+    /**
+     * 记录一个actor的任务的执行顺序和线程，同时检查同一个actor的任务没有并发执行
+     */
+    private static class Recorder {
+        private final List<Integer> sequences = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        private volatile boolean concurrent;
+        private final CountDownLatch latch;
+
+        private Recorder(int count) {
+            this.latch = new CountDownLatch(count);
+        }
+
+        private Runnable task(int key, int sequence, long sleepMillis) {
+            return ActorRunnable.valueOf(key, () -> {
+                if (!running.compareAndSet(false, true)) {
+                    concurrent = true;
+                }
+                sequences.add(sequence);
+                threads.add(Thread.currentThread().getName());
+                if (sleepMillis > 0) {
+                    try {
+                        Thread.sleep(sleepMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                running.set(false);
+                latch.countDown();
+            });
+        }
+
+        private void assertOrdered(int count) throws InterruptedException {
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse(concurrent);
+            Assert.assertEquals(count, sequences.size());
+            for (var i = 0; i < count; i++) {
+                Assert.assertEquals(i, sequences.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void fastPathTest() throws InterruptedException {
+        var balancer = newBalancer();
+        var recorder = new Recorder(100);
+        for (var i = 0; i < 100; i++) {
+            balancer.executor(lanes, KEY).execute(recorder.task(KEY, i, 0));
+        }
+        recorder.assertOrdered(100);
+        // 没有迁移的actor不会进入覆盖表
+        Assert.assertEquals(0, balancer.getActorSize());
+        Assert.assertEquals(0, balancer.laneOf(KEY));
+        Assert.assertTrue(recorder.threads.stream().allMatch("lane-0"::equals));
+    }
+
+    /**
+     * 一直有任务在排队的actor也可以迁移，迁移前后任务依然有序并且没有并发执行
+     */
+    @Test
+    public void migrateBusyActorTest() throws InterruptedException {
+        var balancer = newBalancer();
+        var count = 20_000;
+        var recorder = new Recorder(count);
+        var halfway = new CountDownLatch(1);
+        var producer = new Thread(() -> {
+            for (var i = 0; i < count; i++) {
+                balancer.executor(lanes, KEY).execute(recorder.task(KEY, i, 0));
+                if (i == count / 4) {
+                    halfway.countDown();
+                }
+            }
+        });
+        producer.start();
+
+        Assert.assertTrue(halfway.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(balancer.migrate(KEY, 0, 1));
+        // 迁移中或者冷却时间内不能再次迁移
+        Assert.assertFalse(balancer.migrate(KEY, 0, 1));
+        producer.join();
+
+        recorder.assertOrdered(count);
+        Assert.assertEquals(1, balancer.getMigrationCount());
+        waitLane(balancer, 1);
+        Assert.assertEquals("lane-0", recorder.threads.get(0));
+        Assert.assertEquals("lane-1", recorder.threads.get(count - 1));
+        // 一旦迁移到新线程就不会再回到旧线程
+        var firstNew = recorder.threads.indexOf("lane-1");
+        Assert.assertFalse(recorder.threads.subList(firstNew, count).contains("lane-0"));
+    }
+
+    /**
+     * 迁移过的actor空闲以后回到原来的线程，然后从覆盖表中移除
+     */
+    @Test
+    public void returnHomeTest() throws InterruptedException {
+        var balancer = newBalancer();
+        Assert.assertTrue(balancer.migrate(KEY, 0, 1));
+        var recorder = new Recorder(2);
+        balancer.executor(lanes, KEY).execute(recorder.task(KEY, 0, 0));
+        waitLane(balancer, 1);
+
+        // 上一个周期有任务，不迁移
+        balancer.doRebalance();
+        Assert.assertEquals(1, balancer.laneOf(KEY));
+
+        // 空闲了一个周期，回到原来的线程
+        balancer.doRebalance();
+        waitLane(balancer, 0);
+        Assert.assertEquals(1, balancer.getActorSize());
+
+        balancer.doRebalance();
+        Assert.assertEquals(0, balancer.getActorSize());
+
+        balancer.executor(lanes, KEY).execute(recorder.task(KEY, 1, 0));
+        recorder.assertOrdered(2);
+        Assert.assertEquals(List.of("lane-1", "lane-0"), recorder.threads);
+    }
+
+    /**
+     * 过热线程上采样次数最多的actor迁移到空闲的线程，其它的actor不受影响
+     */
+    @Test
+    public void rebalanceHotLaneTest() throws InterruptedException {
+        var balancer = newBalancer();
+        var hotCount = 300;
+        var otherCount = 60;
+        var hotRecorder = new Recorder(hotCount + 1);
+        var otherRecorder = new Recorder(otherCount);
+        for (var i = 0; i < hotCount; i++) {
+            balancer.executor(lanes, KEY).execute(hotRecorder.task(KEY, i, 1));
+            if (i % 5 == 0) {
+                balancer.executor(lanes, OTHER_KEY).execute(otherRecorder.task(OTHER_KEY, i / 5, 1));
+            }
+        }
+
+        Thread.sleep(150);
+        balancer.doRebalance();
+        Assert.assertTrue(balancer.getLaneBusyRatio(0) >= 0.8);
+        Assert.assertTrue(balancer.getLaneQueueDepth(0) >= 64);
+        Assert.assertEquals(1, balancer.getMigrationCount());
+        Assert.assertEquals(0, balancer.laneOf(OTHER_KEY));
+
+        // 之前的任务在旧线程中执行完成以后，新的任务在新线程中执行
+        balancer.executor(lanes, KEY).execute(hotRecorder.task(KEY, hotCount, 0));
+        hotRecorder.assertOrdered(hotCount + 1);
+        otherRecorder.assertOrdered(otherCount);
+        waitLane(balancer, 1);
+        Assert.assertEquals("lane-1", hotRecorder.threads.get(hotCount));
+        Assert.assertTrue(otherRecorder.threads.stream().allMatch("lane-0"::equals));
+    }
+
+    private void waitLane(LaneBalancer balancer, int lane) throws InterruptedException {
+        for (var i = 0; i < 1000 && balancer.laneOf(KEY) != lane; i++) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(lane, balancer.laneOf(KEY));
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.protocol.collection.concurrent;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 分段的写时复制map，key为原始类型的long，每一个分段是一个CopyOnWriteHashMapLongObject
+ * <p>
+ * 读不加锁并且不会装箱，写只复制一个分段，适合读多写少并且数据量比较大的场景（如保存所有的session）
+ * <p>
+ * keySet，values，entrySet是视图，不会复制整个map，也不能修改；遍历的时候每个分段使用开始遍历这个分段时的快照，和ConcurrentHashMap一样是弱一致的
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ConcurrentHashMapLongObject<V> implements Map<Long, V> {
+
+    private static final int DEFAULT_SEGMENTS = 64;
+
+    private final CopyOnWriteHashMapLongObject<V>[] segments;
+    private final int mask;
+
+    private final Set<Long> keySet = new AbstractSet<>() {
+        @Override
+        public Iterator<Long> iterator() {
+            return new SegmentIterator<>(segment -> segment.keySet().iterator());
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentHashMapLongObject.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+    };
+
+    private final Collection<V> values = new AbstractCollection<>() {
+        @Override
+        public Iterator<V> iterator() {
+            return new SegmentIterator<>(segment -> segment.values().iterator());
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentHashMapLongObject.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+    };
+
+    private final Set<Entry<Long, V>> entrySet = new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<Long, V>> iterator() {
+            return new SegmentIterator<>(segment -> segment.entrySet().iterator());
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentHashMapLongObject.this.size();
+        }
+    };
+
+    public ConcurrentHashMapLongObject() {
+        this(DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * @param segmentSize 分段的数量，会向上取整为2的幂
+     */
+    public ConcurrentHashMapLongObject(int segmentSize) {
+        var size = Integer.highestOneBit(Math.max(segmentSize - 1, 1)) << 1;
+        this.segments = new CopyOnWriteHashMapLongObject[size];
+        for (var i = 0; i < size; i++) {
+            segments[i] = new CopyOnWriteHashMapLongObject<>();
+        }
+        this.mask = size - 1;
+    }
+
+    private CopyOnWriteHashMapLongObject<V> segment(long key) {
+        var hash = (int) (key ^ (key >>> 32));
+        hash ^= (hash >>> 16);
+        return segments[hash & mask];
+    }
+
+    public V getPrimitive(long key) {
+        return segment(key).getPrimitive(key);
+    }
+
+    public boolean containsKeyPrimitive(long key) {
+        return segment(key).containsKeyPrimitive(key);
+    }
+
+    public V putPrimitive(long key, V value) {
+        return segment(key).putPrimitive(key, value);
+    }
+
+    /**
+     * @return 已经存在的value，不存在则放入value并返回null
+     */
+    public V putIfAbsentPrimitive(long key, V value) {
+        return segment(key).putIfAbsentPrimitive(key, value);
+    }
+
+    public V removePrimitive(long key) {
+        return segment(key).removePrimitive(key);
+    }
+
+    /**
+     * 只有key对应的value是value的时候才删除
+     */
+    public boolean removePrimitive(long key, V value) {
+        return segment(key).removePrimitive(key, value);
+    }
+
+    @Override
+    public int size() {
+        var size = 0;
+        for (var segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (var segment : segments) {
+            if (!segment.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long && containsKeyPrimitive((Long) key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (var segment : segments) {
+            if (segment.containsValue(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Long ? getPrimitive((Long) key) : null;
+    }
+
+    @Override
+    public V put(Long key, V value) {
+        return putPrimitive(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof Long ? removePrimitive((Long) key) : null;
+    }
+
+    @Override
+    public void putAll(Map<? extends Long, ? extends V> m) {
+        for (var entry : m.entrySet()) {
+            putPrimitive(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (var segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public Set<Long> keySet() {
+        return keySet;
+    }
+
+    @Override
+    public Collection<V> values() {
+        return values;
+    }
+
+    @Override
+    public Set<Entry<Long, V>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * 依次遍历每一个分段的快照，不支持remove
+     */
+    private class SegmentIterator<T> implements Iterator<T> {
+
+        private final Function<CopyOnWriteHashMapLongObject<V>, Iterator<T>> segmentIterator;
+        private int index;
+        private Iterator<T> current;
+
+        private SegmentIterator(Function<CopyOnWriteHashMapLongObject<V>, Iterator<T>> segmentIterator) {
+            this.segmentIterator = segmentIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (index >= segments.length) {
+                    return false;
+                }
+                var segment = segments[index++];
+                current = segment.isEmpty() ? null : segmentIterator.apply(segment);
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -15,11 +15,17 @@ package com.zfoo.protocol.collection.concurrent;
 import io.netty.util.collection.LongObjectHashMap;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * 写时复制的map，key为原始类型的long，读不加锁并且不会装箱
+ * <p>
+ * keySet，values，entrySet是调用时的快照的视图，不会复制，也不能修改
+ *
  * @author godotg
  * @version 3.0
  */
@@ -37,7 +43,7 @@ public class CopyOnWriteHashMapLongObject<V> implements Map<Long, V> {
     }
 
     private LongObjectHashMap<V> newCopyMap() {
-        var newMap = new LongObjectHashMap<V>();
+        var newMap = new LongObjectHashMap<V>(Math.max(map.size() + 1, 8));
         newMap.putAll(map);
         return newMap;
     }
@@ -61,6 +67,10 @@ public class CopyOnWriteHashMapLongObject<V> implements Map<Long, V> {
         return map.containsKey(key);
     }
 
+    public boolean containsKeyPrimitive(long key) {
+        return map.containsKey(key);
+    }
+
     @Override
     public boolean containsValue(Object value) {
         return map.containsValue(value);
@@ -77,6 +87,10 @@ public class CopyOnWriteHashMapLongObject<V> implements Map<Long, V> {
 
     @Override
     public V put(Long key, V value) {
+        return putPrimitive(key, value);
+    }
+
+    public V putPrimitive(long key, V value) {
         lock.lock();
         try {
             var newMap = newCopyMap();
@@ -88,10 +102,36 @@ public class CopyOnWriteHashMapLongObject<V> implements Map<Long, V> {
         }
     }
 
+    /**
+     * @return 已经存在的value，不存在则放入value并返回null
+     */
+    public V putIfAbsentPrimitive(long key, V value) {
+        lock.lock();
+        try {
+            var oldValue = map.get(key);
+            if (oldValue != null) {
+                return oldValue;
+            }
+            var newMap = newCopyMap();
+            newMap.put(key, value);
+            setNewMap(newMap);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public V remove(Object key) {
+        return key instanceof Long ? removePrimitive((Long) key) : null;
+    }
+
+    public V removePrimitive(long key) {
         lock.lock();
         try {
+            if (!map.containsKey(key)) {
+                return null;
+            }
             var newMap = newCopyMap();
             var oldValue = newMap.remove(key);
             setNewMap(newMap);
@@ -101,6 +141,24 @@ public class CopyOnWriteHashMapLongObject<V> implements Map<Long, V> {
         }
     }
 
+    /**
+     * 只有key对应的value是value的时候才删除
+     */
+    public boolean removePrimitive(long key, V value) {
+        lock.lock();
+        try {
+            if (!Objects.equals(map.get(key), value)) {
+                return false;
+            }
+            var newMap = newCopyMap();
+            newMap.remove(key);
+            setNewMap(newMap);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void putAll(Map<? extends Long, ? extends V> m) {
         lock.lock();
@@ -117,8 +175,7 @@ public class CopyOnWriteHashMapLongObject<V> implements Map<Long, V> {
     public void clear() {
         lock.lock();
         try {
-            var newMap = newCopyMap();
-            setNewMap(newMap);
+            setNewMap(new LongObjectHashMap<>());
         } finally {
             lock.unlock();
         }
@@ -126,16 +183,16 @@ public class CopyOnWriteHashMapLongObject<V> implements Map<Long, V> {
 
     @Override
     public Set<Long> keySet() {
-        return map.keySet();
+        return Collections.unmodifiableSet(map.keySet());
     }
 
     @Override
     public Collection<V> values() {
-        return map.values();
+        return Collections.unmodifiableCollection(map.values());
     }
 
     @Override
     public Set<Entry<Long, V>> entrySet() {
-        return map.entrySet();
+        return Collections.unmodifiableMap(map).entrySet();
     }
 }
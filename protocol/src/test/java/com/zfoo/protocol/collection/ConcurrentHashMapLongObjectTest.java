@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.protocol.collection;
+
+import com.zfoo.protocol.collection.concurrent.ConcurrentHashMapLongObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class ConcurrentHashMapLongObjectTest {
+
+    /**
+     * keySet，values，entrySet是视图，之后的修改可以看到，不能通过视图修改
+     */
+    @Test
+    public void viewTest() {
+        var map = new ConcurrentHashMapLongObject<String>(4);
+        var keySet = map.keySet();
+        var values = map.values();
+        var entrySet = map.entrySet();
+        Assert.assertTrue(keySet.isEmpty());
+        Assert.assertFalse(values.iterator().hasNext());
+
+        var num = 1000;
+        for (long i = 0; i < num; i++) {
+            map.putPrimitive(i, String.valueOf(i));
+        }
+        Assert.assertEquals(num, keySet.size());
+        Assert.assertEquals(num, values.size());
+        Assert.assertEquals(num, entrySet.size());
+
+        var keys = new HashSet<Long>();
+        for (var key : keySet) {
+            Assert.assertTrue(keys.add(key));
+        }
+        Assert.assertEquals(num, keys.size());
+        Assert.assertTrue(keySet.contains(999L));
+        Assert.assertTrue(values.contains("999"));
+        Assert.assertEquals(num, new HashSet<>(values).size());
+        for (var entry : entrySet) {
+            Assert.assertEquals(String.valueOf(entry.getKey()), entry.getValue());
+        }
+
+        map.removePrimitive(999L);
+        Assert.assertFalse(keySet.contains(999L));
+        Assert.assertEquals(num - 1, values.size());
+
+        try {
+            keySet.iterator().remove();
+            Assert.fail();
+        } catch (UnsupportedOperationException | IllegalStateException e) {
+            // 视图不能修改
+        }
+        try {
+            values.clear();
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // 视图不能修改
+        }
+        try {
+            entrySet.iterator().next().setValue("x");
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // 视图不能修改
+        }
+        Assert.assertEquals(num - 1, map.size());
+    }
+
+    /**
+     * 遍历的时候修改map不会抛出ConcurrentModificationException
+     */
+    @Test
+    public void iterateWhileModifyTest() {
+        var map = new ConcurrentHashMapLongObject<Long>(4);
+        for (long i = 0; i < 100; i++) {
+            map.putPrimitive(i, i);
+        }
+        var count = 0;
+        for (Map.Entry<Long, Long> entry : map.entrySet()) {
+            map.removePrimitive(entry.getKey());
+            map.putPrimitive(entry.getKey() + 1000, entry.getValue());
+            count++;
+        }
+        Assert.assertTrue(count >= 100);
+        Assert.assertEquals(100, map.size());
+    }
+
+}
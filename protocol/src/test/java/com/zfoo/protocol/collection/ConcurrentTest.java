@@ -12,6 +12,7 @@
 
 package com.zfoo.protocol.collection;
 
+import com.zfoo.protocol.collection.concurrent.ConcurrentHashMapLongObject;
 import com.zfoo.protocol.collection.concurrent.CopyOnWriteHashMapLongObject;
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -62,4 +63,46 @@ public class ConcurrentTest {
         countDownLatch2.await();
         Assert.assertTrue(map.isEmpty());
     }
+
+    @Test
+    public void concurrentHashMapLongObjectTest() throws InterruptedException {
+        var map = new ConcurrentHashMapLongObject<Integer>();
+        var num = 1_0000;
+        var countDownLatch = new CountDownLatch(EXECUTOR_SIZE);
+        for (var i = 0; i < EXECUTOR_SIZE; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < num; j++) {
+                        map.putIfAbsentPrimitive(j, j);
+                    }
+                    countDownLatch.countDown();
+                }
+            }).start();
+        }
+        countDownLatch.await();
+        Assert.assertEquals(map.size(), num);
+        Assert.assertEquals(map.values().size(), num);
+        for (int j = 0; j < num; j++) {
+            Assert.assertEquals(Integer.valueOf(j), map.getPrimitive(j));
+        }
+
+        Assert.assertFalse(map.removePrimitive(0, -1));
+        Assert.assertTrue(map.removePrimitive(0, 0));
+
+        var countDownLatch2 = new CountDownLatch(EXECUTOR_SIZE);
+        for (var i = 0; i < EXECUTOR_SIZE; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < num; j++) {
+                        map.removePrimitive(j);
+                    }
+                    countDownLatch2.countDown();
+                }
+            }).start();
+        }
+        countDownLatch2.await();
+        Assert.assertTrue(map.isEmpty());
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package com.zfoo.util.concurrent;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class ActorRunnable implements IActorTask {
+
+    private int actorKey;
+
+    private Runnable runnable;
+
+    private ActorRunnable() {
+    }
+
+    public static ActorRunnable valueOf(int actorKey, Runnable runnable) {
+        var run = new ActorRunnable();
+        run.actorKey = actorKey;
+        run.runnable = runnable;
+        return run;
+    }
+
+    @Override
+    public int actorKey() {
+        return actorKey;
+    }
+
+    @Override
+    public void run() {
+        runnable.run();
+    }
+
+}
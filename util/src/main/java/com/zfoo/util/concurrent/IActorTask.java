@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+package com.zfoo.util.concurrent;
+
+/**
+ * 属于某一个actor的任务，actorKey相同的任务永远不会同时执行
+ * <p>
+ * MailboxExecutor在helpUntilDone的时候只会执行不在等待中的actor的任务，没有实现这个接口的任务会被推迟到等待结束以后执行
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public interface IActorTask extends Runnable {
+
+    int actorKey();
+
+}
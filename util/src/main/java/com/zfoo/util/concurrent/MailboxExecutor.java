@@ -0,0 +1,488 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.util.concurrent;
+
+import com.zfoo.protocol.util.AssertionUtils;
+import com.zfoo.protocol.util.StringUtils;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单消费者线程的执行器，用来替代Executors.newSingleThreadExecutor()
+ * <p>
+ * 1. 使用无锁的MPSC（多生产者单消费者）队列作为邮箱，多个netty的io线程同时提交任务不会竞争同一把锁
+ * 2. 消费者线程批量的从邮箱中取出任务执行，只有在邮箱为空的时候才会park，生产者只有在消费者park的时候才会unpark
+ * 3. 只有一个消费者线程，任务严格按照提交的顺序执行，并且任务抛出异常后线程不会被替换，线程号一直保持不变
+ * 4. 任务在消费者线程中同步等待的时候可以调用helpUntilDone，等待期间继续执行其它actor的任务，只暂停等待中的actor
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class MailboxExecutor extends AbstractExecutorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailboxExecutor.class);
+
+    /**
+     * 每一轮最多执行的任务数量，执行完一轮后会检查一次执行器的状态
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    /**
+     * helpUntilDone最多的嵌套层数，和最多推迟执行的任务数量，超过以后直接阻塞等待
+     */
+    private static final int MAX_HELP_DEPTH = 8;
+    private static final int MAX_DEFERRED_TASKS = 4096;
+
+    /**
+     * 最近执行的有actorKey的任务的采样数量，必须是2的幂
+     */
+    public static final int SAMPLE_SIZE = 256;
+    private static final int SAMPLE_MASK = SAMPLE_SIZE - 1;
+
+    private static final int ST_NOT_STARTED = 0;
+    private static final int ST_STARTED = 1;
+    private static final int ST_SHUTDOWN = 2;
+    private static final int ST_STOP = 3;
+    private static final int ST_TERMINATED = 4;
+
+    private final ThreadFactory threadFactory;
+
+    /**
+     * 邮箱，capacity小于等于0的时候为无界队列
+     * <p>
+     * netty的有界MPSC队列的容量最小为1024并且向上取整为2的幂，所以邮箱本身是无界的，容量通过pendingCount限制
+     */
+    private final Queue<Runnable> mailbox;
+    private final int capacity;
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    private final int batchSize;
+
+    private final AtomicInteger state = new AtomicInteger(ST_NOT_STARTED);
+
+    /**
+     * 消费者线程是否已经park或者准备park
+     */
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+
+    private final CountDownLatch terminationLatch = new CountDownLatch(1);
+
+    private volatile Thread thread;
+
+    /**
+     * 消费者线程执行任务花费的总时间和执行完成的任务数量，只有消费者线程会修改
+     */
+    private volatile long busyNanos;
+    private volatile long completedTasks;
+
+    /**
+     * 下面的变量只有消费者线程会读写
+     * <p>
+     * runningKeyed和runningKey为当前正在执行的任务所属的actor，waitingKeys和waitingFutures为正在helpUntilDone中等待的actor（嵌套的等待是一个栈）
+     * deferred为等待期间不能执行而被推迟的任务，保持原来的顺序，等待结束后在邮箱中的任务之前执行，deferredUnkeyed为其中没有actorKey的任务的数量
+     */
+    private boolean runningKeyed;
+    private int runningKey;
+    private final int[] waitingKeys = new int[MAX_HELP_DEPTH];
+    private final CompletableFuture<?>[] waitingFutures = new CompletableFuture<?>[MAX_HELP_DEPTH];
+    private int helpDepth;
+    private final ArrayDeque<Runnable> deferred = new ArrayDeque<>();
+    private int deferredUnkeyed;
+    private boolean deferredRunnable;
+
+    /**
+     * 最近执行的SAMPLE_SIZE个有actorKey的任务的actorKey，用来找出最繁忙的actor（如LaneBalancer），只有消费者线程写入，其它线程读到的是近似值
+     */
+    private final int[] sampleKeys = new int[SAMPLE_SIZE];
+    private int sampleIndex;
+    private int sampleSize;
+
+    public MailboxExecutor(ThreadFactory threadFactory) {
+        this(threadFactory, 0, DEFAULT_BATCH_SIZE);
+    }
+
+    public MailboxExecutor(ThreadFactory threadFactory, int capacity, int batchSize) {
+        AssertionUtils.notNull(threadFactory);
+        AssertionUtils.isTrue(batchSize > 0, "batchSize:[{}] must be positive", batchSize);
+        this.threadFactory = threadFactory;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.mailbox = PlatformDependent.newMpscQueue();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        AssertionUtils.notNull(task);
+
+        if (state.get() >= ST_SHUTDOWN) {
+            throw new RejectedExecutionException(StringUtils.format("[{}] has been shutdown", this));
+        }
+
+        if (capacity > 0 && pendingCount.incrementAndGet() > capacity) {
+            pendingCount.decrementAndGet();
+            throw new RejectedExecutionException(StringUtils.format("[{}] mailbox is full, capacity:[{}]", this, capacity));
+        }
+        mailbox.offer(task);
+
+        // 线程在第一次提交任务的时候才创建，和ThreadPoolExecutor一致，ThreadFactory中可以拿到已经构造好的执行器
+        if (state.get() == ST_NOT_STARTED) {
+            startThread();
+        }
+
+        wakeup();
+    }
+
+    /**
+     * 邮箱中还没有执行的任务数量，是一个近似值
+     */
+    public int pendingTasks() {
+        return mailbox.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long busyNanos() {
+        return busyNanos;
+    }
+
+    public long completedTasks() {
+        return completedTasks;
+    }
+
+    /**
+     * 复制最近执行的有actorKey的任务的actorKey，可以在任何线程中调用，结果是一个近似值
+     *
+     * @param keys 长度至少为SAMPLE_SIZE
+     * @return 复制的数量
+     */
+    public int sampleActorKeys(int[] keys) {
+        var size = Math.min(sampleSize, SAMPLE_SIZE);
+        System.arraycopy(sampleKeys, 0, keys, 0, size);
+        return size;
+    }
+
+    private void startThread() {
+        if (!state.compareAndSet(ST_NOT_STARTED, ST_STARTED)) {
+            return;
+        }
+        var newThread = threadFactory.newThread(this::runLoop);
+        thread = newThread;
+        newThread.start();
+    }
+
+    private void wakeup() {
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                var currentState = state.get();
+                if (currentState >= ST_STOP) {
+                    break;
+                }
+
+                var startTime = System.nanoTime();
+                var count = drain();
+                if (count > 0) {
+                    busyNanos += System.nanoTime() - startTime;
+                    completedTasks += count;
+                    continue;
+                }
+
+                if (currentState == ST_SHUTDOWN) {
+                    break;
+                }
+
+                // 先标记park再检查一次邮箱，防止生产者在标记之前放入了任务而没有unpark
+                parked.set(true);
+                if (!mailbox.isEmpty() || state.get() >= ST_SHUTDOWN) {
+                    parked.set(false);
+                    continue;
+                }
+                LockSupport.park(this);
+                parked.set(false);
+            }
+        } finally {
+            state.set(ST_TERMINATED);
+            terminationLatch.countDown();
+        }
+    }
+
+    private int drain() {
+        var count = 0;
+        while (count < batchSize) {
+            // 之前等待的时候推迟的任务比邮箱中的任务先提交，需要先执行
+            Runnable task;
+            if (deferred.isEmpty()) {
+                task = pollMailbox();
+            } else {
+                task = deferred.poll();
+                if (!(task instanceof IActorTask)) {
+                    deferredUnkeyed--;
+                }
+            }
+            if (task == null) {
+                break;
+            }
+            count++;
+            runTask(task);
+            if (state.get() >= ST_STOP) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private Runnable pollMailbox() {
+        var task = mailbox.poll();
+        if (task != null && capacity > 0) {
+            pendingCount.decrementAndGet();
+        }
+        return task;
+    }
+
+    private void runTask(Runnable task) {
+        var previousKeyed = runningKeyed;
+        var previousKey = runningKey;
+        if (task instanceof IActorTask) {
+            runningKeyed = true;
+            runningKey = ((IActorTask) task).actorKey();
+            sampleKeys[sampleIndex] = runningKey;
+            sampleIndex = (sampleIndex + 1) & SAMPLE_MASK;
+            if (sampleSize < SAMPLE_SIZE) {
+                sampleSize++;
+            }
+        } else {
+            runningKeyed = false;
+        }
+        try {
+            task.run();
+        } catch (Throwable t) {
+            logger.error("[{}] unknown exception when running task", this, t);
+        } finally {
+            runningKeyed = previousKeyed;
+            runningKey = previousKey;
+        }
+    }
+
+    /**
+     * 只能在消费者线程中调用，当前正在执行的任务是否有actorKey
+     */
+    public boolean isRunningActorTask() {
+        return Thread.currentThread() == thread && runningKeyed;
+    }
+
+    /**
+     * 只能在消费者线程中调用，当前正在执行的任务的actorKey，isRunningActorTask()为true的时候才有意义
+     */
+    public int runningActorKey() {
+        return runningKey;
+    }
+
+    /**
+     * 在消费者线程中等待future完成，等待期间继续执行其它actor的任务，当前actor后续的任务被推迟，保证同一个actor的任务依然串行并且有序
+     * <p>
+     * 没有actorKey的任务（如没有带上actorKey的回调）不知道属于哪个actor，被推迟以后不再从邮箱中取新的任务，只等待future，
+     * 防止之后提交的任务超过它；回到发起者的回调需要包装成IActorTask才能在等待期间继续执行
+     * <p>
+     * 嵌套的等待是后进先出的，外层的actor即使已经拿到了结果也要等到内层的等待结束才能继续执行；
+     * 外层的future完成以后内层不再执行新的任务，只等待自己的future，所以外层最多多等待内层请求剩下的超时时间
+     *
+     * @param deadlineNanos System.nanoTime()的截止时间
+     * @return false表示不满足条件（不是消费者线程，当前任务没有actorKey，嵌套太深），调用者需要自己阻塞等待
+     */
+    public boolean helpUntilDone(CompletableFuture<?> future, long deadlineNanos) {
+        if (Thread.currentThread() != thread || !runningKeyed || helpDepth >= MAX_HELP_DEPTH) {
+            return false;
+        }
+
+        waitingKeys[helpDepth] = runningKey;
+        waitingFutures[helpDepth] = future;
+        helpDepth++;
+        future.whenComplete((result, throwable) -> wakeup());
+        try {
+            while (!future.isDone() && state.get() < ST_STOP) {
+                var remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+
+                var task = pollHelpTask();
+                if (task != null) {
+                    runTask(task);
+                    completedTasks++;
+                    continue;
+                }
+
+                parked.set(true);
+                if (future.isDone() || (!mailbox.isEmpty() && canPollMailbox()) || state.get() >= ST_STOP) {
+                    parked.set(false);
+                    continue;
+                }
+                LockSupport.parkNanos(this, remaining);
+                parked.set(false);
+            }
+        } finally {
+            helpDepth--;
+            waitingFutures[helpDepth] = null;
+            // 内层的等待结束了，推迟的任务中可能有这个actor的任务可以执行了
+            deferredRunnable = helpDepth > 0 && !deferred.isEmpty();
+        }
+        return true;
+    }
+
+    private Runnable pollHelpTask() {
+        // 外层等待的actor已经拿到了结果，不再执行新的任务，让内层的等待尽快结束
+        if (isOuterDone()) {
+            return null;
+        }
+
+        if (deferredRunnable) {
+            for (var iterator = deferred.iterator(); iterator.hasNext(); ) {
+                var task = iterator.next();
+                // 没有actorKey的任务之后的任务都不能提前执行
+                if (!(task instanceof IActorTask)) {
+                    break;
+                }
+                if (canHelp(task)) {
+                    iterator.remove();
+                    return task;
+                }
+            }
+            deferredRunnable = false;
+        }
+
+        while (canPollMailbox()) {
+            var task = pollMailbox();
+            if (task == null) {
+                return null;
+            }
+            if (canHelp(task)) {
+                return task;
+            }
+            deferred.offer(task);
+            if (!(task instanceof IActorTask)) {
+                deferredUnkeyed++;
+            }
+        }
+        return null;
+    }
+
+    private boolean canPollMailbox() {
+        return deferredUnkeyed <= 0 && deferred.size() < MAX_DEFERRED_TASKS && !isOuterDone();
+    }
+
+    private boolean isOuterDone() {
+        for (var i = 0; i < helpDepth - 1; i++) {
+            if (waitingFutures[i].isDone()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean canHelp(Runnable task) {
+        if (!(task instanceof IActorTask)) {
+            return false;
+        }
+        var key = ((IActorTask) task).actorKey();
+        for (var i = 0; i < helpDepth; i++) {
+            if (waitingKeys[i] == key) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        while (true) {
+            var currentState = state.get();
+            if (currentState >= ST_SHUTDOWN) {
+                return;
+            }
+            if (currentState == ST_NOT_STARTED) {
+                if (state.compareAndSet(currentState, ST_TERMINATED)) {
+                    terminationLatch.countDown();
+                    return;
+                }
+            } else if (state.compareAndSet(currentState, ST_SHUTDOWN)) {
+                LockSupport.unpark(thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 邮箱只允许消费者线程读取，所以这里不会返回没有执行的任务，没有执行的任务会被直接丢弃
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        while (true) {
+            var currentState = state.get();
+            if (currentState >= ST_STOP) {
+                return Collections.emptyList();
+            }
+            if (currentState == ST_NOT_STARTED) {
+                if (state.compareAndSet(currentState, ST_TERMINATED)) {
+                    terminationLatch.countDown();
+                    return Collections.emptyList();
+                }
+            } else if (state.compareAndSet(currentState, ST_STOP)) {
+                var currentThread = thread;
+                if (currentThread != null) {
+                    currentThread.interrupt();
+                    LockSupport.unpark(currentThread);
+                }
+                return Collections.emptyList();
+            }
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return state.get() >= ST_SHUTDOWN;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return state.get() == ST_TERMINATED;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminationLatch.await(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        var currentThread = thread;
+        return StringUtils.format("MailboxExecutor-{}", currentThread == null ? "not-started" : currentThread.getName());
+    }
+
+}
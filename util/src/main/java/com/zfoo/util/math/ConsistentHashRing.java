@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.util.math;
+
+import com.zfoo.protocol.model.Pair;
+import com.zfoo.protocol.util.AssertionUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 不可变的一致性hash，查找的时候不会创建任何对象，节点变化的时候重新创建一个新的ConsistentHashRing
+ * <p>
+ * RING：虚拟节点的hash保存在排序后的int[]中，二分查找，和ConsistentHash的路由结果完全相同
+ * RENDEZVOUS：最高随机权重hash，不需要虚拟节点，时间复杂度O(n)，适合节点数量比较少的情况，节点变化的时候只有这个节点的key会移动
+ * JUMP：Jump Consistent Hash，不需要任何内存，时间复杂度O(ln(n))，但是只能在节点列表的最后增加或者删除节点
+ *
+ * @author godotg
+ * @version 3.0
+ */
+public class ConsistentHashRing<K, V> {
+
+    public enum Strategy {
+        RING,
+        RENDEZVOUS,
+        JUMP,
+    }
+
+    private final Strategy strategy;
+
+    private final Pair<K, V>[] realNodes;
+
+    /**
+     * 真实节点的hash，RENDEZVOUS使用
+     */
+    private final int[] realNodeHashes;
+
+    /**
+     * 排序后的虚拟节点的hash和对应的真实节点，RING使用
+     */
+    private final int[] virtualNodeHashes;
+    private final Pair<K, V>[] virtualNodes;
+
+    public ConsistentHashRing(List<Pair<K, V>> realNodes, int virtualNodes) {
+        this(realNodes, virtualNodes, Strategy.RING);
+    }
+
+    public ConsistentHashRing(List<Pair<K, V>> realNodes, int virtualNodes, Strategy strategy) {
+        AssertionUtils.notNull(strategy);
+        this.strategy = strategy;
+        this.realNodes = realNodes.toArray(new Pair[0]);
+
+        this.realNodeHashes = new int[this.realNodes.length];
+        for (var i = 0; i < this.realNodes.length; i++) {
+            realNodeHashes[i] = HashUtils.fnvHash(this.realNodes[i].getKey());
+        }
+
+        if (strategy != Strategy.RING) {
+            this.virtualNodeHashes = new int[0];
+            this.virtualNodes = new Pair[0];
+            return;
+        }
+
+        AssertionUtils.isTrue(virtualNodes > 0, "virtualNodes:[{}] must be positive", virtualNodes);
+
+        // 高32位为hash，低32位为添加的顺序，排序后相同的hash只保留最后添加的节点，和TreeMap的put一致
+        var size = this.realNodes.length * virtualNodes;
+        var sortKeys = new long[size];
+        for (var i = 0; i < this.realNodes.length; i++) {
+            var key = this.realNodes[i].getKey().toString();
+            for (var j = 0; j < virtualNodes; j++) {
+                var order = i * virtualNodes + j;
+                var hash = HashUtils.fnvHash(key + "&&VN" + j);
+                sortKeys[order] = ((long) hash << 32) | (order & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(sortKeys);
+
+        var hashes = new int[size];
+        var nodes = new Pair[size];
+        var count = 0;
+        for (var i = 0; i < size; i++) {
+            var hash = (int) (sortKeys[i] >> 32);
+            var node = this.realNodes[(int) sortKeys[i] / virtualNodes];
+            if (count > 0 && hashes[count - 1] == hash) {
+                nodes[count - 1] = node;
+                continue;
+            }
+            hashes[count] = hash;
+            nodes[count] = node;
+            count++;
+        }
+        this.virtualNodeHashes = Arrays.copyOf(hashes, count);
+        this.virtualNodes = Arrays.copyOf(nodes, count);
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public int size() {
+        return realNodes.length;
+    }
+
+    /**
+     * @param key 计算hash的key，会调用toString方法，数字类型的key优先使用getRealNode(long)
+     * @return 路由到的节点，没有节点的时候返回null
+     */
+    public Pair<K, V> getRealNode(Object key) {
+        return getRealNodeByHash(HashUtils.fnvHash(key));
+    }
+
+    /**
+     * 和getRealNode(Long.valueOf(key))的结果相同，但是不会创建对象
+     */
+    public Pair<K, V> getRealNode(long key) {
+        return getRealNodeByHash(HashUtils.fnvHash(key));
+    }
+
+    public Pair<K, V> getRealNode(int key) {
+        return getRealNodeByHash(HashUtils.fnvHash(key));
+    }
+
+    public Pair<K, V> getRealNodeByHash(int hash) {
+        if (realNodes.length == 0) {
+            return null;
+        }
+        switch (strategy) {
+            case RENDEZVOUS:
+                return rendezvous(hash);
+            case JUMP:
+                return realNodes[HashUtils.jumpConsistentHash(hash, realNodes.length)];
+            case RING:
+            default:
+                return ring(hash);
+        }
+    }
+
+    private Pair<K, V> ring(int hash) {
+        var index = Arrays.binarySearch(virtualNodeHashes, hash);
+        if (index < 0) {
+            // 顺时针过去离hash最近的虚拟节点，如果没有比hash大的，则从第一个节点开始
+            index = -index - 1;
+            if (index == virtualNodeHashes.length) {
+                index = 0;
+            }
+        }
+        return virtualNodes[index];
+    }
+
+    private Pair<K, V> rendezvous(int hash) {
+        var maxIndex = 0;
+        var maxWeight = Integer.MIN_VALUE;
+        for (var i = 0; i < realNodeHashes.length; i++) {
+            var weight = HashUtils.murmurMix(hash ^ realNodeHashes[i]);
+            if (weight > maxWeight) {
+                maxWeight = weight;
+                maxIndex = i;
+            }
+        }
+        return realNodes[maxIndex];
+    }
+
+}
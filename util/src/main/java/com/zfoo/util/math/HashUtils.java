@@ -25,6 +25,14 @@ public abstract class HashUtils {
     private static final int P = 16777619;
     private static final int INIT_HASH = (int) 2166136261L;
 
+    /**
+     * 10^18到10^0，long的最大值有19位
+     */
+    private static final long[] POWERS_OF_TEN = {
+            1000000000000000000L, 100000000000000000L, 10000000000000000L, 1000000000000000L, 100000000000000L,
+            10000000000000L, 1000000000000L, 100000000000L, 10000000000L, 1000000000L, 100000000L, 10000000L,
+            1000000L, 100000L, 10000L, 1000L, 100L, 10L, 1L};
+
     /**
      * 改进的32位FNV算法1
      *
@@ -36,12 +44,7 @@ public abstract class HashUtils {
         for (byte b : data) {
             hash = (hash ^ b) * P;
         }
-        hash += hash << 13;
-        hash ^= hash >> 7;
-        hash += hash << 3;
-        hash ^= hash >> 17;
-        hash += hash << 5;
-        return Math.abs(hash);
+        return fnvFinish(hash);
     }
 
     /**
@@ -51,7 +54,58 @@ public abstract class HashUtils {
      * @return hash结果
      */
     public static int fnvHash(Object object) {
-        var hash = object.toString().chars().reduce(INIT_HASH, (left, right) -> (left ^ right) * P);
+        if (object instanceof Long) {
+            return fnvHash(((Long) object).longValue());
+        }
+        if (object instanceof Integer) {
+            return fnvHash(((Integer) object).longValue());
+        }
+        var str = object instanceof CharSequence ? (CharSequence) object : object.toString();
+        var hash = INIT_HASH;
+        for (var i = 0; i < str.length(); i++) {
+            hash = (hash ^ str.charAt(i)) * P;
+        }
+        return fnvFinish(hash);
+    }
+
+    /**
+     * 和fnvHash(Long.toString(value))的结果相同，但是不会创建String，一般用于uid，guildId这种数字类型的key
+     */
+    public static int fnvHash(long value) {
+        var hash = INIT_HASH;
+        // 使用负数计算每一位数字，防止Long.MIN_VALUE取绝对值溢出
+        if (value < 0) {
+            hash = (hash ^ '-') * P;
+        } else {
+            value = -value;
+        }
+
+        if (value == 0) {
+            hash = (hash ^ '0') * P;
+            return fnvFinish(hash);
+        }
+
+        var i = 0;
+        while (value > -POWERS_OF_TEN[i]) {
+            i++;
+        }
+        for (; i < POWERS_OF_TEN.length; i++) {
+            var power = POWERS_OF_TEN[i];
+            var digit = (int) -(value / power);
+            value = value % power;
+            hash = (hash ^ ('0' + digit)) * P;
+        }
+        return fnvFinish(hash);
+    }
+
+    /**
+     * 和fnvHash(Integer.toString(value))的结果相同，但是不会创建String
+     */
+    public static int fnvHash(int value) {
+        return fnvHash((long) value);
+    }
+
+    private static int fnvFinish(int hash) {
         hash += hash << 13;
         hash ^= hash >> 7;
         hash += hash << 3;
@@ -60,4 +114,36 @@ public abstract class HashUtils {
         return Math.abs(hash);
     }
 
+    /**
+     * Jump Consistent Hash（Lamping and Veach），不需要任何内存，时间复杂度O(ln(buckets))
+     * <p>
+     * buckets增加的时候只有1/buckets的key会移动，但是只能在最后增加或者删除桶
+     *
+     * @param key     计算hash的key
+     * @param buckets 桶的数量
+     * @return [0, buckets)
+     */
+    public static int jumpConsistentHash(long key, int buckets) {
+        var b = -1L;
+        var j = 0L;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    /**
+     * MurmurHash3的32位finalizer，把一个int打散成分布均匀的int
+     */
+    public static int murmurMix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.util.concurrent;
+
+import com.zfoo.util.ThreadUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class MailboxExecutorTest {
+
+    private static final ThreadFactory threadFactory = runnable -> new Thread(runnable, "mailbox-test");
+
+    /**
+     * 每个生产者提交的任务必须按照提交的顺序执行
+     */
+    @Test
+    public void orderTest() throws InterruptedException {
+        var producers = 8;
+        var count = 100_000;
+        var executor = new MailboxExecutor(threadFactory);
+        var lastValues = new int[producers];
+        var errors = new AtomicInteger(0);
+        var latch = new CountDownLatch(producers * count);
+
+        for (var i = 0; i < producers; i++) {
+            var producer = i;
+            new Thread(() -> {
+                for (var j = 0; j < count; j++) {
+                    var value = j;
+                    executor.execute(() -> {
+                        // 只有一个消费者线程，不需要同步
+                        if (lastValues[producer] != value) {
+                            errors.incrementAndGet();
+                        }
+                        lastValues[producer] = value + 1;
+                        latch.countDown();
+                    });
+                }
+            }).start();
+        }
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(0, errors.get());
+
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+    @Test
+    public void boundedTest() throws InterruptedException {
+        var executor = new MailboxExecutor(threadFactory, 16, MailboxExecutor.DEFAULT_BATCH_SIZE);
+        var blockLatch = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blockLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        var rejected = 0;
+        for (var i = 0; i < 1024; i++) {
+            try {
+                executor.execute(() -> {
+                });
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+        }
+        // 第一个任务可能还在邮箱中，容量必须严格限制为16，不能被队列的实现放大
+        Assert.assertTrue(rejected >= 1024 - 16);
+        Assert.assertTrue(executor.pendingTasks() <= 16);
+
+        blockLatch.countDown();
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+    /**
+     * 只记录有actorKey的任务，最多保留最近的SAMPLE_SIZE个
+     */
+    @Test
+    public void sampleActorKeysTest() throws InterruptedException {
+        var executor = new MailboxExecutor(threadFactory);
+        var keys = new int[MailboxExecutor.SAMPLE_SIZE];
+        Assert.assertEquals(0, executor.sampleActorKeys(keys));
+
+        var latch = new CountDownLatch(1);
+        executor.execute(ActorRunnable.valueOf(7, () -> {
+        }));
+        executor.execute(() -> {
+        });
+        executor.execute(ActorRunnable.valueOf(9, latch::countDown));
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, executor.sampleActorKeys(keys));
+        Assert.assertEquals(7, keys[0]);
+        Assert.assertEquals(9, keys[1]);
+
+        var fullLatch = new CountDownLatch(1);
+        for (var i = 0; i < MailboxExecutor.SAMPLE_SIZE * 2; i++) {
+            executor.execute(ActorRunnable.valueOf(1, () -> {
+            }));
+        }
+        executor.execute(fullLatch::countDown);
+        Assert.assertTrue(fullLatch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(MailboxExecutor.SAMPLE_SIZE, executor.sampleActorKeys(keys));
+        for (var key : keys) {
+            Assert.assertEquals(1, key);
+        }
+
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+    /**
+     * actor1在等待的时候，同一个线程上actor2的任务继续执行并完成actor1等待的future；actor1后续的任务在等待结束后按顺序执行
+     */
+    @Test
+    public void helpUntilDoneTest() throws InterruptedException {
+        var executor = new MailboxExecutor(threadFactory);
+        var future = new CompletableFuture<String>();
+        List<String> logs = new ArrayList<>();
+        var latch = new CountDownLatch(1);
+
+        executor.execute(ActorRunnable.valueOf(1, () -> {
+            logs.add("a1-start");
+            var helped = executor.helpUntilDone(future, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+            logs.add("a1-end:" + helped + ":" + future.getNow(null));
+        }));
+        executor.execute(ActorRunnable.valueOf(1, () -> logs.add("a2")));
+        executor.execute(ActorRunnable.valueOf(2, () -> {
+            logs.add("b1");
+            future.complete("ok");
+        }));
+        executor.execute(() -> logs.add("unkeyed"));
+        executor.execute(latch::countDown);
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("a1-start", "b1", "a1-end:true:ok", "a2", "unkeyed"), logs);
+
+        // 不是消费者线程，或者当前任务没有actorKey，需要调用者自己阻塞等待
+        Assert.assertFalse(executor.helpUntilDone(new CompletableFuture<>(), System.nanoTime()));
+        var result = new CompletableFuture<Boolean>();
+        executor.execute(() -> result.complete(executor.helpUntilDone(new CompletableFuture<>(), System.nanoTime() + 1000)));
+        Assert.assertEquals(Boolean.FALSE, result.join());
+
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+    /**
+     * 没有actorKey的任务被推迟以后，之后提交的任务不能超过它，等待期间不再执行新的任务
+     */
+    @Test
+    public void helpStopAtUnkeyedTest() throws InterruptedException {
+        var executor = new MailboxExecutor(threadFactory);
+        var future = new CompletableFuture<String>();
+        List<String> logs = new ArrayList<>();
+        var latch = new CountDownLatch(1);
+
+        executor.execute(ActorRunnable.valueOf(1, () -> {
+            logs.add("a1-start");
+            var helped = executor.helpUntilDone(future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200));
+            logs.add("a1-end:" + helped + ":" + future.getNow(null));
+        }));
+        executor.execute(() -> logs.add("unkeyed"));
+        executor.execute(ActorRunnable.valueOf(2, () -> {
+            logs.add("b1");
+            future.complete("ok");
+        }));
+        executor.execute(latch::countDown);
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("a1-start", "a1-end:true:null", "unkeyed", "b1"), logs);
+
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+    /**
+     * 回调包装成带有发起者actorKey的任务，actor1等待的时候actor2的回调和actor2之后的任务按照提交的顺序执行
+     */
+    @Test
+    public void helpKeyedCallbackTest() throws InterruptedException {
+        var executor = new MailboxExecutor(threadFactory);
+        var future = new CompletableFuture<String>();
+        List<String> logs = new ArrayList<>();
+        var latch = new CountDownLatch(1);
+        var callbackKeys = new ArrayList<Integer>();
+
+        executor.execute(ActorRunnable.valueOf(1, () -> {
+            logs.add("a1-start");
+            executor.helpUntilDone(future, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+            logs.add("a1-end");
+        }));
+        executor.execute(ActorRunnable.valueOf(2, () -> {
+            logs.add("b-callback");
+            callbackKeys.add(executor.isRunningActorTask() ? executor.runningActorKey() : -1);
+        }));
+        executor.execute(ActorRunnable.valueOf(2, () -> logs.add("b2")));
+        executor.execute(ActorRunnable.valueOf(3, () -> future.complete("ok")));
+        executor.execute(latch::countDown);
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("a1-start", "b-callback", "b2", "a1-end"), logs);
+        Assert.assertEquals(List.of(2), callbackKeys);
+        Assert.assertFalse(executor.isRunningActorTask());
+
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+    /**
+     * 嵌套的等待中，外层的future完成以后内层不再执行新的任务，只等待自己的future，外层最多多等待内层剩下的超时时间
+     */
+    @Test
+    public void nestedHelpTest() throws InterruptedException {
+        var executor = new MailboxExecutor(threadFactory);
+        var outerFuture = new CompletableFuture<String>();
+        var innerFuture = new CompletableFuture<String>();
+        List<String> logs = new ArrayList<>();
+        var latch = new CountDownLatch(1);
+
+        executor.execute(ActorRunnable.valueOf(1, () -> {
+            logs.add("a1-start");
+            executor.helpUntilDone(outerFuture, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+            logs.add("a1-end:" + outerFuture.getNow(null));
+        }));
+        executor.execute(ActorRunnable.valueOf(2, () -> {
+            logs.add("b1-start");
+            executor.helpUntilDone(innerFuture, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200));
+            logs.add("b1-end:" + innerFuture.getNow(null));
+        }));
+        executor.execute(ActorRunnable.valueOf(3, () -> {
+            logs.add("c1");
+            outerFuture.complete("ok");
+        }));
+        executor.execute(ActorRunnable.valueOf(4, () -> logs.add("d1")));
+        executor.execute(latch::countDown);
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("a1-start", "b1-start", "c1", "b1-end:null", "a1-end:ok", "d1"), logs);
+
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+    /**
+     * 等待超时后返回，future依然没有完成
+     */
+    @Test
+    public void helpTimeoutTest() throws InterruptedException {
+        var executor = new MailboxExecutor(threadFactory);
+        var future = new CompletableFuture<String>();
+        var result = new CompletableFuture<Boolean>();
+        executor.execute(ActorRunnable.valueOf(1, () -> {
+            executor.helpUntilDone(future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100));
+            result.complete(future.isDone());
+        }));
+        Assert.assertEquals(Boolean.FALSE, result.join());
+
+        ThreadUtils.shutdown(executor);
+        Assert.assertTrue(executor.isTerminated());
+    }
+
+}
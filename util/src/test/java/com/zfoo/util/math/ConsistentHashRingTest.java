@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 The zfoo Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.zfoo.util.math;
+
+import com.zfoo.protocol.model.Pair;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author godotg
+ * @version 3.0
+ */
+public class ConsistentHashRingTest {
+
+    private static final int VIRTUAL_NODES = 200;
+
+    private static List<Pair<String, Long>> nodes(int size) {
+        var nodes = new ArrayList<Pair<String, Long>>();
+        for (var i = 0; i < size; i++) {
+            nodes.add(new Pair<>("192.168.0." + i + ":9000", (long) i));
+        }
+        return nodes;
+    }
+
+    /**
+     * 数字类型的hash和调用toString后的hash必须相同，否则升级后同一个uid会路由到不同的服务器
+     */
+    @Test
+    public void fnvHashTest() {
+        long[] values = {0, 1, -1, 9, 10, 99, 100, 123456789, -123456789, Integer.MAX_VALUE, Integer.MIN_VALUE
+                , Long.MAX_VALUE, Long.MIN_VALUE, 1000000000000000000L, 999999999999999999L};
+        for (var value : values) {
+            Assert.assertEquals(HashUtils.fnvHash(String.valueOf(value)), HashUtils.fnvHash(value));
+            Assert.assertEquals(HashUtils.fnvHash(String.valueOf(value)), HashUtils.fnvHash(Long.valueOf(value)));
+        }
+        for (var i = 0; i < 1_000_000; i++) {
+            var value = RandomUtils.randomLong();
+            Assert.assertEquals(HashUtils.fnvHash(String.valueOf(value)), HashUtils.fnvHash(value));
+            var intValue = RandomUtils.randomInt();
+            Assert.assertEquals(HashUtils.fnvHash(String.valueOf(intValue)), HashUtils.fnvHash(intValue));
+        }
+    }
+
+    /**
+     * RING策略的路由结果必须和ConsistentHash完全相同
+     */
+    @Test
+    public void ringTest() {
+        for (var size = 1; size <= 16; size++) {
+            var nodes = nodes(size);
+            var consistentHash = new ConsistentHash<>(nodes, VIRTUAL_NODES);
+            var ring = new ConsistentHashRing<>(nodes, VIRTUAL_NODES);
+            for (var i = 0; i < 100_000; i++) {
+                var key = RandomUtils.randomLong();
+                Assert.assertSame(consistentHash.getRealNode(key), ring.getRealNode(key));
+            }
+        }
+    }
+
+    /**
+     * 增加一个节点以后，只有一部分key会移动到新的节点，其它的key不会变
+     */
+    @Test
+    public void strategyTest() {
+        for (var strategy : ConsistentHashRing.Strategy.values()) {
+            var ring = new ConsistentHashRing<>(nodes(8), VIRTUAL_NODES, strategy);
+            var newRing = new ConsistentHashRing<>(nodes(9), VIRTUAL_NODES, strategy);
+            var counts = new HashMap<Long, Integer>();
+            var moved = 0;
+            var total = 100_000;
+            for (var key = 0L; key < total; key++) {
+                var node = ring.getRealNode(key).getValue();
+                var newNode = newRing.getRealNode(key).getValue();
+                counts.merge(node, 1, Integer::sum);
+                if (!node.equals(newNode)) {
+                    moved++;
+                    Assert.assertEquals(8L, (long) newNode);
+                }
+            }
+            Assert.assertEquals(8, counts.size());
+            Assert.assertTrue(moved < total / 4);
+            System.out.println(strategy + " moved:" + moved + " " + counts);
+        }
+    }
+
+    @Ignore
+    @Test
+    public void benchmarkTest() {
+        var nodes = nodes(16);
+        var consistentHash = new ConsistentHash<>(nodes, VIRTUAL_NODES);
+        var ring = new ConsistentHashRing<>(nodes, VIRTUAL_NODES);
+        var rendezvous = new ConsistentHashRing<>(nodes, VIRTUAL_NODES, ConsistentHashRing.Strategy.RENDEZVOUS);
+        var jump = new ConsistentHashRing<>(nodes, VIRTUAL_NODES, ConsistentHashRing.Strategy.JUMP);
+        var count = 10_000_000;
+
+        for (var n = 0; n < 5; n++) {
+            var sum = 0L;
+            var startTime = System.currentTimeMillis();
+            for (var i = 0; i < count; i++) {
+                sum += consistentHash.getRealNode((long) i).getValue();
+            }
+            System.out.println("ConsistentHash TreeMap:" + (System.currentTimeMillis() - startTime) + "ms " + sum);
+
+            sum = 0L;
+            startTime = System.currentTimeMillis();
+            for (var i = 0; i < count; i++) {
+                sum += ring.getRealNode((long) i).getValue();
+            }
+            System.out.println("ConsistentHashRing RING:" + (System.currentTimeMillis() - startTime) + "ms " + sum);
+
+            sum = 0L;
+            startTime = System.currentTimeMillis();
+            for (var i = 0; i < count; i++) {
+                sum += rendezvous.getRealNode((long) i).getValue();
+            }
+            System.out.println("ConsistentHashRing RENDEZVOUS:" + (System.currentTimeMillis() - startTime) + "ms " + sum);
+
+            sum = 0L;
+            startTime = System.currentTimeMillis();
+            for (var i = 0; i < count; i++) {
+                sum += jump.getRealNode((long) i).getValue();
+            }
+            System.out.println("ConsistentHashRing JUMP:" + (System.currentTimeMillis() - startTime) + "ms " + sum);
+        }
+    }
+
+}